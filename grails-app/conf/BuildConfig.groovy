@@ -118,6 +118,28 @@ grails.project.dependency.resolution = {
                     'mockito-core',
             )
         }
+
+        compile(
+                // Parquet cost and usage reports
+                'org.apache.parquet:parquet-hadoop:1.11.1',
+                'org.apache.hadoop:hadoop-common:2.10.1'
+
+        ) { // Only the Parquet file reader and codecs are used, exclude the rest of Hadoop
+            excludes(
+                    'brotli-codec',
+                    'jdk.tools',
+                    'junit',
+                    'mockito-core',
+                    'slf4j-log4j12',
+                    'servlet-api',
+                    'jetty',
+                    'jetty-util',
+                    'jersey-core',
+                    'jersey-server',
+                    'jersey-json',
+                    'jsp-api',
+            )
+        }
     }
 
     plugins {
@@ -18,10 +18,14 @@
 package com.netflix.ice.basic;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.lang.time.StopWatch;
 import org.joda.time.DateTime;
@@ -33,10 +37,12 @@ import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.Config.WorkBucketConfig;
 import com.netflix.ice.common.ConsolidateType;
 import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.RollupCube;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.reader.AggregateType;
 import com.netflix.ice.reader.DataManager;
 import com.netflix.ice.reader.InstanceMetricsService;
+import com.netflix.ice.reader.MappedDataFile;
 import com.netflix.ice.reader.ReadOnlyData;
 import com.netflix.ice.reader.TagGroupManager;
 import com.netflix.ice.reader.TagLists;
@@ -57,6 +63,11 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, ReadOnlyDa
     protected InstanceMetricsService instanceMetricsService;
     protected int numUserTags;
     protected boolean forReservations;
+    protected boolean mapped;
+    // Rollup cubes of the non-resource data that can answer queries that don't need all the tags
+    protected Map<RollupCube, BasicDataManager> rollups = Maps.newEnumMap(RollupCube.class);
+    // Results of recent queries. Shared by all the data managers, null if disabled.
+    protected QueryResultCache queryCache = null;
     
     public BasicDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress, int numUserTags,
     		int monthlyCacheSize, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService, InstanceMetricsService instanceMetricsService) {
@@ -64,16 +75,43 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, ReadOnlyDa
         this.instanceMetricsService = instanceMetricsService;
         this.numUserTags = numUserTags;
         this.forReservations = false;
+        this.mapped = false;
     }
     	
     public BasicDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress, int numUserTags,
-    		int monthlyCacheSize, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService, InstanceMetricsService instanceMetricsService, boolean forReservations) {
+    		int monthlyCacheSize, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService, InstanceMetricsService instanceMetricsService, boolean forReservations,
+    		boolean mapped) {
     	super(startDate, dbName, consolidateType, tagGroupManager, compress, monthlyCacheSize, workBucketConfig, accountService, productService);
         this.instanceMetricsService = instanceMetricsService;
         this.numUserTags = numUserTags;
         this.forReservations = forReservations;
+        // Reservation data is filtered down to a subset of the columns when loaded, so always keep it on the heap
+        this.mapped = mapped && !forReservations;
     }
     	
+    public void addRollup(RollupCube cube, BasicDataManager dataManager) {
+    	rollups.put(cube, dataManager);
+    }
+    
+    public void setQueryCache(QueryResultCache queryCache) {
+    	this.queryCache = queryCache;
+    }
+    
+    @Override
+    public void setSharedCache(SharedDataCache sharedCache) {
+    	super.setSharedCache(sharedCache);
+    	for (BasicDataManager rollup: rollups.values())
+    		rollup.setSharedCache(sharedCache);
+    }
+    
+    @Override
+    public boolean refresh() {
+    	boolean result = super.refresh();
+    	for (BasicDataManager rollup: rollups.values())
+    		result |= rollup.refresh();
+    	return result;
+    }
+    
 	public int size(DateTime start) throws ExecutionException {
 		ReadOnlyData data = getReadOnlyData(start);
 		return data.getTagGroups().size();
@@ -90,6 +128,26 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, ReadOnlyDa
 	    result.deserialize(accountService, productService, in, forReservations);
 	    return result;
     }
+    
+    @Override
+    protected ReadOnlyData loadDataFromFile(File file) throws Exception {
+    	if (!mapped)
+    		return super.loadDataFromFile(file);
+    	
+        logger.info("trying to load mapped data from " + file);
+    	ReadOnlyData result = MappedDataFile.load(file, compress, numUserTags, accountService, productService);
+        logger.info("done loading mapped data from " + file);
+        return result;
+    }
+    
+    @Override
+    protected synchronized boolean downloadFile(File file) {
+    	boolean downloaded = super.downloadFile(file);
+    	// A new or removed data file leaves the mapped file stale
+    	if (mapped && (downloaded || !file.exists()))
+    		MappedDataFile.delete(file);
+    	return downloaded;
+    }
             
     private double adjustForUsageUnit(UsageUnit usageUnit, UsageType usageType, double value) {
     	double multiplier = 1.0;
@@ -112,28 +170,108 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, ReadOnlyDa
     	return value * multiplier;    		
     }
 
-    private double aggregate(List<Integer> columns, List<TagGroup> tagGroups, UsageUnit usageUnit, double[] data) {
-		double result = 0.0;
-		if (data != null) {
-	        for (int i = 0; i < columns.size(); i++) {
-	        	double d = data[columns.get(i)];
-	        	if (d != 0.0)
-	        		result += adjustForUsageUnit(usageUnit, tagGroups.get(i).usageType, d);
-	        }
+    /*
+     * Columns of one period of data resolved to the groups they contribute to. Entries are ordered by
+     * group, so the columns for group g are the entries from groupStart[g] up to groupStart[g+1].
+     */
+    private class GroupedColumns {
+    	final int[] columns;
+    	final double[] multipliers;
+    	final int[] groupStart;
+    	
+    	GroupedColumns(ReadOnlyData data, List<Tag> tags, boolean[] failed, Map<Tag, TagLists> tagListsMap, UsageUnit usageUnit, TagType groupBy, int userTagGroupByIndex) {
+            List<Integer> columnIndecies = Lists.newArrayList();
+            List<TagGroup> tagGroups = Lists.newArrayList();
+            groupStart = new int[tags.size() + 1];
+            for (int g = 0; g < tags.size(); g++) {
+            	Tag tag = tags.get(g);
+            	groupStart[g] = columnIndecies.size();
+            	// Leave the groups we couldn't get data for empty
+            	if (!failed[g])
+            		getColumns(groupBy, tag, userTagGroupByIndex, data, tagListsMap.get(tag), columnIndecies, tagGroups);
+            }
+            groupStart[tags.size()] = columnIndecies.size();
+            
+            columns = new int[columnIndecies.size()];
+            multipliers = new double[columnIndecies.size()];
+            for (int i = 0; i < columns.length; i++) {
+            	columns[i] = columnIndecies.get(i);
+            	multipliers[i] = adjustForUsageUnit(usageUnit, tagGroups.get(i).usageType, 1.0);
+            }
+    	}
+    	
+    	int size(int fromGroup, int toGroup) {
+    		return groupStart[toGroup] - groupStart[fromGroup];
+    	}
+    }
+    
+    /*
+     * Aggregates a range of groups over the hours of one period. Splits the group range across the
+     * fork-join pool when there are enough values to read. Each group is summed by a single task in
+     * column order, so the results don't depend on how the work was split.
+     */
+    private static class GroupAggregator extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final boolean isCost;
+    	private final ReadOnlyData data;
+    	private final GroupedColumns columns;
+    	private final double[][] results;
+    	private final int from;
+    	private final int to;
+    	private final int fromGroup;
+    	private final int toGroup;
+    	
+    	GroupAggregator(boolean isCost, ReadOnlyData data, GroupedColumns columns, double[][] results, int from, int to, int fromGroup, int toGroup) {
+    		this.isCost = isCost;
+    		this.data = data;
+    		this.columns = columns;
+    		this.results = results;
+    		this.from = from;
+    		this.to = to;
+    		this.fromGroup = fromGroup;
+    		this.toGroup = toGroup;
+    	}
+    	
+		@Override
+		protected void compute() {
+			int count = getCount(data, results.length == 0 ? 0 : results[0].length, from, to);
+			if (toGroup - fromGroup > 1 && (long) columns.size(fromGroup, toGroup) * count > parallelThreshold) {
+				// Split where half the columns are on either side
+				int half = columns.groupStart[fromGroup] + columns.size(fromGroup, toGroup) / 2;
+				int mid = fromGroup + 1;
+				while (mid < toGroup - 1 && columns.groupStart[mid + 1] <= half)
+					mid++;
+				invokeAll(new GroupAggregator(isCost, data, columns, results, from, to, fromGroup, mid),
+						new GroupAggregator(isCost, data, columns, results, from, to, mid, toGroup));
+				return;
+			}
+			
+			for (int i = 0; i < count; i++) {
+	        	ReadOnlyData.Data fromData = data.getData(from + i);
+	        	if (fromData == null)
+	        		continue;
+	        	for (int g = fromGroup; g < toGroup; g++) {
+	        		double result = 0.0;
+	        		for (int j = columns.groupStart[g]; j < columns.groupStart[g + 1]; j++) {
+	                	double d = isCost ? fromData.getCost(columns.columns[j]) : fromData.getUsage(columns.columns[j]);
+	                	if (d != 0.0)
+	                		result += d * columns.multipliers[j];
+	        		}
+	        		results[g][to + i] = result;
+	        	}
+			}
 		}
-        return result;
-	}
+    }
+    
+    // Number of values to read before the group-by is split across the fork-join pool
+    protected static int parallelThreshold = 1 << 16;
+    
+    private static int getCount(ReadOnlyData data, int resultLength, int from, int to) {
+    	return Math.max(0, Math.min(resultLength - to, data.getNum() - from));
+    }
+    
 
-    private int aggregate(boolean isCost, ReadOnlyData data, int from, int to, double[] result, List<Integer> columns, List<TagGroup> tagGroups, UsageUnit usageUnit) {		
-        int fromIndex = from;
-        for (int resultIndex = to; resultIndex < result.length && fromIndex < data.getNum(); resultIndex++) {
-        	ReadOnlyData.Data fromData = data.getData(fromIndex++);
-        	if (fromData != null)
-        		result[resultIndex] = aggregate(columns, tagGroups, usageUnit, isCost ? fromData.getCost() : fromData.getUsage());
-        }
-        return fromIndex - from;
-	}
-	
 	private Map<Tag, double[]> processResult(boolean isCost, Map<Tag, double[]> data, TagType groupBy, AggregateType aggregate, List<UserTagKey> tagKeys) {
 		Map<Tag, double[]> result = Maps.newTreeMap();
 		for (Tag t: data.keySet()) {
@@ -152,33 +290,40 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, ReadOnlyDa
 		return result;
 	}
 
+    private boolean hasData(double[] d) {
+    	for (int i = 0; i < d.length; i++) {
+    		if (d[i] != 0.0)
+    			return true;
+    	}
+    	return false;
+    }
+    
+    private void addData(double[] from, double[] to) {
+    	for (int i = 0; i < to.length; i++) {
+    		to[i] += from[i];
+    	}
+    }
+
     /*
-     * Aggregate all the data matching the tags in tagLists at requested time for the specified to and from indices.
+     * Aggregate all the groups in one pass over each period of data. The columns for each group are
+     * resolved once per period, then the hours are scanned once for all of the groups.
+     * Groups that fail to get their data are flagged in failed[].
      */
-    private int aggregateData(boolean isCost, DateTime time, TagLists tagLists, int from, int to, double[] result, UsageUnit usageUnit, TagType groupBy, Tag tag, int userTagGroupByIndex) throws ExecutionException {
-        ReadOnlyData data = getReadOnlyData(time);
-
-        // Figure out which columns we're going to aggregate
-        List<Integer> columnIndecies = Lists.newArrayList();
-        List<TagGroup> tagGroups = Lists.newArrayList();
-        
-    	getColumns(groupBy, tag, userTagGroupByIndex, data, tagLists, columnIndecies, tagGroups);
-    	return aggregate(isCost, data, from, to, result, columnIndecies, tagGroups, usageUnit);
-    }
-        
-    private double[] getData(boolean isCost, Interval interval, TagLists tagLists, UsageUnit usageUnit, TagType groupBy, Tag tag, int userTagGroupByIndex) throws ExecutionException {
+    private double[][] getGroupedData(boolean isCost, Interval interval, List<Tag> tags, boolean[] failed, Map<Tag, TagLists> tagListsMap, UsageUnit usageUnit, TagType groupBy, int userTagGroupByIndex) {
     	Interval adjusted = getAdjustedInterval(interval);
         DateTime start = adjusted.getStart();
         DateTime end = adjusted.getEnd();
 
-        double[] result = new double[getSize(interval)];
+        double[][] results = new double[tags.size()][getSize(interval)];
 
         do {
             int resultIndex = getResultIndex(start, interval);
-            int fromIndex = getFromIndex(start, interval);            
-            int count = aggregateData(isCost, start, tagLists, fromIndex, resultIndex, result, usageUnit, groupBy, tag, userTagGroupByIndex);
-            fromIndex += count;
-            resultIndex += count;
+            int fromIndex = getFromIndex(start, interval);
+            ReadOnlyData data = getReadOnlyData(start, interval, tags, failed);
+            if (data != null) {
+	            GroupedColumns columns = new GroupedColumns(data, tags, failed, tagListsMap, usageUnit, groupBy, userTagGroupByIndex);
+	            ForkJoinPool.commonPool().invoke(new GroupAggregator(isCost, data, columns, results, fromIndex, resultIndex, 0, tags.size()));
+            }
 
             if (consolidateType  == ConsolidateType.hourly)
                 start = start.plusMonths(1);
@@ -189,55 +334,64 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, ReadOnlyDa
         }
         while (start.isBefore(end));
         
-        return result;
+        return results;
     }
     
-    private boolean hasData(double[] d) {
-    	for (int i = 0; i < d.length; i++) {
-    		if (d[i] != 0.0)
-    			return true;
+    /*
+     * Get the data for a period on behalf of the groups. If the load fails, each group that
+     * still needs the data tries it in turn as it would if the groups were queried separately,
+     * so only the groups whose load failed are dropped. Returns null if every attempt failed.
+     */
+    private ReadOnlyData getReadOnlyData(DateTime start, Interval interval, List<Tag> tags, boolean[] failed) {
+    	for (int g = 0; g < tags.size(); g++) {
+    		if (failed[g])
+    			continue;
+    		try {
+    			return getReadOnlyData(start);
+    		}
+            catch (ExecutionException e) {
+                logger.error("error in getData for " + tags.get(g) + " " + interval, e);
+                failed[g] = true;
+            }
     	}
-    	return false;
+    	return null;
     }
     
-    private void addData(double[] from, double[] to) {
-    	for (int i = 0; i < to.length; i++) {
-    		to[i] += from[i];
-    	}
-    }
-
     private Map<Tag, double[]> getGroupedData(boolean isCost, Interval interval, Map<Tag, TagLists> tagListsMap, UsageUnit usageUnit, TagType groupBy, int userTagGroupByIndex) {
         Map<Tag, double[]> rawResult = Maps.newTreeMap();
 //        StopWatch sw = new StopWatch();
 //        sw.start();
         
+        List<Tag> tags = Lists.newArrayList(tagListsMap.keySet());
+        if (tags.isEmpty())
+        	return rawResult;
+        boolean[] failed = new boolean[tags.size()];
+        double[][] results = getGroupedData(isCost, interval, tags, failed, tagListsMap, usageUnit, groupBy, userTagGroupByIndex);
+        
         // For each of the groupBy values
-        for (Tag tag: tagListsMap.keySet()) {
-            try {
-                //logger.info("Tag: " + tag + ", TagLists: " + tagListsMap.get(tag));
-                double[] data = getData(isCost, interval, tagListsMap.get(tag), usageUnit, groupBy, tag, userTagGroupByIndex);
-                
-            	// Check for values in the data array and ignore if all zeros
-                if (hasData(data)) {
-	                if (groupBy == TagType.Tag) {
-	                	Tag userTag = tag.name.isEmpty() ? UserTag.get(UserTag.none) : tag;
-	                	
-	        			if (rawResult.containsKey(userTag)) {
-	        				// aggregate current data with the one already in the map
-	        				addData(data, rawResult.get(userTag));
-	        			}
-	        			else {
-	        				// Put in map using the user tag
-	        				rawResult.put(userTag, data);
-	        			}
-	                }
-	                else {
-	                	rawResult.put(tag, data);
-	                }
+        for (int i = 0; i < tags.size(); i++) {
+        	if (failed[i])
+        		continue;
+        	Tag tag = tags.get(i);
+            double[] data = results[i];
+            
+        	// Check for values in the data array and ignore if all zeros
+            if (hasData(data)) {
+                if (groupBy == TagType.Tag) {
+                	Tag userTag = tag.name.isEmpty() ? UserTag.get(UserTag.none) : tag;
+                	
+        			if (rawResult.containsKey(userTag)) {
+        				// aggregate current data with the one already in the map
+        				addData(data, rawResult.get(userTag));
+        			}
+        			else {
+        				// Put in map using the user tag
+        				rawResult.put(userTag, data);
+        			}
+                }
+                else {
+                	rawResult.put(tag, data);
                 }
-            }
-            catch (ExecutionException e) {
-                logger.error("error in getData for " + tag + " " + interval, e);
             }
         }
 //        sw.stop();
@@ -248,15 +402,104 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, ReadOnlyDa
     private Map<Tag, double[]> getRawData(boolean isCost, Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, List<Operation.Identity.Value> exclude, UsageUnit usageUnit, int userTagGroupByIndex) {
     	//logger.info("Entered with groupBy: " + groupBy + ", userTagGroupByIndex: " + userTagGroupByIndex + ", tagLists: " + tagLists);
     	Map<Tag, TagLists> tagListsMap = tagGroupManager.getTagListsMap(interval, tagLists, groupBy, exclude, userTagGroupByIndex);
-    	return getGroupedData(isCost, interval, tagListsMap, usageUnit, groupBy, userTagGroupByIndex);
+    	BasicDataManager source = getRollup(interval, tagListsMap.values(), groupBy, usageUnit);
+    	return source.getGroupedData(isCost, interval, tagListsMap, usageUnit, groupBy, userTagGroupByIndex);
+    }
+    
+    /*
+     * Get the smallest rollup cube that can answer the query. Returns this data manager if none can.
+     */
+    protected BasicDataManager getRollup(Interval interval, Collection<TagLists> tagLists, TagType groupBy, UsageUnit usageUnit) {
+    	// Usage unit conversions need the usage type
+    	if (rollups.isEmpty() || (usageUnit != null && usageUnit != UsageUnit.Instances))
+    		return this;
+    	if (groupBy != null && groupBy != TagType.TagKey && !isRollupTagType(groupBy))
+    		return this;
+    	
+    	for (RollupCube cube: RollupCube.values()) {
+    		BasicDataManager rollup = rollups.get(cube);
+    		if (rollup == null || !canAnswer(cube, groupBy, tagLists))
+    			continue;
+    		if (rollup.hasDataFor(this, interval)) {
+    			logger.debug("answer query with rollup " + cube);
+    			return rollup;
+    		}
+    	}
+    	return this;
+    }
+    
+    private static boolean isRollupTagType(TagType tagType) {
+    	for (RollupCube cube: RollupCube.values()) {
+    		if (cube.keeps(tagType))
+    			return true;
+    	}
+    	return false;
+    }
+    
+    private static boolean hasValues(List<?> tags) {
+    	return tags != null && tags.size() > 0;
+    }
+    
+    /*
+     * A cube can answer the query if the grouping and all the filters are on tags kept in the cube
+     */
+    private static boolean canAnswer(RollupCube cube, TagType groupBy, Collection<TagLists> tagLists) {
+    	if (groupBy != null && groupBy != TagType.TagKey && !cube.keeps(groupBy))
+    		return false;
+    	for (TagLists tl: tagLists) {
+    		if ((hasValues(tl.accounts) && !cube.keeps(TagType.Account)) ||
+    				(hasValues(tl.regions) && !cube.keeps(TagType.Region)) ||
+    				(hasValues(tl.zones) && !cube.keeps(TagType.Zone)) ||
+    				(hasValues(tl.products) && !cube.keeps(TagType.Product)) ||
+    				(hasValues(tl.operations) && !cube.keeps(TagType.Operation)) ||
+    				(hasValues(tl.usageTypes) && !cube.keeps(TagType.UsageType)) ||
+    				hasValues(tl.resourceGroups))
+    			return false;
+    	}
+    	return true;
+    }
+    
+    /*
+     * Check that the rollup has been written for all the periods the source data has over the interval.
+     * Rollups are only written by processors that support them, so data from earlier runs may not have one yet.
+     * The processor writes each rollup right after its source file, so a rollup that isn't older than
+     * its source covers the same periods. Only the file times are compared so neither file gets loaded.
+     */
+    private boolean hasDataFor(BasicDataManager source, Interval interval) {
+    	Interval adjusted = getAdjustedInterval(interval);
+        DateTime start = adjusted.getStart();
+        DateTime end = adjusted.getEnd();
+        do {
+        	long sourceModified = source.getLastModified(start);
+        	if (sourceModified > 0 && getLastModified(start) < sourceModified)
+        		return false;
+        	
+            if (consolidateType == ConsolidateType.daily)
+                start = start.plusYears(1);
+            else
+                break;
+        }
+        while (start.isBefore(end));
+        return true;
     }
 
 	@Override
     protected Map<Tag, double[]> getData(boolean isCost, Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, List<Operation.Identity.Value> exclude, UsageUnit usageUnit, int userTagGroupByIndex, List<UserTagKey> tagKeys) {
     	StopWatch sw = new StopWatch();
     	sw.start();
+    	QueryResultCache.Key key = null;
+    	if (queryCache != null) {
+    		key = queryCache.getKey(dbName, isCost, interval, tagLists, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex, tagKeys);
+    		Map<Tag, double[]> cached = queryCache.get(key);
+    		if (cached != null) {
+    	        logger.debug("getData cached result elapsed time: " + sw);
+    			return cached;
+    		}
+    	}
     	Map<Tag, double[]> rawResult = getRawData(isCost, interval, tagLists, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex);
         Map<Tag, double[]> result = processResult(isCost, rawResult, groupBy, aggregate, tagKeys);
+        if (key != null)
+        	queryCache.put(key, result);
         logger.debug("getData elapsed time: " + sw);
         return result;
     }
@@ -91,6 +91,8 @@ public class BasicManagers extends Poller implements Managers {
     private Long lastPollMillis = 0L;
 	private ExecutorService pool;
 	private ExecutorService refreshPool;
+	private QueryResultCache queryCache = null;
+	private SharedDataCache dataCache = null;
     
     BasicManagers(boolean compress) {
     	this.compress = compress;
@@ -98,6 +100,8 @@ public class BasicManagers extends Poller implements Managers {
     
     public void shutdown() {
     	lastProcessedPoller.shutdown();
+    	if (dataCache != null)
+    		dataCache.shutdown();
     }
 
     public void init() {
@@ -105,6 +109,10 @@ public class BasicManagers extends Poller implements Managers {
         lastProcessedPoller = new LastProcessedPoller(config.startDate, config.workBucketConfig);
         pool = Executors.newFixedThreadPool(config.numthreads);
         refreshPool = Executors.newFixedThreadPool(config.numthreads);
+        if (config.queryCacheSizeMB > 0)
+        	queryCache = new QueryResultCache(config.queryCacheSizeMB * 1024L * 1024L);
+        if (config.dataCacheSizeMB > 0)
+        	dataCache = new SharedDataCache(config.dataCacheSizeMB * 1024L * 1024L, config.numthreads);
                 		
         doWork();
         start(1*60, 1*60, false);
@@ -145,13 +153,18 @@ public class BasicManagers extends Poller implements Managers {
             instancesService = new InstancesService(wbc.localDir, wbc.workS3BucketName, wbc.workS3BucketPrefix, config.accountService, config.productService);
     	}
     	
+    	if (queryCache != null)
+    		logger.info(queryCache.getStatistics());
+    	if (dataCache != null)
+    		logger.info(dataCache.getStatistics());
+    	
     	if (lastPollMillis >= lastProcessedPoller.getLastProcessedMillis())
     		return;	// nothing to do
     	
        	lastPollMillis = lastProcessedPoller.getLastProcessedMillis();
        	    	
     	// Refresh all the data manager caches
-    	refreshDataManagers(wbc);
+    	List<Future<Void>> refreshes = refreshDataManagers(wbc);
     	    	
     	
         logger.info("trying to find new tag group and data managers...");
@@ -198,11 +211,27 @@ public class BasicManagers extends Poller implements Managers {
             	int numUserTags = product == null ? 0 : config.userTagKeys.size();
             		
 	               
-                dataManagers.put(key, new BasicDataManager(config.startDate, partialDbName, consolidateType, tagGroupManager, compress, numUserTags,
-                		config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService, instanceMetricsService, forReservations));
+                BasicDataManager dataManager = new BasicDataManager(config.startDate, partialDbName, consolidateType, tagGroupManager, compress, numUserTags,
+                		config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService, instanceMetricsService, forReservations,
+                		config.mappedDataFiles);
+                if (product == null && consolidateType != ConsolidateType.hourly) {
+                	// The processor writes rollup cubes for the non-resource summary data
+                	for (RollupCube cube: RollupCube.values()) {
+                		dataManager.addRollup(cube, new BasicDataManager(config.startDate, cube.getProdName(partialDbName), consolidateType, tagGroupManager, compress, 0,
+                        		config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService, instanceMetricsService, false,
+                        		config.mappedDataFiles));
+                	}
+                }
+                dataManager.setQueryCache(queryCache);
+                if (dataCache != null)
+                	dataManager.setSharedCache(dataCache);
+                dataManagers.put(key, dataManager);
                 if (loadTagCoverage && consolidateType != ConsolidateType.hourly) {
-    	            tagCoverageManagers.put(key, new TagCoverageDataManager(config.startDate, "coverage_" + partialDbName, consolidateType, tagGroupManager, compress, config.userTagKeys,
-            				config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService));
+                	TagCoverageDataManager tagCoverageManager = new TagCoverageDataManager(config.startDate, "coverage_" + partialDbName, consolidateType, tagGroupManager, compress, config.userTagKeys,
+            				config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService);
+                	if (dataCache != null)
+                		tagCoverageManager.setSharedCache(dataCache);
+    	            tagCoverageManagers.put(key, tagCoverageManager);
                 }
             }
         }
@@ -212,21 +241,49 @@ public class BasicManagers extends Poller implements Managers {
             this.tagGroupManagers = tagGroupManagers;
             this.products = products;
         }
+        
+        if (queryCache != null) {
+        	// Drop cached query results once the new data has been loaded
+        	try {
+	        	for (Future<Void> f: refreshes)
+	        		f.get();
+        	}
+        	catch (Exception e) {
+        		logger.error("error waiting for data refresh", e);
+        	}
+        	queryCache.invalidate();
+        }
     }
     
-    private void refreshDataManagers(WorkBucketConfig wbc) {
+    private List<Future<Void>> refreshDataManagers(WorkBucketConfig wbc) {
+    	List<Future<Void>> futures = Lists.newArrayList();
     	for (DataCache d: tagGroupManagers.values()) {
-    		refresh(d);
+    		futures.add(refresh(d));
     	}
     	for (DataCache d: dataManagers.values()) {
-    		refresh(d);
+    		futures.add(refresh(d));
     	}
     	for (DataCache d: tagCoverageManagers.values()) {
-    		refresh(d);
+    		futures.add(refresh(d));
     	}
     	
-    	refresh(instancesService);
-    	refresh(instanceMetricsService);
+    	futures.add(refresh(instancesService));
+    	futures.add(refresh(instanceMetricsService));
+    	return futures;
+    }
+    
+    /**
+     * Statistics for the query result cache, null if the cache is disabled
+     */
+    public String getQueryCacheStatistics() {
+    	return queryCache == null ? null : queryCache.getStatistics();
+    }
+    
+    /**
+     * Statistics for the shared data file cache, null if each data manager has its own cache
+     */
+    public String getDataCacheStatistics() {
+    	return dataCache == null ? null : dataCache.getStatistics();
     }
 
     private Future<Void> refresh(final DataCache dataCache) {
@@ -17,16 +17,23 @@
  */
 package com.netflix.ice.basic;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.ResourceService;
 import com.netflix.ice.common.TagConfig;
@@ -86,6 +93,16 @@ public class BasicResourceService extends ResourceService {
      */
     private Map<String, List<TagMappers>> tagMappers;
     
+    // Sorted start times of all the tag mappers for each payer account
+    private Map<String, long[]> tagMapperStartMillis;
+    
+    /**
+     * Resolved resource groups keyed by the line item tag values before mapping. Most line items share
+     * a small number of distinct tag value combinations, so this saves running the tag mappers for every line.
+     */
+    private final Cache<ResourceGroupKey, ResourceGroup> resourceGroupCache;
+    private static final int resourceGroupCacheSize = 100000;
+    
     public BasicResourceService(ProductService productService, String[] customTags, boolean includeReservationIds) {
 		super();
 		this.includeReservationIds = includeReservationIds;
@@ -106,6 +123,62 @@ public class BasicResourceService extends ResourceService {
 		this.tagConfigs = Maps.newHashMap();
 		this.tagValuesInverted = Maps.newHashMap();
 		this.tagMappers = Maps.newHashMap();
+		this.tagMapperStartMillis = Maps.newHashMap();
+		this.resourceGroupCache = CacheBuilder.newBuilder()
+				.maximumSize(resourceGroupCacheSize)
+				.recordStats()
+				.build();
+	}
+	
+	/**
+	 * Key for the resource group cache. Holds everything the resolved resource group depends on:
+	 * the payer account selects the tag mappers, the account is used by the mapper filters, the tag mapper
+	 * start time identifies the set of mappers in effect, and the default values are applied to any tags
+	 * left empty by the mappers.
+	 */
+	private static class ResourceGroupKey {
+		private final String payerAccountId;
+		private final String accountId;
+		private final long tagMapperStartMillis;
+		private final String[] tags;
+		private final String[] defaults;
+		private final int hashCode;
+		
+		ResourceGroupKey(String payerAccountId, String accountId, long tagMapperStartMillis, String[] tags, String[] defaults) {
+			this.payerAccountId = payerAccountId;
+			this.accountId = accountId;
+			this.tagMapperStartMillis = tagMapperStartMillis;
+			this.tags = tags;
+			this.defaults = defaults;
+			this.hashCode = Objects.hash(payerAccountId, accountId, tagMapperStartMillis, Arrays.hashCode(tags), Arrays.hashCode(defaults));
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof ResourceGroupKey))
+				return false;
+			ResourceGroupKey other = (ResourceGroupKey) o;
+			return hashCode == other.hashCode &&
+					tagMapperStartMillis == other.tagMapperStartMillis &&
+					Objects.equals(payerAccountId, other.payerAccountId) &&
+					Objects.equals(accountId, other.accountId) &&
+					Arrays.equals(tags, other.tags) &&
+					Arrays.equals(defaults, other.defaults);
+		}
+	}
+	
+	/**
+	 * Hit and miss statistics for the resource group cache.
+	 */
+	public CacheStats getResourceGroupCacheStats() {
+		return resourceGroupCache.stats();
 	}
     
     @Override
@@ -134,6 +207,7 @@ public class BasicResourceService extends ResourceService {
     		// Remove existing configs and indeces
     		this.tagConfigs.remove(payerAccountId);
     		this.tagValuesInverted.remove(payerAccountId);
+    		resourceGroupCache.invalidateAll();
     		return;
     	}
     	
@@ -176,6 +250,7 @@ public class BasicResourceService extends ResourceService {
 		
 		// Create the maps setting tags based on the values of other tags
 		List<TagMappers> mapped = Lists.newArrayList();
+		Set<Long> startMillis = Sets.newTreeSet();
 		for (int tagIndex = 0; tagIndex < customTags.size(); tagIndex++) {
 			String tagKey = customTags.get(tagIndex);
 			TagConfig tc = configs.get(tagKey);
@@ -183,9 +258,32 @@ public class BasicResourceService extends ResourceService {
 				mapped.add(null);
 				continue;
 			}
-			mapped.add(new TagMappers(tagIndex, tagKey, tc.mapped, tagResourceGroupIndeces));
+			TagMappers tm = new TagMappers(tagIndex, tagKey, tc.mapped, tagResourceGroupIndeces);
+			mapped.add(tm);
+			startMillis.addAll(tm.getStartMillis());
 		}
 		this.tagMappers.put(payerAccountId, mapped);
+		
+		long[] starts = new long[startMillis.size()];
+		int i = 0;
+		for (Long start: startMillis)
+			starts[i++] = start;
+		this.tagMapperStartMillis.put(payerAccountId, starts);
+		resourceGroupCache.invalidateAll();
+    }
+    
+    /**
+     * Get the start time of the latest tag mapper in effect at the given time for the payer account.
+     * The tag mappers give the same results for any two times that return the same value.
+     */
+    private long getTagMapperStartMillis(String payerAccountId, long millisStart) {
+    	long[] starts = tagMapperStartMillis.get(payerAccountId);
+    	if (starts == null)
+    		return Long.MIN_VALUE;
+    	int i = Arrays.binarySearch(starts, millisStart);
+    	if (i < 0)
+    		i = -i - 2; // index of the latest start before millisStart
+    	return i < 0 ? Long.MIN_VALUE : starts[i];
     }
 
 	@Override
@@ -215,12 +313,22 @@ public class BasicResourceService extends ResourceService {
 
         // Build the resource group based on the values of the custom tags
     	String[] tags = new String[customTags.size()];
+    	String[] defaults = new String[customTags.size()];
        	for (int i = 0; i < customTags.size(); i++) {
        		tags[i] = getUserTagValue(lineItem, customTags.get(i));
+       		defaults[i] = account.getDefaultUserTagValue(customTags.get(i), millisStart);
        	}
        	
-       	// Handle any tag mapping
-    	List<TagMappers> tagMappersForPayerAccount = tagMappers.get(lineItem.getPayerAccountId());
+       	// Check for a previously resolved resource group
+       	String payerAccountId = lineItem.getPayerAccountId();
+       	ResourceGroupKey key = new ResourceGroupKey(payerAccountId, account.getId(), getTagMapperStartMillis(payerAccountId, millisStart), tags, defaults);
+       	ResourceGroup resourceGroup = resourceGroupCache.getIfPresent(key);
+       	if (resourceGroup != null)
+       		return resourceGroup;
+       	
+       	// Handle any tag mapping. The key holds on to the original tag values, so work on a copy
+       	tags = tags.clone();
+    	List<TagMappers> tagMappersForPayerAccount = tagMappers.get(payerAccountId);
     	
        	for (int i = 0; i < customTags.size(); i++) {
        		String v = tags[i];
@@ -234,7 +342,7 @@ public class BasicResourceService extends ResourceService {
        		
        		// Apply default mappings if any
         	if (v == null || v.isEmpty())
-        		v = account.getDefaultUserTagValue(customTags.get(i), millisStart);
+        		v = defaults[i];
         	if (v == null)
         		v = ""; // never return null entries
         	tags[i] = v;
@@ -242,7 +350,9 @@ public class BasicResourceService extends ResourceService {
        	
 		try {
 			// We never use null entries, so should never throw
-			return ResourceGroup.getResourceGroup(tags);
+			resourceGroup = ResourceGroup.getResourceGroup(tags);
+			resourceGroupCache.put(key, resourceGroup);
+			return resourceGroup;
 		} catch (ResourceException e) {
 			logger.error("Error creating resource group from user tags in line item" + e);
 		}
@@ -341,7 +451,8 @@ public class BasicResourceService extends ResourceService {
 
     @Override
     public void commit() {
-
+    	CacheStats stats = resourceGroupCache.stats();
+    	logger.info("resource group cache hits: " + stats.hitCount() + ", misses: " + stats.missCount() + ", hit rate: " + String.format("%.3f", stats.hitRate()));
     }
     
     @Override
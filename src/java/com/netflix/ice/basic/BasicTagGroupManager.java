@@ -59,6 +59,9 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     private final File file;
     private TreeMap<Long, Collection<TagGroup>> tagGroups;
     private TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups;
+    // Per-month indexes of the tag groups without and with their resource groups
+    private TreeMap<Long, TagGroupIndex> indexes;
+    private TreeMap<Long, TagGroupIndex> indexesWithResourceGroups;
     private Interval totalInterval;
     private boolean compress;
 
@@ -76,8 +79,6 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     
     // For unit testing
     BasicTagGroupManager(TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups, Interval totalInterval, int numUserTags) {
-    	this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
-    	this.tagGroups = removeResourceGroups(tagGroupsWithResourceGroups);
     	this.workBucketConfig = null;
     	this.accountService = null;
     	this.productService = null;
@@ -85,6 +86,7 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     	this.dbName = null;
     	this.file = null;
     	this.totalInterval = totalInterval;
+    	setTagGroups(tagGroupsWithResourceGroups);
     }
  
     public Collection<TagGroup> getTagGroups() {
@@ -178,14 +180,12 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
 	            in = new DataInputStream(is);
 	            
                 TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups = TagGroup.Serializer.deserializeTagGroups(accountService, productService, numUserTags, in);
-                TreeMap<Long, Collection<TagGroup>> tagGroups = removeResourceGroups(tagGroupsWithResourceGroups);
                 Interval totalInterval = null;
-                if (tagGroups.size() > 0) {
-                    totalInterval = new Interval(tagGroups.firstKey(), new DateTime(tagGroups.lastKey()).plusMonths(1).getMillis(), DateTimeZone.UTC);
+                if (tagGroupsWithResourceGroups.size() > 0) {
+                    totalInterval = new Interval(tagGroupsWithResourceGroups.firstKey(), new DateTime(tagGroupsWithResourceGroups.lastKey()).plusMonths(1).getMillis(), DateTimeZone.UTC);
                 }
+                setTagGroups(tagGroupsWithResourceGroups);
                 this.totalInterval = totalInterval;
-                this.tagGroups = tagGroups;
-                this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
                 logger.info("done reading " + file);
             }
             catch (IOException e) {
@@ -206,40 +206,56 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         return false;
     }
 
-    private TreeMap<Long, Collection<TagGroup>> removeResourceGroups(TreeMap<Long, Collection<TagGroup>> tagGroups) {
-        TreeMap<Long, Collection<TagGroup>> result = Maps.newTreeMap();
-        for (Long key: tagGroups.keySet()) {
-            Collection<TagGroup> from = tagGroups.get(key);
-            Set<TagGroup> to = Sets.newHashSet();
-            for (TagGroup tagGroup: from) {
-                if (tagGroup.resourceGroup != null)
-                    to.add(TagGroup.getTagGroup(tagGroup.account, tagGroup.region, tagGroup.zone, tagGroup.product, tagGroup.operation, tagGroup.usageType, null));
-                else
-                    to.add(tagGroup);
-            }
-
-            result.put(key, to);
+    private static Set<TagGroup> removeResourceGroups(Collection<TagGroup> from) {
+        Set<TagGroup> to = Sets.newHashSet();
+        for (TagGroup tagGroup: from) {
+            if (tagGroup.resourceGroup != null)
+                to.add(TagGroup.getTagGroup(tagGroup.account, tagGroup.region, tagGroup.zone, tagGroup.product, tagGroup.operation, tagGroup.usageType, null));
+            else
+                to.add(tagGroup);
         }
-        return result;
+        return to;
     }
 
-    private Set<TagGroup> getTagGroupsInRange(Collection<Long> monthMillis) {
-        Set<TagGroup> tagGroupsInRange = Sets.newHashSet();
-        for (Long monthMilli: monthMillis) {
-            tagGroupsInRange.addAll(this.tagGroups.get(monthMilli));
-        }
-        return tagGroupsInRange;
+    /*
+     * Index the tag groups for each month. Months with the same tag groups as the last time
+     * the file was read keep their indexes, so only the months that changed are rebuilt.
+     */
+    private void setTagGroups(TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups) {
+    	TreeMap<Long, TagGroupIndex> indexes = Maps.newTreeMap();
+    	TreeMap<Long, TagGroupIndex> indexesWithResourceGroups = Maps.newTreeMap();
+    	TreeMap<Long, Collection<TagGroup>> tagGroups = Maps.newTreeMap();
+    	TreeMap<Long, Collection<TagGroup>> withResourceGroups = Maps.newTreeMap();
+    	int rebuilt = 0;
+    	
+    	for (Long monthMilli: tagGroupsWithResourceGroups.keySet()) {
+    		Collection<TagGroup> from = tagGroupsWithResourceGroups.get(monthMilli);
+    		TagGroupIndex previous = this.indexesWithResourceGroups == null ? null : this.indexesWithResourceGroups.get(monthMilli);
+    		if (previous != null && previous.isFor(from)) {
+    			indexesWithResourceGroups.put(monthMilli, previous);
+    			indexes.put(monthMilli, this.indexes.get(monthMilli));
+    		}
+    		else {
+    			indexesWithResourceGroups.put(monthMilli, new TagGroupIndex(from));
+    			indexes.put(monthMilli, new TagGroupIndex(removeResourceGroups(from)));
+    			rebuilt++;
+    		}
+    		withResourceGroups.put(monthMilli, indexesWithResourceGroups.get(monthMilli).getTagGroups());
+    		tagGroups.put(monthMilli, indexes.get(monthMilli).getTagGroups());
+    	}
+    	logger.info((dbName == null ? "" : dbName + " ") + "indexed tag groups for " + rebuilt + " of " + tagGroupsWithResourceGroups.size() + " months");
+    	
+    	this.indexes = indexes;
+    	this.indexesWithResourceGroups = indexesWithResourceGroups;
+    	this.tagGroups = tagGroups;
+    	this.tagGroupsWithResourceGroups = withResourceGroups;
     }
 
-    private Set<TagGroup> getTagGroupsWithResourceGroupsInRange(Collection<Long> monthMillis) {
-        Set<TagGroup> tagGroupsInRange = Sets.newHashSet();
-    	if (tagGroupsWithResourceGroups == null)
-    		return tagGroupsInRange;
-    	
-    	for (Long monthMilli: monthMillis) {
-            tagGroupsInRange.addAll(this.tagGroupsWithResourceGroups.get(monthMilli));
-        }
-        return tagGroupsInRange;
+    private Set<Tag> getValues(Collection<Long> monthMillis, TagLists tagLists, TagType tagType) {
+    	Set<Tag> values = Sets.newHashSet();
+    	for (Long monthMilli: monthMillis)
+    		values.addAll(indexes.get(monthMilli).getValues(tagType, tagLists));
+    	return values;
     }
 
     private Collection<Long> getMonthMillis(Interval interval) {
@@ -253,84 +269,66 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         return result;
     }
 
-    public Collection<Account> getAccounts(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
+    private Collection<Account> getAccounts(Collection<Long> monthMillis, TagLists tagLists) {
         Set<Account> accounts = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-            	accounts.add(tagGroup.account);
-        }
-
+        for (Tag tag: getValues(monthMillis, tagLists, TagType.Account))
+        	accounts.add((Account) tag);
         return accounts;
     }
 
-    public Collection<Region> getRegions(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
+    private Collection<Region> getRegions(Collection<Long> monthMillis, TagLists tagLists) {
         Set<Region> regions = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-            	regions.add(tagGroup.region);
-        }
-
+        for (Tag tag: getValues(monthMillis, tagLists, TagType.Region))
+        	regions.add((Region) tag);
         return regions;
     }
 
-    public Collection<Zone> getZones(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
+    private Collection<Zone> getZones(Collection<Long> monthMillis, TagLists tagLists) {
         Set<Zone> zones = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup) && tagGroup.zone != null)
-                zones.add(tagGroup.zone);
-        }
-
+        for (Tag tag: getValues(monthMillis, tagLists, TagType.Zone))
+        	zones.add((Zone) tag);
         return zones;
     }
 
-    public Collection<Product> getProducts(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
+    private Collection<Product> getProducts(Collection<Long> monthMillis, TagLists tagLists) {
         Set<Product> products = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                products.add(tagGroup.product);
-        }
-
+        for (Tag tag: getValues(monthMillis, tagLists, TagType.Product))
+        	products.add((Product) tag);
         return products;
     }
     
-    public Set<Operation> getOperations(Set<TagGroup> tagGroupsInRange, TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
+    private Set<Operation> getOperations(Collection<Long> monthMillis, TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
         Set<Operation> operations = Sets.newHashSet();
         int excludeBitSet = exclude == null ? 0 : Operation.Identity.getIdentitySet(exclude);
         
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup)) {
-            	if (excludeBitSet == 0 || !tagGroup.operation.isOneOf(excludeBitSet))
-            		operations.add(tagGroup.operation);
-            }
+        for (Tag tag: getValues(monthMillis, tagLists, TagType.Operation)) {
+        	Operation operation = (Operation) tag;
+        	if (excludeBitSet == 0 || !operation.isOneOf(excludeBitSet))
+        		operations.add(operation);
         }
 
         return operations;
     }
 
-    public Collection<UsageType> getUsageTypes(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
+    private Collection<UsageType> getUsageTypes(Collection<Long> monthMillis, TagLists tagLists) {
         Set<UsageType> usageTypes = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                usageTypes.add(tagGroup.usageType);
-        }
-
+        for (Tag tag: getValues(monthMillis, tagLists, TagType.UsageType))
+        	usageTypes.add((UsageType) tag);
         return usageTypes;
     }
 
     public Collection<ResourceGroup> getResourceGroups(Interval interval, TagLists tagLists) {
         Set<ResourceGroup> groups = Sets.newHashSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsWithResourceGroupsInRange(getMonthMillis(interval));
+    	if (indexesWithResourceGroups == null)
+    		return groups;
 
         // Add ResourceGroup tags that are non-nulls.
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup) && tagGroup.resourceGroup != null) {
-                groups.add(tagGroup.resourceGroup);
-            }
+        for (Long monthMilli: getMonthMillis(interval)) {
+	        for (TagGroup tagGroup: indexesWithResourceGroups.get(monthMilli).getMatches(tagLists)) {
+	            if (tagGroup.resourceGroup != null) {
+	                groups.add(tagGroup.resourceGroup);
+	            }
+	        }
         }
 
         return groups;
@@ -338,51 +336,51 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
 
     public Collection<UserTag> getResourceGroupTags(Interval interval, TagLists tagLists, int userTagGroupByIndex) {
         Set<UserTag> userTags = Sets.newHashSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsWithResourceGroupsInRange(getMonthMillis(interval));
+    	if (indexesWithResourceGroups == null)
+    		return userTags;
         
         // Add ResourceGroup tags that are null.
-        for (TagGroup tagGroup: tagGroupsInRange) {
-        	//logger.info("tag group <" + tagLists.contains(tagGroup) + ">: " + tagGroup);
-            if (tagLists.contains(tagGroup)) {
-            	try {
-            		UserTag t = tagGroup.resourceGroup == null ? UserTag.empty : tagGroup.resourceGroup.getUserTags()[userTagGroupByIndex];
-            		userTags.add(t);
-            	}
-            	catch (Exception e) {
-            		logger.error("Bad resourceGroup: " + tagGroup.resourceGroup + ", " + e);
-            	}
-            }
+        for (Long monthMilli: getMonthMillis(interval)) {
+	        for (TagGroup tagGroup: indexesWithResourceGroups.get(monthMilli).getMatches(tagLists)) {
+	        	try {
+	        		UserTag t = tagGroup.resourceGroup == null ? UserTag.empty : tagGroup.resourceGroup.getUserTags()[userTagGroupByIndex];
+	        		userTags.add(t);
+	        	}
+	        	catch (Exception e) {
+	        		logger.error("Bad resourceGroup: " + tagGroup.resourceGroup + ", " + e);
+	        	}
+	        }
         }
 
         return userTags;
     }
 
     public Collection<Account> getAccounts(TagLists tagLists) {
-    	List<Account> accounts = Lists.newArrayList(getAccounts(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Account> accounts = Lists.newArrayList(getAccounts(getMonthMillis(totalInterval), tagLists));
     	accounts.sort(null);
         return accounts;
     }
 
     public Collection<Region> getRegions(TagLists tagLists) {
-    	List<Region> regions = Lists.newArrayList(getRegions(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Region> regions = Lists.newArrayList(getRegions(getMonthMillis(totalInterval), tagLists));
     	regions.sort(null);
         return regions;
     }
 
     public Collection<Zone> getZones(TagLists tagLists) {
-    	List<Zone> zones = Lists.newArrayList(getZones(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Zone> zones = Lists.newArrayList(getZones(getMonthMillis(totalInterval), tagLists));
     	zones.sort(null);
         return zones;
     }
 
     public Collection<Product> getProducts(TagLists tagLists) {
-    	List<Product> products = Lists.newArrayList(getProducts(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Product> products = Lists.newArrayList(getProducts(getMonthMillis(totalInterval), tagLists));
     	products.sort(null);
     	return products;
     }
 
     public Collection<Operation> getOperationsUnsorted(TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
-    	return getOperations(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists, exclude);
+    	return getOperations(getMonthMillis(totalInterval), tagLists, exclude);
     }
 
     public Collection<Operation> getOperations(TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
@@ -392,7 +390,7 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     }
 
     public Collection<UsageType> getUsageTypes(TagLists tagLists) {
-    	List<UsageType> usageTypes = Lists.newArrayList(getUsageTypes(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<UsageType> usageTypes = Lists.newArrayList(getUsageTypes(getMonthMillis(totalInterval), tagLists));
     	usageTypes.sort(null);
     	return usageTypes;
     }
@@ -414,7 +412,7 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     public Map<Tag, TagLists> getTagListsMap(Interval interval, TagLists tagLists, TagType groupBy, List<Operation.Identity.Value> exclude, int userTagGroupByIndex) {
         Map<Tag, TagLists> result = Maps.newHashMap();
         
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
+        Collection<Long> monthMillis = getMonthMillis(interval);
         
         // Get all the GroupBy tags. If we're not grouping by ResourceGroup or User Tag, then work with a TagLists that doesn't contain resourceGroups.
         // Filtering of results against resourceGroup values is handled later.
@@ -430,7 +428,7 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         // for all dashboards choose between Borrowed and Lent Operations so we don't double count the cost/usage    	
     	List<Operation> ops = tagListsForTag.operations;
         if (ops == null || ops.size() == 0) {
-        	ops = Lists.newArrayList(getOperations(tagGroupsInRange, tagListsForTag, exclude));
+        	ops = Lists.newArrayList(getOperations(monthMillis, tagListsForTag, exclude));
         }
         else {
         	ops = Operation.exclude(ops, exclude);
@@ -449,22 +447,22 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         List<Tag> groupByTags = Lists.newArrayList();
         switch (groupBy) {
             case Account:
-                groupByTags.addAll(getAccounts(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getAccounts(monthMillis, tagListsForTag));
                 break;
             case Region:
-                groupByTags.addAll(getRegions(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getRegions(monthMillis, tagListsForTag));
                 break;
             case Zone:
-                groupByTags.addAll(getZones(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getZones(monthMillis, tagListsForTag));
                 break;
             case Product:
-                groupByTags.addAll(getProducts(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getProducts(monthMillis, tagListsForTag));
                 break;
             case Operation:
-                groupByTags.addAll(getOperations(tagGroupsInRange, tagListsForTag, null));
+                groupByTags.addAll(getOperations(monthMillis, tagListsForTag, null));
                 break;
             case UsageType:
-                groupByTags.addAll(getUsageTypes(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getUsageTypes(monthMillis, tagListsForTag));
                 break;
             case Tag:
                 groupByTags.addAll(getResourceGroupTags(interval, tagListsForTag, userTagGroupByIndex));
@@ -34,6 +34,7 @@ import com.netflix.ice.common.ConsolidateType;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.reader.AggregateType;
+import com.netflix.ice.reader.ColumnBitmap;
 import com.netflix.ice.reader.DataManager;
 import com.netflix.ice.reader.ReadOnlyGenericData;
 import com.netflix.ice.reader.TagGroupManager;
@@ -54,9 +55,14 @@ public abstract class CommonDataManager<T extends ReadOnlyGenericData<D>, D>  ex
         this.tagGroupManager = tagGroupManager;
 	}
 	
+    @Override
+    protected long getHeapSize(T data) {
+    	return data.getHeapSize();
+    }
+    
     protected void getColumns(TagType groupBy, Tag tag, int userTagGroupByIndex, T data, TagLists tagLists, List<Integer> columnIndecies, List<TagGroup> tagGroups) {    	
-    	Map<TagGroup, Integer> m = data.getTagGroups(groupBy, tag, userTagGroupByIndex);
-    	if (m == null) {
+    	ColumnBitmap columns = data.getColumns(tagLists, groupBy, tag, userTagGroupByIndex);
+    	if (columns == null) {
     		// No index, do it the hard way
             int columnIndex = 0;
             for (TagGroup tagGroup: data.getTagGroups()) {
@@ -70,12 +76,10 @@ public abstract class CommonDataManager<T extends ReadOnlyGenericData<D>, D>  ex
     		return;
     	}
     	
-        for (TagGroup tagGroup: m.keySet()) {
-        	boolean contains = tagLists.contains(tagGroup, true);
-            if (contains) {
-            	columnIndecies.add(m.get(tagGroup));
-            	tagGroups.add(tagGroup);
-            }
+    	List<TagGroup> dataTagGroups = data.getTagGroups();
+        for (int columnIndex: columns.toArray()) {
+        	columnIndecies.add(columnIndex);
+        	tagGroups.add(dataTagGroups.get(columnIndex));
         }
     }
     
@@ -23,11 +23,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 import org.joda.time.PeriodType;
 import org.slf4j.Logger;
@@ -37,8 +41,10 @@ import com.amazonaws.AmazonServiceException;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.netflix.ice.common.AccountService;
@@ -70,6 +76,10 @@ abstract public class DataFileCache<T> implements DataCache {
     
     // data cache
     protected LoadingCache<DateTime, T> data;
+    // Memory-budgeted cache shared by all the data managers, null if each manager has its own cache
+    protected SharedDataCache sharedCache = null;
+    // Period most recently asked for, used to tell which way the user is scrolling
+    private volatile DateTime lastKey = null;
     
     public DataFileCache(DateTime startDate, final String dbName, ConsolidateType consolidateType, boolean compress,
     		int monthlyCacheSize, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService) {
@@ -89,8 +99,7 @@ abstract public class DataFileCache<T> implements DataCache {
      	       .maximumSize(monthlyCacheSize)
      	       .removalListener(new RemovalListener<DateTime, T>() {
      	           public void onRemoval(RemovalNotification<DateTime, T> objectRemovalNotification) {
-     	               logger.info(dbName + " removing from file cache " + objectRemovalNotification.getKey() + ", " + objectRemovalNotification.getCause().name());
-     	               fileCache.remove(objectRemovalNotification.getKey());
+     	               DataFileCache.this.onRemoval(objectRemovalNotification.getKey(), objectRemovalNotification.getCause());
      	           }
      	       })
      	       .build(
@@ -102,28 +111,83 @@ abstract public class DataFileCache<T> implements DataCache {
     }
     
     /**
-     * We check if new data is available periodically
+     * Move the data into the memory-budgeted cache shared by all the data managers.
+     * Replaces the cache bounded by monthlyCacheSize built by the constructor.
+     */
+    public void setSharedCache(SharedDataCache sharedCache) {
+    	if (data != null)
+    		data.invalidateAll();
+    	this.sharedCache = sharedCache;
+    	this.data = sharedCache.newView(this);
+    }
+    
+    void onRemoval(DateTime key, RemovalCause cause) {
+        logger.info(dbName + " removing from file cache " + key + ", " + cause.name());
+        fileCache.remove(key);
+    }
+    
+    T load(DateTime monthDate) throws InterruptedException {
+    	return loadData(monthDate);
+    }
+    
+    /**
+     * Estimated number of bytes of heap held by the data. Used to weigh the data in the shared cache.
+     */
+    abstract protected long getHeapSize(T data);
+    
+    /**
+     * We check if new data is available periodically. Changed files are decoded before they
+     * replace the cached data, so queries keep getting the old data until the new data is ready.
+     * With a shared cache the files are decoded in parallel on the shared cache's threads.
      */
     @Override
     public boolean refresh() {
         logger.info(dbName + " refresh...");
+        List<Future<Void>> reloads = Lists.newArrayList();
+        boolean result = false;
         for (DateTime key: Sets.newHashSet(fileCache.keySet())) {
             File file = fileCache.get(key);
+            if (file == null)
+            	continue;
             try {
                 logger.info("trying to download " + file);
                 boolean downloaded = downloadFile(file);
-                if (downloaded || (data.get(key) == null && file.exists())) {
-                    T newData = loadDataFromFile(file);
-                    data.put(key, newData);
-                    fileCache.put(key, file);
+                if (downloaded || (data.getIfPresent(key) == null && file.exists())) {
+                	Callable<Void> reload = reload(key, file);
+                	if (sharedCache == null)
+                		reload.call();
+                	else
+                		reloads.add(sharedCache.submit(reload));
                 }
             }
             catch (Exception e) {
                 logger.error("failed to download " + file, e);
-                return true;
+                result = true;
+                break;
             }
         }
-        return false;
+        for (Future<Void> f: reloads) {
+        	try {
+        		f.get();
+        	}
+        	catch (Exception e) {
+        		logger.error(dbName + " failed to reload data", e);
+        		result = true;
+        	}
+        }
+        return result;
+    }
+    
+    private Callable<Void> reload(final DateTime key, final File file) {
+    	return new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+                T newData = loadDataFromFile(file);
+                data.put(key, newData);
+                fileCache.put(key, file);
+				return null;
+			}
+    	};
     }
 
     abstract protected T newEmptyData();
@@ -191,6 +255,17 @@ abstract public class DataFileCache<T> implements DataCache {
         }
     }
     
+    /**
+     * Last modified time of the data file for a period without loading it. Uses the local copy if
+     * there is one, otherwise asks S3. Returns 0 if there is no file.
+     */
+    protected long getLastModified(DateTime key) {
+        File file = getFile(key);
+        if (file.exists())
+            return file.lastModified();
+        return AwsUtils.getLastModified(workBucketConfig.workS3BucketName, workBucketConfig.workS3BucketPrefix + file.getName());
+    }
+    
     abstract protected T deserializeData(DataInputStream in) throws IOException, BadZone;
 
     protected T loadDataFromFile(File file) throws Exception {
@@ -231,9 +306,39 @@ abstract public class DataFileCache<T> implements DataCache {
             logger.warn(dbName + " cannot find file in fileCache " + key);
             fileCache.put(key, getFile(key));
         }
+        prefetch(key, result);
         return result;
     }
     
+    /*
+     * When the requested period follows on from the last one asked for, start loading the
+     * next period in the same direction so that scrolling the time range doesn't have to wait
+     * for the file to be downloaded and decoded. The requested data is used as the size estimate
+     * so the shared cache can skip the prefetch if it would push out what was just loaded.
+     */
+    private void prefetch(DateTime key, T result) {
+    	if (sharedCache == null)
+    		return;
+    	
+    	DateTime last = lastKey;
+    	lastKey = key;
+    	if (last == null || last.isEqual(key))
+    		return;
+    	
+    	int step = key.isAfter(last) ? 1 : -1;
+    	DateTime neighbor;
+    	if (consolidateType == ConsolidateType.hourly)
+    		neighbor = key.plusMonths(step);
+    	else if (consolidateType == ConsolidateType.daily)
+    		neighbor = key.plusYears(step);
+    	else
+    		return;
+    	
+    	if (neighbor.isBefore(startDate) || !neighbor.isBefore(DateTime.now(DateTimeZone.UTC)))
+    		return;
+    	sharedCache.prefetch(data, neighbor, getHeapSize(result));
+    }
+    
     protected Interval getAdjustedInterval(Interval interval) {
     	// For hourly and daily consolidation, we need to start at first of month or year
         DateTime start = startDate;
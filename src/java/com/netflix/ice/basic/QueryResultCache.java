@@ -0,0 +1,250 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.Interval;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.reader.AggregateType;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.TagListsWithUserTags;
+import com.netflix.ice.reader.UsageUnit;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UserTag;
+import com.netflix.ice.tag.UserTagKey;
+
+/**
+ * Bounded cache of data manager query results shared by all the data managers.
+ * 
+ * Keys hold a canonical form of the query so that the same query built from lists
+ * in a different order finds the same entry. Each key also holds the data generation
+ * when the query started. The generation is bumped after newly processed data has been
+ * loaded, so results computed from older data are never returned.
+ * 
+ * Results are copied going in and coming out since callers modify the maps they get back.
+ */
+public class QueryResultCache {
+	private static final long entryOverhead = 64;
+	private static final long valueOverhead = 48;
+	
+	private final Cache<Key, Map<Tag, double[]>> cache;
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final long maxBytes;
+	
+	public QueryResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher(new Weigher<Key, Map<Tag, double[]>>() {
+					public int weigh(Key key, Map<Tag, double[]> value) {
+						return (int) Math.min(Integer.MAX_VALUE, sizeOf(value));
+					}
+				})
+				.removalListener(new RemovalListener<Key, Map<Tag, double[]>>() {
+					public void onRemoval(RemovalNotification<Key, Map<Tag, double[]>> notification) {
+						if (notification.getValue() != null)
+							bytes.addAndGet(-sizeOf(notification.getValue()));
+					}
+				})
+				.recordStats()
+				.build();
+	}
+	
+	private static long sizeOf(Map<Tag, double[]> value) {
+		long size = entryOverhead;
+		for (double[] d: value.values())
+			size += valueOverhead + (d == null ? 0 : d.length * 8L);
+		return size;
+	}
+	
+	/**
+	 * Drop all cached results. Called after newly processed data has been loaded.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		cache.invalidateAll();
+	}
+	
+	public Key getKey(String dbName, boolean isCost, Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate,
+			List<Operation.Identity.Value> exclude, UsageUnit usageUnit, int userTagGroupByIndex, List<UserTagKey> tagKeys) {
+		List<Object> values = Lists.newArrayList();
+		values.add(dbName);
+		values.add(isCost);
+		values.add(interval.getStartMillis());
+		values.add(interval.getEndMillis());
+		values.add(groupBy);
+		values.add(aggregate);
+		values.add(exclude == null ? null : Lists.newArrayList(Sets.newTreeSet(exclude)));
+		values.add(usageUnit);
+		values.add(userTagGroupByIndex);
+		values.add(tagKeys == null ? null : names(tagKeys));
+		values.add(tagLists.getClass());
+		values.add(names(tagLists.accounts));
+		values.add(names(tagLists.regions));
+		values.add(names(tagLists.zones));
+		values.add(names(tagLists.products));
+		values.add(names(tagLists.operations));
+		values.add(names(tagLists.usageTypes));
+		if (tagLists.resourceGroups == null)
+			values.add(null);
+		else {
+			List<String> resourceGroups = Lists.newArrayList();
+			for (Object rg: tagLists.resourceGroups)
+				resourceGroups.add(rg == null ? null : rg.toString());
+			Collections.sort(resourceGroups, nullsFirst);
+			values.add(resourceGroups);
+		}
+		if (tagLists instanceof TagListsWithUserTags) {
+			List<List<UserTag>> userTagLists = ((TagListsWithUserTags) tagLists).resourceUserTagLists;
+			if (userTagLists == null)
+				values.add(null);
+			else {
+				List<List<String>> userTags = Lists.newArrayList();
+				for (List<UserTag> l: userTagLists)
+					userTags.add(names(l));
+				values.add(userTags);
+			}
+		}
+		return new Key(values, generation.get());
+	}
+	
+	private static final Comparator<String> nullsFirst = new Comparator<String>() {
+		public int compare(String a, String b) {
+			if (a == null)
+				return b == null ? 0 : -1;
+			return b == null ? 1 : a.compareTo(b);
+		}
+	};
+	
+	/**
+	 * Lists of tags are used as sets, so sort the names and treat a null list differently from an empty one.
+	 */
+	private static List<String> names(List<? extends Object> tags) {
+		if (tags == null)
+			return null;
+		List<String> names = Lists.newArrayListWithCapacity(tags.size());
+		for (Object t: tags) {
+			if (t == null)
+				names.add(null);
+			else if (t instanceof Tag)
+				names.add(((Tag) t).name);
+			else
+				names.add(t.toString());
+		}
+		Collections.sort(names, nullsFirst);
+		return names;
+	}
+	
+	public Map<Tag, double[]> get(Key key) {
+		if (key.generation != generation.get())
+			return null;
+		Map<Tag, double[]> result = cache.getIfPresent(key);
+		return result == null ? null : copy(result);
+	}
+	
+	public void put(Key key, Map<Tag, double[]> result) {
+		// Don't keep results computed from data that has since been replaced
+		if (key.generation != generation.get())
+			return;
+		Map<Tag, double[]> value = copy(result);
+		bytes.addAndGet(sizeOf(value));
+		cache.put(key, value);
+	}
+	
+	private static Map<Tag, double[]> copy(Map<Tag, double[]> from) {
+		Map<Tag, double[]> to;
+		if (from instanceof SortedMap)
+			to = Maps.newTreeMap(((SortedMap<Tag, double[]>) from).comparator());
+		else
+			to = Maps.newLinkedHashMap();
+		for (Map.Entry<Tag, double[]> entry: from.entrySet())
+			to.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().clone());
+		return to;
+	}
+	
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+	
+	/**
+	 * Approximate number of bytes held by the cached results
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+	
+	public long size() {
+		return cache.size();
+	}
+	
+	public String getStatistics() {
+		CacheStats stats = cache.stats();
+		return String.format("query cache: entries=%d, size=%.1fMB of %.1fMB, hits=%d, misses=%d, hitRate=%.3f, evictions=%d",
+				cache.size(), bytes.get() / 1048576.0, maxBytes / 1048576.0, stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+	}
+	
+	public static class Key {
+		private final List<Object> values;
+		private final long generation;
+		private final int hashcode;
+		
+		private Key(List<Object> values, long generation) {
+			this.values = values;
+			this.generation = generation;
+			this.hashcode = 31 * values.hashCode() + (int) (generation ^ (generation >>> 32));
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashcode;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (o == null || !(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return generation == other.generation && values.equals(other.values);
+		}
+		
+		@Override
+		public String toString() {
+			return values.toString() + "@" + generation;
+		}
+	}
+}
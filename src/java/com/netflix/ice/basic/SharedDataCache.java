@@ -0,0 +1,261 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Cache of the data files loaded by all the data managers, bounded by the estimated heap
+ * size of the loaded data rather than by a count of files. A month of hourly resource data
+ * can be several orders of magnitude larger than a month of monthly summary data, so a
+ * single budget across all the data managers keeps the reader's heap use predictable.
+ * 
+ * Each data manager gets a LoadingCache view keyed by the start of the period. Only one
+ * thread loads any given file; other threads asking for the same file wait for that load.
+ * Loads for adjacent periods and reloads of changed files run on the cache's own thread pool.
+ * Adjacent periods are only loaded while there is room for them in the budget, so a prefetch
+ * never pushes out the data that was just asked for.
+ */
+public class SharedDataCache {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+	private static final int kilobyte = 1024;
+	
+	private final Cache<Key, Entry> cache;
+	private final ExecutorService pool;
+	private final long maxBytes;
+	private volatile boolean prefetch = true;
+	
+	public SharedDataCache(long maxBytes, int numThreads) {
+		this.maxBytes = maxBytes;
+		// Weigh in kilobytes so that large files don't overflow the int weight. The budget is divided
+		// between the cache segments, so use a single segment to allow files up to the full budget.
+		this.cache = CacheBuilder.newBuilder()
+				.concurrencyLevel(1)
+				.maximumWeight(Math.max(1, maxBytes / kilobyte))
+				.weigher(new Weigher<Key, Entry>() {
+					public int weigh(Key key, Entry value) {
+						return (int) Math.max(1, Math.min(Integer.MAX_VALUE, value.bytes / kilobyte));
+					}
+				})
+				.removalListener(new RemovalListener<Key, Entry>() {
+					public void onRemoval(RemovalNotification<Key, Entry> notification) {
+						if (notification.getCause() != RemovalCause.REPLACED)
+							notification.getKey().owner.onRemoval(notification.getKey().start, notification.getCause());
+					}
+				})
+				.recordStats()
+				.build();
+		
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "data-cache-" + threadNumber.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Get a view of the cache holding the data for one data manager.
+	 */
+	public <T> LoadingCache<DateTime, T> newView(DataFileCache<T> owner) {
+		return new View<T>(owner);
+	}
+	
+	/**
+	 * Start loading the data for a period if it isn't already in the cache and there's
+	 * room for the estimated size of the data without evicting anything.
+	 */
+	public <T> void prefetch(final LoadingCache<DateTime, T> view, final DateTime start, long estimatedBytes) {
+		if (!prefetch || !(view instanceof View) || cache.asMap().containsKey(((View<T>) view).key(start)))
+			return;
+		if (getBytes() + estimatedBytes > maxBytes) {
+			logger.debug("not prefetching data for " + start + ", cache is full");
+			return;
+		}
+		pool.submit(new Runnable() {
+			public void run() {
+				try {
+					view.get(start);
+				}
+				catch (ExecutionException e) {
+					logger.error("error prefetching data for " + start, e);
+				}
+			}
+		});
+	}
+	
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+	
+	public <V> Future<V> submit(Callable<V> task) {
+		return pool.submit(task);
+	}
+	
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+	
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+	
+	/**
+	 * Approximate number of bytes held by the cached data. Only counts entries that are
+	 * in the cache, so files still being loaded aren't included.
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for (Entry entry: cache.asMap().values())
+			bytes += entry.bytes;
+		return bytes;
+	}
+	
+	public long size() {
+		return cache.size();
+	}
+	
+	public String getStatistics() {
+		CacheStats stats = cache.stats();
+		return String.format("data cache: entries=%d, size=%.1fMB of %.1fMB, hits=%d, misses=%d, hitRate=%.3f, evictions=%d, averageLoadMillis=%.1f",
+				cache.size(), getBytes() / 1048576.0, maxBytes / 1048576.0, stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(), stats.averageLoadPenalty() / 1000000.0);
+	}
+	
+	private class View<T> extends AbstractLoadingCache<DateTime, T> {
+		private final DataFileCache<T> owner;
+		
+		View(DataFileCache<T> owner) {
+			this.owner = owner;
+		}
+		
+		Key key(DateTime start) {
+			return new Key(owner, start);
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(final DateTime start) throws ExecutionException {
+			return (T) cache.get(key(start), new Callable<Entry>() {
+				public Entry call() throws Exception {
+					T data = owner.load(start);
+					return new Entry(data, owner.getHeapSize(data));
+				}
+			}).data;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T getIfPresent(Object start) {
+			if (!(start instanceof DateTime))
+				return null;
+			Entry entry = cache.getIfPresent(key((DateTime) start));
+			return entry == null ? null : (T) entry.data;
+		}
+		
+		@Override
+		public void put(DateTime start, T data) {
+			cache.put(key(start), new Entry(data, owner.getHeapSize(data)));
+		}
+		
+		@Override
+		public void invalidate(Object start) {
+			if (start instanceof DateTime)
+				cache.invalidate(key((DateTime) start));
+		}
+		
+		@Override
+		public void invalidateAll() {
+			for (Key k: cache.asMap().keySet()) {
+				if (k.owner == owner)
+					cache.invalidate(k);
+			}
+		}
+		
+		@Override
+		public long size() {
+			long size = 0;
+			for (Key k: cache.asMap().keySet()) {
+				if (k.owner == owner)
+					size++;
+			}
+			return size;
+		}
+	}
+	
+	private static class Entry {
+		private final Object data;
+		private final long bytes;
+		
+		Entry(Object data, long bytes) {
+			this.data = data;
+			this.bytes = bytes;
+		}
+	}
+	
+	/*
+	 * Data managers are distinct objects for the life of the reader, so compare them by identity.
+	 */
+	private static class Key {
+		private final DataFileCache<?> owner;
+		private final DateTime start;
+		private final int hashcode;
+		
+		Key(DataFileCache<?> owner, DateTime start) {
+			this.owner = owner;
+			this.start = start;
+			this.hashcode = 31 * System.identityHashCode(owner) + (int) (start.getMillis() ^ (start.getMillis() >>> 32));
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashcode;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (o == null || !(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return owner == other.owner && start.getMillis() == other.start.getMillis();
+		}
+	}
+}
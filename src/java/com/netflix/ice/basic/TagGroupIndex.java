@@ -0,0 +1,184 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.ColumnBitmap;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+
+/**
+ * Inverted indexes of one month of tag groups. For each of the tag types there's
+ * a map from each tag value to the set of positions of the tag groups that have it,
+ * so the tag groups matching a TagLists filter are found by intersecting the sets for
+ * the filtered tag types rather than by checking every tag group. The keys of each
+ * map are the distinct values of the tag type for the month.
+ */
+public class TagGroupIndex {
+	private static final TagType[] tagTypes = new TagType[]{ TagType.Account, TagType.Region, TagType.Zone, TagType.Product, TagType.Operation, TagType.UsageType };
+
+	private final TagGroup[] tagGroups;
+	private final List<TagGroup> tagGroupList;
+	private final Map<TagType, Map<Tag, ColumnBitmap>> index;
+	
+	public TagGroupIndex(Collection<TagGroup> tagGroups) {
+		this.tagGroups = tagGroups.toArray(new TagGroup[tagGroups.size()]);
+		this.tagGroupList = Collections.unmodifiableList(Arrays.asList(this.tagGroups));
+		
+    	Map<TagType, Map<Tag, ColumnBitmap.Builder>> builders = Maps.newHashMap();
+    	for (TagType t: tagTypes)
+    		builders.put(t, Maps.<Tag, ColumnBitmap.Builder>newHashMap());
+    	
+    	for (int i = 0; i < this.tagGroups.length; i++) {
+    		for (TagType t: tagTypes) {
+    			Tag tag = getTag(this.tagGroups[i], t);
+    			if (tag == null)
+    				continue;
+    			Map<Tag, ColumnBitmap.Builder> b = builders.get(t);
+    			ColumnBitmap.Builder builder = b.get(tag);
+    			if (builder == null) {
+    				builder = new ColumnBitmap.Builder();
+    				b.put(tag, builder);
+    			}
+    			builder.add(i);
+    		}
+    	}
+    	
+    	index = Maps.newHashMap();
+    	for (TagType t: tagTypes) {
+    		Map<Tag, ColumnBitmap> byTag = Maps.newHashMapWithExpectedSize(builders.get(t).size());
+    		for (Map.Entry<Tag, ColumnBitmap.Builder> e: builders.get(t).entrySet())
+    			byTag.put(e.getKey(), e.getValue().build(this.tagGroups.length));
+    		index.put(t, byTag);
+    	}
+	}
+	
+	private static Tag getTag(TagGroup tagGroup, TagType tagType) {
+		switch (tagType) {
+		case Account:	return tagGroup.account;
+		case Region:	return tagGroup.region;
+		case Zone:		return tagGroup.zone;
+		case Product:	return tagGroup.product;
+		case Operation:	return tagGroup.operation;
+		case UsageType:	return tagGroup.usageType;
+		default:		return null;
+		}
+	}
+	
+	private static List<? extends Tag> getTags(TagLists tagLists, TagType tagType) {
+		switch (tagType) {
+		case Account:	return tagLists.accounts;
+		case Region:	return tagLists.regions;
+		case Zone:		return tagLists.zones;
+		case Product:	return tagLists.products;
+		case Operation:	return tagLists.operations;
+		case UsageType:	return tagLists.usageTypes;
+		default:		return null;
+		}
+	}
+	
+	/**
+	 * Returns true if the index was built from the same tag groups in the same order,
+	 * in which case it can be kept when the tag groups are reloaded.
+	 */
+	public boolean isFor(Collection<TagGroup> tagGroups) {
+		if (tagGroups.size() != this.tagGroups.length)
+			return false;
+		int i = 0;
+		for (TagGroup tg: tagGroups) {
+			if (!tg.equals(this.tagGroups[i++]))
+				return false;
+		}
+		return true;
+	}
+	
+	public List<TagGroup> getTagGroups() {
+		return tagGroupList;
+	}
+	
+	/**
+	 * Get the distinct values of the tag type
+	 */
+	public Set<Tag> getValues(TagType tagType) {
+		return Collections.unmodifiableSet(index.get(tagType).keySet());
+	}
+	
+	/**
+	 * Get the tag groups contained in the TagLists
+	 */
+	public Collection<TagGroup> getMatches(TagLists tagLists) {
+		if (tagLists.matchesAll())
+			return tagGroupList;
+		
+		ColumnBitmap columns = ColumnBitmap.all(tagGroups.length);
+		for (TagType t: tagTypes)
+			columns = and(columns, index.get(t), getTags(tagLists, t));
+		
+		// Resource groups and user tags aren't indexed, so check each of the remaining tag groups
+		List<TagGroup> result = Lists.newArrayListWithCapacity(columns.cardinality());
+		for (int i: columns.toArray()) {
+			if (tagLists.contains(tagGroups[i]))
+				result.add(tagGroups[i]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Get the distinct values of the tag type for the tag groups contained in the TagLists
+	 */
+	public Set<Tag> getValues(TagType tagType, TagLists tagLists) {
+		if (tagLists.matchesAll())
+			return getValues(tagType);
+		
+		Set<Tag> values = Sets.newHashSet();
+		for (TagGroup tg: getMatches(tagLists)) {
+			Tag tag = getTag(tg, tagType);
+			if (tag != null)
+				values.add(tag);
+		}
+		return values;
+	}
+	
+    /*
+     * Intersect the columns with the union of the columns for each of the tags. An empty or null list doesn't filter.
+     * Null tags aren't indexed, so leave lists that hold one to be checked by TagLists.contains().
+     */
+    private ColumnBitmap and(ColumnBitmap columns, Map<Tag, ColumnBitmap> index, List<? extends Tag> tags) {
+    	if (tags == null || tags.size() == 0 || columns.isEmpty() || tags.contains(null))
+    		return columns;
+    	
+    	ColumnBitmap union = null;
+    	for (Tag t: tags) {
+    		ColumnBitmap b = index.get(t);
+    		if (b != null)
+    			union = union == null ? b : union.or(b);
+    	}
+    	return union == null ? ColumnBitmap.empty(columns.getNumColumns()) : columns.and(union);
+    }
+}
@@ -81,14 +81,8 @@ public class Aggregation {
     	}
     	
     	AggregationTagGroup newOne = new AggregationTagGroup(tags, groupByTags, userTags, userTags == null ? null : groupByUserTagIndeces);
-    	AggregationTagGroup oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+    	AggregationTagGroup oldOne = tagGroups.putIfAbsent(newOne, newOne);
+        return oldOne != null ? oldOne : newOne;
     }
     
     public boolean groupBy(TagType tagType) {
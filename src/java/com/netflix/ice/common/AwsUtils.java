@@ -187,6 +187,18 @@ public class AwsUtils {
         return s3Client;
     }
 
+    /**
+     * Get an S3 client for the bucket region, assuming the role in the account if one is given.
+     * Clients other than the shared client returned by getAmazonS3Client() must be shut down by the caller.
+     */
+    public static AmazonS3Client getAmazonS3Client(String bucketRegion, String accountId, String assumeRole, String externalId) {
+        if (!StringUtils.isEmpty(accountId) && !StringUtils.isEmpty(assumeRole))
+            return (AmazonS3Client) AmazonS3ClientBuilder.standard().withRegion(bucketRegion).withCredentials(getAssumedCredentialsProvider(accountId, assumeRole, externalId)).withClientConfiguration(clientConfig).build();
+        else if (!s3Client.getRegionName().equals(bucketRegion))
+            return (AmazonS3Client) AmazonS3ClientBuilder.standard().withRegion(bucketRegion).withCredentials(awsCredentialsProvider).withClientConfiguration(clientConfig).build();
+        return s3Client;
+    }
+
     public static AmazonSimpleEmailServiceClient getAmazonSimpleEmailServiceClient() {
         if (emailServiceClient == null)
             emailServiceClient = (AmazonSimpleEmailServiceClient) AmazonSimpleEmailServiceClientBuilder.standard().withCredentials(awsCredentialsProvider).withClientConfiguration(clientConfig).build();
@@ -18,5 +18,15 @@
 package com.netflix.ice.common;
 
 public interface DataVersion {
-	int CUR_WORK_BUCKET_VERSION = 2;
+	/*
+	 * Version 2 writes a dense matrix: every TagGroup column for every hour/day/week/month that has data.
+	 * Version 3 writes each interval as a sparse column: a count of the non-empty columns followed by
+	 * the delta-encoded column indecies (see VarInt) each paired with its value.
+	 * Version 4 keeps the sparse columns and writes the TagGroups as a dictionary (see TagGroup.Serializer.serializeDictionary)
+	 * rather than as the full set of strings for every TagGroup.
+	 * Readers accept all three versions, writers always use the current version.
+	 */
+	int CUR_WORK_BUCKET_DENSE_VERSION = 2;
+	int CUR_WORK_BUCKET_SPARSE_VERSION = 3;
+	int CUR_WORK_BUCKET_VERSION = 4;
 }
@@ -0,0 +1,62 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ObjectFetcher for files in a local directory. Keys are paths relative to the directory.
+ * The last modified time identifies the version of a file.
+ */
+public class FileObjectFetcher implements ObjectFetcher {
+	private final File dir;
+	
+	public FileObjectFetcher(File dir) {
+		this.dir = dir;
+	}
+
+	@Override
+	public Version getVersion(String key) throws IOException {
+		File file = new File(dir, key);
+		if (!file.exists())
+			throw new IOException("File not found: " + file);
+		return getVersion(file);
+	}
+
+	@Override
+	public InputStream open(String key, Version version, long start) throws IOException {
+		File file = new File(dir, key);
+		FileInputStream in = new FileInputStream(file);
+		// Check after opening so that a file replaced before the open is caught
+		Version current = getVersion(file);
+		if (current.length != version.length || !current.tag.equals(version.tag)) {
+			in.close();
+			throw new ObjectChangedException(key, version);
+		}
+		if (start > 0)
+			in.getChannel().position(start);
+		return in;
+	}
+	
+	private Version getVersion(File file) {
+		return new Version(file.length(), Long.toString(file.lastModified()));
+	}
+}
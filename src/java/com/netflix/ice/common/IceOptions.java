@@ -146,6 +146,25 @@ public class IceOptions {
      */
     public static final String MONTHLY_CACHE_SIZE = "ice.monthlycachesize";
 
+    /**
+     * Boolean flag for reader to convert cost and usage data files to uncompressed memory-mapped files in the local directory
+     * and query them in place rather than loading them onto the heap. Default is false.
+     */
+    public static final String MAPPED_DATA_FILES = "ice.mappedDataFiles";
+
+    /**
+     * Maximum size in megabytes of the reader's cache of query results. Cached results are dropped
+     * whenever the reader picks up newly processed data. Set to 0 to disable. Default is 256.
+     */
+    public static final String QUERY_CACHE_SIZE_MB = "ice.queryCacheSizeMB";
+
+    /**
+     * Heap budget in megabytes for the data files loaded by the reader. Files are evicted by their
+     * estimated size across all the data managers. Set to 0 to instead bound each data manager
+     * by ice.monthlycachesize files. Default is half of the maximum heap size.
+     */
+    public static final String DATA_CACHE_SIZE_MB = "ice.dataCacheSizeMB";
+
     /**
      * url prefix, e.g. http://ice.netflix.com/
      */
@@ -161,6 +180,11 @@ public class IceOptions {
      */
     public static final String PROCESS_ONCE = "ice.processOnce";
     
+    /**
+     * process cost and usage report files as they are read from S3 rather than downloading them to local disk first
+     */
+    public static final String STREAM_REPORTS = "ice.streamReports";
+    
     /**
      * enable reader to set reprocess flags and start processor
      */
@@ -0,0 +1,67 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of the contents of stored objects such as the report files in a billing bucket.
+ */
+public interface ObjectFetcher {
+	/**
+	 * Size and version of an object. The tag identifies the contents of the object, e.g. the S3 ETag or versionId.
+	 */
+	public static class Version {
+		public final long length;
+		public final String tag;
+		
+		public Version(long length, String tag) {
+			this.length = length;
+			this.tag = tag;
+		}
+		
+		@Override
+		public String toString() {
+			return tag + " (" + length + " bytes)";
+		}
+	}
+	
+	/**
+	 * Thrown when opening a version of an object that has since been replaced.
+	 * Reads of the old version can't be resumed, so this shouldn't be retried.
+	 */
+	public static class ObjectChangedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public ObjectChangedException(String key, Version version) {
+			super("object " + key + " no longer matches version " + version);
+		}
+	}
+	
+	/**
+	 * Get the current version of the object
+	 */
+	public Version getVersion(String key) throws IOException;
+	
+	/**
+	 * Open a stream on the given version of the object that starts at the given byte offset.
+	 * Throws ObjectChangedException if the object has been replaced by a different version.
+	 */
+	public InputStream open(String key, Version version, long start) throws IOException;
+}
@@ -0,0 +1,149 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.ice.common.ObjectFetcher.ObjectChangedException;
+
+/**
+ * InputStream over an object that survives dropped connections. When a read fails or the stream ends
+ * before the full object has been read, the object is reopened at the current offset and reading continues
+ * from there, so the consumer never sees the failure unless the retries run out.
+ * 
+ * Every open is pinned to the version of the object that was current when the stream was created. If the
+ * object is replaced part way through, the read fails with an ObjectChangedException rather than splicing
+ * bytes from two versions together.
+ */
+public class RangedRetryInputStream extends InputStream {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+    
+	private final ObjectFetcher fetcher;
+	private final String key;
+	private final ObjectFetcher.Version version;
+	private final long length;
+	private final int maxRetries;
+	private final long retryDelayMillis;
+	private InputStream in;
+	private long position;
+	
+	public RangedRetryInputStream(ObjectFetcher fetcher, String key, int maxRetries, long retryDelayMillis) throws IOException {
+		this(fetcher, key, fetcher.getVersion(key), 0, maxRetries, retryDelayMillis);
+	}
+	
+	/**
+	 * Open the stream at an offset into a version of an object that is already known
+	 */
+	public RangedRetryInputStream(ObjectFetcher fetcher, String key, ObjectFetcher.Version version, long start, int maxRetries, long retryDelayMillis) throws IOException {
+		this.fetcher = fetcher;
+		this.key = key;
+		this.version = version;
+		this.length = version.length;
+		this.maxRetries = maxRetries;
+		this.retryDelayMillis = retryDelayMillis;
+		this.in = fetcher.open(key, version, start);
+		this.position = start;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int len = read(b, 0, 1);
+		return len < 0 ? -1 : b[0] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		
+		int retryCount = 0;
+		while (true) {
+			Exception error = null;
+			try {
+				if (in == null) {
+					error = new IOException("unable to reopen " + key + " at offset " + position);
+				}
+				else {
+					int n = in.read(b, off, len);
+					if (n >= 0) {
+						position += n;
+						return n;
+					}
+					if (position >= length)
+						return -1;
+					error = new EOFException("stream ended at " + position + " of " + length + " bytes");
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				error = e;
+			}
+			
+			if (retryCount >= maxRetries)
+				throw error instanceof IOException ? (IOException) error : new IOException("Error reading " + key, error);
+			retryCount++;
+			logger.warn("error reading " + key + " at offset " + position + ", reopen and retry " + retryCount + ": " + error);
+			closeStream();
+			try {
+				// Sleep for a while with some exponential back off
+				Thread.sleep(retryDelayMillis * retryCount * retryCount);
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException("interrupted reading " + key);
+			}
+			try {
+				in = fetcher.open(key, version, position);
+			}
+			catch (ObjectChangedException e) {
+				throw e;
+			}
+			catch (IOException | RuntimeException e) {
+				logger.warn("error reopening " + key + " at offset " + position + ": " + e);
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of bytes read from the object
+	 */
+	public long getPosition() {
+		return position;
+	}
+	
+	private void closeStream() {
+		if (in == null)
+			return;
+		try {
+			in.close();
+		}
+		catch (Exception e) {
+		}
+		in = null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closeStream();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.netflix.ice.tag.TagType;
+
+/**
+ * Pre-aggregated versions of the non-resource summary data that keep only some of the tags
+ * of each TagGroup. The tags that aren't kept are set to null and the cost and usage of all the
+ * TagGroups that then match are summed together.
+ * 
+ * Operation is kept in every cube because the reader always filters on operations to avoid
+ * double counting borrowed/lent and savings values.
+ * 
+ * Cubes are listed from smallest to largest so the reader can pick the first one that can answer a query.
+ */
+public enum RollupCube {
+	productOperation(TagType.Product, TagType.Operation),
+	accountProduct(TagType.Account, TagType.Product, TagType.Operation),
+	regionProduct(TagType.Region, TagType.Product, TagType.Operation),
+	accountRegionProduct(TagType.Account, TagType.Region, TagType.Product, TagType.Operation);
+	
+	private final Set<TagType> tagTypes;
+	
+	private RollupCube(TagType first, TagType... rest) {
+		this.tagTypes = EnumSet.of(first, rest);
+	}
+	
+	public boolean keeps(TagType tagType) {
+		return tagTypes.contains(tagType);
+	}
+	
+	/**
+	 * Get the TagGroup in the cube that the supplied TagGroup is aggregated into
+	 */
+	public TagGroup rollup(TagGroup tg) {
+		return TagGroup.getTagGroup(
+				keeps(TagType.Account) ? tg.account : null,
+				keeps(TagType.Region) ? tg.region : null,
+				null,
+				tg.product,
+				tg.operation,
+				null,
+				null);
+	}
+	
+	/**
+	 * Get the name used in the data file names for the cube of the product data, e.g. all_accountProduct
+	 */
+	public String getProdName(String prodName) {
+		return prodName + "_" + name();
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * ObjectFetcher for the objects in an S3 bucket. Offsets are read using ranged GETs.
+ * Versions are pinned by versionId in versioned buckets and by an If-Match on the ETag otherwise.
+ */
+public class S3ObjectFetcher implements ObjectFetcher, Closeable {
+	private final AmazonS3Client s3Client;
+	private final String bucketName;
+	
+	private static final String versionPrefix = "versionId:";
+	
+	public S3ObjectFetcher(String bucketName, String bucketRegion, String accountId, String assumeRole, String externalId) {
+		this.s3Client = AwsUtils.getAmazonS3Client(bucketRegion, accountId, assumeRole, externalId);
+		this.bucketName = bucketName;
+	}
+
+	@Override
+	public Version getVersion(String key) throws IOException {
+		try {
+			ObjectMetadata metadata = s3Client.getObjectMetadata(bucketName, key);
+			String versionId = metadata.getVersionId();
+			// Unversioned buckets report a null versionId
+			return new Version(metadata.getContentLength(), versionId == null || versionId.equals("null") ? metadata.getETag() : versionPrefix + versionId);
+		}
+		catch (SdkClientException e) {
+			throw new IOException("Error getting metadata for " + key, e);
+		}
+	}
+
+	@Override
+	public InputStream open(String key, Version version, long start) throws IOException {
+		GetObjectRequest request;
+		if (version.tag.startsWith(versionPrefix)) {
+			request = new GetObjectRequest(bucketName, key, version.tag.substring(versionPrefix.length()));
+		}
+		else {
+			request = new GetObjectRequest(bucketName, key);
+			request.setMatchingETagConstraints(Collections.singletonList(version.tag));
+		}
+		if (start > 0)
+			request.setRange(start);
+		S3Object object;
+		try {
+			object = s3Client.getObject(request);
+		}
+		catch (SdkClientException e) {
+			throw new IOException("Error opening " + key + " at offset " + start, e);
+		}
+		// The client returns null when the ETag constraint isn't met
+		if (object == null)
+			throw new ObjectChangedException(key, version);
+		return object.getObjectContent();
+	}
+
+	@Override
+	public void close() {
+        if (s3Client != AwsUtils.getAmazonS3Client())
+            s3Client.shutdown();
+	}
+}
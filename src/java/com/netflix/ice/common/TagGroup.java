@@ -17,6 +17,8 @@
  */
 package com.netflix.ice.common;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.tag.*;
@@ -140,7 +142,9 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
         return result;
     }
 
-    private static Map<TagGroup, TagGroup> tagGroups = Maps.newConcurrentMap();
+    // Weakly held so that TagGroups no longer referenced by any data set can be garbage collected.
+    // Equality only depends on the tags, so a TagGroup that's evicted and later recreated is interchangeable.
+    private static Interner<TagGroup> tagGroups = Interners.newWeakInterner();
 
     public static TagGroup getTagGroup(
     		String account, String region, String zone, String product, String operation, String usageTypeName, String usageTypeUnit,
@@ -156,15 +160,7 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
     }
     
     public static TagGroup getTagGroup(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup) {
-        TagGroup newOne = new TagGroup(account, region, zone, product, operation, usageType, resourceGroup);
-        TagGroup oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+        return tagGroups.intern(new TagGroup(account, region, zone, product, operation, usageType, resourceGroup));
     }
     
     public TagGroup withOperation(Operation op) {
@@ -219,6 +215,126 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
             }
         }
 
+        /**
+         * Serialize a list of TagGroups as a dictionary. Each distinct tag is written once to a table for its dimension
+         * and each TagGroup is written as VarInt indecies into the tables, with zero representing a null tag.<br/>
+         * 
+         * 1. Account, region, zone, product, operation, usage type, and resource group tables: count (int) followed by the tags<br/>
+         * 2. TagGroup count (int)<br/>
+         * 3. TagGroup Array of table indecies<br/>
+         */
+        public static void serializeDictionary(DataOutput out, List<TagGroup> tagGroups) throws IOException {
+        	Map<Account, Integer> accounts = Maps.newLinkedHashMap();
+        	Map<Region, Integer> regions = Maps.newLinkedHashMap();
+        	Map<Zone, Integer> zones = Maps.newLinkedHashMap();
+        	Map<Product, Integer> products = Maps.newLinkedHashMap();
+        	Map<Operation, Integer> operations = Maps.newLinkedHashMap();
+        	Map<UsageType, Integer> usageTypes = Maps.newLinkedHashMap();
+        	Map<ResourceGroup, Integer> resourceGroups = Maps.newLinkedHashMap();
+        	
+        	int[] indecies = new int[tagGroups.size() * 7];
+        	int i = 0;
+        	for (TagGroup tg: tagGroups) {
+        		indecies[i++] = getIndex(accounts, tg.account);
+        		indecies[i++] = getIndex(regions, tg.region);
+        		indecies[i++] = getIndex(zones, tg.zone);
+        		indecies[i++] = getIndex(products, tg.product);
+        		indecies[i++] = getIndex(operations, tg.operation);
+        		indecies[i++] = getIndex(usageTypes, tg.usageType);
+        		indecies[i++] = getIndex(resourceGroups, tg.resourceGroup);
+        	}
+        	
+        	out.writeInt(accounts.size());
+        	for (Account a: accounts.keySet())
+        		out.writeUTF(a.getId());
+        	out.writeInt(regions.size());
+        	for (Region r: regions.keySet())
+        		out.writeUTF(r.toString());
+        	out.writeInt(zones.size());
+        	for (Zone z: zones.keySet()) {
+        		out.writeUTF(z.region.toString());
+        		out.writeUTF(z.toString());
+        	}
+        	out.writeInt(products.size());
+        	for (Product p: products.keySet())
+        		out.writeUTF(p.getServiceCode());
+        	out.writeInt(operations.size());
+        	for (Operation o: operations.keySet())
+        		out.writeUTF(o.toString());
+        	out.writeInt(usageTypes.size());
+        	for (UsageType ut: usageTypes.keySet())
+        		UsageType.serialize(out, ut);
+        	out.writeInt(resourceGroups.size());
+        	for (ResourceGroup rg: resourceGroups.keySet())
+        		ResourceGroup.serialize(out, rg);
+        	
+        	out.writeInt(tagGroups.size());
+        	for (int j = 0; j < indecies.length; j++)
+        		VarInt.write(out, indecies[j]);
+        }
+        
+        private static <T> int getIndex(Map<T, Integer> table, T tag) {
+        	if (tag == null)
+        		return 0;
+        	Integer index = table.get(tag);
+        	if (index == null) {
+        		index = table.size() + 1;
+        		table.put(tag, index);
+        	}
+        	return index;
+        }
+        
+        public static List<TagGroup> deserializeDictionary(AccountService accountService, ProductService productService, int numUserTags, DataInput in) throws IOException, BadZone {
+        	Account[] accounts = new Account[in.readInt() + 1];
+        	for (int i = 1; i < accounts.length; i++)
+        		accounts[i] = accountService.getAccountById(in.readUTF());
+        	Region[] regions = new Region[in.readInt() + 1];
+        	for (int i = 1; i < regions.length; i++)
+        		regions[i] = Region.getRegionByName(in.readUTF());
+        	Zone[] zones = new Zone[in.readInt() + 1];
+        	for (int i = 1; i < zones.length; i++) {
+        		Region region = Region.getRegionByName(in.readUTF());
+        		zones[i] = region.getZone(in.readUTF());
+        	}
+        	Product[] products = new Product[in.readInt() + 1];
+        	for (int i = 1; i < products.length; i++)
+        		products[i] = productService.getProductByServiceCode(in.readUTF());
+        	Operation[] operations = new Operation[in.readInt() + 1];
+        	for (int i = 1; i < operations.length; i++)
+        		operations[i] = Operation.deserializeOperation(in.readUTF());
+        	UsageType[] usageTypes = new UsageType[in.readInt() + 1];
+        	for (int i = 1; i < usageTypes.length; i++)
+        		usageTypes[i] = UsageType.deserialize(in);
+        	ResourceGroup[] resourceGroups = new ResourceGroup[in.readInt() + 1];
+        	for (int i = 1; i < resourceGroups.length; i++)
+        		resourceGroups[i] = ResourceGroup.deserialize(in, numUserTags);
+        	
+        	int numKeys = in.readInt();
+        	List<TagGroup> tagGroups = Lists.newArrayListWithCapacity(numKeys);
+        	for (int i = 0; i < numKeys; i++) {
+        		Account account = accounts[VarInt.read(in)];
+        		Region region = regions[VarInt.read(in)];
+        		Zone zone = zones[VarInt.read(in)];
+        		Product product = products[VarInt.read(in)];
+        		Operation operation = operations[VarInt.read(in)];
+        		UsageType usageType = usageTypes[VarInt.read(in)];
+        		ResourceGroup resourceGroup = resourceGroups[VarInt.read(in)];
+        		tagGroups.add(TagGroup.getTagGroup(account, region, zone, product, operation, usageType, resourceGroup));
+        	}
+        	return tagGroups;
+        }
+        
+        /**
+         * Deserialize a TagGroup count followed by the TagGroups each written with serialize()
+         */
+        public static List<TagGroup> deserializeList(AccountService accountService, ProductService productService, int numUserTags, DataInput in) throws IOException, BadZone {
+        	int numKeys = in.readInt();
+        	List<TagGroup> tagGroups = Lists.newArrayListWithCapacity(numKeys);
+        	for (int i = 0; i < numKeys; i++)
+        		tagGroups.add(deserialize(accountService, productService, numUserTags, in));
+        	return tagGroups;
+        }
+        
         public static TreeMap<Long, Collection<TagGroup>> deserializeTagGroups(AccountService accountService, ProductService productService, int numUserTags, DataInput in) throws IOException, BadZone {
             int numCollections = in.readInt();
             TreeMap<Long, Collection<TagGroup>> result = Maps.newTreeMap();
@@ -76,14 +76,8 @@ public class TagGroupRI extends TagGroupArn<ReservationArn> {
     
     public static TagGroupRI get(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, ReservationArn reservationArn) {
         TagGroupRI newOne = new TagGroupRI(account, region, zone, product, operation, usageType, resourceGroup, reservationArn);
-        TagGroupRI oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+        TagGroupRI oldOne = tagGroups.putIfAbsent(newOne, newOne);
+        return oldOne != null ? oldOne : newOne;
     }
 
     @Override
@@ -71,14 +71,8 @@ public class TagGroupSP extends TagGroupArn<SavingsPlanArn> {
     
     public static TagGroupSP get(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, SavingsPlanArn savingsPlanArn) {
         TagGroupSP newOne = new TagGroupSP(account, region, zone, product, operation, usageType, resourceGroup, savingsPlanArn);
-        TagGroupSP oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+        TagGroupSP oldOne = tagGroups.putIfAbsent(newOne, newOne);
+        return oldOne != null ? oldOne : newOne;
     }
 
 
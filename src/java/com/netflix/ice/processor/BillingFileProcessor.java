@@ -44,6 +44,8 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Class to process billing files and produce tag, usage, cost output files for reader/UI.
@@ -65,6 +67,8 @@ public class BillingFileProcessor extends Poller {
     private Instances instances;
     
     private MonthlyReportProcessor cauProcessor;
+    // Pool for the reservation and savings plan processors to work on the hours concurrently. Reused for every month.
+    private ExecutorService hourPool;
     
 
     public BillingFileProcessor(ProcessorConfig config) throws Exception {
@@ -72,6 +76,7 @@ public class BillingFileProcessor extends Poller {
     	this.workBucketConfig = config.workBucketConfig;
         
         cauProcessor = new CostAndUsageReportProcessor(config);
+        hourPool = config.numthreads > 1 ? Executors.newFixedThreadPool(config.numthreads) : null;
     }
 
     @Override
@@ -192,7 +197,8 @@ public class BillingFileProcessor extends Poller {
         else {
         	logger.info("Process reservations pulled from the accounts");
         }
-        SavingsPlanProcessor savingsPlanProcessor = new SavingsPlanProcessor(costAndUsageData, config.accountService);
+        reservationProcessor.setPool(hourPool);
+        SavingsPlanProcessor savingsPlanProcessor = new SavingsPlanProcessor(costAndUsageData, config.accountService, hourPool);
 
 		// Initialize the price lists
     	Map<Product, InstancePrices> prices = Maps.newHashMap();
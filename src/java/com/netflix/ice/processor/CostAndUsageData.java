@@ -24,6 +24,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -53,6 +54,7 @@ import com.netflix.ice.common.Config;
 import com.netflix.ice.common.Config.WorkBucketConfig;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.PurchaseOption;
+import com.netflix.ice.common.RollupCube;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.common.Config.TagCoverage;
 import com.netflix.ice.common.TagGroupRI;
@@ -74,6 +76,7 @@ public class CostAndUsageData {
     private final long startMilli;
     
     private Map<Product, DataSerializer> dataByProduct;
+    private Map<Product, PrimitiveDataSerializer> accumulators; // only used when accumulating line items
     
     private final WorkBucketConfig workBucketConfig;
     private final AccountService accountService;
@@ -90,11 +93,28 @@ public class CostAndUsageData {
     private boolean cacheTagGroups;
     
 	public CostAndUsageData(long startMilli, WorkBucketConfig workBucketConfig, List<UserTagKey> userTagKeys, Config.TagCoverage tagCoverage, AccountService accountService, ProductService productService) {
+		this(startMilli, workBucketConfig, userTagKeys, tagCoverage, accountService, productService, false);
+	}
+	
+	/*
+	 * Constructor that optionally accumulates the cost and usage data in PrimitiveDataSerializers. Used by the CUR file processors
+	 * to accumulate line items without allocating CostAndUsage objects. The cost and usage data can only be added to and then
+	 * merged into a regular CostAndUsageData using putAll(). get() returns null for all products.
+	 */
+	public CostAndUsageData(long startMilli, WorkBucketConfig workBucketConfig, List<UserTagKey> userTagKeys, Config.TagCoverage tagCoverage, AccountService accountService, ProductService productService,
+			boolean primitiveAccumulators) {
 		this.startMilli = startMilli;
         this.userTagKeys = userTagKeys;
         
         this.dataByProduct = Maps.newHashMap();
-		this.dataByProduct.put(null, new DataSerializer(0)); // Non-resource data has no user tags
+        if (primitiveAccumulators) {
+        	this.accumulators = Maps.newHashMap();
+        	this.accumulators.put(null, new PrimitiveDataSerializer(0)); // Non-resource data has no user tags
+        }
+        else {
+        	this.accumulators = null;
+        	this.dataByProduct.put(null, new DataSerializer(0)); // Non-resource data has no user tags
+        }
 		        
         this.workBucketConfig = workBucketConfig;
         this.accountService = accountService;
@@ -120,6 +140,7 @@ public class CostAndUsageData {
 		this.startMilli = other.startMilli;
         this.userTagKeys = userTagKeys;
         this.dataByProduct = Maps.newHashMap();
+        this.accumulators = null;
 		this.dataByProduct.put(null, new DataSerializer(0)); // Non-resource data has no user tags
         this.workBucketConfig = other.workBucketConfig;
         this.accountService = other.accountService;
@@ -182,6 +203,10 @@ public class CostAndUsageData {
 	}
 	
     public int getNum(Product product) {
+    	if (accumulators != null) {
+    		PrimitiveDataSerializer pds = accumulators.get(product);
+    		return pds == null ? 0 : pds.getNum();
+    	}
     	DataSerializer ds = dataByProduct.get(product);
         return ds == null ? 0 : ds.getNum();
     }
@@ -191,17 +216,21 @@ public class CostAndUsageData {
     }
     
     public void add(Product product, int i, TagGroup tagGroup, double cost, double usage) {
+    	if (accumulators != null) {
+    		PrimitiveDataSerializer pds = accumulators.get(product);
+    		if (pds == null) {
+    			pds = new PrimitiveDataSerializer(userTagKeys.size());
+    			accumulators.put(product, pds);
+    		}
+    		pds.add(i, tagGroup, cost, usage);
+    		return;
+    	}
     	DataSerializer ds = dataByProduct.get(product);
     	if (ds == null) {
     		ds = new DataSerializer(userTagKeys.size());
     		dataByProduct.put(product, ds);
     	}
-        CostAndUsage oldV = ds.get(i, tagGroup);
-        if (oldV != null) {
-        	cost += oldV.cost;
-            usage += oldV.usage;
-        }
-        ds.put(i, tagGroup, new CostAndUsage(cost, usage));
+        ds.add(i, tagGroup, cost, usage);
     }
 
 	public ReadWriteTagCoverageData getTagCoverage(Product product) {
@@ -225,6 +254,28 @@ public class CostAndUsageData {
 				ds.putAll(data.dataByProduct.get(product));
 			}
 		}
+		if (data.accumulators != null) {
+			for (Entry<Product, PrimitiveDataSerializer> entry: data.accumulators.entrySet()) {
+				PrimitiveDataSerializer src = entry.getValue();
+				if (accumulators != null) {
+					PrimitiveDataSerializer pds = accumulators.get(entry.getKey());
+					if (pds == null) {
+						pds = new PrimitiveDataSerializer(src.getNumUserTags());
+						accumulators.put(entry.getKey(), pds);
+					}
+					pds.putAll(src);
+					continue;
+				}
+				// Copy the accumulated values into our own serializer
+				DataSerializer ds = dataByProduct.get(entry.getKey());
+				if (ds == null) {
+					ds = new DataSerializer(src.getNumUserTags());
+					ds.enableTagGroupCache(cacheTagGroups);
+					dataByProduct.put(entry.getKey(), ds);
+				}
+				ds.putAll(src);
+			}
+		}
 		
 		if (tagCoverage != null && data.tagCoverage != null) {
 			for (Entry<Product, ReadWriteTagCoverageData> entry: data.tagCoverage.entrySet()) {
@@ -354,7 +405,7 @@ public class CostAndUsageData {
     	List<Future<Status>> futures = Lists.newArrayList();
     	
     	for (JsonFileType jft: jsonFiles)
-        	futures.add(archiveJson(jft, instanceMetrics, priceListService, pool));
+        	futures.add(archiveJson(jft, instanceMetrics, priceListService, numThreads, pool));
     	
         for (Product product: dataByProduct.keySet()) {
         	futures.add(archiveTagGroups(startMilli, product, dataByProduct.get(product).getTagGroups(), pool));
@@ -432,7 +483,7 @@ public class CostAndUsageData {
         	logger.error("Non-baseclass tag groups in archive cost data. Found " + count + " TagGroupRI or TagGroupSP tagGroups");
     }
     
-    private Future<Status> archiveJson(final JsonFileType writeJsonFiles, final InstanceMetrics instanceMetrics, final PriceListService priceListService, ExecutorService pool) {
+    private Future<Status> archiveJson(final JsonFileType writeJsonFiles, final InstanceMetrics instanceMetrics, final PriceListService priceListService, final int numThreads, final ExecutorService pool) {
     	return pool.submit(new Callable<Status>() {
     		@Override
     		public Status call() {
@@ -441,7 +492,7 @@ public class CostAndUsageData {
     	        String filename = writeJsonFiles.name() + "_all_" + AwsUtils.monthDateFormat.print(monthDateTime) + ".json";
     	        try {
 	    	        DataJsonWriter writer = new DataJsonWriter(filename,
-	    	        		monthDateTime, userTagKeys, writeJsonFiles, dataByProduct, instanceMetrics, priceListService, workBucketConfig);
+	    	        		monthDateTime, userTagKeys, writeJsonFiles, dataByProduct, instanceMetrics, priceListService, workBucketConfig, pool, numThreads);
 	    	        writer.archive();
     	        }
     	        catch (Exception e) {
@@ -540,6 +591,79 @@ public class CostAndUsageData {
         }
     }
     
+    /**
+     * Accumulates cost and usage for one period of a summary rollup in primitive arrays indexed by
+     * TagGroup id. Only the ids touched during the period are visited when the period is written out.
+     */
+    private static class RollupAccumulator {
+    	private final TagGroup[] tagGroups;
+    	private final double[] cost;
+    	private final double[] usage;
+    	private final boolean[] present;
+    	private final int[] touched;
+    	private int numTouched;
+    	private int period;
+    	
+    	RollupAccumulator(TagGroup[] tagGroups) {
+    		this.tagGroups = tagGroups;
+    		this.cost = new double[tagGroups.length];
+    		this.usage = new double[tagGroups.length];
+    		this.present = new boolean[tagGroups.length];
+    		this.touched = new int[tagGroups.length];
+    		this.numTouched = 0;
+    		this.period = -1;
+    	}
+    	
+    	void add(int id, DataSerializer.CostAndUsage v) {
+    		if (!present[id]) {
+    			present[id] = true;
+    			touched[numTouched++] = id;
+    		}
+    		cost[id] += v.cost;
+    		usage[id] += v.usage;
+    	}
+    	
+    	/**
+    	 * Start accumulating the specified period. Values already in the list for that period
+    	 * (e.g. a partial week from the previous month) are moved into the accumulator so that
+    	 * they are summed in the same order as the hourly values.
+    	 */
+    	void start(List<Map<TagGroup, DataSerializer.CostAndUsage>> list, int period, Map<TagGroup, Integer> ids) {
+    		this.period = period;
+    		if (list.size() <= period)
+    			return;
+    		Iterator<Entry<TagGroup, DataSerializer.CostAndUsage>> iter = list.get(period).entrySet().iterator();
+    		while (iter.hasNext()) {
+    			Entry<TagGroup, DataSerializer.CostAndUsage> entry = iter.next();
+    			Integer id = ids.get(entry.getKey());
+    			if (id != null) {
+    				add(id, entry.getValue());
+    				iter.remove();
+    			}
+    		}
+    	}
+    	
+    	/**
+    	 * Write the accumulated values for the current period to the list and reset.
+    	 */
+    	void finish(List<Map<TagGroup, DataSerializer.CostAndUsage>> list) {
+    		if (period < 0)
+    			return;
+    		if (numTouched > 0) {
+    			Map<TagGroup, DataSerializer.CostAndUsage> map = DataSerializer.getCreateData(list, period);
+    			for (int i = 0; i < numTouched; i++) {
+    				int id = touched[i];
+    				map.put(tagGroups[id], new CostAndUsage(cost[id], usage[id]));
+    				cost[id] = 0;
+    				usage[id] = 0;
+    				present[id] = false;
+    			}
+    			numTouched = 0;
+    		}
+    		period = -1;
+    	}
+    }
+    
     protected void aggregateSummaryData(
     		DataSerializer data,
     		int daysFromLastMonth,
@@ -547,20 +671,43 @@ public class CostAndUsageData {
             List<Map<TagGroup, DataSerializer.CostAndUsage>> weekly,
             List<Map<TagGroup, DataSerializer.CostAndUsage>> monthly
     		) {
-        // aggregate to daily, weekly and monthly
+    	Collection<TagGroup> tagGroups = data.getTagGroups();
+    	TagGroup[] tagGroupsById = tagGroups.toArray(new TagGroup[tagGroups.size()]);
+    	Map<TagGroup, Integer> ids = Maps.newHashMapWithExpectedSize(tagGroupsById.length);
+    	for (int i = 0; i < tagGroupsById.length; i++)
+    		ids.put(tagGroupsById[i], i);
+    	
+    	RollupAccumulator day = new RollupAccumulator(tagGroupsById);
+    	RollupAccumulator week = new RollupAccumulator(tagGroupsById);
+    	RollupAccumulator month = new RollupAccumulator(tagGroupsById);
+    	month.start(monthly, 0, ids);
+    	
+        // aggregate to daily, weekly and monthly in a single pass over the cells present in each hour
         for (int hour = 0; hour < data.getNum(); hour++) {
-            // this month, add to weekly, monthly and daily
-            Map<TagGroup, DataSerializer.CostAndUsage> map = data.getData(hour);
-
-            for (TagGroup tagGroup: data.getTagGroups()) {
-            	DataSerializer.CostAndUsage v = map.get(tagGroup);
-                if (v != null) {
-                    addValue(monthly, 0, tagGroup, v);
-                    addValue(daily, hour/24, tagGroup, v);
-                    addValue(weekly, (hour + daysFromLastMonth*24) / 24/7, tagGroup, v);
-                }
+        	int dayIndex = hour / 24;
+        	int weekIndex = (hour + daysFromLastMonth*24) / 24/7;
+        	if (day.period != dayIndex) {
+        		day.finish(daily);
+        		day.start(daily, dayIndex, ids);
+        	}
+        	if (week.period != weekIndex) {
+        		week.finish(weekly);
+        		week.start(weekly, weekIndex, ids);
+        	}
+        	
+            for (Entry<TagGroup, DataSerializer.CostAndUsage> entry: data.getData(hour).entrySet()) {
+            	Integer id = ids.get(entry.getKey());
+            	if (id == null)
+            		continue;
+            	DataSerializer.CostAndUsage v = entry.getValue();
+            	month.add(id, v);
+            	day.add(id, v);
+            	week.add(id, v);
             }
         }
+        day.finish(daily);
+        week.finish(weekly);
+        month.finish(monthly);
     }
         
     protected void getPartialWeek(
@@ -573,11 +720,9 @@ public class CostAndUsageData {
     	
         for (int day = 0; day < numDays; day++) {
             Map<TagGroup, DataSerializer.CostAndUsage> prevData = dailyData.getData(startDay + day);
-            for (TagGroup tagGroup: tagGroups) {
-            	DataSerializer.CostAndUsage v = prevData.get(tagGroup);
-                if (v != null) {
-                    addValue(weekly, week, tagGroup, v);
-                }
+            for (Entry<TagGroup, DataSerializer.CostAndUsage> entry: prevData.entrySet()) {
+                if (tagGroups.contains(entry.getKey()))
+                    addValue(weekly, week, entry.getKey(), entry.getValue());
             }
         }
     }
@@ -602,8 +747,9 @@ public class CostAndUsageData {
         String prodName = getProdName(product);
         int numUserTags = product == null ? 0 : getNumUserTags(); // only resource data has user tags
         
-        if (monthDateTime.isAfter(startDate)) {
-            int lastMonthYear = monthDateTime.minusMonths(1).getYear();
+        int lastMonthYear = monthDateTime.minusMonths(1).getYear();
+        // Only load last year's daily data if we need days from the last week of December
+        if (monthDateTime.isAfter(startDate) && (daysFromLastMonth > 0 || year == lastMonthYear)) {
             int lastMonthNumDays = monthDateTime.minusMonths(1).dayOfMonth().getMaximumValue();
             int lastMonthDayOfYear = monthDateTime.minusMonths(1).getDayOfYear();
             int startDay = lastMonthDayOfYear + lastMonthNumDays - daysFromLastMonth - 1;
@@ -650,6 +796,8 @@ public class CostAndUsageData {
         }
         dailyData.setData(daily, monthDateTime.getDayOfYear() -1);
         writer.archive();
+        if (product == null)
+        	archiveRollups("daily_", "_" + year, dailyData);
 
         // archive monthly
         DataSerializer monthlyData = new DataSerializer(numUserTags);
@@ -657,6 +805,8 @@ public class CostAndUsageData {
         writer = getDataWriter("monthly_" + prodName, monthlyData, true);
         monthlyData.setData(monthly, numMonths);            
         writer.archive();
+        if (product == null)
+        	archiveRollups("monthly_", "", monthlyData);
 
         // archive weekly
         DateTime weekStart = monthDateTime.withDayOfWeek(1);
@@ -669,6 +819,35 @@ public class CostAndUsageData {
         writer = getDataWriter("weekly_" + prodName, weeklyData, true);
         weeklyData.setData(weekly, index);
         writer.archive();
+        if (product == null)
+        	archiveRollups("weekly_", "", weeklyData);
+    }
+    
+    /**
+     * Write the rollup cubes for a non-resource summary data file. The cubes are built from the
+     * full contents of the file rather than just the current month so that they always cover the
+     * same time periods as the file they came from.
+     */
+    protected void archiveRollups(String prefix, String suffix, DataSerializer data) throws Exception {
+    	RollupCube[] cubes = RollupCube.values();
+    	List<List<Map<TagGroup, DataSerializer.CostAndUsage>>> rollups = Lists.newArrayList();
+    	for (int i = 0; i < cubes.length; i++)
+    		rollups.add(Lists.<Map<TagGroup, DataSerializer.CostAndUsage>>newArrayList());
+    	
+    	for (int i = 0; i < data.getNum(); i++) {
+    		for (List<Map<TagGroup, DataSerializer.CostAndUsage>> rollup: rollups)
+    			DataSerializer.getCreateData(rollup, i);
+    		for (Entry<TagGroup, DataSerializer.CostAndUsage> entry: data.getData(i).entrySet()) {
+    			for (int j = 0; j < cubes.length; j++)
+    				addValue(rollups.get(j), i, cubes[j].rollup(entry.getKey()), entry.getValue());
+    		}
+    	}
+    	
+    	for (int i = 0; i < cubes.length; i++) {
+    		DataSerializer rollupData = new DataSerializer(0);
+    		rollupData.setData(rollups.get(i), 0);
+    		getDataWriter(prefix + cubes[i].getProdName(getProdName(null)) + suffix, rollupData, false).archive();
+    	}
     }
     
     private Future<Status> archiveSummaryProductFuture(final DateTime monthDateTime, final DateTime startDate, final Product product,
@@ -210,6 +210,14 @@ public class CostAndUsageReport extends MonthlyReport {
 		return manifest.getCategoryHeader(category);
 	}
 
+	public int getNumColumns() {
+		return manifest.columns.length;
+	}
+	
+	public Column getColumn(int index) {
+		return manifest.columns[index];
+	}
+	
 	public int getColumnIndex(String category, String name) {
 		int index = manifest.getColumnIndex(category, name);
 		usedColumnIndeces.add(index);
@@ -111,7 +111,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
     		return true;
     	}        
     	
-    	if (lit == LineItemType.Tax && Double.parseDouble(lineItem.getCost()) == 0)
+    	if (lit == LineItemType.Tax && lineItem.getCostValue() == 0)
     		return true;
     	
         if (StringUtils.isEmpty(lineItem.getAccountId()) ||
@@ -289,7 +289,8 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
     		LineItem lineItem,
     		CostAndUsageData costAndUsageData,
     		Instances instances,
-    		double edpDiscount) {
+    		double edpDiscount,
+    		int numHours) {
     	
     	final long startMilli = costAndUsageData.getStartMilli();
     	final DateTime reportStart = new DateTime(startMilli, DateTimeZone.UTC);
@@ -327,7 +328,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         // Add all resources to the instance catalog
         addResourceInstance(lineItem, instances, tagGroup);
 
-        double costValue = Double.parseDouble(lineItem.getCost());
+        double costValue = lineItem.getCostValue();
         final Result result = getResult(lineItem, reportStart, reportModTime, tagGroup, processDelayed, lineItem.isReserved(), costValue);
 
         ResourceGroup resourceGroup = null;
@@ -377,7 +378,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
 
         final String description = lineItem.getDescription();
         boolean monthlyCost = StringUtils.isEmpty(description) ? false : description.toLowerCase().contains("-month");
-    	double usageValue = Double.parseDouble(lineItem.getUsageQuantity());
+    	double usageValue = lineItem.getUsageQuantityValue();
 
         if (result == Result.daily) {
             long millisStart = usageInterval.getStart().withTimeAtStartOfDay().getMillis();
@@ -386,13 +387,13 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         }
         else if (result == Result.monthly) {
             startIndex = 0;
-            endIndex = costAndUsageData.get(null).getNum();
+            endIndex = numHours;
             int numHoursInMonth = new DateTime(startMilli, DateTimeZone.UTC).dayOfMonth().getMaximumValue() * 24;
             usageValue = usageValue * endIndex / numHoursInMonth;
             costValue = costValue * endIndex / numHoursInMonth;
         }
         else if (result == Result.hourlyTruncate) {
-            endIndex = Math.min(endIndex, costAndUsageData.get(null).getNum());
+            endIndex = Math.min(endIndex, numHours);
         }
 
         if (monthlyCost) {
@@ -452,9 +453,9 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         DateTime end = new DateTime(lineItem.getReservationEndTime(), DateTimeZone.UTC).withMinuteOfHour(0).withSecondOfMinute(0).plusHours(1);
         PurchaseOption purchaseOption = ((ReservationOperation) tg.operation).getPurchaseOption();        
         
-        Double usageQuantity = Double.parseDouble(lineItem.getUsageQuantity());
+        Double usageQuantity = lineItem.getUsageQuantityValue();
         double hourlyFixedPrice = Double.parseDouble(lineItem.getAmortizedUpfrontFeeForBillingPeriod()) / usageQuantity;
-        double usagePrice = Double.parseDouble(lineItem.getCost()) / usageQuantity;
+        double usagePrice = lineItem.getCostValue() / usageQuantity;
         
         double hourlyUnusedFixedPrice = lineItem.getUnusedAmortizedUpfrontRate();
         double unusedUsagePrice = lineItem.getUnusedRecurringRate();
@@ -747,7 +748,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
     		return Operation.getBonusReservedInstances(PurchaseOption.get(purchaseOption));
     	}
     	
-        double cost = Double.parseDouble(lineItem.getCost());
+        double cost = lineItem.getCostValue();
 
         if (lineItem.getLineItemType() == LineItemType.RIFee) {
         	if (product.isElastiCache()) {
@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,8 +44,13 @@ import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.common.FileObjectFetcher;
+import com.netflix.ice.common.ObjectFetcher;
+import com.netflix.ice.common.RangedRetryInputStream;
+import com.netflix.ice.common.S3ObjectFetcher;
 import com.netflix.ice.processor.config.BillingBucket;
 import com.netflix.ice.processor.config.S3BucketConfig;
+import com.univocity.parsers.common.TextParsingException;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
@@ -53,13 +60,19 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
     private ReservationProcessor reservationProcessor = null;
     private LineItemProcessor lineItemProcessor;
     private static int MAX_DOWNLOAD_RETRIES = 4;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
 
     private Instances instances;
     private long startMilli;
     private long reportMilli;
 
 	private final ExecutorService pool;
+	// Pool for the workers that process the line items parsed from each report file
+	private final ExecutorService lineItemPool;
+	private final int numLineItemWorkers;
     private volatile boolean aborting;
+    
+    private static final int LINE_ITEM_BATCH_SIZE = 10000;
 
 	// The following two keys can be added to ice.properties for debugging purposes.
 	// For example:
@@ -74,7 +87,12 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 
 	public CostAndUsageReportProcessor(ProcessorConfig config) throws IOException {
 		this.config = config;
-		this.pool = Executors.newFixedThreadPool(config == null ? 5 : config.numthreads);
+		int numFileThreads = config == null ? 5 : config.numthreads;
+		this.pool = Executors.newFixedThreadPool(numFileThreads);
+		this.numLineItemWorkers = config == null ? 5 : config.numthreads;
+		// Every file being processed needs all of its workers running at once since the rows are dealt
+		// out to each worker's queue in turn, so make room for the workers of all the concurrent files.
+		this.lineItemPool = Executors.newFixedThreadPool(numFileThreads * numLineItemWorkers);
 		if (config != null) {
 	        reservationProcessor = new CostAndUsageReservationProcessor(
 					config.accountService.getReservationAccounts().keySet(),
@@ -171,7 +189,8 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 		public Exception exception; // If not null, the file processor failed with this exception.
 		
 		FileData() {
-			costAndUsageData = new CostAndUsageData(startMilli, config.workBucketConfig, config.resourceService == null ? null : config.resourceService.getUserTagKeys(), config.getTagCoverage(), config.accountService, config.productService);
+			// Accumulate the line items in primitive arrays, the data is merged into the monthly CostAndUsageData once the file is done
+			costAndUsageData = new CostAndUsageData(startMilli, config.workBucketConfig, config.resourceService == null ? null : config.resourceService.getUserTagKeys(), config.getTagCoverage(), config.accountService, config.productService, true);
 			delayedItems = Lists.newArrayList();
 			endMilli = startMilli;
 		}
@@ -196,6 +215,32 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 		        S3BucketConfig bc = report.getS3BucketConfig();
 
 		        try {
+			        if (isParquet(fileKey)) {
+			        	// Parquet files are always read in place so that only the columns we use are downloaded
+			        	S3ObjectFetcher fetcher = new S3ObjectFetcher(report.getS3ObjectSummary().getBucketName(), bc.getRegion(), bc.getAccountId(), bc.getAccessRole(), bc.getExternalId());
+			        	try {
+					        FileData data = new FileData();
+					        logger.info("processing " + fileKey + "...");
+			        		data.endMilli = processReportParquet(fetcher, fileKey, report, data.delayedItems, data.costAndUsageData, edpDiscount);
+				            logger.info("done processing " + filename + ", end is " + new DateTime(data.endMilli, DateTimeZone.UTC).toString() + ", " + data.costAndUsageData.getNum(null) + " hours");
+			        		return data;
+			        	}
+			        	finally {
+			        		fetcher.close();
+			        	}
+			        }
+			        
+			        if (config.streamReports) {
+			        	S3ObjectFetcher fetcher = new S3ObjectFetcher(report.getS3ObjectSummary().getBucketName(), bc.getRegion(), bc.getAccountId(), bc.getAccessRole(), bc.getExternalId());
+			        	try {
+			        		FileData data = streamAndProcessOneFile(fetcher, report, fileKey, edpDiscount);
+			        		if (data != null)
+			        			return data;
+			        	}
+			        	finally {
+			        		fetcher.close();
+			        	}
+			        }
 			        
 			        // We delete files now once processed, so if it already exists it's probably not complete, so delete it
 			        if (file.exists()) {
@@ -231,9 +276,7 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 			        // process the file
 			        logger.info("processing " + file.getName() + "...");
 			        
-					LineItem lineItem = new LineItem(config.useBlended, config.costAndUsageNetUnblendedStartDate, report);
-			        
-					data.endMilli = processReportGzip(file, report, lineItem, data.delayedItems, data.costAndUsageData, edpDiscount);
+					data.endMilli = processReportGzip(file, report, data.delayedItems, data.costAndUsageData, edpDiscount);
 					
 		            logger.info("done processing " + file.getName() + ", end is " + new DateTime(data.endMilli, DateTimeZone.UTC).toString() + ", " + data.costAndUsageData.getNum(null) + " hours");
 			        file.delete();
@@ -251,6 +294,46 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 		});
 	}
 	
+	private static boolean isParquet(String fileKey) {
+		return fileKey.endsWith(".parquet");
+	}
+	
+	/**
+	 * Process the report file as it's read from the fetcher without staging it on local disk.
+	 * Dropped connections are resumed with ranged reads. Returns null if the file couldn't be read,
+	 * in which case the caller should fall back to downloading it.
+	 */
+	protected FileData streamAndProcessOneFile(ObjectFetcher fetcher, CostAndUsageReport report, String fileKey, double edpDiscount) throws Exception {
+		String filename = fileKey.substring(fileKey.lastIndexOf("/") + 1);
+		FileData data = new FileData();
+		GZIPInputStream gzipInput = null;
+		
+        logger.info("streaming " + fileKey + "...");
+		try {
+			gzipInput = new GZIPInputStream(new RangedRetryInputStream(fetcher, fileKey, MAX_DOWNLOAD_RETRIES, 5*1000), STREAM_BUFFER_SIZE);
+			data.endMilli = processReportFile(filename, gzipInput, report, data.delayedItems, data.costAndUsageData, edpDiscount);
+		}
+		catch (IOException | TextParsingException e) {
+			// The parser reports read errors as parsing exceptions
+			if (aborting || (e instanceof TextParsingException && !(e.getCause() instanceof IOException)))
+				throw e;
+			// Throw away anything we processed before the failure
+			logger.error("Error streaming " + fileKey + ", fall back to downloading the file: " + e);
+			return null;
+		}
+		finally {
+			if (gzipInput != null) {
+				try {
+					gzipInput.close();
+				}
+				catch (IOException e) {
+				}
+			}
+		}
+        logger.info("done processing " + filename + ", end is " + new DateTime(data.endMilli, DateTimeZone.UTC).toString() + ", " + data.costAndUsageData.getNum(null) + " hours");
+        return data;
+	}
+	
 	@Override
 	public long downloadAndProcessReport(
 			DateTime dataTime,
@@ -309,23 +392,24 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 				continue; // we get these when aborting
 			
 			if (fd.exception != null) {
-				// We had an unrecoverable error, shut everything down
+				// We had an unrecoverable error, stop the rest of this report's files. The pools are kept for the next report.
 				aborting = true;
 				logger.error("Unrecoverable error processing CUR file, abort processing the rest of the report");
-				pool.shutdownNow();
-				pool.awaitTermination(60, TimeUnit.SECONDS);
+				for (Future<FileData> f: fileData)
+					f.cancel(true);
 				throw new Exception("Unrecoverable error processing CUR file, abort");
 			}
 			costAndUsageData.putAll(fd.costAndUsageData);
             endMilli = Math.max(endMilli, fd.endMilli);			
 		}
 		
-		// Process the delayed items		
+		// Process the delayed items against the hours of data from all the files
+		int numHours = costAndUsageData.getNum(null);
 		for (Future<FileData> ffd: fileData) {
 			FileData fd = ffd.get();
 	        for (String[] items: fd.delayedItems) {
 	        	lineItem.setItems(items);
-	            endMilli = processOneLine("<delayed items>", null, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount);
+	            endMilli = processOneLine("<delayed items>", null, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount, numHours);
 	        }
 		}
         return endMilli;
@@ -355,25 +439,29 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
         
 		for (File file: files) {
             logger.info("processing " + file.getName() + "...");
-			endMilli = processReportGzip(file, cau, lineItem, delayedItems, costAndUsageData, edpDiscount);
+            if (isParquet(file.getName()))
+            	endMilli = processReportParquet(new FileObjectFetcher(file.getParentFile()), file.getName(), cau, delayedItems, costAndUsageData, edpDiscount);
+            else
+            	endMilli = processReportGzip(file, cau, delayedItems, costAndUsageData, edpDiscount);
             logger.info("done processing " + file.getName() + ", end is " + new DateTime(endMilli, DateTimeZone.UTC).toString() + ", " + costAndUsageData.getNum(null) + " hours");
 		}
 
+        int numHours = costAndUsageData.getNum(null);
         for (String[] items: delayedItems) {
         	lineItem.setItems(items);
-            endMilli = processOneLine("<delayed items>", null, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount);
+            endMilli = processOneLine("<delayed items>", null, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount, numHours);
         }
         return endMilli;
 	}
 	
-	private long processReportGzip(File file, CostAndUsageReport report, LineItem lineItem, List<String[]> delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) {
+	private long processReportGzip(File file, CostAndUsageReport report, List<String[]> delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) {
         GZIPInputStream gzipInput = null;
         long endMilli = startMilli;
         
         try {
             InputStream input = new FileInputStream(file);
             gzipInput = new GZIPInputStream(input);
-        	endMilli = processReportFile(file.getName(), gzipInput, report, lineItem, delayedItems, costAndUsageData, edpDiscount);
+        	endMilli = processReportFile(file.getName(), gzipInput, report, delayedItems, costAndUsageData, edpDiscount);
         }
         catch (IOException e) {
             if (e.getMessage().equals("Stream closed"))
@@ -393,7 +481,40 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
         return endMilli;
 	}
 
-	private long processReportFile(String fileName, InputStream in, CostAndUsageReport report, LineItem lineItem, List<String[]> delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) {
+	/**
+	 * Batch of rows parsed from a report file. A batch with no rows tells the worker there's no more data.
+	 */
+	private static class LineItemBatch {
+		final long firstLineNumber;
+		final List<String[]> rows;
+		final List<LineItem.TypedValues> typedValues; // null if the rows only have strings
+		
+		LineItemBatch(long firstLineNumber, List<String[]> rows, List<LineItem.TypedValues> typedValues) {
+			this.firstLineNumber = firstLineNumber;
+			this.rows = rows;
+			this.typedValues = typedValues;
+		}
+	}
+	
+	/**
+	 * Results of one line item worker.
+	 */
+	private static class LineItemShard {
+		final CostAndUsageData costAndUsageData;
+		final List<String[]> delayedItems;
+		long endMilli;
+		
+		LineItemShard(CostAndUsageData costAndUsageData, long endMilli) {
+			this.costAndUsageData = costAndUsageData;
+			this.delayedItems = Lists.newArrayList();
+			this.endMilli = endMilli;
+		}
+	}
+	
+	/**
+	 * Parse the CSV report file and process the line items.
+	 */
+	private long processReportFile(final String fileName, InputStream in, final CostAndUsageReport report, List<String[]> delayedItems, CostAndUsageData costAndUsageData, final double edpDiscount) throws IOException {
 		CsvParserSettings settings = new CsvParserSettings();
 		settings.setHeaderExtractionEnabled(true);
 		settings.setNullValue("");
@@ -402,26 +523,139 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 		settings.selectIndexes(indecesArray);
 		settings.setColumnReorderingEnabled(false);
 		CsvParser parser = new CsvParser(settings);
+		try {
+			return processRows(fileName, parser.iterate(in), null, report, delayedItems, costAndUsageData, edpDiscount);
+		}
+        finally {
+        	parser.stopParsing();
+        }
+	}
+	
+	/**
+	 * Read the Parquet report file and process the line items.
+	 */
+	protected long processReportParquet(ObjectFetcher fetcher, String fileKey, CostAndUsageReport report, List<String[]> delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) throws IOException {
+		ParquetReportReader reader = new ParquetReportReader(fetcher, fileKey, report);
+		try {
+			return processRows(fileKey.substring(fileKey.lastIndexOf("/") + 1), reader, reader, report, delayedItems, costAndUsageData, edpDiscount);
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Process the line items of a report file. The calling thread reads the rows and hands them off
+	 * in batches to a set of workers on the line item pool. Each worker accumulates into its own
+	 * CostAndUsageData shard, and the shards are merged into the supplied CostAndUsageData once
+	 * the file has been consumed.
+	 * 
+	 * Batches are dealt out to the workers in turn and the shards are merged in worker order, so
+	 * the values are always summed in the same order and the totals don't vary from run to run.
+	 * 
+	 * If a Parquet reader is supplied, its decoded values are handed to the workers along with the rows.
+	 */
+	private long processRows(final String fileName, Iterable<String[]> reportRows, ParquetReportReader parquetReader, final CostAndUsageReport report, List<String[]> delayedItems, CostAndUsageData costAndUsageData, final double edpDiscount) throws IOException {
         long endMilli = startMilli;
         long lineNumber = 0;
+        // Items that depend on the hours in the report are delayed until all the files are merged, so
+        // the shards never prorate against their own data. Give them the hours in the month.
+        final int monthHours = new DateTime(startMilli, DateTimeZone.UTC).dayOfMonth().getMaximumValue() * 24;
+        
+        // Bound the number of parsed batches waiting for each worker so that the parser can't run ahead and fill the heap
+        List<BlockingQueue<LineItemBatch>> queues = Lists.newArrayList();
+        List<Future<LineItemShard>> workers = Lists.newArrayList();
+        for (int i = 0; i < numLineItemWorkers; i++) {
+        	final BlockingQueue<LineItemBatch> queue = new ArrayBlockingQueue<LineItemBatch>(2);
+        	queues.add(queue);
+        	final LineItemShard shard = new LineItemShard(new CostAndUsageData(startMilli, config.workBucketConfig, config.resourceService == null ? null : config.resourceService.getUserTagKeys(),
+        			config.getTagCoverage(), config.accountService, config.productService, true), startMilli);
+        	final LineItem workerLineItem = new LineItem(config.useBlended, config.costAndUsageNetUnblendedStartDate, report);
+        	workers.add(lineItemPool.submit(new Callable<LineItemShard>() {
+				@Override
+				public LineItemShard call() throws Exception {
+					for (LineItemBatch batch = queue.take(); batch.rows.size() > 0; batch = queue.take()) {
+						long batchLineNumber = batch.firstLineNumber;
+						for (int i = 0; i < batch.rows.size(); i++) {
+							String[] row = batch.rows.get(i);
+				            try {
+				            	workerLineItem.setItems(row, batch.typedValues == null ? null : batch.typedValues.get(i));
+				                shard.endMilli = processOneLine(fileName, shard.delayedItems, report.getRootName(), workerLineItem, shard.costAndUsageData, shard.endMilli, edpDiscount, monthHours);
+				            }
+				            catch (Exception e) {
+				                logger.error("Error on line " + batchLineNumber + ": " + StringUtils.join(row, ","), e);
+				            }
+				            batchLineNumber++;
+						}
+					}
+					return shard;
+				}
+        	}));
+        }
 
-		for (String[] row: parser.iterate(in)) {
-			lineNumber++;
-            try {
-            	lineItem.setItems(row);
-                endMilli = processOneLine(fileName, delayedItems, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount);
-            }
-            catch (Exception e) {
-                logger.error("Error on line " + lineNumber + ": " + StringUtils.join(row, ","), e);
-            }
+        try {
+        	int batchNumber = 0;
+        	List<String[]> rows = Lists.newArrayListWithCapacity(LINE_ITEM_BATCH_SIZE);
+        	List<LineItem.TypedValues> typedValues = parquetReader == null ? null : Lists.<LineItem.TypedValues>newArrayListWithCapacity(LINE_ITEM_BATCH_SIZE);
+			for (String[] row: reportRows) {
+				lineNumber++;
+				rows.add(row);
+				if (typedValues != null)
+					typedValues.add(parquetReader.getTypedValues());
+				if (rows.size() == LINE_ITEM_BATCH_SIZE) {
+					putBatch(queues.get(batchNumber++ % numLineItemWorkers), new LineItemBatch(lineNumber - rows.size() + 1, rows, typedValues), workers);
+					rows = Lists.newArrayListWithCapacity(LINE_ITEM_BATCH_SIZE);
+					typedValues = parquetReader == null ? null : Lists.<LineItem.TypedValues>newArrayListWithCapacity(LINE_ITEM_BATCH_SIZE);
+				}
+			}
+			if (rows.size() > 0)
+				putBatch(queues.get(batchNumber++ % numLineItemWorkers), new LineItemBatch(lineNumber - rows.size() + 1, rows, typedValues), workers);
+			
+			// Tell each of the workers that we're done
+			List<String[]> end = Lists.newArrayList();
+			for (BlockingQueue<LineItemBatch> queue: queues)
+				putBatch(queue, new LineItemBatch(lineNumber, end, null), workers);
 			
-		}        	
-		parser.stopParsing();
+			// Merge the shards
+			for (Future<LineItemShard> f: workers) {
+				LineItemShard shard = f.get();
+				costAndUsageData.putAll(shard.costAndUsageData);
+				delayedItems.addAll(shard.delayedItems);
+				endMilli = Math.max(endMilli, shard.endMilli);
+			}
+        }
+        catch (RuntimeException e) {
+        	cancel(workers);
+        	throw e;
+        }
+        catch (Exception e) {
+        	cancel(workers);
+        	throw new IOException("Error processing line items from " + fileName, e);
+        }
         return endMilli;
 	}
 	
-    private long processOneLine(String fileName, List<String[]> delayedItems, String root, LineItem lineItem, CostAndUsageData costAndUsageData, long endMilli, double edpDiscount) {
-        LineItemProcessor.Result result = lineItemProcessor.process(fileName, reportMilli, delayedItems == null, root, lineItem, costAndUsageData, instances, edpDiscount);
+	private void cancel(List<Future<LineItemShard>> workers) {
+    	for (Future<LineItemShard> f: workers)
+    		f.cancel(true);
+	}
+	
+	/**
+	 * Queue a batch for the line item workers, checking that the workers are still running if the queue stays full.
+	 */
+	private void putBatch(BlockingQueue<LineItemBatch> queue, LineItemBatch batch, List<Future<LineItemShard>> workers) throws Exception {
+		while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+			for (Future<LineItemShard> f: workers) {
+				if (f.isDone()) {
+					f.get(); // throws the worker's exception
+					throw new Exception("Line item worker stopped before the end of the data");
+				}
+			}
+		}
+	}
+	
+    private long processOneLine(String fileName, List<String[]> delayedItems, String root, LineItem lineItem, CostAndUsageData costAndUsageData, long endMilli, double edpDiscount, int numHours) {
+        LineItemProcessor.Result result = lineItemProcessor.process(fileName, reportMilli, delayedItems == null, root, lineItem, costAndUsageData, instances, edpDiscount, numHours);
 
         if (result == LineItemProcessor.Result.delay) {
             delayedItems.add(lineItem.getItems());
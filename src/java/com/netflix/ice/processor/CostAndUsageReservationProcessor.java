@@ -56,13 +56,13 @@ public class CostAndUsageReservationProcessor extends ReservationProcessor {
 	
 	@Override
 	protected void processReservations(
-			ReservationService reservationService,
+			final ReservationService reservationService,
 			CostAndUsageData data,
-			Long startMilli) {
+			final Long startMilli) throws Exception {
 		
 //		DateTime start = DateTime.now();
 		
-		DataSerializer ds = data.get(product);
+		final DataSerializer ds = data.get(product);
 		
 		// Scan the first hour and look for reservation usage with no ARN and log errors
 	    for (TagGroup tagGroup: ds.getTagGroups(0)) {
@@ -77,12 +77,15 @@ public class CostAndUsageReservationProcessor extends ReservationProcessor {
 	    	}
 	    }
 	    
-	    Map<Product, Integer> numHoursByProduct = product == null ? getNumHoursByProduct(reservationService, data) : null;
+	    final Map<Product, Integer> numHoursByProduct = product == null ? getNumHoursByProduct(reservationService, data) : null;
 	    
-		for (int i = 0; i < ds.getNum(); i++) {
-			// For each hour of usage...
-			processHour(i, reservationService, ds, startMilli, numHoursByProduct);
-		}
+	    // Each hour only touches its own data, so the hours can be processed concurrently
+	    ds.forEachHour(pool, new DataSerializer.HourProcessor() {
+			@Override
+			public void process(int hour) {
+				processHour(hour, reservationService, ds, startMilli, numHoursByProduct);
+			}
+	    });
 				
 //		logger.info("process time in seconds: " + Seconds.secondsBetween(start, DateTime.now()).getSeconds());
 	}
@@ -19,11 +19,20 @@ package com.netflix.ice.processor;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.lang.reflect.Type;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
@@ -32,12 +41,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
 import com.netflix.ice.common.Config.WorkBucketConfig;
 import com.netflix.ice.common.PurchaseOption;
 import com.netflix.ice.common.TagGroup;
@@ -53,7 +59,8 @@ import com.netflix.ice.reader.InstanceMetrics;
 import com.netflix.ice.tag.CostType;
 import com.netflix.ice.tag.FamilyTag;
 import com.netflix.ice.tag.Product;
-import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
 import com.netflix.ice.tag.UserTag;
 import com.netflix.ice.tag.UserTagKey;
 
@@ -69,10 +76,16 @@ public class DataJsonWriter extends DataFile {
     protected InstanceMetrics instanceMetrics;
     protected InstancePrices ec2Prices;
     protected InstancePrices rdsPrices;
+    // Pool shared with the other archive tasks, null to write the products one at a time
+    private final ExecutorService pool;
+    private final int numThreads;
+    private final int chunkSize = 1024 * 1024;
+    private final Gson gson = new Gson();
+    private final ConcurrentMap<NormalizedRatesKey, String> normalizedRatesCache = Maps.newConcurrentMap();
     
 	public DataJsonWriter(String name, DateTime monthDateTime, List<UserTagKey> tagKeys, JsonFileType fileType,
 			Map<Product, DataSerializer> dataByProduct,
-			InstanceMetrics instanceMetrics, PriceListService priceListService, WorkBucketConfig workBucketConfig)
+			InstanceMetrics instanceMetrics, PriceListService priceListService, WorkBucketConfig workBucketConfig, ExecutorService pool, int numThreads)
 			throws Exception {
 		super(name, workBucketConfig);
 		this.monthDateTime = monthDateTime;
@@ -80,6 +93,8 @@ public class DataJsonWriter extends DataFile {
 		this.fileType = fileType;
 		this.dataByProduct = dataByProduct;
 	    this.instanceMetrics = instanceMetrics;
+	    this.pool = pool;
+	    this.numThreads = numThreads;
 	    if (fileType == JsonFileType.hourlyRI) {
 		    this.ec2Prices = priceListService.getPrices(monthDateTime, ServiceCode.AmazonEC2);
 		    this.rdsPrices = priceListService.getPrices(monthDateTime, ServiceCode.AmazonRDS);
@@ -89,10 +104,18 @@ public class DataJsonWriter extends DataFile {
 	// For unit testing
 	protected DataJsonWriter(DateTime monthDateTime, List<UserTagKey> tagKeys,
 			Map<Product, DataSerializer> dataByProduct) {
+		this(monthDateTime, tagKeys, dataByProduct, null, 1);
+	}
+	
+	// For unit testing
+	protected DataJsonWriter(DateTime monthDateTime, List<UserTagKey> tagKeys,
+			Map<Product, DataSerializer> dataByProduct, ExecutorService pool, int numThreads) {
 		super();
 		this.monthDateTime = monthDateTime;
 		this.tagKeys = tagKeys;
 		this.dataByProduct = dataByProduct;
+		this.pool = pool;
+		this.numThreads = numThreads;
 	}
 	
 	@Override
@@ -110,26 +133,98 @@ public class DataJsonWriter extends DataFile {
 
 	@Override
 	protected void write(TagGroupFilter filter) throws IOException {
+		List<Product> products = Lists.newArrayList();
         for (Product product: dataByProduct.keySet()) {
         	// Skip the "null" product map that doesn't have resource tags
-        	if (product == null)
-        		continue;
-        	
-        	if (fileType == JsonFileType.daily)
-            	writeDaily(dataByProduct.get(product));
-        	else
+        	if (product != null)
+        		products.add(product);
+        }
+        
+        if (pool == null || numThreads <= 1 || products.size() <= 1) {
+        	for (Product product: products)
         		write(dataByProduct.get(product));
+        	return;
         }
+        
+        // Each product is formatted by its own task. Tasks hand complete lines to the writer in chunks,
+        // so records from different products may be interleaved but never split.
+        // The products are shared out through a queue that this thread works on as well, so the write
+        // finishes even when the archive tasks hold all the pool's threads. Once the queue is empty this
+        // thread only waits for the products the helpers are still writing. Helpers that haven't started
+        // by then are cancelled.
+        final Queue<DataSerializer> queue = new ConcurrentLinkedQueue<DataSerializer>();
+        for (Product product: products)
+        	queue.add(dataByProduct.get(product));
+        final CountDownLatch written = new CountDownLatch(products.size());
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				write(queue, written, failure);
+			}
+        };
+        
+    	List<Future<?>> helpers = Lists.newArrayList();
+    	for (int i = 1; i < Math.min(numThreads, products.size()); i++)
+    		helpers.add(pool.submit(worker));
+    	try {
+    		worker.run();
+    		written.await();
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IOException(e);
+    	}
+    	finally {
+    		for (Future<?> f: helpers)
+    			f.cancel(false);
+    	}
+    	
+    	Exception e = failure.get();
+    	if (e instanceof IOException)
+    		throw (IOException) e;
+    	else if (e != null)
+    		throw new IOException(e);
+	}
+	
+	/*
+	 * Write products from the queue until it's empty. Products left after a failure are skipped,
+	 * but still counted as written so that the caller doesn't wait for them.
+	 */
+	private void write(Queue<DataSerializer> queue, CountDownLatch written, AtomicReference<Exception> failure) {
+		DataSerializer data;
+		while ((data = queue.poll()) != null) {
+			try {
+				if (failure.get() == null)
+					write(data);
+			}
+			catch (Exception e) {
+				failure.compareAndSet(null, e);
+			}
+			finally {
+				written.countDown();
+			}
+		}
 	}
 	
 	private void write(DataSerializer data) throws IOException {
-		Gson gson = new GsonBuilder().registerTypeAdapter(ResourceGroup.class, new ResourceGroupSerializer()).create();
+    	if (fileType == JsonFileType.daily)
+        	writeDaily(data);
+    	else
+    		writeHourly(data);
+	}
+	
+	private void writeHourly(DataSerializer data) throws IOException {
 		DateTimeFormatter dtf = ISODateTimeFormat.dateTimeNoMillis();
+		Map<TagGroup, TagGroupJson> tagGroupJson = Maps.newHashMap();
+		StringBuilder sb = new StringBuilder(chunkSize + 4096);
+		
         for (int i = 0; i < data.getNum(); i++) {
             Map<TagGroup, DataSerializer.CostAndUsage> costAndUsageMap = data.getData(i);
             if (costAndUsageMap.isEmpty())
             	continue;
             
+            String hour = dtf.print(monthDateTime.plusHours(i));
             for (Entry<TagGroup, DataSerializer.CostAndUsage> cauEntry: costAndUsageMap.entrySet()) {
             	TagGroup tg = cauEntry.getKey();
             	boolean rates = false;
@@ -138,17 +233,21 @@ public class DataJsonWriter extends DataFile {
             		if (!rates)
             			continue;
             	}
-
-            	DataSerializer.CostAndUsage cau = cauEntry.getValue();
-            	Item item = new Item(dtf.print(monthDateTime.plusHours(i)), cauEntry.getKey(), cau.cost, cau.usage, rates);
-            	String json = gson.toJson(item);
-            	writer.write(json + "\n");
+            	
+            	TagGroupJson json = tagGroupJson.get(tg);
+            	if (json == null) {
+            		json = new TagGroupJson(tg, rates);
+            		tagGroupJson.put(tg, json);
+            	}
+            	json.append(sb, hour, cauEntry.getValue());
+            	if (sb.length() >= chunkSize)
+            		flush(sb);
             }
         }
+        flush(sb);
 	}
 	
 	private void writeDaily(DataSerializer data) throws IOException {
-		Gson gson = new GsonBuilder().registerTypeAdapter(ResourceGroup.class, new ResourceGroupSerializer()).create();
 		DateTimeFormatter dtf = ISODateTimeFormat.dateTimeNoMillis();
 		
         List<Map<TagGroup, DataSerializer.CostAndUsage>> daily = Lists.newArrayList();
@@ -167,18 +266,35 @@ public class DataJsonWriter extends DataFile {
         }
         
         // Write it out
+		Map<TagGroup, TagGroupJson> tagGroupJson = Maps.newHashMap();
+		StringBuilder sb = new StringBuilder(chunkSize + 4096);
         for (int day = 0; day < daily.size(); day++) {
             Map<TagGroup, DataSerializer.CostAndUsage> cauMap = daily.get(day);
             if (cauMap.isEmpty())
             	continue;
         	
+            String date = dtf.print(monthDateTime.plusDays(day));
             for (Entry<TagGroup, DataSerializer.CostAndUsage> cauEntry: cauMap.entrySet()) {
-            	DataSerializer.CostAndUsage cau = cauEntry.getValue();
-            	Item item = new Item(dtf.print(monthDateTime.plusDays(day)), cauEntry.getKey(), cau.cost, cau.usage, false);
-            	String json = gson.toJson(item);
-            	writer.write(json + "\n");
+            	TagGroupJson json = tagGroupJson.get(cauEntry.getKey());
+            	if (json == null) {
+            		json = new TagGroupJson(cauEntry.getKey(), false);
+            		tagGroupJson.put(cauEntry.getKey(), json);
+            	}
+            	json.append(sb, date, cauEntry.getValue());
+            	if (sb.length() >= chunkSize)
+            		flush(sb);
             }
         }
+        flush(sb);
+	}
+	
+	private void flush(StringBuilder sb) throws IOException {
+		if (sb.length() == 0)
+			return;
+		synchronized (writer) {
+			writer.append(sb);
+		}
+		sb.setLength(0);
 	}
 	
     private void addValue(List<Map<TagGroup, DataSerializer.CostAndUsage>> list, int index, TagGroup tagGroup, DataSerializer.CostAndUsage v) {
@@ -186,22 +302,150 @@ public class DataJsonWriter extends DataFile {
         DataSerializer.CostAndUsage existedV = map.get(tagGroup);
         map.put(tagGroup, existedV == null ? v : existedV.add(v));
     }
-
-	
-	public class ResourceGroupSerializer implements JsonSerializer<ResourceGroup> {
-		public JsonElement serialize(ResourceGroup rg, Type typeOfSrc, JsonSerializationContext context) {
-			JsonObject tags = new JsonObject();
-			
-			UserTag[] userTags = rg.getUserTags();
-			for (int i = 0; i < userTags.length; i++) {
-				if (userTags[i] == null || userTags[i].name.isEmpty())
-					continue;
-				tags.addProperty(tagKeys.get(i).name, userTags[i].name);
-			}
-			
-			return tags;
-		}
-	}
+    
+    private static JsonWriter newJsonWriter(Writer out) {
+    	// Same settings as the default Gson instance: HTML safe and nulls omitted
+    	JsonWriter jw = new JsonWriter(out);
+    	jw.setHtmlSafe(true);
+    	jw.setSerializeNulls(false);
+    	return jw;
+    }
+    
+    private static void appendNumber(StringBuilder sb, double value) {
+    	if (Double.isNaN(value) || Double.isInfinite(value))
+    		throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    	sb.append(Double.toString(value));
+    }
+    
+    /**
+     * Precomputed JSON for the fields of a record that only depend on the TagGroup.
+     * A record is written as the hour, the TagGroup fields, cost and usage followed by
+     * the instance family and normalized values when rates are requested.
+     */
+    private class TagGroupJson {
+    	private final String fields;
+    	private final boolean rates;
+    	private final String instanceFamily;
+    	private final double normalizationFactor;
+    	private final String normalizedRates;
+    	
+    	TagGroupJson(TagGroup tg, boolean rates) throws IOException {
+    		StringWriter sw = new StringWriter();
+    		JsonWriter jw = newJsonWriter(sw);
+    		jw.beginObject();
+    		jw.name("org").value(String.join("/", tg.account.getParents()));
+    		jw.name("costType").value(CostType.getCostType(tg.operation).name);
+    		jw.name("accountId").value(tg.account.getId());
+    		jw.name("account").value(tg.account.getIceName());
+    		jw.name("region").value(tg.region.name);
+    		jw.name("zone").value(tg.zone == null ? null : tg.zone.name);
+    		jw.name("product").value(tg.product.getIceName());
+    		jw.name("operation").value(tg.operation.name);
+    		jw.name("usageType").value(tg.usageType.name);
+    		if (tg.resourceGroup != null) {
+    			jw.name("tags").beginObject();
+    			UserTag[] userTags = tg.resourceGroup.getUserTags();
+    			for (int i = 0; i < userTags.length; i++) {
+    				if (userTags[i] == null || userTags[i].name.isEmpty())
+    					continue;
+    				jw.name(tagKeys.get(i).name).value(userTags[i].name);
+    			}
+    			jw.endObject();
+    		}
+    		jw.endObject();
+    		jw.close();
+    		String object = sw.toString();
+    		fields = object.substring(1, object.length() - 1);
+    		this.rates = rates;
+    		
+			// EC2 & RDS instances
+    		if (rates) {
+    			instanceFamily = jsonField("instanceFamily", FamilyTag.getFamilyName(tg.usageType.name));
+    			normalizationFactor = instanceMetrics.getNormalizationFactor(tg.usageType);
+    			normalizedRates = tg.operation.isOnDemand() || tg.operation.isUsed() ? getNormalizedRates(tg) : null;
+    		}
+    		else {
+    			instanceFamily = null;
+    			normalizationFactor = 0;
+    			normalizedRates = null;
+    		}
+    	}
+    	
+    	private String jsonField(String name, String value) throws IOException {
+    		if (value == null)
+    			return null;
+    		StringWriter sw = new StringWriter();
+    		JsonWriter jw = newJsonWriter(sw);
+    		jw.beginObject();
+    		jw.name(name).value(value);
+    		jw.endObject();
+    		jw.close();
+    		String object = sw.toString();
+    		return "," + object.substring(1, object.length() - 1);
+    	}
+    	
+    	void append(StringBuilder sb, String hour, DataSerializer.CostAndUsage cau) {
+    		sb.append("{\"hour\":\"").append(hour).append("\",");
+    		sb.append(fields);
+    		sb.append(",\"cost\":");
+    		appendNumber(sb, cau.cost);
+    		sb.append(",\"usage\":");
+    		appendNumber(sb, cau.usage);
+    		if (instanceFamily != null)
+    			sb.append(instanceFamily);
+    		if (rates) {
+        		sb.append(",\"normalizedUsage\":");
+        		appendNumber(sb, cau.usage * normalizationFactor);
+    		}
+    		if (normalizedRates != null)
+    			sb.append(",\"normalizedRates\":").append(normalizedRates);
+    		sb.append("}\n");
+    	}
+    }
+    
+    /**
+     * Normalized rates only depend on the price list, region and usage type,
+     * so the serialized rates are shared by all TagGroups with the same values.
+     */
+    private String getNormalizedRates(TagGroup tg) {
+    	InstancePrices prices = tg.product.isEc2Instance() ? ec2Prices : tg.product.isRdsInstance() ? rdsPrices : null;
+    	NormalizedRatesKey key = new NormalizedRatesKey(prices, tg.region, tg.usageType);
+    	String json = normalizedRatesCache.get(key);
+    	if (json == null) {
+    		json = gson.toJson(new NormalizedRates(tg));
+    		String existing = normalizedRatesCache.putIfAbsent(key, json);
+    		if (existing != null)
+    			json = existing;
+    	}
+    	return json;
+    }
+    
+    private static class NormalizedRatesKey {
+    	private final InstancePrices prices;
+    	private final Region region;
+    	private final UsageType usageType;
+    	
+    	NormalizedRatesKey(InstancePrices prices, Region region, UsageType usageType) {
+    		this.prices = prices;
+    		this.region = region;
+    		this.usageType = usageType;
+    	}
+    	
+    	@Override
+    	public int hashCode() {
+    		return Objects.hash(prices, region, usageType);
+    	}
+    	
+    	@Override
+    	public boolean equals(Object o) {
+    		if (this == o)
+    			return true;
+    		if (o == null || getClass() != o.getClass())
+    			return false;
+    		NormalizedRatesKey other = (NormalizedRatesKey) o;
+    		return prices == other.prices && Objects.equals(region, other.region) && Objects.equals(usageType, other.usageType);
+    	}
+    }
 	
 	public class NormalizedRate {
 		Double noUpfrontHourly;
@@ -262,51 +506,5 @@ public class DataJsonWriter extends DataFile {
 			threeYearConv = threeYearConv.isNull() ? null : threeYearConv;
 		}
 	}
-	
-	public class Item {
-		String hour;
-		String org;
-		String costType;
-		String accountId;
-		String account;
-		String region;
-		String zone;
-		String product;
-		String operation;
-		String usageType;
-		ResourceGroup tags;
-		Double cost;
-		Double usage;
-		String instanceFamily;
-		Double normalizedUsage;
-		NormalizedRates normalizedRates;
-		
-		public Item(String hour, TagGroup tg, Double cost, Double usage, boolean rates) {
-			this.hour = hour;
-			this.cost = cost;
-			this.usage = usage;
-			
-			org = String.join("/", tg.account.getParents());
-			costType = CostType.getCostType(tg.operation).name;
-			accountId = tg.account.getId();
-			account = tg.account.getIceName();
-			region = tg.region.name;
-			zone = tg.zone == null ? null : tg.zone.name;
-			product = tg.product.getIceName();
-			operation = tg.operation.name;
-			usageType = tg.usageType.name;
-			tags = tg.resourceGroup;
-			
-			// EC2 & RDS instances
-			if (rates) {
-				instanceFamily = FamilyTag.getFamilyName(tg.usageType.name);
-				normalizedUsage = usage == null ? null : usage * instanceMetrics.getNormalizationFactor(tg.usageType);
-				
-				if (tg.operation.isOnDemand() || tg.operation.isUsed()) {
-					normalizedRates = new NormalizedRates(tg);
-				}
-			}
-		}
-	}
 
 }
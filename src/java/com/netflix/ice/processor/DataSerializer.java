@@ -5,12 +5,18 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +27,7 @@ import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.DataVersion;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.VarInt;
 import com.netflix.ice.tag.ResourceGroup.ResourceException;
 import com.netflix.ice.tag.Zone.BadZone;
 
@@ -84,7 +91,9 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
     // This set is only maintained for the master CostAndUsageData container since it's only needed by
     // the post-processing steps. Individual CoatAndUsageData objects created for each separate CUR report
     // don't require it and run much faster if we don't have to maintain this master set.
-    protected Collection<TagGroup> tagGroups;
+    // Each tagGroup carries a count of the intervals it's present in so that removing it from the
+    // last one doesn't require a scan of all the other intervals.
+    protected TagGroupCounts tagGroups;
     
     // number of user tags in the resourceGroups. Set to -1 when constructed for deserialization.
     // will be initialized when read in.
@@ -92,7 +101,7 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
 		
 	public DataSerializer(int numUserTags) {
 		this.numUserTags = numUserTags;
-		this.tagGroups = ConcurrentHashMap.newKeySet();
+		this.tagGroups = new TagGroupCounts();
 		this.data = Lists.newArrayList();
 	}
 
@@ -109,9 +118,9 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
 		if (!enabled)
 			tagGroups = null;
 		else if (tagGroups == null) {
-			tagGroups = ConcurrentHashMap.newKeySet();
-	        for (int i = 0; i < data.size(); i++) {
-        		tagGroups.addAll(data.get(i).keySet());	        	
+			tagGroups = new TagGroupCounts();
+	        for (int i = 0; i < getNum(); i++) {
+        		tagGroups.addedAll(getTagGroups(i));	        	
 	        }
 		}
 	}
@@ -120,7 +129,8 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
 		final int max = 2560;
 		StringBuffer sb = new StringBuffer();
 		sb.append("[\n");
-		for (Map<TagGroup, CostAndUsage> map: data) {
+		for (int i = 0; i < getNum(); i++) {
+			Map<TagGroup, CostAndUsage> map = getData(i);
 			sb.append("  {\n");
 			for (TagGroup tg: map.keySet()) {
 				sb.append("    " + tg.toString() + ": " + map.get(tg).toString() + "\n");
@@ -146,7 +156,7 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
      * @return a set of TagGroups
      */
     public Collection<TagGroup> getTagGroups() {
-        return tagGroups;
+        return tagGroups == null ? null : tagGroups.keySet();
     }
 
     /**
@@ -174,52 +184,114 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
     }
 
     public void put(int i, TagGroup tagGroup, CostAndUsage value) {
-    	getCreateData(i).put(tagGroup, value);
-    	if (tagGroups != null)
-    		tagGroups.add(tagGroup);
+    	// Only need to update the cache when the TagGroup is new to the interval
+    	if (getCreateData(i).put(tagGroup, value) == null && tagGroups != null)
+    		tagGroups.added(tagGroup);
     }
     
     public void add(int i, TagGroup tagGroup, CostAndUsage value) {
     	Map<TagGroup, CostAndUsage> map = getCreateData(i);
-        map.put(tagGroup, value.add(map.get(tagGroup)));
-    	if (tagGroups != null)
-    		tagGroups.add(tagGroup);
+    	CostAndUsage existing = map.get(tagGroup);
+        map.put(tagGroup, value.add(existing));
+    	if (existing == null && tagGroups != null)
+    		tagGroups.added(tagGroup);
     }
 
     public void add(int i, TagGroup tagGroup, double cost, double usage) {
     	Map<TagGroup, CostAndUsage> map = getCreateData(i);
     	CostAndUsage existing = map.get(tagGroup);
         map.put(tagGroup, existing != null ? existing.add(cost, usage) : new CostAndUsage(cost, usage));
-    	if (tagGroups != null)
-    		tagGroups.add(tagGroup);
+    	if (existing == null && tagGroups != null)
+    		tagGroups.added(tagGroup);
     }
 
     public CostAndUsage remove(int i, TagGroup tagGroup) {
     	if (i >= data.size())
     		return null;
     	CostAndUsage existing = data.get(i).remove(tagGroup);
-    	if (existing != null) {
-    		// See if we can purge the value from the cache
-    		boolean found = false;
-    		// Most remove calls are done by RI and SP processors which
-    		// run through the data lists from 0 to the end.
-    		// Assuming most values are present throughout the list, we
-    		// can save time by checking from back to front since we'll
-    		// bail quickly if we find the tagGroup at the end.
-    		for (int j = data.size() - 1; j >= 0; j--) {
-    			Map<TagGroup, CostAndUsage> d = data.get(j);
-    			if (d.containsKey(tagGroup)) {
-    				found = true;
-    				break;
-    			}
-    		}
-    		if (!found && tagGroups != null)
-    			tagGroups.remove(tagGroup);
-    	}
+    	// Purges the value from the cache if this was the last interval holding it
+    	if (existing != null && tagGroups != null)
+    		tagGroups.removed(tagGroup);
 
     	return existing;
     }
 
+    /**
+     * Work done on a single hour of data by forEachHour()
+     */
+    public interface HourProcessor {
+    	public void process(int hour) throws Exception;
+    }
+    
+    /**
+     * Returns true if separate hours can be modified concurrently. Each hour has its own map, so
+     * updates to one hour don't touch any state shared with the other hours once the cache is suspended.
+     */
+    protected boolean supportsConcurrentHours() {
+    	return true;
+    }
+    
+    /**
+     * Run the processor on each hour of data. If a pool is supplied, the hours are processed concurrently
+     * on the pool and each call to the processor may only read and modify the data for its own hour.
+     * The TagGroup cache is suspended while the hours are processed and then rebuilt from the hourly maps,
+     * so the results are identical to processing the hours one after the other.
+     * 
+     * @param pool executor shared by the callers, or null to process the hours on the calling thread
+     */
+    public void forEachHour(ExecutorService pool, final HourProcessor processor) throws Exception {
+    	int numHours = getNum();
+    	if (pool == null || numHours <= 1 || !supportsConcurrentHours()) {
+    		for (int hour = 0; hour < numHours; hour++)
+    			processor.process(hour);
+    		return;
+    	}
+    	
+    	boolean cached = tagGroups != null;
+    	enableTagGroupCache(false);
+    	try {
+    		// Skip the hours that haven't started once one has failed
+    		final AtomicBoolean failed = new AtomicBoolean();
+	    	List<Future<Void>> futures = Lists.newArrayList();
+	    	for (int i = 0; i < numHours; i++) {
+	    		final int hour = i;
+	    		futures.add(pool.submit(new Callable<Void>() {
+	    			@Override
+	    			public Void call() throws Exception {
+	    				if (failed.get())
+	    					return null;
+	    				try {
+	    					processor.process(hour);
+	    				}
+	    				catch (Exception e) {
+	    					failed.set(true);
+	    					throw e;
+	    				}
+	    				return null;
+	    			}
+	    		}));
+	    	}
+	    	
+	    	// Wait for all the hours so none are still running when the cache is rebuilt
+	    	ExecutionException failure = null;
+	    	for (Future<Void> f: futures) {
+	    		try {
+	    			f.get();
+	    		}
+	    		catch (ExecutionException e) {
+	    			if (failure == null)
+	    				failure = e;
+	    		}
+	    	}
+	    	if (failure != null)
+	    		throw failure;
+    	}
+    	finally {
+    		if (cached)
+    			enableTagGroupCache(true);
+    	}
+    }
+    
     /**
      * Set the supplied data in the map. Called by the cost and usage data archiver to merge summary data.
      */
@@ -230,29 +302,19 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
             if (index > data.size()) {
                 getCreateData(index-1);
             }
+            Map<TagGroup, CostAndUsage> removed = null;
             if (index >= data.size()) {
                 data.add(newData.get(i));
             }
             else {
-            	Map<TagGroup, CostAndUsage> removed = data.set(index, newData.get(i));
-            	if (removed != null) {
-	            	for (TagGroup tg: removed.keySet()) {
-	            		// See if we can purge the value from the cache
-	            		boolean found = false;
-	            		for (int j = 0; j < data.size(); j++) {
-	            			Map<TagGroup, CostAndUsage> d = data.get(j);
-	            			if (d.containsKey(tg)) {
-	            				found = true;
-	            				break;
-	            			}
-	            		}
-	            		if (!found && tagGroups != null)
-	            			tagGroups.remove(tg);
-	            	}
-            	}
+            	removed = data.set(index, newData.get(i));
+            }
+            if (tagGroups != null) {
+            	// Count the new values first so that TagGroups in both maps aren't dropped from the cache
+        		tagGroups.addedAll(newData.get(i).keySet());
+            	if (removed != null)
+            		tagGroups.removedAll(removed.keySet());
             }
-        	if (tagGroups != null)
-        		tagGroups.addAll(newData.get(i).keySet());
         }
     }
 
@@ -260,35 +322,36 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
      * Merge all the data from the source into the existing destination.
      */
     void putAll(DataSerializer srcData) {
-    	List<Map<TagGroup, CostAndUsage>> newData = srcData.data;
-        for (int i = 0; i < newData.size(); i++) {
+        for (int i = 0; i < srcData.getNum(); i++) {
             if (i > data.size()) {
                 getCreateData(i-1);
             }
             if (i >= data.size()) {
-                data.add(newData.get(i));
+                data.add(srcData.data.get(i));
+            	if (tagGroups != null)
+            		tagGroups.addedAll(data.get(i).keySet());
             }
             else {
                 Map<TagGroup, CostAndUsage> existed = data.get(i);
-                for (TagGroup tg: newData.get(i).keySet()) {
-                	CostAndUsage existingValue = existed.get(tg);
-                	CostAndUsage value = newData.get(i).get(tg);
-                    existed.put(tg, existingValue == null ? value : value.add(existingValue));
+                for (Entry<TagGroup, CostAndUsage> entry: srcData.getData(i).entrySet()) {
+                	CostAndUsage existingValue = existed.get(entry.getKey());
+                	CostAndUsage value = entry.getValue();
+                    existed.put(entry.getKey(), existingValue == null ? value : value.add(existingValue));
+                    if (existingValue == null && tagGroups != null)
+                    	tagGroups.added(entry.getKey());
                 }
             }
         }
-        // Update the tagGroups cache as appropriate
-    	if (tagGroups != null) {
-    		if (srcData.tagGroups != null) {
-    			// pull from src cache
-    			tagGroups.addAll(srcData.tagGroups);
-    		}
-    		else {
-    			// get it from each interval
-    			for (int i = 0; i < newData.size(); i++)
-    				tagGroups.addAll(newData.get(i).keySet());
-    		}
-    	}
+        // Carry over any TagGroups the source cache holds that aren't present in its intervals
+    	if (tagGroups != null && srcData.tagGroups != null)
+    		tagGroups.registerAll(srcData.tagGroups.keySet());
+    }
+
+    /**
+     * Add all the data accumulated in the primitive source to the existing destination.
+     */
+    void putAll(PrimitiveDataSerializer srcData) {
+    	srcData.addTo(this);
     }
 
     Map<TagGroup, CostAndUsage> getCreateData(int i) {
@@ -305,17 +368,16 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
      *
      * 1. Version (int)<br/>
      * 2. Number of user tags (int)<br/>
-     * 3. TagGroup count (int)<br/>
-     * 4. TagGroup Array<br/>
-     * 5. Number of hours/days/weeks/months of data (int)<br/>
-     * 6. Data matrix:<br/>
-     * 		6a. Data present for TagGroup flag (boolean)<br/>
-     * 		6b. Data array for TagGroup consisting of a pair of cost and usage doubles (if flag is true)<br/>
+     * 3. TagGroup dictionary (see TagGroup.Serializer.serializeDictionary)<br/>
+     * 4. Number of hours/days/weeks/months of data (int)<br/>
+     * 5. Sparse data columns:<br/>
+     * 		5a. Count of TagGroups with non-zero data (int)<br/>
+     * 		5b. For each TagGroup with data: TagGroup index delta from the previous entry (VarInt) followed by a pair of cost and usage doubles<br/>
      */
 	@Override
 	public void serialize(DataOutput out, TagGroupFilter filter)
 			throws IOException {
-        Collection<TagGroup> keys = tagGroups;
+        Collection<TagGroup> keys = getTagGroups();
 
     	if (numUserTags == -1 && keys.size() > 0) {
      		logger.warn("Error attempting to serialize data without setting the number of user tags. Pulling value from one of the tag groups");
@@ -328,69 +390,111 @@ public class DataSerializer implements ReadWriteDataSerializer, DataVersion {
 
         out.writeInt(CUR_WORK_BUCKET_VERSION);
         out.writeInt(numUserTags);
-        out.writeInt(keys.size());
-        for (TagGroup tagGroup: keys) {
-            TagGroup.Serializer.serialize(out, tagGroup);
-        }
-
-        out.writeInt(data.size());
-        for (int i = 0; i < data.size(); i++) {
+        List<TagGroup> columnTagGroups = Lists.newArrayList(keys);
+        Map<TagGroup, Integer> columns = Maps.newHashMapWithExpectedSize(columnTagGroups.size());
+        for (TagGroup tagGroup: columnTagGroups)
+        	columns.put(tagGroup, columns.size());
+        TagGroup.Serializer.serializeDictionary(out, columnTagGroups);
+
+        out.writeInt(getNum());
+        for (int i = 0; i < getNum(); i++) {
             Map<TagGroup, CostAndUsage> map = getData(i);
-            out.writeBoolean(!map.isEmpty());
-            if (!map.isEmpty()) {
-                for (TagGroup tagGroup: keys) {
-                	CostAndUsage v = map.get(tagGroup);
-                    out.writeDouble(v == null ? 0 : v.cost);			
-                    out.writeDouble(v == null ? 0 : v.usage);			
-                }
+            int[] present = getSparseColumns(map, columns);
+            out.writeInt(present.length);
+            int previous = 0;
+            for (int column: present) {
+            	VarInt.write(out, column - previous);
+            	previous = column;
+            	CostAndUsage v = map.get(columnTagGroups.get(column));
+                out.writeDouble(v.cost);
+                out.writeDouble(v.usage);
             }
         }
 	}
+	
+	/**
+	 * Get the sorted column indecies of the TagGroups in the map that have non-zero values
+	 * and are included in the columns to be serialized.
+	 */
+	private int[] getSparseColumns(Map<TagGroup, CostAndUsage> map, Map<TagGroup, Integer> columns) {
+		int[] present = new int[map.size()];
+		int count = 0;
+		for (Entry<TagGroup, CostAndUsage> entry: map.entrySet()) {
+			if (entry.getValue() == null || entry.getValue().isZero())
+				continue;
+			Integer column = columns.get(entry.getKey());
+			if (column != null)
+				present[count++] = column;
+		}
+		present = Arrays.copyOf(present, count);
+		Arrays.sort(present);
+		return present;
+	}
 
 	@Override
 	public void deserialize(AccountService accountService,
 			ProductService productService, DataInput in) throws IOException,
 			BadZone {
     	int version = in.readInt();
-    	// Verify that the file version matches
-    	if (version != CUR_WORK_BUCKET_VERSION) {
-    		throw new IOException("Wrong file version, expected " + CUR_WORK_BUCKET_VERSION + ", got " + version);
+    	// Verify that the file version is one we can read
+    	if (version < CUR_WORK_BUCKET_DENSE_VERSION || version > CUR_WORK_BUCKET_VERSION) {
+    		throw new IOException("Wrong file version, expected " + CUR_WORK_BUCKET_DENSE_VERSION + " through " + CUR_WORK_BUCKET_VERSION + ", got " + version);
     	}
         numUserTags = in.readInt();
-        int numKeys = in.readInt();
-        List<TagGroup> keys = Lists.newArrayList();
-        for (int j = 0; j < numKeys; j++) {
-        	TagGroup tg = TagGroup.Serializer.deserialize(accountService, productService, numUserTags, in);
-            keys.add(tg);
-        	if (tagGroups != null)
-        		tagGroups.add(tg);
-        }
+        List<TagGroup> keys = version == CUR_WORK_BUCKET_VERSION ?
+        		TagGroup.Serializer.deserializeDictionary(accountService, productService, numUserTags, in) :
+        		TagGroup.Serializer.deserializeList(accountService, productService, numUserTags, in);
+        // Replacing all the data, so start the cache over
+    	if (tagGroups != null)
+    		tagGroups = new TagGroupCounts();
 
         List<Map<TagGroup, CostAndUsage>> data = Lists.newArrayList();
         int num = in.readInt();
         for (int i = 0; i < num; i++)  {
-            Map<TagGroup, CostAndUsage> map = Maps.newHashMap();
-            boolean hasData = in.readBoolean();
-            if (hasData) {
-                for (int j = 0; j < keys.size(); j++) {
-                    double cost = in.readDouble();
-                    double usage = in.readDouble();
-                    if (cost != 0 || usage != 0)
-                    	map.put(keys.get(j), new CostAndUsage(cost, usage));
-                }
-            }
-            data.add(map);
+        	data.add(version == CUR_WORK_BUCKET_DENSE_VERSION ? readDenseData(in, keys) : readSparseData(in, keys));
+        	if (tagGroups != null)
+        		tagGroups.addedAll(data.get(i).keySet());
         }
+        // Keep the dictionary entries that don't have any data in the cache
+    	if (tagGroups != null)
+    		tagGroups.registerAll(keys);
 
         this.data = data;		
 	}
+	
+	private Map<TagGroup, CostAndUsage> readDenseData(DataInput in, List<TagGroup> keys) throws IOException {
+        Map<TagGroup, CostAndUsage> map = Maps.newHashMap();
+        boolean hasData = in.readBoolean();
+        if (hasData) {
+            for (int j = 0; j < keys.size(); j++) {
+                double cost = in.readDouble();
+                double usage = in.readDouble();
+                if (cost != 0 || usage != 0)
+                	map.put(keys.get(j), new CostAndUsage(cost, usage));
+            }
+        }
+        return map;
+	}
+	
+	private Map<TagGroup, CostAndUsage> readSparseData(DataInput in, List<TagGroup> keys) throws IOException {
+		int count = in.readInt();
+        Map<TagGroup, CostAndUsage> map = Maps.newHashMapWithExpectedSize(count);
+        int column = 0;
+        for (int j = 0; j < count; j++) {
+        	column += VarInt.read(in);
+            double cost = in.readDouble();
+            double usage = in.readDouble();
+        	map.put(keys.get(column), new CostAndUsage(cost, usage));
+        }
+        return map;
+	}
 
     public void serializeCsv(OutputStreamWriter out, String resourceGroupHeader) throws IOException {
     	// write the header
     	out.write("index,");
     	TagGroup.Serializer.serializeCsvHeader(out, resourceGroupHeader);
     	out.write(",cost,usage\n");
-        for (int i = 0; i < data.size(); i++) {
+        for (int i = 0; i < getNum(); i++) {
             Map<TagGroup, CostAndUsage> map = getData(i);
             for (Entry<TagGroup, CostAndUsage> entry: map.entrySet()) {
             	out.write("" + i + ",");
@@ -101,9 +101,27 @@ public class LineItem {
 	private int savingsPlanPurchaseTermIndex = -1;
 	private int savingsPlanOfferingTypeIndex = -1;
 	
+	// Values already decoded by the report reader for the current row, null if the row only has strings
+	private TypedValues typedValues;
+	
+	// Values parsed from the current row. Parsed on first access and reset by setItems()
+	private long startMillis;
+	private long endMillis;
+	private double cost;
+	private double usageQuantity;
+	private boolean startMillisParsed;
+	private boolean endMillisParsed;
+	private boolean costParsed;
+	private boolean usageQuantityParsed;
+	
+	// Report rows repeat the same few hundred start and end times, so keep the parsed values.
+	// Each LineItem is used by a single thread, so the map doesn't need to be synchronized.
+	private final Map<String, Long> timestampMillis = Maps.newHashMap();
+	private static final int maxTimestamps = 4096;
+	
 	private static Map<String, Double> normalizationFactors = Maps.newHashMap();
 	
-	{
+	static {
 		normalizationFactors.put("nano", 0.25);
 		normalizationFactors.put("micro", 0.5);
 		normalizationFactors.put("small", 1.0);
@@ -237,8 +255,21 @@ public class LineItem {
 	}
 	
     public void setItems(String[] items) {
+    	setItems(items, null);
+    }
+    
+    /**
+     * Set the row along with any values that were already decoded from a typed report format.
+     * The typed values are used in place of parsing the strings for the same columns.
+     */
+    public void setItems(String[] items, TypedValues typedValues) {
     	this.items = items;
+    	this.typedValues = typedValues;
     	lineNumber++;
+    	startMillisParsed = false;
+    	endMillisParsed = false;
+    	costParsed = false;
+    	usageQuantityParsed = false;
         lineItemType = null;
         try {
         	lineItemType = LineItemType.valueOf(items[lineItemTypeIndex]);
@@ -410,12 +441,49 @@ public class LineItem {
     	return items[costIndex];
     }
 
+    /**
+     * Get the cost as a double. Only parsed once per row.
+     */
+    public double getCostValue() {
+    	if (!costParsed) {
+    		int index = costIndex;
+    		if (lineItemType == LineItemType.DiscountedUsage && !getRecurringFeeForUsage().isEmpty())
+    			index = reservationRecurringFeeForUsageIndex;
+    		cost = getNumber(index);
+    		costParsed = true;
+    	}
+    	return cost;
+    }
+
     public long getStartMillis() {
-        return amazonBillingDateFormatISO.parseMillis(items[startTimeIndex]);
+    	if (!startMillisParsed) {
+    		startMillis = typedValues != null && typedValues.hasMillis(startTimeIndex) ? typedValues.getMillis(startTimeIndex) : parseMillis(items[startTimeIndex]);
+    		startMillisParsed = true;
+    	}
+        return startMillis;
     }
 
     public long getEndMillis() {
-        return amazonBillingDateFormatISO.parseMillis(items[endTimeIndex]);
+    	if (!endMillisParsed) {
+    		endMillis = typedValues != null && typedValues.hasMillis(endTimeIndex) ? typedValues.getMillis(endTimeIndex) : parseMillis(items[endTimeIndex]);
+    		endMillisParsed = true;
+    	}
+        return endMillis;
+    }
+    
+    private double getNumber(int index) {
+    	return typedValues != null && typedValues.hasNumber(index) ? typedValues.getNumber(index) : Double.parseDouble(items[index]);
+    }
+    
+    private long parseMillis(String timestamp) {
+    	Long millis = timestampMillis.get(timestamp);
+    	if (millis == null) {
+    		millis = amazonBillingDateFormatISO.parseMillis(timestamp);
+    		if (timestampMillis.size() >= maxTimestamps)
+    			timestampMillis.clear();
+    		timestampMillis.put(timestamp, millis);
+    	}
+    	return millis;
     }
     
     public String getUsageType() {
@@ -519,15 +587,34 @@ public class LineItem {
     	}
 
     	if (lineItemType == LineItemType.DiscountedUsage) {
-			double usageAmount = Double.parseDouble(items[usageQuantityIndex]);
-			double normFactor = items[lineItemNormalizationFactorIndex].isEmpty() ? computeProductNormalizedSizeFactor(items[usageTypeIndex]) : Double.parseDouble(items[lineItemNormalizationFactorIndex]);
-			double productFactor = items[productNormalizationSizeFactorIndex].isEmpty() ? computeProductNormalizedSizeFactor(items[productUsageTypeIndex]) : Double.parseDouble(items[productNormalizationSizeFactorIndex]);
-			Double actualUsage = usageAmount * normFactor / productFactor;			
+			Double actualUsage = getDiscountedUsageQuantity();
 			return actualUsage.toString();
 		}
     	return items[usageQuantityIndex];
 	}
 	
+	/**
+	 * Get the usage quantity as a double. Only parsed once per row.
+	 */
+	public double getUsageQuantityValue() {
+		if (!usageQuantityParsed) {
+	    	String purchaseOption = getPurchaseOption();
+	    	if (lineItemType == LineItemType.DiscountedUsage && !purchaseOption.isEmpty() && !purchaseOption.equals("All Upfront"))
+	    		usageQuantity = getDiscountedUsageQuantity();
+	    	else
+	    		usageQuantity = getNumber(usageQuantityIndex);
+	    	usageQuantityParsed = true;
+		}
+		return usageQuantity;
+	}
+	
+	private double getDiscountedUsageQuantity() {
+		double usageAmount = getNumber(usageQuantityIndex);
+		double normFactor = items[lineItemNormalizationFactorIndex].isEmpty() ? computeProductNormalizedSizeFactor(items[usageTypeIndex]) : getNumber(lineItemNormalizationFactorIndex);
+		double productFactor = items[productNormalizationSizeFactorIndex].isEmpty() ? computeProductNormalizedSizeFactor(items[productUsageTypeIndex]) : getNumber(productNormalizationSizeFactorIndex);
+		return usageAmount * normFactor / productFactor;
+	}
+	
 	public int getPublicOnDemandCostIndex() {
 		return publicOnDemandCostIndex;
 	}
@@ -806,5 +893,62 @@ public class LineItem {
 		return savingsPlanOfferingTypeIndex >= 0 ? items[savingsPlanOfferingTypeIndex] : null;
 	}
 	
+	/**
+	 * Values of a row that were already decoded from a typed report format such as Parquet, so that
+	 * the memoized accessors don't need to parse them back from the row strings. Columns are mapped
+	 * to slots in the value arrays by a layout that is shared by all the rows of a file.
+	 */
+	public static class TypedValues {
+		private static final byte NONE = 0;
+		private static final byte MILLIS = 1;
+		private static final byte NUMBER = 2;
+		
+		private final int[] slots;
+		private final byte[] types;
+		private final long[] millis;
+		private final double[] numbers;
+		
+		/**
+		 * @param slots the slot for each column index, -1 if the column doesn't have typed values
+		 * @param numSlots the number of slots used by the layout
+		 */
+		public TypedValues(int[] slots, int numSlots) {
+			this.slots = slots;
+			this.types = new byte[numSlots];
+			this.millis = new long[numSlots];
+			this.numbers = new double[numSlots];
+		}
+		
+		public void setMillis(int slot, long value) {
+			types[slot] = MILLIS;
+			millis[slot] = value;
+		}
+		
+		public void setNumber(int slot, double value) {
+			types[slot] = NUMBER;
+			numbers[slot] = value;
+		}
+		
+		private byte getType(int index) {
+			if (index < 0 || index >= slots.length || slots[index] < 0)
+				return NONE;
+			return types[slots[index]];
+		}
+		
+		public boolean hasMillis(int index) {
+			return getType(index) == MILLIS;
+		}
+		
+		public long getMillis(int index) {
+			return millis[slots[index]];
+		}
+		
+		public boolean hasNumber(int index) {
+			return getType(index) == NUMBER;
+		}
+		
+		public double getNumber(int index) {
+			return numbers[slots[index]];
+		}
+	}
 }
-
@@ -22,6 +22,10 @@ package com.netflix.ice.processor;
  * Interface to process each line item in billing file.
  */
 public interface LineItemProcessor {
+	/**
+	 * Process a line item. numHours is the number of hours of data in the report. Monthly items
+	 * are spread across those hours and truncated items are cut off at the end of them.
+	 */
     Result process(
     		String fileName,
     		long reportMilli,
@@ -30,7 +34,8 @@ public interface LineItemProcessor {
     		LineItem lineItem, 
     		CostAndUsageData costAndUsageData,
     		Instances instances,
-    		double edpDiscount);
+    		double edpDiscount,
+    		int numHours);
 
     public static enum Result {
         delay,
@@ -0,0 +1,484 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.DelegatingSeekableInputStream;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.MessageColumnIO;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.io.SeekableInputStream;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.io.api.RecordMaterializer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.LogicalTypeAnnotation.DateLogicalTypeAnnotation;
+import org.apache.parquet.schema.LogicalTypeAnnotation.DecimalLogicalTypeAnnotation;
+import org.apache.parquet.schema.LogicalTypeAnnotation.TimeUnit;
+import org.apache.parquet.schema.LogicalTypeAnnotation.TimestampLogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ObjectFetcher;
+import com.netflix.ice.common.RangedRetryInputStream;
+import com.netflix.ice.processor.CostAndUsageReport.Column;
+
+/**
+ * Reads the line items of a Parquet cost and usage report file.
+ * 
+ * Only the columns the line item processor uses are read from the file, so with a fetcher
+ * backed by S3 only those column chunks are downloaded. Values are decoded from their Parquet
+ * types and the rows are returned in the same layout as rows parsed from the CSV files
+ * so that they can be handed to LineItem. Columns that aren't in the file are returned as empty strings.
+ * 
+ * Timestamps and numbers are also kept in their decoded form. getTypedValues() returns them
+ * for the row last returned by the iterator so that LineItem doesn't need to parse the strings.
+ * The strings are still filled in because delayed rows and the other LineItem accessors use them.
+ */
+public class ParquetReportReader implements Iterable<String[]>, Closeable {
+	private static final int MAX_READ_RETRIES = 4;
+	private static final long RETRY_DELAY_MILLIS = 5 * 1000;
+	// Forward seeks shorter than this are done by reading through the data rather than reopening the object
+	private static final long MAX_SKIP = 256 * 1024;
+	private static final long JULIAN_DAY_OF_EPOCH = 2440588;
+	private static final int MAX_TIMESTAMPS = 4096;
+	
+	private final ParquetFileReader reader;
+	private final MessageType requestedSchema;
+	private final MessageColumnIO columnIO;
+	private final int numColumns;
+	private final int[] targetIndeces;
+	private final int[] usedIndeces;
+	private final int[] typedSlots;
+	private LineItem.TypedValues typedValues;
+	// Report rows repeat the same few hundred timestamps, so keep the formatted values
+	private final Map<Long, String> formattedTimestamps = Maps.newHashMap();
+	
+	public ParquetReportReader(ObjectFetcher fetcher, String key, CostAndUsageReport report) throws IOException {
+		reader = ParquetFileReader.open(new FetcherInputFile(fetcher, key), ParquetReadOptions.builder().build());
+		MessageType fileSchema = reader.getFooter().getFileMetaData().getSchema();
+		Map<String, Type> fields = Maps.newHashMap();
+		for (Type t: fileSchema.getFields())
+			fields.put(t.getName().toLowerCase(), t);
+		
+		// Project the columns used by the line item processor
+		numColumns = report.getNumColumns();
+		List<Type> projected = Lists.newArrayList();
+		List<Integer> targets = Lists.newArrayList();
+		List<Integer> used = Lists.newArrayList();
+		for (Integer index: report.getUsedColumnIndeces()) {
+			if (index < 0 || index >= numColumns)
+				continue;
+			used.add(index);
+			Column column = report.getColumn(index);
+			Type t = fields.get(parquetColumnName(column.category, column.name));
+			if (t == null || !t.isPrimitive())
+				continue;
+			projected.add(t);
+			targets.add(index);
+		}
+		targetIndeces = toArray(targets);
+		usedIndeces = toArray(used);
+		// Typed values for a column are kept in the slot of its position in the projection
+		typedSlots = new int[numColumns];
+		Arrays.fill(typedSlots, -1);
+		for (int i = 0; i < targetIndeces.length; i++)
+			typedSlots[targetIndeces[i]] = i;
+		requestedSchema = new MessageType(fileSchema.getName(), projected);
+		reader.setRequestedSchema(requestedSchema);
+		columnIO = new ColumnIOFactory().getColumnIO(requestedSchema, fileSchema);
+	}
+	
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	/**
+	 * Get the Parquet column name for a manifest column. Parquet reports use the category and name converted
+	 * to lower case with underscores between the words, e.g. lineItem/UsageStartDate is line_item_usage_start_date
+	 * and resourceTags/user:Name is resource_tags_user_name.
+	 */
+	public static String parquetColumnName(String category, String name) {
+		StringBuilder sb = new StringBuilder();
+		appendSnakeCase(sb, category);
+		sb.append('_');
+		appendSnakeCase(sb, name);
+		return sb.toString();
+	}
+	
+	private static void appendSnakeCase(StringBuilder sb, String s) {
+		char prev = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (Character.isUpperCase(c)) {
+				if (Character.isLowerCase(prev) || Character.isDigit(prev))
+					sb.append('_');
+				sb.append(Character.toLowerCase(c));
+			}
+			else if (Character.isLetterOrDigit(c)) {
+				sb.append(c);
+			}
+			else if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '_') {
+				sb.append('_');
+			}
+			prev = c;
+		}
+	}
+	
+	@Override
+	public Iterator<String[]> iterator() {
+		return new Iterator<String[]>() {
+			private RecordReader<String[]> records = null;
+			private RowMaterializer materializer = null;
+			private long remaining = 0;
+
+			@Override
+			public boolean hasNext() {
+				try {
+					while (remaining == 0) {
+						PageReadStore pages = reader.readNextRowGroup();
+						if (pages == null)
+							return false;
+						remaining = pages.getRowCount();
+						materializer = new RowMaterializer();
+						records = columnIO.getRecordReader(pages, materializer);
+					}
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return true;
+			}
+
+			@Override
+			public String[] next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				remaining--;
+				String[] row = records.read();
+				typedValues = materializer.typedValues;
+				return row;
+			}
+		};
+	}
+	
+	/**
+	 * Get the decoded timestamps and numbers for the row last returned by the iterator
+	 */
+	public LineItem.TypedValues getTypedValues() {
+		return typedValues;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+	
+	/**
+	 * Builds the String[] row for each record with the values of the projected columns at their manifest positions
+	 */
+	private class RowMaterializer extends RecordMaterializer<String[]> {
+		private String[] row;
+		private LineItem.TypedValues typedValues;
+		private final GroupConverter root;
+		
+		RowMaterializer() {
+			final Converter[] converters = new Converter[targetIndeces.length];
+			for (int i = 0; i < converters.length; i++)
+				converters[i] = newConverter(requestedSchema.getType(i).asPrimitiveType(), targetIndeces[i], i);
+			
+			root = new GroupConverter() {
+				@Override
+				public Converter getConverter(int fieldIndex) {
+					return converters[fieldIndex];
+				}
+
+				@Override
+				public void start() {
+					row = new String[numColumns];
+					for (int i: usedIndeces)
+						row[i] = "";
+					typedValues = new LineItem.TypedValues(typedSlots, targetIndeces.length);
+				}
+
+				@Override
+				public void end() {
+				}
+			};
+		}
+
+		@Override
+		public String[] getCurrentRecord() {
+			return row;
+		}
+
+		@Override
+		public GroupConverter getRootConverter() {
+			return root;
+		}
+		
+		private Converter newConverter(PrimitiveType type, final int index, final int slot) {
+			LogicalTypeAnnotation logicalType = type.getLogicalTypeAnnotation();
+			final boolean isDecimal = logicalType instanceof DecimalLogicalTypeAnnotation;
+			final int scale = isDecimal ? ((DecimalLogicalTypeAnnotation) logicalType).getScale() : 0;
+			final boolean isDate = logicalType instanceof DateLogicalTypeAnnotation;
+			// Null if the value isn't a timestamp
+			final TimeUnit timeUnit = logicalType instanceof TimestampLogicalTypeAnnotation ? ((TimestampLogicalTypeAnnotation) logicalType).getUnit() : null;
+			
+			switch (type.getPrimitiveTypeName()) {
+			case INT96:
+				// Legacy timestamps: nanoseconds of the day followed by the julian day
+				return new PrimitiveConverter() {
+					@Override
+					public void addBinary(Binary value) {
+						ByteBuffer buf = value.toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+						long nanos = buf.getLong();
+						long julianDay = buf.getInt();
+						setMillis(index, slot, (julianDay - JULIAN_DAY_OF_EPOCH) * 24 * 3600 * 1000 + nanos / 1000000);
+					}
+				};
+				
+			case BINARY:
+			case FIXED_LEN_BYTE_ARRAY:
+				return new PrimitiveConverter() {
+					@Override
+					public void addBinary(Binary value) {
+						if (isDecimal)
+							setDecimal(index, slot, new BigDecimal(new BigInteger(value.getBytes()), scale));
+						else
+							row[index] = value.toStringUsingUTF8();
+					}
+				};
+				
+			default:
+				return new PrimitiveConverter() {
+					@Override
+					public void addBoolean(boolean value) {
+						row[index] = Boolean.toString(value);
+					}
+					
+					@Override
+					public void addDouble(double value) {
+						row[index] = Double.toString(value);
+						typedValues.setNumber(slot, value);
+					}
+					
+					@Override
+					public void addFloat(float value) {
+						row[index] = Float.toString(value);
+						typedValues.setNumber(slot, value);
+					}
+					
+					@Override
+					public void addInt(int value) {
+						if (isDate) {
+							setMillis(index, slot, value * 24L * 3600 * 1000);
+						}
+						else if (isDecimal) {
+							setDecimal(index, slot, BigDecimal.valueOf(value, scale));
+						}
+						else {
+							row[index] = Integer.toString(value);
+							typedValues.setNumber(slot, value);
+						}
+					}
+					
+					@Override
+					public void addLong(long value) {
+						if (timeUnit == TimeUnit.MILLIS) {
+							setMillis(index, slot, value);
+						}
+						else if (timeUnit == TimeUnit.MICROS) {
+							setMillis(index, slot, value / 1000);
+						}
+						else if (timeUnit == TimeUnit.NANOS) {
+							setMillis(index, slot, value / 1000000);
+						}
+						else if (isDecimal) {
+							setDecimal(index, slot, BigDecimal.valueOf(value, scale));
+						}
+						else {
+							row[index] = Long.toString(value);
+							typedValues.setNumber(slot, value);
+						}
+					}
+				};
+			}
+		}
+		
+		private void setMillis(int index, int slot, long millis) {
+			row[index] = formatMillis(millis);
+			typedValues.setMillis(slot, millis);
+		}
+		
+		private void setDecimal(int index, int slot, BigDecimal value) {
+			row[index] = value.toPlainString();
+			typedValues.setNumber(slot, value.doubleValue());
+		}
+	}
+	
+	private String formatMillis(long millis) {
+		String timestamp = formattedTimestamps.get(millis);
+		if (timestamp == null) {
+			timestamp = LineItem.amazonBillingDateFormatISO.print(millis);
+			if (formattedTimestamps.size() >= MAX_TIMESTAMPS)
+				formattedTimestamps.clear();
+			formattedTimestamps.put(millis, timestamp);
+		}
+		return timestamp;
+	}
+	
+	/**
+	 * Parquet InputFile that reads the object through an ObjectFetcher using ranged reads.
+	 * All the streams read the version of the object that was current when the file was opened
+	 * so that the footer offsets stay valid if the object is replaced.
+	 */
+	private static class FetcherInputFile implements InputFile {
+		private final ObjectFetcher fetcher;
+		private final String key;
+		private final ObjectFetcher.Version version;
+		
+		FetcherInputFile(ObjectFetcher fetcher, String key) throws IOException {
+			this.fetcher = fetcher;
+			this.key = key;
+			this.version = fetcher.getVersion(key);
+		}
+
+		@Override
+		public long getLength() throws IOException {
+			return version.length;
+		}
+
+		@Override
+		public SeekableInputStream newStream() throws IOException {
+			final SeekableFetcherStream stream = new SeekableFetcherStream(fetcher, key, version);
+			return new DelegatingSeekableInputStream(stream) {
+				@Override
+				public long getPos() throws IOException {
+					return stream.getPos();
+				}
+
+				@Override
+				public void seek(long newPos) throws IOException {
+					stream.seek(newPos);
+				}
+			};
+		}
+	}
+	
+	/**
+	 * InputStream that reopens the object at the new position when seeking.
+	 * The object isn't opened until the first read after a seek.
+	 */
+	private static class SeekableFetcherStream extends InputStream {
+		private final ObjectFetcher fetcher;
+		private final String key;
+		private final ObjectFetcher.Version version;
+		private RangedRetryInputStream in;
+		private long pos;
+		
+		SeekableFetcherStream(ObjectFetcher fetcher, String key, ObjectFetcher.Version version) {
+			this.fetcher = fetcher;
+			this.key = key;
+			this.version = version;
+			this.in = null;
+			this.pos = 0;
+		}
+		
+		long getPos() {
+			return pos;
+		}
+		
+		void seek(long newPos) throws IOException {
+			if (in != null && newPos >= pos && newPos - pos <= MAX_SKIP) {
+				while (pos < newPos) {
+					long n = in.skip(newPos - pos);
+					if (n <= 0) {
+						if (read() < 0)
+							break;
+					}
+					else {
+						pos += n;
+					}
+				}
+				return;
+			}
+			closeStream();
+			pos = newPos;
+		}
+		
+		private RangedRetryInputStream getStream() throws IOException {
+			if (in == null)
+				in = new RangedRetryInputStream(fetcher, key, version, pos, MAX_READ_RETRIES, RETRY_DELAY_MILLIS);
+			return in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = getStream().read();
+			if (b >= 0)
+				pos++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = getStream().read(b, off, len);
+			if (n > 0)
+				pos += n;
+			return n;
+		}
+		
+		private void closeStream() throws IOException {
+			if (in != null) {
+				in.close();
+				in = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeStream();
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.DataSerializer.CostAndUsage;
+
+/**
+ * Accumulates cost and usage in primitive arrays rather than maps of immutable CostAndUsage
+ * objects. Each TagGroup is assigned a dense integer id and each interval holds an open-addressing
+ * table from id to cost and usage values, so adding to an existing entry updates it in place
+ * without allocating.
+ * 
+ * This isn't a DataSerializer. It only supports the operations needed to accumulate line items,
+ * and the values are merged into a regular DataSerializer with DataSerializer.putAll() once
+ * the line items have been processed. CostAndUsage objects are only created when values are
+ * read back.
+ * 
+ * Not thread safe. Each instance is expected to be filled by a single CUR file processor.
+ */
+public class PrimitiveDataSerializer {
+	private final int numUserTags;
+	private final Map<TagGroup, Integer> ids;
+	private final List<TagGroup> tagGroupsById;
+	private final List<Interval> intervals;
+
+	public PrimitiveDataSerializer(int numUserTags) {
+		this.numUserTags = numUserTags;
+		this.ids = Maps.newHashMap();
+		this.tagGroupsById = Lists.newArrayList();
+		this.intervals = Lists.newArrayList();
+	}
+	
+	private int getId(TagGroup tagGroup) {
+		Integer id = ids.get(tagGroup);
+		if (id == null) {
+			id = tagGroupsById.size();
+			ids.put(tagGroup, id);
+			tagGroupsById.add(tagGroup);
+		}
+		return id;
+	}
+	
+	private Interval getCreateInterval(int i) {
+		while (i >= intervals.size())
+			intervals.add(new Interval());
+		return intervals.get(i);
+	}
+	
+	public int getNumUserTags() {
+		return numUserTags;
+	}
+	
+    public int getNum() {
+        return intervals.size();
+    }
+
+    /**
+     * Read-only view of the values for an interval. Empty if there is no data for the interval yet.
+     */
+	public Map<TagGroup, CostAndUsage> getData(int i) {
+		if (i >= intervals.size())
+			return Collections.emptyMap();
+		return new IntervalMap(intervals.get(i));
+	}
+
+    public CostAndUsage get(int i, TagGroup tagGroup) {
+		Integer id = ids.get(tagGroup);
+		if (id == null || i >= intervals.size())
+			return null;
+		Interval interval = intervals.get(i);
+		int slot = interval.find(id);
+		return slot < 0 ? null : interval.get(slot);
+	}
+	
+    /**
+     * Gets the set of TagGroups that have values in any of the intervals
+     */
+    public Collection<TagGroup> getTagGroups() {
+    	Set<TagGroup> tagGroups = Sets.newHashSet();
+    	for (Interval interval: intervals) {
+    		for (int slot = interval.next(0); slot < interval.capacity(); slot = interval.next(slot + 1))
+    			tagGroups.add(tagGroupsById.get(interval.ids[slot]));
+    	}
+    	return tagGroups;
+    }
+	
+    public void put(int i, TagGroup tagGroup, CostAndUsage value) {
+		getCreateInterval(i).put(getId(tagGroup), value.cost, value.usage);
+	}
+	
+    public void add(int i, TagGroup tagGroup, CostAndUsage value) {
+		add(i, tagGroup, value.cost, value.usage);
+	}
+	
+    public void add(int i, TagGroup tagGroup, double cost, double usage) {
+		getCreateInterval(i).add(getId(tagGroup), cost, usage);
+	}
+	
+    public CostAndUsage remove(int i, TagGroup tagGroup) {
+		Integer id = ids.get(tagGroup);
+    	if (id == null || i >= intervals.size())
+    		return null;
+    	Interval interval = intervals.get(i);
+    	int slot = interval.find(id);
+    	if (slot < 0)
+    		return null;
+    	CostAndUsage existing = interval.get(slot);
+    	interval.remove(slot);
+    	return existing;
+	}
+	
+    /**
+     * Add all the values from the source to this one.
+     */
+    void putAll(PrimitiveDataSerializer srcData) {
+    	for (int i = 0; i < srcData.getNum(); i++) {
+    		Interval src = srcData.intervals.get(i);
+    		Interval dest = getCreateInterval(i);
+    		for (int slot = src.next(0); slot < src.capacity(); slot = src.next(slot + 1))
+    			dest.add(getId(srcData.tagGroupsById.get(src.ids[slot])), src.cost[slot], src.usage[slot]);
+    	}
+    }
+    
+    /**
+     * Add all the values to the destination. Every interval is created in the destination,
+     * including those without any values.
+     */
+    void addTo(DataSerializer dest) {
+    	if (getNum() > 0)
+    		dest.getCreateData(getNum() - 1);
+    	for (int i = 0; i < getNum(); i++) {
+    		Interval interval = intervals.get(i);
+    		for (int slot = interval.next(0); slot < interval.capacity(); slot = interval.next(slot + 1))
+    			dest.add(i, tagGroupsById.get(interval.ids[slot]), interval.cost[slot], interval.usage[slot]);
+    	}
+    }
+
+	/**
+	 * Open-addressing hash table with linear probing that maps TagGroup ids to cost and usage
+	 * values for one interval.
+	 */
+	static class Interval {
+		private static final int EMPTY = -1;
+		private static final int INITIAL_CAPACITY = 16;
+		
+		private int[] ids;
+		private double[] cost;
+		private double[] usage;
+		private int size;
+		
+		Interval() {
+			allocate(INITIAL_CAPACITY);
+		}
+		
+		private void allocate(int capacity) {
+			ids = new int[capacity];
+			Arrays.fill(ids, EMPTY);
+			cost = new double[capacity];
+			usage = new double[capacity];
+			size = 0;
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		int capacity() {
+			return ids.length;
+		}
+		
+		private int hash(int id) {
+			// Spread the sequential ids across the table
+			int h = id * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & (ids.length - 1);
+		}
+		
+		/**
+		 * Get the slot holding the id or the empty slot where it would be inserted.
+		 */
+		private int slot(int id) {
+			int mask = ids.length - 1;
+			int slot = hash(id);
+			while (ids[slot] != EMPTY && ids[slot] != id)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+		
+		/**
+		 * Get the slot holding the id or -1 if not present
+		 */
+		int find(int id) {
+			int slot = slot(id);
+			return ids[slot] == EMPTY ? -1 : slot;
+		}
+		
+		/**
+		 * Get the next occupied slot at or after the given slot. Returns capacity() if there are no more.
+		 */
+		int next(int slot) {
+			while (slot < ids.length && ids[slot] == EMPTY)
+				slot++;
+			return slot;
+		}
+		
+		CostAndUsage get(int slot) {
+			return new CostAndUsage(cost[slot], usage[slot]);
+		}
+		
+		/**
+		 * Add the values to the entry for the id. Returns true if the id wasn't already present.
+		 */
+		boolean add(int id, double c, double u) {
+			int before = size;
+			int slot = insert(id);
+			cost[slot] += c;
+			usage[slot] += u;
+			return size > before;
+		}
+		
+		/**
+		 * Set the values for the id. Returns true if the id wasn't already present.
+		 */
+		boolean put(int id, double c, double u) {
+			int before = size;
+			int slot = insert(id);
+			cost[slot] = c;
+			usage[slot] = u;
+			return size > before;
+		}
+		
+		/**
+		 * Get the slot for the id, claiming a new one with zero values if not already present.
+		 */
+		private int insert(int id) {
+			int slot = slot(id);
+			if (ids[slot] == EMPTY) {
+				// Keep the load factor at or below 0.75
+				if ((size + 1) * 4 > ids.length * 3) {
+					grow();
+					slot = slot(id);
+				}
+				ids[slot] = id;
+				size++;
+			}
+			return slot;
+		}
+		
+		private void grow() {
+			int[] oldIds = ids;
+			double[] oldCost = cost;
+			double[] oldUsage = usage;
+			allocate(oldIds.length * 2);
+			for (int i = 0; i < oldIds.length; i++) {
+				if (oldIds[i] == EMPTY)
+					continue;
+				int slot = slot(oldIds[i]);
+				ids[slot] = oldIds[i];
+				cost[slot] = oldCost[i];
+				usage[slot] = oldUsage[i];
+				size++;
+			}
+		}
+		
+		/**
+		 * Remove the entry in the given slot, shifting back any following entries
+		 * in the probe sequence so that lookups don't need tombstones.
+		 */
+		void remove(int slot) {
+			int mask = ids.length - 1;
+			int hole = slot;
+			int next = (hole + 1) & mask;
+			while (ids[next] != EMPTY) {
+				int home = hash(ids[next]);
+				// Move the entry into the hole if its home slot isn't between the hole and its current slot
+				boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+				if (movable) {
+					ids[hole] = ids[next];
+					cost[hole] = cost[next];
+					usage[hole] = usage[next];
+					hole = next;
+				}
+				next = (next + 1) & mask;
+			}
+			ids[hole] = EMPTY;
+			cost[hole] = 0;
+			usage[hole] = 0;
+			size--;
+		}
+	}
+	
+	/**
+	 * Read-only Map view of an interval. Values are materialized as CostAndUsage objects on access.
+	 */
+	private class IntervalMap extends AbstractMap<TagGroup, CostAndUsage> {
+		private final Interval interval;
+		
+		IntervalMap(Interval interval) {
+			this.interval = interval;
+		}
+		
+		@Override
+		public int size() {
+			return interval.size();
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			Integer id = ids.get(key);
+			return id != null && interval.find(id) >= 0;
+		}
+		
+		@Override
+		public CostAndUsage get(Object key) {
+			Integer id = ids.get(key);
+			if (id == null)
+				return null;
+			int slot = interval.find(id);
+			return slot < 0 ? null : interval.get(slot);
+		}
+
+		@Override
+		public Set<Entry<TagGroup, CostAndUsage>> entrySet() {
+			return new AbstractSet<Entry<TagGroup, CostAndUsage>>() {
+				@Override
+				public Iterator<Entry<TagGroup, CostAndUsage>> iterator() {
+					return new Iterator<Entry<TagGroup, CostAndUsage>>() {
+						private int slot = interval.next(0);
+						
+						@Override
+						public boolean hasNext() {
+							return slot < interval.capacity();
+						}
+
+						@Override
+						public Entry<TagGroup, CostAndUsage> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							Entry<TagGroup, CostAndUsage> entry = new SimpleImmutableEntry<TagGroup, CostAndUsage>(tagGroupsById.get(interval.ids[slot]), interval.get(slot));
+							slot = interval.next(slot + 1);
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return interval.size();
+				}
+			};
+		}
+	}
+}
@@ -79,6 +79,7 @@ public class ProcessorConfig extends Config {
     public final PriceListService priceListService;
     public final boolean useBlended;
     public final boolean processOnce;
+    public final boolean streamReports;
     public final String processorRegion;
     public final String processorInstanceId;
 
@@ -162,6 +163,7 @@ public class ProcessorConfig extends Config {
         }
         
         processOnce = properties.getProperty(IceOptions.PROCESS_ONCE) == null ? false : Boolean.parseBoolean(properties.getProperty(IceOptions.PROCESS_ONCE));
+        streamReports = Boolean.parseBoolean(properties.getProperty(IceOptions.STREAM_REPORTS, "false"));
         processorRegion = properties.getProperty(IceOptions.PROCESSOR_REGION);
         processorInstanceId = properties.getProperty(IceOptions.PROCESSOR_INSTANCE_ID);
         
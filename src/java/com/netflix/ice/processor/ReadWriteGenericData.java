@@ -20,12 +20,12 @@ package com.netflix.ice.processor;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map.Entry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +36,7 @@ import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.DataVersion;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.VarInt;
 import com.netflix.ice.tag.Zone.BadZone;
 
 public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer, DataVersion {
@@ -48,7 +49,9 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
     // This set is only maintained for the master CostAndUsageData container since it's only needed by
     // the post-processing steps. Individual CoatAndUsageData objects created for each separate CUR report
     // don't require it and run much faster if we don't have to maintain this master set.
-    protected Set<TagGroup> tagGroups;
+    // Each tagGroup carries a count of the intervals it's present in so that removing it from the
+    // last one doesn't require a scan of all the other intervals.
+    protected TagGroupCounts tagGroups;
 
     // number of user tags in the resourceGroups. Set to -1 when constructed for deserialization.
     // will be initialized when read in.
@@ -70,9 +73,9 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
 		if (!enabled)
 			tagGroups = null;
 		else if (tagGroups == null) {
-			tagGroups = ConcurrentHashMap.newKeySet();
+			tagGroups = new TagGroupCounts();
 	        for (int i = 0; i < data.size(); i++) {
-        		tagGroups.addAll(data.get(i).keySet());	        	
+        		tagGroups.addedAll(data.get(i).keySet());	        	
 	        }
 		}
 	}
@@ -109,41 +112,26 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
     }
 
     public void put(int i, TagGroup tagGroup, T value) {
-    	getCreateData(i).put(tagGroup, value);
-    	if (tagGroups != null)
-    		tagGroups.add(tagGroup);
+    	// Only need to update the cache when the TagGroup is new to the interval
+    	if (getCreateData(i).put(tagGroup, value) == null && tagGroups != null)
+    		tagGroups.added(tagGroup);
     }
     
     public void add(int i, TagGroup tagGroup, T value) {
     	Map<TagGroup, T> map = getCreateData(i);
     	T existing = map.get(tagGroup);
     	map.put(tagGroup,  existing == null ? value : add(existing, value));
-    	if (tagGroups != null)
-    		tagGroups.add(tagGroup);
+    	if (existing == null && tagGroups != null)
+    		tagGroups.added(tagGroup);
     }
 
     public T remove(int i, TagGroup tagGroup) {
     	if (i >= data.size())
     		return null;
     	T existing = data.get(i).remove(tagGroup);
-    	if (existing != null) {
-    		// See if we can purge the value from the cache
-    		boolean found = false;
-    		// Most remove calls are done by RI and SP processors which
-    		// run through the data lists from 0 to the end.
-    		// Assuming most values are present throughout the list, we
-    		// can save time by checking from back to front since we'll
-    		// bail quickly if we find the tagGroup at the end.
-    		for (int j = data.size() - 1; j >= 0; j--) {
-    			Map<TagGroup, T> d = data.get(j);
-    			if (d.containsKey(tagGroup)) {
-    				found = true;
-    				break;
-    			}
-    		}
-    		if (!found && tagGroups != null)
-    			tagGroups.remove(tagGroup);
-    	}
+    	// Purges the value from the cache if this was the last interval holding it
+    	if (existing != null && tagGroups != null)
+    		tagGroups.removed(tagGroup);
 
     	return existing;
     }
@@ -158,29 +146,19 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
             if (index > data.size()) {
                 getCreateData(index-1);
             }
+            Map<TagGroup, T> removed = null;
             if (index >= data.size()) {
                 data.add(newData.get(i));
             }
             else {
-            	Map<TagGroup, T> removed = data.set(index, newData.get(i));
-            	if (removed != null) {
-	            	for (TagGroup tg: removed.keySet()) {
-	            		// See if we can purge the value from the cache
-	            		boolean found = false;
-	            		for (int j = 0; j < data.size(); j++) {
-	            			Map<TagGroup, T> d = data.get(j);
-	            			if (d.containsKey(tg)) {
-	            				found = true;
-	            				break;
-	            			}
-	            		}
-	            		if (!found && tagGroups != null)
-	            			tagGroups.remove(tg);
-	            	}
-            	}
+            	removed = data.set(index, newData.get(i));
+            }
+            if (tagGroups != null) {
+            	// Count the new values first so that TagGroups in both maps aren't dropped from the cache
+        		tagGroups.addedAll(newData.get(i).keySet());
+            	if (removed != null)
+            		tagGroups.removedAll(removed.keySet());
             }
-        	if (tagGroups != null)
-        		tagGroups.addAll(newData.get(i).keySet());
         }
     }
 
@@ -197,6 +175,8 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
             }
             if (i >= data.size()) {
                 data.add(newData.get(i));
+            	if (tagGroups != null)
+            		tagGroups.addedAll(newData.get(i).keySet());
             }
             else {
                 Map<TagGroup, T> existed = data.get(i);
@@ -204,21 +184,14 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
                 	T existingValue = existed.get(tg);
                 	T value = newData.get(i).get(tg);
                     existed.put(tg, existingValue == null ? value : add(existingValue, value));
+                    if (existingValue == null && tagGroups != null)
+                    	tagGroups.added(tg);
                 }
             }
         }
-        // Update the tagGroups cache as appropriate
-    	if (tagGroups != null) {
-    		if (srcData.tagGroups != null) {
-    			// pull from src cache
-    			tagGroups.addAll(srcData.tagGroups);
-    		}
-    		else {
-    			// get it from each interval
-    			for (int i = 0; i < newData.size(); i++)
-    				tagGroups.addAll(newData.get(i).keySet());
-    		}
-    	}
+        // Carry over any TagGroups the source cache holds that aren't present in its intervals
+    	if (tagGroups != null && srcData.tagGroups != null)
+    		tagGroups.registerAll(srcData.tagGroups.keySet());
     }
 
     Map<TagGroup, T> getCreateData(int i) {
@@ -236,7 +209,7 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
      * @return a set of TagGroups
      */
     public Collection<TagGroup> getTagGroups() {
-        return tagGroups;
+        return tagGroups == null ? null : tagGroups.keySet();
     }
 
     /**
@@ -251,12 +224,11 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
      *
      * 1. Version (int)<br/>
      * 2. Number of user tags (int)<br/>
-     * 3. TagGroup count (int)<br/>
-     * 4. TagGroup Array<br/>
-     * 5. Number of hours/days/weeks/months of data (int)<br/>
-     * 6. Data matrix:<br/>
-     * 		6a. Data present for TagGroup flag (boolean)<br/>
-     * 		6b. Data array for TagGroup (if flag is true)<br/>
+     * 3. TagGroup dictionary (see TagGroup.Serializer.serializeDictionary)<br/>
+     * 4. Number of hours/days/weeks/months of data (int)<br/>
+     * 5. Sparse data columns:<br/>
+     * 		5a. Count of TagGroups with data (int)<br/>
+     * 		5b. For each TagGroup with data: TagGroup index delta from the previous entry (VarInt) followed by the value<br/>
      */
     public void serialize(DataOutput out, TagGroupFilter filter) throws IOException {
         Collection<TagGroup> keys = getTagGroups();
@@ -272,58 +244,101 @@ public abstract class ReadWriteGenericData<T> implements ReadWriteDataSerializer
 
         out.writeInt(CUR_WORK_BUCKET_VERSION);
         out.writeInt(numUserTags);
-        out.writeInt(keys.size());
-        for (TagGroup tagGroup: keys) {
-            TagGroup.Serializer.serialize(out, tagGroup);
-        }
+        List<TagGroup> columnTagGroups = Lists.newArrayList(keys);
+        Map<TagGroup, Integer> columns = Maps.newHashMapWithExpectedSize(columnTagGroups.size());
+        for (TagGroup tagGroup: columnTagGroups)
+        	columns.put(tagGroup, columns.size());
+        TagGroup.Serializer.serializeDictionary(out, columnTagGroups);
 
         out.writeInt(data.size());
         for (int i = 0; i < data.size(); i++) {
             Map<TagGroup, T> map = getData(i);
-            out.writeBoolean(map.size() > 0);
-            if (map.size() > 0) {
-                for (TagGroup tagGroup: keys) {
-                    writeValue(out, map.get(tagGroup));
-                }
+            int[] present = getSparseColumns(map, columns);
+            out.writeInt(present.length);
+            int previous = 0;
+            for (int column: present) {
+            	VarInt.write(out, column - previous);
+            	previous = column;
+                writeValue(out, map.get(columnTagGroups.get(column)));
             }
         }
     }
 
+	/**
+	 * Get the sorted column indecies of the TagGroups in the map that have values
+	 * and are included in the columns to be serialized.
+	 */
+    private int[] getSparseColumns(Map<TagGroup, T> map, Map<TagGroup, Integer> columns) {
+		int[] present = new int[map.size()];
+		int count = 0;
+		for (Entry<TagGroup, T> entry: map.entrySet()) {
+			if (entry.getValue() == null)
+				continue;
+			Integer column = columns.get(entry.getKey());
+			if (column != null)
+				present[count++] = column;
+		}
+		present = Arrays.copyOf(present, count);
+		Arrays.sort(present);
+		return present;
+    }
+
     abstract protected void writeValue(DataOutput out, T value) throws IOException;
 
     public void deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException, BadZone {
     	int version = in.readInt();
-    	// Verify that the file version matches
-    	if (version != CUR_WORK_BUCKET_VERSION) {
-    		throw new IOException("Wrong file version, expected " + CUR_WORK_BUCKET_VERSION + ", got " + version);
+    	// Verify that the file version is one we can read
+    	if (version < CUR_WORK_BUCKET_DENSE_VERSION || version > CUR_WORK_BUCKET_VERSION) {
+    		throw new IOException("Wrong file version, expected " + CUR_WORK_BUCKET_DENSE_VERSION + " through " + CUR_WORK_BUCKET_VERSION + ", got " + version);
     	}
         numUserTags = in.readInt();
-        int numKeys = in.readInt();
-        List<TagGroup> keys = Lists.newArrayList();
-        for (int j = 0; j < numKeys; j++) {
-        	TagGroup tg = TagGroup.Serializer.deserialize(accountService, productService, numUserTags, in);
-            keys.add(tg);
-        	if (tagGroups != null)
-        		tagGroups.add(tg);
-        }
+        List<TagGroup> keys = version == CUR_WORK_BUCKET_VERSION ?
+        		TagGroup.Serializer.deserializeDictionary(accountService, productService, numUserTags, in) :
+        		TagGroup.Serializer.deserializeList(accountService, productService, numUserTags, in);
+        // Replacing all the data, so start the cache over
+    	if (tagGroups != null)
+    		tagGroups = new TagGroupCounts();
 
         List<Map<TagGroup, T>> data = Lists.newArrayList();
         int num = in.readInt();
         for (int i = 0; i < num; i++)  {
-            Map<TagGroup, T> map = Maps.newHashMap();
-            boolean hasData = in.readBoolean();
-            if (hasData) {
-                for (int j = 0; j < keys.size(); j++) {
-                    T v = readValue(in);
-                    if (v != null) {
-                        map.put(keys.get(j), v);
-                    }
+        	data.add(version == CUR_WORK_BUCKET_DENSE_VERSION ? readDenseData(in, keys) : readSparseData(in, keys));
+        	if (tagGroups != null)
+        		tagGroups.addedAll(data.get(i).keySet());
+        }
+        // Keep the dictionary entries that don't have any data in the cache
+    	if (tagGroups != null)
+    		tagGroups.registerAll(keys);
+
+        this.data = data;
+    }
+    
+    private Map<TagGroup, T> readDenseData(DataInput in, List<TagGroup> keys) throws IOException {
+        Map<TagGroup, T> map = Maps.newHashMap();
+        boolean hasData = in.readBoolean();
+        if (hasData) {
+            for (int j = 0; j < keys.size(); j++) {
+                T v = readValue(in);
+                if (v != null) {
+                    map.put(keys.get(j), v);
                 }
             }
-            data.add(map);
         }
+        return map;
+    }
 
-        this.data = data;
+    private Map<TagGroup, T> readSparseData(DataInput in, List<TagGroup> keys) throws IOException {
+    	int count = in.readInt();
+        Map<TagGroup, T> map = Maps.newHashMapWithExpectedSize(count);
+        int column = 0;
+        for (int j = 0; j < count; j++) {
+        	column += VarInt.read(in);
+            T v = readValue(in);
+            if (v != null) {
+                map.put(keys.get(column), v);
+            }
+        }
+        return map;
     }
 
     abstract protected T readValue(DataInput in) throws IOException;
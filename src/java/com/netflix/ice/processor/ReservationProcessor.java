@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -66,6 +67,8 @@ public abstract class ReservationProcessor {
     
     protected ProductService productService;
     protected PriceListService priceListService;
+    // pool to process the hours concurrently, null to process them one after the other
+    protected ExecutorService pool = null;
     
     // The following are initialized on each call to process()
     protected InstanceMetrics instanceMetrics = null;
@@ -99,6 +102,10 @@ public abstract class ReservationProcessor {
     		ReservationArn.debugReservationArn = ReservationArn.get(debugProperties.get(reservationArn));
     }
     
+    public void setPool(ExecutorService pool) {
+    	this.pool = pool;
+    }
+    
     public void setDebugHour(int i) {
     	debugHour = i;
     }
@@ -261,7 +268,7 @@ public abstract class ReservationProcessor {
 	abstract protected void processReservations(
 			ReservationService reservationService,
 			CostAndUsageData data,
-			Long startMilli);	
+			Long startMilli) throws Exception;	
 		
 	protected void printUsage(String when, CostAndUsageData data) {
 		logger.info("---------- usage and cost for hour " + debugHour + " " + when + " processing ----------------");
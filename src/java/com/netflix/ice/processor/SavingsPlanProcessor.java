@@ -19,6 +19,7 @@ package com.netflix.ice.processor;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,13 +40,22 @@ public class SavingsPlanProcessor {
 
     private CostAndUsageData data;
     private AccountService accountService;
+    private ExecutorService pool;
 	
 	public SavingsPlanProcessor(CostAndUsageData costAndUsageData, AccountService accountService) {
+		this(costAndUsageData, accountService, null);
+	}
+	
+	/**
+	 * @param pool pool to process the hours concurrently, null to process them one after the other
+	 */
+	public SavingsPlanProcessor(CostAndUsageData costAndUsageData, AccountService accountService, ExecutorService pool) {
 		this.data = costAndUsageData;
 		this.accountService = accountService;
+		this.pool = pool;
 	}
 	
-	public void process(Product product) {
+	public void process(final Product product) throws Exception {
 		if (!data.hasSavingsPlans())
 			return;
 
@@ -56,10 +66,13 @@ public class SavingsPlanProcessor {
 			return;
 		}
 		
-		for (int i = 0; i < data.getNum(product); i++) {
-			// For each hour of usage...
-			processHour(product, i);
-		}		
+		// Each hour only touches its own data, so the hours can be processed concurrently
+		data.get(product).forEachHour(pool, new DataSerializer.HourProcessor() {
+			@Override
+			public void process(int hour) {
+				processHour(product, hour);
+			}
+		});
 	}
 	
 	private void processHour(Product product, int hour) {
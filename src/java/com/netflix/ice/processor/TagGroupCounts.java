@@ -0,0 +1,116 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import com.netflix.ice.common.TagGroup;
+
+/**
+ * Set of the TagGroups used across the intervals of a DataSerializer along with a count of
+ * the intervals each one is present in. Keeping the counts lets the owner drop a TagGroup
+ * when it's removed from its last interval without scanning the other intervals.
+ * 
+ * TagGroups can also be registered with a count of zero. These are kept until they are added to
+ * and then removed from all the intervals, which matches the behavior of the set maintained
+ * before the counts were introduced for TagGroups loaded from a serialized dictionary.
+ * 
+ * Updates to a TagGroup are atomic, so intervals can be modified concurrently.
+ */
+class TagGroupCounts {
+	private static final BiFunction<TagGroup, Integer, Integer> increment = new BiFunction<TagGroup, Integer, Integer>() {
+		@Override
+		public Integer apply(TagGroup tagGroup, Integer count) {
+			return count == null ? 1 : count + 1;
+		}
+	};
+	
+	private static final BiFunction<TagGroup, Integer, Integer> decrement = new BiFunction<TagGroup, Integer, Integer>() {
+		@Override
+		public Integer apply(TagGroup tagGroup, Integer count) {
+			// Returning null drops the entry
+			return count <= 1 ? null : count - 1;
+		}
+	};
+	
+	private final ConcurrentHashMap<TagGroup, Integer> counts;
+	
+	TagGroupCounts() {
+		counts = new ConcurrentHashMap<TagGroup, Integer>();
+	}
+	
+	/**
+	 * Record that the TagGroup was added to an interval that didn't already hold it.
+	 */
+	void added(TagGroup tagGroup) {
+		counts.compute(tagGroup, increment);
+	}
+	
+	/**
+	 * Record that the TagGroup was added to each of the intervals that didn't already hold it.
+	 */
+	void addedAll(Collection<TagGroup> tagGroups) {
+		for (TagGroup tg: tagGroups)
+			counts.compute(tg, increment);
+	}
+	
+	/**
+	 * Record that the TagGroup was removed from an interval that held it.
+	 */
+	void removed(TagGroup tagGroup) {
+		counts.computeIfPresent(tagGroup, decrement);
+	}
+	
+	/**
+	 * Record that the TagGroups were removed from an interval that held them.
+	 */
+	void removedAll(Collection<TagGroup> tagGroups) {
+		for (TagGroup tg: tagGroups)
+			counts.computeIfPresent(tg, decrement);
+	}
+	
+	/**
+	 * Include the TagGroup in the set without counting it as present in an interval.
+	 */
+	void register(TagGroup tagGroup) {
+		counts.putIfAbsent(tagGroup, 0);
+	}
+	
+	void registerAll(Collection<TagGroup> tagGroups) {
+		for (TagGroup tg: tagGroups)
+			counts.putIfAbsent(tg, 0);
+	}
+	
+	/**
+	 * Number of intervals holding the TagGroup.
+	 */
+	int getCount(TagGroup tagGroup) {
+		Integer count = counts.get(tagGroup);
+		return count == null ? 0 : count;
+	}
+	
+	/**
+	 * Live view of the TagGroups
+	 */
+	Set<TagGroup> keySet() {
+		return counts.keySet();
+	}
+}
@@ -68,6 +68,13 @@ public class TagMappers {
     	return tagKey;
     }
     
+    /**
+     * Get the start times of the TagMappers
+     */
+    public Collection<Long> getStartMillis() {
+    	return tagMappers.keySet();
+    }
+    
     public String getMappedUserTagValue(long startMillis, String accountId, String[] tags, String value) {
     	// return the user tag value for the specified account if there is a mapping configured.
     	
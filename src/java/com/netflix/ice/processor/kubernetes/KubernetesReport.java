@@ -21,7 +21,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -104,10 +106,24 @@ public class KubernetesReport extends Report {
     	None;
     }
     
+    // Columns holding numbers. These are parsed when the report is loaded and all other columns are held as strings.
+    private static final Set<KubernetesColumn> numericColumns = EnumSet.range(KubernetesColumn.RequestsCPUCores, KubernetesColumn.ClusterPersistentVolumeClaimGiB);
+    
     private Map<KubernetesColumn, Integer> reportIndeces = null;
     private Map<String, Integer> userTagIndeces = null;
+    // Position of each column in the HourData arrays indexed by KubernetesColumn ordinal, -1 if not in the report
+    private int[] stringSlots;
+    private int[] numericSlots;
+    // Position of the user tag columns in the HourData string arrays
+    private Map<String, Integer> userTagSlots;
+    // Report column index for each of the HourData string and numeric arrays
+    private int[] stringSlotColumns;
+    private int[] numericSlotColumns;
+    // Shared copies of the string values and parsed timestamps. Only used while loading the report.
+    private Map<String, String> internedStrings;
+    private Map<String, Long> timestampMillis;
     // Map of clusters with hourly data for the month - index will range from 0 to 743
-    private Map<String, List<List<String[]>>> data = null;
+    private Map<String, List<HourData>> data = null;
     // Map of output tag keys to Kubernetes deployment parameters
     private Map<String, KubernetesColumn> deployParams;
     private Type typeToProcess;
@@ -256,6 +272,8 @@ public class KubernetesReport extends Report {
 		
 
         data = Maps.newHashMap();
+        internedStrings = Maps.newHashMap();
+        timestampMillis = Maps.newHashMap();
         
         long endMilli = month.getMillis();
         long lineNumber = 0;
@@ -287,6 +305,15 @@ public class KubernetesReport extends Report {
         catch (Exception e ) {
             logger.error("Error processing " + fileName + " at line " + lineNumber, e);
         }
+        
+        // Release the unused capacity and build the usage type indexes
+        for (List<HourData> clusterData: data.values()) {
+        	for (HourData hourData: clusterData)
+        		hourData.finish();
+        }
+        internedStrings = null;
+        timestampMillis = null;
+        
         logger.info("processed " + lineNumber + " lines from file: " + fileName);
         return endMilli;
 	}
@@ -339,6 +366,59 @@ public class KubernetesReport extends Report {
 			logger.info("Kubernetes report does not have columns for optional fields: " + optional);
 		if (!mandatory.isEmpty())
 			logger.error("Kubernetes report does not have columns for mandatory fields: " + mandatory);
+		
+		// Lay out the columns we keep for each item
+		stringSlots = new int[KubernetesColumn.values().length];
+		numericSlots = new int[KubernetesColumn.values().length];
+		List<Integer> stringColumns = Lists.newArrayList();
+		List<Integer> numberColumns = Lists.newArrayList();
+		for (KubernetesColumn col: KubernetesColumn.values()) {
+			stringSlots[col.ordinal()] = -1;
+			numericSlots[col.ordinal()] = -1;
+			Integer index = reportIndeces.get(col);
+			if (index == null)
+				continue;
+			if (numericColumns.contains(col)) {
+				numericSlots[col.ordinal()] = numberColumns.size();
+				numberColumns.add(index);
+			}
+			else {
+				stringSlots[col.ordinal()] = stringColumns.size();
+				stringColumns.add(index);
+			}
+		}
+		userTagSlots = Maps.newHashMap();
+		for (Entry<String, Integer> e: userTagIndeces.entrySet()) {
+			userTagSlots.put(e.getKey(), stringColumns.size());
+			stringColumns.add(e.getValue());
+		}
+		stringSlotColumns = toArray(stringColumns);
+		numericSlotColumns = toArray(numberColumns);
+	}
+	
+	private int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	private String intern(String s) {
+		String interned = internedStrings.get(s);
+		if (interned == null) {
+			interned = s;
+			internedStrings.put(s, s);
+		}
+		return interned;
+	}
+	
+	private long parseMillis(String timestamp) {
+		Long millis = timestampMillis.get(timestamp);
+		if (millis == null) {
+			millis = new DateTime(timestamp, DateTimeZone.UTC).getMillis();
+			timestampMillis.put(timestamp, millis);
+		}
+		return millis;
 	}
 	
 	private long processOneLine(String[] item) {
@@ -350,36 +430,35 @@ public class KubernetesReport extends Report {
 		if (type != Type.None && type != typeToProcess)
 			return startMillis;		
 		
-		DateTime startDate = new DateTime(item[reportIndeces.get(KubernetesColumn.StartDate)], DateTimeZone.UTC);
-		long millisStart = startDate.getMillis();
-		DateTime endDate = new DateTime(item[reportIndeces.get(KubernetesColumn.EndDate)], DateTimeZone.UTC);
-		long millisEnd = endDate.getMillis();
+		long millisStart = parseMillis(item[reportIndeces.get(KubernetesColumn.StartDate)]);
+		long millisEnd = parseMillis(item[reportIndeces.get(KubernetesColumn.EndDate)]);
         int startIndex = (int)((millisStart - startMillis)/ AwsUtils.hourMillis);
         int endIndex = (int)((millisEnd + 1000 - startMillis)/ AwsUtils.hourMillis);
         
         if (startIndex < 0 || startIndex > 31 * 24) {
+    		DateTime startDate = new DateTime(millisStart, DateTimeZone.UTC);
         	logger.error("StartDate outside of range for month. Month start=" + month.getYear() + "-" + month.getDayOfMonth() + ", StartDate=" + startDate.getYear() + "-" + startDate.getDayOfMonth());
         	return startMillis;
         }
         if (endIndex > startIndex + 1) {
+    		DateTime startDate = new DateTime(millisStart, DateTimeZone.UTC);
+    		DateTime endDate = new DateTime(millisEnd, DateTimeZone.UTC);
         	logger.error("EndDate more than one hour after StartDate. StartDate=" + startDate.getYear() + "-" + startDate.getDayOfMonth() + ", EndDate=" + endDate.getYear() + "-" + endDate.getDayOfMonth());
         	return startMillis;
         }
         
-        String cluster = item[reportIndeces.get(KubernetesColumn.Cluster)];
-        List<List<String[]>> clusterData = data.get(cluster);
+        String cluster = intern(item[reportIndeces.get(KubernetesColumn.Cluster)]);
+        List<HourData> clusterData = data.get(cluster);
         if (clusterData == null) {
         	clusterData = Lists.newArrayList();
         	data.put(cluster, clusterData);
         }
         // Expand the data lists if not long enough
         for (int i = clusterData.size(); i < startIndex + 1; i++) {
-        	List<String[]> hourData = Lists.newArrayList();
-        	clusterData.add(hourData);
+        	clusterData.add(new HourData());
         }
         
-        List<String[]> hourData = clusterData.get(startIndex);
-        hourData.add(item);
+        clusterData.get(startIndex).add(item);
         
 		return millisEnd;
 	}
@@ -406,25 +485,19 @@ public class KubernetesReport extends Report {
 		return null;
 	}
 	
-	public List<List<String[]>> getData(String cluster) {
+	public List<HourData> getData(String cluster) {
 		return data.get(cluster);
 	}
 	
-	public List<String[]> getData(String cluster, int hour, String usageType) {
-		List<List<String[]>> clusterData = data.get(cluster);
+	public HourData getData(String cluster, int hour, String usageType) {
+		List<HourData> clusterData = data.get(cluster);
 		if (clusterData == null || clusterData.size() <= hour)
 			return null;
 		
-		List<String[]> hourData = clusterData.get(hour);
+		HourData hourData = clusterData.get(hour);
 		if (usageType != null && !usageType.isEmpty()) {
 			// Pull items with matching usage type
-			List<String[]> all = hourData;
-			hourData = Lists.newArrayListWithCapacity(all.size());
-			for (String[] item: all) {
-				if (usageType.equals(getString(item, KubernetesColumn.UsageType)))
-					hourData.add(item);
-			}
-			
+			hourData = hourData.withUsageType(usageType);
 		}
 		return hourData;
 	}
@@ -439,20 +512,14 @@ public class KubernetesReport extends Report {
 		return i == null ? "" : item[i];
 	}
 	
-	public double getDouble(String[] item, KubernetesColumn col) {
-		String s = getString(item, col);
-		
+	private static double toDouble(String s) {
 		return s.isEmpty() || s.equalsIgnoreCase("nan") || s.equalsIgnoreCase("inf") ? 0 : Double.parseDouble(s);
 	}
 	
-	public String getUserTag(String[] item, String col) {
-		return userTagIndeces.get(col) == null ? "" : item[userTagIndeces.get(col)];
-	}
-
-	public List<String> getTagValues(String[] item, List<String> tagKeys) {
+	public List<String> getTagValues(HourData hourData, int item, List<String> tagKeys) {
 		List<String> values = Lists.newArrayList();
 		for (String key: tagKeys) {
-			values.add(deployParams.containsKey(key) ? getString(item, deployParams.get(key)) : getUserTag(item, key));
+			values.add(deployParams.containsKey(key) ? hourData.getString(item, deployParams.get(key)) : hourData.getUserTag(item, key));
 		}
 		return values;
 	}
@@ -474,23 +541,23 @@ public class KubernetesReport extends Report {
 		return allocationConfig;
 	}
 	
-	public double getAllocationFactor(Product product, String[] item) {
+	public double getAllocationFactor(Product product, HourData hourData, int item) {
 		if (product.isEc2Instance() || product.isCloudWatch()) {
-			double cpuCores = Math.max(getDouble(item, KubernetesColumn.RequestsCPUCores), getDouble(item, KubernetesColumn.UsedCPUCores));
-			double clusterCores = getDouble(item, KubernetesColumn.ClusterCPUCores);
-			double memoryGiB = Math.max(getDouble(item, KubernetesColumn.RequestsMemoryGiB), getDouble(item, KubernetesColumn.UsedMemoryGiB));
-			double clusterMemoryGiB = getDouble(item, KubernetesColumn.ClusterMemoryGiB);
+			double cpuCores = Math.max(hourData.getDouble(item, KubernetesColumn.RequestsCPUCores), hourData.getDouble(item, KubernetesColumn.UsedCPUCores));
+			double clusterCores = hourData.getDouble(item, KubernetesColumn.ClusterCPUCores);
+			double memoryGiB = Math.max(hourData.getDouble(item, KubernetesColumn.RequestsMemoryGiB), hourData.getDouble(item, KubernetesColumn.UsedMemoryGiB));
+			double clusterMemoryGiB = hourData.getDouble(item, KubernetesColumn.ClusterMemoryGiB);
 			double unitsPerCluster = clusterCores * vCpuToMemoryCostRatio + clusterMemoryGiB;
 			return unitsPerCluster <= 0 ? 0 : ((cpuCores * vCpuToMemoryCostRatio + memoryGiB) / unitsPerCluster);
 		}
 		else if (product.isEbs()) {
-			double pvcGiB = getDouble(item, KubernetesColumn.PersistentVolumeClaimGiB);
-			double clusterPvcGiB = getDouble(item, KubernetesColumn.ClusterPersistentVolumeClaimGiB);
+			double pvcGiB = hourData.getDouble(item, KubernetesColumn.PersistentVolumeClaimGiB);
+			double clusterPvcGiB = hourData.getDouble(item, KubernetesColumn.ClusterPersistentVolumeClaimGiB);
 			return clusterPvcGiB <= 0 ? 0 : (pvcGiB / clusterPvcGiB);
 		}
 		else if (product.isDataTransfer()) {
-			double networkGiB = getDouble(item, KubernetesColumn.NetworkInGiB) + getDouble(item, KubernetesColumn.NetworkOutGiB);
-			double clusterNetworkGiB = getDouble(item, KubernetesColumn.ClusterNetworkInGiB) + getDouble(item, KubernetesColumn.ClusterNetworkOutGiB);
+			double networkGiB = hourData.getDouble(item, KubernetesColumn.NetworkInGiB) + hourData.getDouble(item, KubernetesColumn.NetworkOutGiB);
+			double clusterNetworkGiB = hourData.getDouble(item, KubernetesColumn.ClusterNetworkInGiB) + hourData.getDouble(item, KubernetesColumn.ClusterNetworkOutGiB);
 			return clusterNetworkGiB <= 0 ? 0 : (networkGiB / clusterNetworkGiB);
 		}
 		return 0;
@@ -499,5 +566,121 @@ public class KubernetesReport extends Report {
 	public DateTime getMonth() {
 		return month;
 	}
+	
+	/**
+	 * Report items for one hour of a cluster held by column. String values are shared across the report
+	 * and the numeric columns are parsed once when the report is loaded. An HourData may also be a view
+	 * on the items of another that have a particular usage type.
+	 */
+	public class HourData {
+		private static final int initialCapacity = 8;
+		
+		private int size;
+		private int capacity;
+		// Values for each column indexed by slot and then by item
+		private String[][] strings;
+		private double[][] numbers;
+		// Items in the view or null if all items are included
+		private final int[] items;
+		// Items for each usage type. Built once all the items are loaded.
+		private Map<String, int[]> itemsByUsageType;
+		
+		HourData() {
+			this.size = 0;
+			this.capacity = 0;
+			this.strings = new String[stringSlotColumns.length][];
+			this.numbers = new double[numericSlotColumns.length][];
+			this.items = null;
+			this.itemsByUsageType = null;
+		}
+		
+		private HourData(HourData all, int[] items) {
+			this.size = items.length;
+			this.capacity = items.length;
+			this.strings = all.strings;
+			this.numbers = all.numbers;
+			this.items = items;
+			this.itemsByUsageType = null;
+		}
+		
+		void add(String[] row) {
+			if (size == capacity)
+				grow();
+			for (int slot = 0; slot < stringSlotColumns.length; slot++)
+				strings[slot][size] = intern(row[stringSlotColumns[slot]]);
+			for (int slot = 0; slot < numericSlotColumns.length; slot++)
+				numbers[slot][size] = toDouble(row[numericSlotColumns[slot]]);
+			size++;
+		}
+		
+		private void grow() {
+			capacity = size == 0 ? initialCapacity : size * 2;
+			for (int slot = 0; slot < strings.length; slot++)
+				strings[slot] = strings[slot] == null ? new String[capacity] : Arrays.copyOf(strings[slot], capacity);
+			for (int slot = 0; slot < numbers.length; slot++)
+				numbers[slot] = numbers[slot] == null ? new double[capacity] : Arrays.copyOf(numbers[slot], capacity);
+		}
+		
+		/**
+		 * Trim the arrays to the number of items and index the items by usage type.
+		 */
+		void finish() {
+			capacity = size;
+			for (int slot = 0; slot < strings.length; slot++)
+				strings[slot] = strings[slot] == null ? new String[0] : Arrays.copyOf(strings[slot], size);
+			for (int slot = 0; slot < numbers.length; slot++)
+				numbers[slot] = numbers[slot] == null ? new double[0] : Arrays.copyOf(numbers[slot], size);
+			
+			itemsByUsageType = Maps.newHashMap();
+			int usageTypeSlot = stringSlots[KubernetesColumn.UsageType.ordinal()];
+			if (usageTypeSlot < 0)
+				return;
+			Map<String, List<Integer>> lists = Maps.newHashMap();
+			for (int i = 0; i < size; i++) {
+				String usageType = strings[usageTypeSlot][i];
+				List<Integer> list = lists.get(usageType);
+				if (list == null) {
+					list = Lists.newArrayList();
+					lists.put(usageType, list);
+				}
+				list.add(i);
+			}
+			for (Entry<String, List<Integer>> e: lists.entrySet())
+				itemsByUsageType.put(e.getKey(), toArray(e.getValue()));
+		}
+		
+		HourData withUsageType(String usageType) {
+			int[] matching = itemsByUsageType == null ? null : itemsByUsageType.get(usageType);
+			return new HourData(this, matching == null ? new int[0] : matching);
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		private int index(int item) {
+			return items == null ? item : items[item];
+		}
+		
+		public String getString(int item, KubernetesColumn col) {
+			int slot = stringSlots[col.ordinal()];
+			if (slot >= 0)
+				return strings[slot][index(item)];
+			slot = numericSlots[col.ordinal()];
+			return slot < 0 ? "" : Double.toString(numbers[slot][index(item)]);
+		}
+		
+		public double getDouble(int item, KubernetesColumn col) {
+			int slot = numericSlots[col.ordinal()];
+			if (slot >= 0)
+				return numbers[slot][index(item)];
+			return toDouble(getString(item, col));
+		}
+		
+		public String getUserTag(int item, String key) {
+			Integer slot = userTagSlots.get(key);
+			return slot == null ? "" : strings[slot][index(item)];
+		}
+	}
 }
 
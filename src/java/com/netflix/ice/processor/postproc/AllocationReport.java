@@ -80,6 +80,7 @@ public class AllocationReport extends Report {
 	private List<Integer> outTagIndeces; // ResourceGroup user tag indeces for the output tags
 	private List<Set<String>> inTagValues; // Values used in the allocation report for each input tag key. Used to resolve empty strings for values in the report.
 	private List<HourData> data;	
+	private Map<Set<Key>, KeyIndex> keyIndexes; // Indexes shared by hours with the same set of keys
 	private List<String> header;
 	private List<TagMappers> taggers;
 	private List<String> newTagKeys;
@@ -158,6 +159,7 @@ public class AllocationReport extends Report {
 	public static class HourData {
 		private Map<Key, Map<Key, Double>> dataMap;
 		private Map<Key, KeyMatcher> wildcards;
+		private KeyIndex index; // shared with other hours that have the same key set, rebuilt when keys are added
 		
 		protected HourData() {
 			dataMap = Maps.newHashMap();
@@ -180,6 +182,9 @@ public class AllocationReport extends Report {
 		Map<Key, Double> get(Key key) {
 			if (dataMap.containsKey(key))
 				return dataMap.get(key);
+			KeyMatcher matcher = wildcards.get(key);
+			if (matcher != null)
+				return matcher.value;
 			for (KeyMatcher km: wildcards.values()) {
 				if (km.contains(key))
 					return km.value;
@@ -188,6 +193,7 @@ public class AllocationReport extends Report {
 		}
 		
 		Map<Key, Double> put(Key key, Map<Key, Double> value, boolean withWildcards) {
+			index = null;
 			if (withWildcards && KeyMatcher.hasWildcard(key)) {
 				KeyMatcher existing = wildcards.put(key, new KeyMatcher(key, value));
 				return existing == null ? null : existing.value;
@@ -221,6 +227,171 @@ public class AllocationReport extends Report {
 		}
 	}
 
+	/**
+	 * KeyIndex resolves the most specific key for a set of input tags in a single descent
+	 * of two trees keyed by tag position: one for the literal keys and one for the wildcard keys.
+	 * Resolved keys are cached by input tags, so an index is shared by all hours that hold the same key set.
+	 */
+	static class KeyIndex {
+		private static final Key noMatch = new Key(Lists.<String>newArrayList());
+
+		private final Node literals;
+		private final Node wildcards;
+		private final Set<Key> literalKeys;
+		private final Map<Key, Key> resolved;
+
+		private static class Node {
+			Map<String, Node> children = Maps.newLinkedHashMap();
+			List<Pattern> patterns = null;
+			List<Node> patternChildren = null;
+			Key key = null;
+
+			Node child(String tag, Pattern p) {
+				if (p == null) {
+					Node n = children.get(tag);
+					if (n == null) {
+						n = new Node();
+						children.put(tag, n);
+					}
+					return n;
+				}
+				if (patterns == null) {
+					patterns = Lists.newArrayList();
+					patternChildren = Lists.newArrayList();
+				}
+				for (int i = 0; i < patterns.size(); i++) {
+					if (patterns.get(i).pattern().equals(p.pattern()))
+						return patternChildren.get(i);
+				}
+				Node n = new Node();
+				patterns.add(p);
+				patternChildren.add(n);
+				return n;
+			}
+		}
+
+		private static class Match {
+			Key exact = null;
+			Key best = null;
+			int maxValues = -1;
+
+			void candidate(Key k) {
+				if (k.numValues() > maxValues) {
+					maxValues = k.numValues();
+					best = k;
+				}
+			}
+		}
+
+		KeyIndex(HourData hourData) {
+			literals = new Node();
+			wildcards = new Node();
+			literalKeys = Sets.newHashSet(hourData.dataMap.keySet());
+			resolved = Maps.newConcurrentMap();
+
+			for (Key k: hourData.dataMap.keySet()) {
+				Node n = literals;
+				for (String tag: k.tags)
+					n = n.child(tag, null);
+				n.key = k;
+			}
+			for (KeyMatcher km: hourData.wildcards.values()) {
+				Node n = wildcards;
+				for (int i = 0; i < km.key.tags.size(); i++)
+					n = n.child(km.key.tags.get(i), km.patterns.get(i));
+				n.key = km.key;
+			}
+		}
+
+		/**
+		 * Return the most specific key that matches the input tags or null if none match.
+		 * Follows the same rules as HourData.containsKey() and HourData.getCandidates()
+		 * but returns the matching wildcard key rather than the input key for wildcard matches.
+		 */
+		Key find(Key key) {
+			Key k = resolved.get(key);
+			if (k == null) {
+				k = resolve(key);
+				resolved.put(key, k == null ? noMatch : k);
+			}
+			return k == noMatch ? null : k;
+		}
+
+		private Key resolve(Key key) {
+			if (literalKeys.contains(key))
+				return key;
+
+			Match m = new Match();
+			findWildcards(wildcards, key.tags, 0, true, m);
+			if (m.exact != null)
+				return m.exact;
+
+			// No exact match, take the most specific of the more general keys.
+			// Literal keys take precedence over wildcard keys with the same number of values.
+			Match literalMatch = new Match();
+			findLiterals(literals, key.tags, 0, literalMatch);
+			if (literalMatch.best != null && literalMatch.maxValues >= m.maxValues)
+				return literalMatch.best;
+			return m.best;
+		}
+
+		private void findLiterals(Node n, List<String> tags, int pos, Match m) {
+			if (pos == tags.size()) {
+				if (n.key != null)
+					m.candidate(n.key);
+				return;
+			}
+			String tag = tags.get(pos);
+			Node child = n.children.get(tag);
+			if (child != null)
+				findLiterals(child, tags, pos + 1, m);
+			if (!tag.isEmpty()) {
+				child = n.children.get("");
+				if (child != null)
+					findLiterals(child, tags, pos + 1, m);
+			}
+		}
+
+		/**
+		 * Walk the wildcard paths that include the input tags, tracking whether the path so far
+		 * also contains them (exact match). Stops as soon as an exact match is found.
+		 */
+		private void findWildcards(Node n, List<String> tags, int pos, boolean contains, Match m) {
+			if (m.exact != null)
+				return;
+			if (pos == tags.size()) {
+				if (n.key == null)
+					return;
+				if (contains)
+					m.exact = n.key;
+				else
+					m.candidate(n.key);
+				return;
+			}
+			String tag = tags.get(pos);
+			if (tag.isEmpty()) {
+				// Empty input tags are included by any value
+				for (Map.Entry<String, Node> e: n.children.entrySet())
+					findWildcards(e.getValue(), tags, pos + 1, contains && e.getKey().isEmpty(), m);
+			}
+			else {
+				Node child = n.children.get(tag);
+				if (child != null)
+					findWildcards(child, tags, pos + 1, contains, m);
+				child = n.children.get("");
+				if (child != null)
+					findWildcards(child, tags, pos + 1, false, m);
+			}
+			if (n.patterns != null) {
+				for (int i = 0; i < n.patterns.size(); i++) {
+					boolean matches = n.patterns.get(i).matcher(tag).matches();
+					if (tag.isEmpty() || matches)
+						findWildcards(n.patternChildren.get(i), tags, pos + 1, contains && matches, m);
+				}
+			}
+		}
+	}
+
 	public AllocationReport(AllocationConfig config, long startMillis, boolean isReport, List<String> userTagKeys, ResourceService resourceService) throws Exception {
     	super();
     	S3BucketConfig bucket = config.getS3Bucket();
@@ -240,6 +411,7 @@ public class AllocationReport extends Report {
 		this.outTagIndeces = Lists.newArrayList();
 		this.newTagKeys = null;
 		this.data = Lists.newArrayList();
+		this.keyIndexes = Maps.newHashMap();
 		
 		this.inTagKeys = Lists.newArrayList();
 		if (config.getIn() != null)
@@ -376,25 +548,26 @@ public class AllocationReport extends Report {
 	 * a non-empty input value if no other entry with that value exists.
 	 */
 	private Key findMostSpecificKey(int hour, List<String> inTags) {		
+		// TODO: May want to do this by precedence rather than number of values
+		return getKeyIndex(hour).find(new Key(inTags));
+	}
+	
+	private KeyIndex getKeyIndex(int hour) {
 		HourData hourData = data.get(hour);
-		
-		// Check for an exact match first
-		Key key = new Key(inTags);
-		if (hourData.containsKey(key))
-			return key;
-		
-		// No exact match, walk through the more general options
-		List<Key> candidates = hourData.getCandidates(key);
-		key = null;
-		int maxValues = -1;
-		for (Key k: candidates) {
-			// TODO: May want to do this by precedence rather than number of values
-			if (k.numValues() > maxValues) {
-				maxValues = k.numValues();
-				key = k;
+		synchronized (hourData) {
+			if (hourData.index == null) {
+				Set<Key> keys = Sets.newHashSet(hourData.keySet());
+				synchronized (keyIndexes) {
+					KeyIndex index = keyIndexes.get(keys);
+					if (index == null) {
+						index = new KeyIndex(hourData);
+						keyIndexes.put(keys, index);
+					}
+					hourData.index = index;
+				}
 			}
+			return hourData.index;
 		}
-		return key;
 	}
 	
 	public Map<Key, Double> getData(int hour, TagGroup tg) throws Exception {
@@ -669,6 +842,7 @@ public class AllocationReport extends Report {
     
     protected void readCsv(DateTime month, Reader reader) throws IOException {
     	data = Lists.newArrayList();
+    	keyIndexes = Maps.newHashMap();
     	
 		CsvParserSettings settings = new CsvParserSettings();
 		settings.setHeaderExtractionEnabled(true);
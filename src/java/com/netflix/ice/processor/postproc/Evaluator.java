@@ -127,6 +127,15 @@ public class Evaluator {
 	}
 		
 	Double eval(String expr) throws Exception {
+		return compile(expr).eval(new double[0]);
+	}
+	
+	/**
+	 * Compile the expression into a tree that can be evaluated repeatedly without reparsing it.
+	 * An operand of the form $n (optionally negated) reads slot n of the values passed to
+	 * Compiled.eval() so variable values never need to be formatted into the expression.
+	 */
+	public Compiled compile(String expr) throws Exception {
 		// Convert to RPN using simplified shunting-yard algorithm
 		Deque<String> output = Lists.newLinkedList();
 		Deque<String> operators = Lists.newLinkedList();
@@ -183,49 +192,124 @@ public class Evaluator {
 			output.push(token);
 		}
 		
-		// Evaluate the RPN
-		Double result = evalRpn(output);
-		if (Double.isInfinite(result) || Double.isNaN(result))
-			result = 0.0;
-		return result;
+		return new Compiled(compileRpn(output));
 	}
 	
-	private Double evalRpn(Deque<String> tokens) throws Exception {
+	private Node compileRpn(Deque<String> tokens) throws Exception {
 		String token = tokens.pop();
-		Double x = null;
-		Double y = null;
 		
 		if (ops.containsKey(token)) {
 			Operator op = ops.get(token);
-			y = evalRpn(tokens);
-			x = evalRpn(tokens);
+			Node y = compileRpn(tokens);
+			Node x = compileRpn(tokens);
 			switch(op) {
-			case Add:		x += y; break;
-			case Subtract:	x -= y; break;
-			case Multiply:	x *= y; break;
-			case Divide:	x /= y; break;
+			case Add:
+			case Subtract:
+			case Multiply:
+			case Divide:
+				return new OperatorNode(op, x, y);
 			default:
 				throw new Exception("Error in RPN expression");
 			}
 		}
 		else if (funcs.containsKey(token)) {
-			switch (Function.valueOf(token)) {
-			case MIN:
-				y = evalRpn(tokens);
-				x = evalRpn(tokens);
-				x = Math.min(x, y);
-				break;
-			case MAX:
-				y = evalRpn(tokens);
-				x = evalRpn(tokens);
-				x = Math.max(x, y);
-				break;
+			Node y = compileRpn(tokens);
+			Node x = compileRpn(tokens);
+			return new FunctionNode(Function.valueOf(token), x, y);
+		}
+		else if (token.matches("-?\\$\\d+")) {
+			boolean negate = token.startsWith("-");
+			return new SlotNode(Integer.parseInt(token.substring(negate ? 2 : 1)), negate);
+		}
+		return new ConstantNode(Double.parseDouble(token));
+	}
+	
+	/**
+	 * Compiled form of an expression.
+	 */
+	public static class Compiled {
+		private final Node root;
+		
+		private Compiled(Node root) {
+			this.root = root;
+		}
+		
+		public double eval(double[] slots) {
+			double result = root.eval(slots);
+			if (Double.isInfinite(result) || Double.isNaN(result))
+				result = 0.0;
+			return result;
+		}
+	}
+	
+	private static abstract class Node {
+		abstract double eval(double[] slots);
+	}
+	
+	private static class ConstantNode extends Node {
+		private final double value;
+		
+		ConstantNode(double value) {
+			this.value = value;
+		}
+		
+		double eval(double[] slots) {
+			return value;
+		}
+	}
+	
+	private static class SlotNode extends Node {
+		private final int slot;
+		private final boolean negate;
+		
+		SlotNode(int slot, boolean negate) {
+			this.slot = slot;
+			this.negate = negate;
+		}
+		
+		double eval(double[] slots) {
+			return negate ? -slots[slot] : slots[slot];
+		}
+	}
+	
+	private static class OperatorNode extends Node {
+		private final Operator op;
+		private final Node x;
+		private final Node y;
+		
+		OperatorNode(Operator op, Node x, Node y) {
+			this.op = op;
+			this.x = x;
+			this.y = y;
+		}
+		
+		double eval(double[] slots) {
+			double a = x.eval(slots);
+			double b = y.eval(slots);
+			switch(op) {
+			case Add:		return a + b;
+			case Subtract:	return a - b;
+			case Multiply:	return a * b;
+			default:		return a / b;
 			}
 		}
-		else {
-			x = Double.parseDouble(token);
+	}
+	
+	private static class FunctionNode extends Node {
+		private final Function func;
+		private final Node x;
+		private final Node y;
+		
+		FunctionNode(Function func, Node x, Node y) {
+			this.func = func;
+			this.x = x;
+			this.y = y;
 		}
 		
-		return x;
+		double eval(double[] slots) {
+			double a = x.eval(slots);
+			double b = y.eval(slots);
+			return func == Function.MIN ? Math.min(a, b) : Math.max(a, b);
+		}
 	}
 }
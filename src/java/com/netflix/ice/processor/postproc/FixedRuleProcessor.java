@@ -2,8 +2,8 @@ package com.netflix.ice.processor.postproc;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.StopWatch;
 
 import com.google.common.collect.Lists;
@@ -26,7 +26,11 @@ public class FixedRuleProcessor extends RuleProcessor {
 	private int cacheHits;
 
 	public FixedRuleProcessor(Rule rule, AccountService accountService, ProductService productService) {
-		super(rule, accountService, productService);
+		this(rule, accountService, productService, null, 0);
+	}
+	
+	public FixedRuleProcessor(Rule rule, AccountService accountService, ProductService productService, ExecutorService pool, int numThreads) {
+		super(rule, accountService, productService, pool, numThreads);
 		this.cacheMisses = 0;
 		this.cacheHits = 0;
 	}
@@ -134,6 +138,10 @@ public class FixedRuleProcessor extends RuleProcessor {
 			//logger.info("result " + i + " for atg: " + atg);
 			Rule.Result result = rule.getResult(i);
 			
+			// Compile the expressions once for all the tag groups
+			Expression costExp = new Expression(result.getCost(), rule.getOperands(), result.isSingle());
+			Expression usageExp = new Expression(result.getUsage(), rule.getOperands(), result.isSingle());
+			
 			if (result.isSingle()) {
 				TagGroup outTagGroup = result.tagGroup(null, accountService, productService, isNonResource);
 				DataSerializer ds = resultData.get(i);
@@ -141,7 +149,7 @@ public class FixedRuleProcessor extends RuleProcessor {
 				for (int hour = 0; hour < ds.getNum(); hour++)
 					ds.remove(hour, outTagGroup);
 						
-				if (eval(i, rule, result, null, opSingleValues, ds, outTagGroup, maxNum))
+				if (eval(i, result, costExp, usageExp, null, opSingleValues, ds, outTagGroup, maxNum))
 					numResults++;
 			}
 			else {
@@ -149,7 +157,7 @@ public class FixedRuleProcessor extends RuleProcessor {
 				
 					TagGroup outTagGroup = result.tagGroup(atg, accountService, productService, isNonResource);
 					
-					if (eval(i, rule, result, in.get(atg), opSingleValues, resultData.get(i), outTagGroup, maxNum))
+					if (eval(i, result, costExp, usageExp, in.get(atg), opSingleValues, resultData.get(i), outTagGroup, maxNum))
 						numResults++;
 					
 					debug = false;
@@ -160,10 +168,15 @@ public class FixedRuleProcessor extends RuleProcessor {
 		return numResults;
 	}
 	
+	/**
+	 * A result expression compiled once per rule. References to operand values such as ${in.cost}
+	 * become slots in the compiled expression that are filled with each hour's values.
+	 */
 	static class Expression {
 		String original;
 		List<String> splits;
 		List<Ref> refs;
+		Evaluator.Compiled compiled;
 		
 		class Ref {
 			int index;
@@ -179,7 +192,10 @@ public class FixedRuleProcessor extends RuleProcessor {
 			}
 		}
 		
-		Expression(String expr, Map<String, Query> ops) {
+		/**
+		 * @param literal if true, the expression is compiled as is without any operand references
+		 */
+		Expression(String expr, Map<String, Query> ops, boolean literal) throws Exception {
 			original = expr;
 			splits = Lists.newArrayList();
 			refs = Lists.newArrayList();
@@ -189,27 +205,76 @@ public class FixedRuleProcessor extends RuleProcessor {
 				return;
 			}
 			
-			String[] initialSplit = original.split("\\$\\{", -1);
-			for (int i = 0; i < initialSplit.length; i++) {
-				if (initialSplit[i].contains("}")) {
-					// We have one or two pieces with the first being a ref
-					String[] secondarySplit = initialSplit[i].split("}");
-					
-					// Split into opName and cost/usage
-					String[] op = secondarySplit[0].split("\\.");
-					boolean isMonthly = op[0].equals("in") ? false : ops.get(op[0]).isMonthly();
-					refs.add(new Ref(splits.size(), op[0], op[1].equals("cost"), isMonthly));
-					splits.add("${" + secondarySplit[0] + "}");
-					
-					if (secondarySplit.length > 1)
-						splits.add(secondarySplit[1]);
+			if (literal) {
+				splits.add(original);
+			}
+			else {
+				String[] initialSplit = original.split("\\$\\{", -1);
+				for (int i = 0; i < initialSplit.length; i++) {
+					if (initialSplit[i].contains("}")) {
+						// We have one or two pieces with the first being a ref
+						String[] secondarySplit = initialSplit[i].split("}");
+						
+						// Split into opName and cost/usage
+						String[] op = secondarySplit[0].split("\\.");
+						boolean isMonthly = op[0].equals("in") ? false : ops.get(op[0]).isMonthly();
+						refs.add(new Ref(splits.size(), op[0], op[1].equals("cost"), isMonthly));
+						splits.add("${" + secondarySplit[0] + "}");
+						
+						if (secondarySplit.length > 1)
+							splits.add(secondarySplit[1]);
+					}
+					else {
+						splits.add(initialSplit[i]);
+					}
 				}
-				else {
-					splits.add(initialSplit[i]);
+			}
+			
+			// Replace each ref with its slot number and compile
+			List<String> slotted = Lists.newArrayList(splits);
+			for (int i = 0; i < refs.size(); i++)
+				slotted.set(refs.get(i).index, "$" + i);
+			String slottedExpr = String.join("", slotted);
+			try {
+				compiled = new Evaluator().compile(slottedExpr);
+			}
+			catch (Exception e) {
+				throw new Exception("Error compiling expression \"" + original + "\", " + e.getMessage(), e);
+			}
+		}
+		
+		boolean isEmpty() {
+			return original == null;
+		}
+		
+		/**
+		 * Evaluate the expression for each of the hours.
+		 */
+		double[] eval(CostAndUsage[] inValues, Map<String, CostAndUsage[]> opSingleValuesMap, int numHours) {
+			double[] results = new double[numHours];
+			if (original == null)
+				return results;
+			
+			// Look up the operand values once for all the hours
+			CostAndUsage[][] values = new CostAndUsage[refs.size()][];
+			for (int i = 0; i < refs.size(); i++)
+				values[i] = refs.get(i).opName.equals("in") ? inValues : opSingleValuesMap.get(refs.get(i).opName);
+			
+			double[] slots = new double[refs.size()];
+			for (int hour = 0; hour < numHours; hour++) {
+				for (int i = 0; i < slots.length; i++) {
+					Ref ref = refs.get(i);
+					CostAndUsage value = values[i] == null ? null : values[i][ref.isMonthly ? 0 : hour];
+					slots[i] = value == null ? 0.0 : ref.isCost ? value.cost : value.usage;
 				}
+				results[hour] = compiled.eval(slots);
 			}
+			return results;
 		}
 		
+		/**
+		 * Expand the references into their values for logging.
+		 */
 		String expand(CostAndUsage in, Map<String, CostAndUsage[]> opSingleValuesMap, int hour) {
 			if (original == null)
 				return null;
@@ -236,8 +301,9 @@ public class FixedRuleProcessor extends RuleProcessor {
 	
 	private boolean eval(
 			int index,
-			Rule rule,
 			Rule.Result result,
+			Expression costExp,
+			Expression usageExp,
 			CostAndUsage[] inValues, 
 			Map<String, CostAndUsage[]> opSingleValuesMap,
 			DataSerializer resultData,
@@ -245,48 +311,23 @@ public class FixedRuleProcessor extends RuleProcessor {
 			int maxNum) throws Exception {
 
 		int maxHours = inValues == null ? maxNum : inValues.length;
-		boolean hasCost = !StringUtils.isEmpty(result.getCost());
-		boolean hasUsage = !StringUtils.isEmpty(result.getUsage());
 		
-		if (!hasCost && !hasUsage)
+		if (costExp.isEmpty() && usageExp.isEmpty())
 			return false;
 		
-		Expression costExp = new Expression(result.getCost(), rule.getOperands());
-		Expression usageExp = new Expression(result.getUsage(), rule.getOperands());
-		
 		// Process each hour of data - we'll only have one if 'in' is a monthly operand
-		for (int hour = 0; hour < maxHours; hour++) {
-			// Replace variables
-			String cost = inValues == null ? result.getCost() : costExp.expand(inValues[hour], opSingleValuesMap, hour);
-			String usage = inValues == null ? result.getUsage() : usageExp.expand(inValues[hour], opSingleValuesMap, hour);
-			Double costResult = 0.0;
-			Double usageResult = 0.0;
-			
-			if (hasCost) {
-				try {
-					costResult = new Evaluator().eval(cost);
-				}
-				catch (Exception e) {
-					logger.error("Error processing expressions \"" + cost + "\", " + e.getMessage());
-					throw e;
-				}
-				if (debug && hour == 0)
-					logger.info("eval(" + index + ") cost: " + result.getCost() + " = " + cost + " = " + costResult + ", " + outTagGroup);
-			}
-			
-			if (hasUsage) {
-				try {
-					usageResult = hasUsage ? new Evaluator().eval(usage) : 0.0;
-				}
-				catch (Exception e) {
-					logger.error("Error processing expressions \"" + usage + "\", " + e.getMessage());
-					throw e;
-				}
-				if (debug && hour == 0)
-					logger.info("eval(" + index + ") usage: " + result.getUsage() + " = " + usage + " = " + usageResult + ", " + outTagGroup);
-			}
-			resultData.add(hour, outTagGroup, new CostAndUsage(costResult, usageResult));
+		double[] costResults = costExp.eval(inValues, opSingleValuesMap, maxHours);
+		double[] usageResults = usageExp.eval(inValues, opSingleValuesMap, maxHours);
+		
+		if (debug && maxHours > 0) {
+			if (!costExp.isEmpty())
+				logger.info("eval(" + index + ") cost: " + result.getCost() + " = " + (inValues == null ? result.getCost() : costExp.expand(inValues[0], opSingleValuesMap, 0)) + " = " + costResults[0] + ", " + outTagGroup);
+			if (!usageExp.isEmpty())
+				logger.info("eval(" + index + ") usage: " + result.getUsage() + " = " + (inValues == null ? result.getUsage() : usageExp.expand(inValues[0], opSingleValuesMap, 0)) + " = " + usageResults[0] + ", " + outTagGroup);
 		}
+		
+		for (int hour = 0; hour < maxHours; hour++)
+			resultData.add(hour, outTagGroup, new CostAndUsage(costResults[hour], usageResults[hour]));
 		return true;
 	}
 	
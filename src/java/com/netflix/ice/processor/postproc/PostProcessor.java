@@ -106,6 +106,12 @@ public class PostProcessor {
 		return startMilli >= ruleStart && startMilli < ruleEnd;
 	}
 	
+	private ExecutorService getPool() {
+		if (pool == null && numThreads > 0)
+    		pool = Executors.newFixedThreadPool(numThreads);
+		return pool;
+	}
+	
 	protected void processRule(RuleConfig rc, CostAndUsageData data) throws Exception {
 		logger.info("-------- Process rule: \"" + rc.getName() + "\" --------");
 		// Make sure the rule is in effect for the start date
@@ -131,7 +137,7 @@ public class PostProcessor {
 				data.addPostProcessorStats(new PostProcessorStats(rule.config.getName(), RuleType.Fixed, false, 0, 0, info));
 				return;
 			}
-			RuleProcessor rp = new FixedRuleProcessor(rule, accountService, productService);
+			RuleProcessor rp = new FixedRuleProcessor(rule, accountService, productService, getPool(), numThreads);
 			rp.process(data);
 		}
 		else {
@@ -143,10 +149,7 @@ public class PostProcessor {
 				outData = new CostAndUsageData(data, UserTagKey.getUserTagKeys(outUserTagKeys));
 			}
 			
-			if (pool == null && numThreads > 0)
-	    		pool = Executors.newFixedThreadPool(numThreads);
-
-			VariableRuleProcessor rp = new VariableRuleProcessor(rule, outData, accountService, productService, resourceService, workBucketConfig, pool);
+			VariableRuleProcessor rp = new VariableRuleProcessor(rule, outData, accountService, productService, resourceService, workBucketConfig, getPool(), numThreads);
 			boolean processed = rp.process(data);
 			if (processed && rc.isReport()) {
 				outData.enableTagGroupCache(true);
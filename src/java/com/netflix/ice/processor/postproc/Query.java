@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +39,7 @@ import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Product;
 import com.netflix.ice.tag.Region;
 import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.Tag;
 import com.netflix.ice.tag.TagType;
 import com.netflix.ice.tag.UsageType;
 import com.netflix.ice.tag.UserTag;
@@ -295,17 +297,17 @@ public class Query {
 		// Apply tag filters
 		for (Rule.TagKey tk: tagFilters.keySet()) {
 			TagFilters tf = tagFilters.get(tk);
-			String value = null;
+			Tag tag = null;
 			switch (tk) {
-			case account:	value = tg.account.getId();				break;				
-			case region:	value = tg.region.name;					break;
-			case zone:		value = tg.zone == null ? null : tg.zone.name;					break;
-			case product:	value = tg.product.getServiceCode();	break;
-			case operation:	value = tg.operation.name;				break;
-			case usageType:	value = tg.usageType.name;				break;
-			default:												break;
+			case account:	tag = tg.account;		break;				
+			case region:	tag = tg.region;		break;
+			case zone:		tag = tg.zone;			break;
+			case product:	tag = tg.product;		break;
+			case operation:	tag = tg.operation;		break;
+			case usageType:	tag = tg.usageType;		break;
+			default:								break;
 			}
-			if (value == null || !tf.matches(value))
+			if (tag == null || !tf.matches(tk, tag))
 				return null;
 		}
 		  
@@ -315,7 +317,7 @@ public class Query {
 			for (String key: userTagFilters.keySet()) {
 				TagFilters tf = userTagFilters.get(key);
 				Integer userTagIndex = userTagFilterIndeces.get(key);
-				if (userTagIndex < 0 || !tf.matches(userTags[userTagIndex].name))
+				if (userTagIndex < 0 || !tf.matches(null, userTags[userTagIndex]))
 					return null;
 				
 			}
@@ -327,9 +329,12 @@ public class Query {
 	public class TagFilters {
 		private boolean exclude;
 		private List<TagFilter> filters;
+		// Tags are interned, so each distinct tag only needs to be matched against the regexes once
+		private ConcurrentMap<Tag, Boolean> matchesByTag;
 		
 		public TagFilters(boolean exclude, List<String> regularExpressions) {
 			this.exclude = exclude;
+			this.matchesByTag = Maps.newConcurrentMap();
 			filters = Lists.newArrayList();
 			for (String regex: regularExpressions) {
 				filters.add(new TagFilter(regex));				
@@ -345,6 +350,23 @@ public class Query {
 			return filters.isEmpty();
 		}
 		
+		/**
+		 * Match the name of the tag as used by the filters for the tag key, user tags use the tag name.
+		 */
+		public boolean matches(Rule.TagKey tk, Tag tag) {
+			Boolean result = matchesByTag.get(tag);
+			if (result == null) {
+				String name = tag.name;
+				if (tk == Rule.TagKey.account)
+					name = ((Account) tag).getId();
+				else if (tk == Rule.TagKey.product)
+					name = ((Product) tag).getServiceCode();
+				result = matches(name);
+				matchesByTag.put(tag, result);
+			}
+			return result;
+		}
+		
 		public boolean matches(String name) {
 			if (exclude) {
 				for (TagFilter tf: filters) {
@@ -1,7 +1,11 @@
 package com.netflix.ice.processor.postproc;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.time.StopWatch;
 import org.slf4j.Logger;
@@ -24,11 +28,25 @@ public abstract class RuleProcessor {
 	protected Rule rule;
 	protected AccountService accountService;
 	protected ProductService productService;
+	protected ExecutorService pool;
+	protected int numThreads;
+	
+	// Don't split small queries across threads
+	private static final int minTagGroupsPerPartition = 1000;
     
 	public RuleProcessor(Rule rule, AccountService accountService, ProductService productService) {
+		this(rule, accountService, productService, null, 0);
+	}
+	
+	/**
+	 * @param pool if not null, queries are run on numThreads partitions of the tag groups
+	 */
+	public RuleProcessor(Rule rule, AccountService accountService, ProductService productService, ExecutorService pool, int numThreads) {
 		this.rule = rule;
 		this.accountService = accountService;
 		this.productService = productService;
+		this.pool = pool;
+		this.numThreads = numThreads;
 	}
 	
 	public Rule getRule() {
@@ -64,26 +82,58 @@ public abstract class RuleProcessor {
 			valuesMap.put(aggregatedTagGroup, values);
 		}
 		else {
+			// Collect the tag groups of each product so they can be partitioned across the workers
+			List<DataSerializer> inDatas = Lists.newArrayList();
+			List<TagGroup> tagGroups = Lists.newArrayList();
 			for (Product product: products) {
 				DataSerializer inData = data.get(product);
 				if (inData == null)
 					continue;
 				
 				for (TagGroup tg: inData.getTagGroups()) {
-					AggregationTagGroup aggregatedTagGroup = query.aggregateTagGroup(tg, accountService, productService);
-					if (aggregatedTagGroup == null)
+					inDatas.add(inData);
+					tagGroups.add(tg);
+				}
+			}
+			
+			int numValues = query.isMonthly() ? 1 : maxHours;
+			int numPartitions = pool == null ? 1 : Math.max(1, Math.min(numThreads, tagGroups.size() / minTagGroupsPerPartition));
+			List<Map<AggregationTagGroup, double[][]>> partials = Lists.newArrayList();
+			if (numPartitions == 1) {
+				partials.add(aggregate(query, inDatas, tagGroups, 0, tagGroups.size(), numValues));
+			}
+			else {
+				List<Future<Map<AggregationTagGroup, double[][]>>> futures = Lists.newArrayList();
+				for (int i = 0; i < numPartitions; i++) {
+					int from = (int) ((long) tagGroups.size() * i / numPartitions);
+					int to = (int) ((long) tagGroups.size() * (i + 1) / numPartitions);
+					futures.add(submitAggregate(query, inDatas, tagGroups, from, to, numValues));
+				}
+				for (Future<Map<AggregationTagGroup, double[][]>> f: futures)
+					partials.add(f.get());
+			}
+			
+			// Merge the partitions in order so the sums don't depend on thread scheduling
+			Map<AggregationTagGroup, double[][]> merged = Maps.newLinkedHashMap();
+			for (Map<AggregationTagGroup, double[][]> partial: partials) {
+				for (Map.Entry<AggregationTagGroup, double[][]> e: partial.entrySet()) {
+					double[][] sums = merged.get(e.getKey());
+					if (sums == null) {
+						merged.put(e.getKey(), e.getValue());
 						continue;
-					
-					CostAndUsage[] values = valuesMap.get(aggregatedTagGroup);
-					if (values == null) {
-						values = new CostAndUsage[query.isMonthly() ? 1 : maxHours];
-						for (int i = 0; i < values.length; i++)
-							values[i] = new CostAndUsage();
-						valuesMap.put(aggregatedTagGroup, values);
 					}
-					getData(inData, tg, values, query.isMonthly());
+					for (int i = 0; i < numValues; i++) {
+						sums[0][i] += e.getValue()[0][i];
+						sums[1][i] += e.getValue()[1][i];
+					}
 				}
 			}
+			for (Map.Entry<AggregationTagGroup, double[][]> e: merged.entrySet()) {
+				CostAndUsage[] values = new CostAndUsage[numValues];
+				for (int i = 0; i < numValues; i++)
+					values[i] = new CostAndUsage(e.getValue()[0][i], e.getValue()[1][i]);
+				valuesMap.put(e.getKey(), values);
+			}
 		}
 		if (valuesMap.isEmpty())
 			logger.warn("No query results for rule " + ruleName + ". Query: " + query.toString());			
@@ -92,6 +142,45 @@ public abstract class RuleProcessor {
 		return valuesMap;
 	}
 
+	private Future<Map<AggregationTagGroup, double[][]>> submitAggregate(final Query query, final List<DataSerializer> inDatas, final List<TagGroup> tagGroups, final int from, final int to, final int numValues) {
+		return pool.submit(new Callable<Map<AggregationTagGroup, double[][]>>() {
+			@Override
+			public Map<AggregationTagGroup, double[][]> call() throws Exception {
+				return aggregate(query, inDatas, tagGroups, from, to, numValues);
+			}
+		});
+	}
+	
+	/**
+	 * Filter and aggregate a range of the tag groups into per-hour cost (index 0) and usage (index 1) sums.
+	 * Every aggregation tag group that passes the filters gets an entry even if it has no data.
+	 */
+	private Map<AggregationTagGroup, double[][]> aggregate(Query query, List<DataSerializer> inDatas, List<TagGroup> tagGroups, int from, int to, int numValues) throws Exception {
+		Map<AggregationTagGroup, double[][]> sums = Maps.newLinkedHashMap();
+		for (int i = from; i < to; i++) {
+			TagGroup tg = tagGroups.get(i);
+			AggregationTagGroup aggregatedTagGroup = query.aggregateTagGroup(tg, accountService, productService);
+			if (aggregatedTagGroup == null)
+				continue;
+			
+			double[][] values = sums.get(aggregatedTagGroup);
+			if (values == null) {
+				values = new double[2][numValues];
+				sums.put(aggregatedTagGroup, values);
+			}
+			DataSerializer inData = inDatas.get(i);
+			for (int hour = 0; hour < inData.getNum(); hour++) {
+				CostAndUsage cau = inData.get(hour, tg);
+				if (cau == null)
+					continue;
+				int index = numValues == 1 ? 0 : hour;
+				values[0][index] += cau.cost;
+				values[1][index] += cau.usage;
+			}
+		}
+		return sums;
+	}
+	
 	private void getData(DataSerializer data, TagGroup tg, CostAndUsage[] values, boolean isMonthly) {
 		for (int hour = 0; hour < data.getNum(); hour++) {
 			int index = isMonthly ? 0 : hour;
@@ -39,16 +39,14 @@ public class VariableRuleProcessor extends RuleProcessor {
 	private CostAndUsageData outCauData;
 	private ResourceService resourceService;
 	private WorkBucketConfig workBucketConfig;
-	private ExecutorService pool;
 
 	public VariableRuleProcessor(Rule rule, CostAndUsageData outCauData,
 			AccountService accountService, ProductService productService, 
-			ResourceService resourceService, WorkBucketConfig workBucketConfig, ExecutorService pool) {
-		super(rule, accountService, productService);
+			ResourceService resourceService, WorkBucketConfig workBucketConfig, ExecutorService pool, int numThreads) {
+		super(rule, accountService, productService, pool, numThreads);
 		this.outCauData = outCauData;
 		this.resourceService = resourceService;
 		this.workBucketConfig = workBucketConfig;
-		this.pool = pool;
 	}
 		
 	private int[] getIndeces(List<String> outUserTagKeys) {
@@ -394,8 +392,8 @@ public class VariableRuleProcessor extends RuleProcessor {
 			String ec2UsageType = atg.getProduct().isEc2Instance() ? atg.getUsageType() != null ? atg.getUsageType().name : null : null;
 			
 			for (int hour = 0; hour < maxHours; hour++) {						
-				List<String[]> hourClusterData = report.getData(clusterName, hour, ec2UsageType);
-				if (hourClusterData != null && !hourClusterData.isEmpty()) {
+				KubernetesReport.HourData hourClusterData = report.getData(clusterName, hour, ec2UsageType);
+				if (hourClusterData != null && hourClusterData.size() > 0) {
 					addHourClusterRecords(allocationReport, hour, atg.getProduct(), inTags, clusterName, report, hourClusterData);
 				}
 			}
@@ -421,15 +419,15 @@ public class VariableRuleProcessor extends RuleProcessor {
 		return tags;
 	}
 	
-	protected void addHourClusterRecords(AllocationReport allocationReport, int hour, Product product, List<String> inTags, String clusterName, KubernetesReport report, List<String[]> hourClusterData) {
+	protected void addHourClusterRecords(AllocationReport allocationReport, int hour, Product product, List<String> inTags, String clusterName, KubernetesReport report, KubernetesReport.HourData hourClusterData) {
 		double remainingAllocation = 1.0;
 		
-		for (String[] item: hourClusterData) {
-			double allocation = report.getAllocationFactor(product, item);
+		for (int item = 0; item < hourClusterData.size(); item++) {
+			double allocation = report.getAllocationFactor(product, hourClusterData, item);
 			if (allocation == 0.0)
 				continue;
 			
-			List<String> outTags = report.getTagValues(item, allocationReport.getOutTagKeys());
+			List<String> outTags = report.getTagValues(hourClusterData, item, allocationReport.getOutTagKeys());
 			remainingAllocation -= allocation;			
 			allocationReport.add(hour, allocation, inTags, outTags);			
 		}
@@ -0,0 +1,217 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of data column indecies used to index the TagGroups of a data file.
+ * 
+ * Like the containers of a roaring bitmap, each set is held either as a sorted
+ * array of column indecies when sparse or as a bitmap of the columns when dense,
+ * whichever is smaller. Intersections and unions of two sets are done directly
+ * on their representations without visiting the other columns of the file.
+ */
+public class ColumnBitmap {
+	private final int numColumns;
+	private final int cardinality;
+	// Exactly one of values or words is non-null
+	private final int[] values;
+	private final long[] words;
+	
+	private ColumnBitmap(int numColumns, int[] values, int cardinality) {
+		this.numColumns = numColumns;
+		this.cardinality = cardinality;
+		this.values = values;
+		this.words = null;
+	}
+	
+	private ColumnBitmap(int numColumns, long[] words) {
+		this.numColumns = numColumns;
+		int count = 0;
+		for (long w: words)
+			count += Long.bitCount(w);
+		this.cardinality = count;
+		this.values = null;
+		this.words = words;
+	}
+	
+	/**
+	 * Create a set from the first count entries of an ascending array of column indecies.
+	 */
+	public static ColumnBitmap of(int numColumns, int[] sorted, int count) {
+		if (!isDense(numColumns, count))
+			return new ColumnBitmap(numColumns, count == sorted.length ? sorted : Arrays.copyOf(sorted, count), count);
+		
+		long[] words = new long[numWords(numColumns)];
+		for (int i = 0; i < count; i++)
+			words[sorted[i] >>> 6] |= 1L << sorted[i];
+		return new ColumnBitmap(numColumns, words);
+	}
+	
+	public static ColumnBitmap empty(int numColumns) {
+		return new ColumnBitmap(numColumns, new int[0], 0);
+	}
+	
+	public static ColumnBitmap all(int numColumns) {
+		long[] words = new long[numWords(numColumns)];
+		Arrays.fill(words, -1L);
+		if (numColumns % 64 != 0)
+			words[words.length - 1] = (1L << numColumns) - 1;
+		return isDense(numColumns, numColumns) ? new ColumnBitmap(numColumns, words) : of(numColumns, toArray(words, numColumns), numColumns);
+	}
+	
+	private static boolean isDense(int numColumns, int count) {
+		// A sorted int array costs 32 bits per column present, a bitmap one bit per column in the file
+		return (long) count * 32 > numColumns;
+	}
+	
+	private static int numWords(int numColumns) {
+		return (numColumns + 63) >>> 6;
+	}
+	
+	public int getNumColumns() {
+		return numColumns;
+	}
+	
+	public int cardinality() {
+		return cardinality;
+	}
+	
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+	
+	public boolean contains(int column) {
+		if (column < 0 || column >= numColumns)
+			return false;
+		if (values != null)
+			return Arrays.binarySearch(values, column) >= 0;
+		return (words[column >>> 6] & (1L << column)) != 0;
+	}
+	
+	/**
+	 * Get the ascending column indecies in the set.
+	 */
+	public int[] toArray() {
+		return values != null ? values.clone() : toArray(words, cardinality);
+	}
+	
+	private static int[] toArray(long[] words, int cardinality) {
+		int[] result = new int[cardinality];
+		int n = 0;
+		for (int i = 0; i < words.length; i++) {
+			long w = words[i];
+			while (w != 0) {
+				result[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+				w &= w - 1;
+			}
+		}
+		return result;
+	}
+	
+	public ColumnBitmap and(ColumnBitmap other) {
+		if (values != null && other.values != null) {
+			int[] result = new int[Math.min(cardinality, other.cardinality)];
+			int n = 0;
+			for (int i = 0, j = 0; i < cardinality && j < other.cardinality; ) {
+				if (values[i] < other.values[j])
+					i++;
+				else if (values[i] > other.values[j])
+					j++;
+				else {
+					result[n++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			return of(numColumns, result, n);
+		}
+		if (values != null || other.values != null) {
+			ColumnBitmap sparse = values != null ? this : other;
+			ColumnBitmap dense = values != null ? other : this;
+			int[] result = new int[sparse.cardinality];
+			int n = 0;
+			for (int i = 0; i < sparse.cardinality; i++) {
+				if (dense.contains(sparse.values[i]))
+					result[n++] = sparse.values[i];
+			}
+			return of(numColumns, result, n);
+		}
+		long[] result = new long[words.length];
+		int count = 0;
+		for (int i = 0; i < result.length; i++) {
+			result[i] = words[i] & other.words[i];
+			count += Long.bitCount(result[i]);
+		}
+		return isDense(numColumns, count) ? new ColumnBitmap(numColumns, result) : of(numColumns, toArray(result, count), count);
+	}
+	
+	public ColumnBitmap or(ColumnBitmap other) {
+		if (values != null && other.values != null) {
+			int[] result = new int[cardinality + other.cardinality];
+			int n = 0;
+			int i = 0, j = 0;
+			while (i < cardinality && j < other.cardinality) {
+				if (values[i] < other.values[j])
+					result[n++] = values[i++];
+				else if (values[i] > other.values[j])
+					result[n++] = other.values[j++];
+				else {
+					result[n++] = values[i++];
+					j++;
+				}
+			}
+			while (i < cardinality)
+				result[n++] = values[i++];
+			while (j < other.cardinality)
+				result[n++] = other.values[j++];
+			return of(numColumns, result, n);
+		}
+		long[] result = new long[numWords(numColumns)];
+		for (ColumnBitmap b: new ColumnBitmap[]{ this, other }) {
+			if (b.values != null) {
+				for (int i = 0; i < b.cardinality; i++)
+					result[b.values[i] >>> 6] |= 1L << b.values[i];
+			}
+			else {
+				for (int i = 0; i < result.length; i++)
+					result[i] |= b.words[i];
+			}
+		}
+		return new ColumnBitmap(numColumns, result);
+	}
+	
+	/**
+	 * Accumulates column indecies in ascending order for a single tag value while building an index.
+	 */
+	public static class Builder {
+		private int[] values = new int[4];
+		private int count = 0;
+		
+		public void add(int column) {
+			if (count == values.length)
+				values = Arrays.copyOf(values, values.length * 2);
+			values[count++] = column;
+		}
+		
+		public ColumnBitmap build(int numColumns) {
+			return of(numColumns, values, count);
+		}
+	}
+}
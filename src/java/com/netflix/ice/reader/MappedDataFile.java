@@ -0,0 +1,329 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingOutputStream;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.DataVersion;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.VarInt;
+import com.netflix.ice.tag.Zone.BadZone;
+
+/**
+ * Uncompressed sibling of a work bucket cost and usage data file that the reader can memory-map.
+ * The first time a data file is loaded (or whenever it changes), the GZIP'd data file is converted in a single
+ * streaming pass. Subsequent loads map the existing file and only read the TagGroups, so the interval data
+ * is paged in by the OS when queried rather than being inflated onto the heap.
+ * 
+ * File layout:<br/>
+ * 1. Mapped file version (int)<br/>
+ * 2. Source data file last modified time and length (long, long)<br/>
+ * 3. Number of user tags (int)<br/>
+ * 4. TagGroup dictionary (see TagGroup.Serializer.serializeDictionary)<br/>
+ * 5. Number of hours/days/weeks/months of data (int)<br/>
+ * 6. Interval blocks, each either dense (cost and usage doubles for every TagGroup) or sparse
+ *    (sorted TagGroup indecies followed by cost and usage doubles for each)<br/>
+ * 7. Interval index: type (byte), count (int), and block offset (long) for each interval<br/>
+ * 8. Offset of the interval index (long)<br/>
+ */
+public class MappedDataFile implements DataVersion {
+    private final static Logger logger = LoggerFactory.getLogger(MappedDataFile.class);
+    
+    public static final String mapExtension = ".map";
+    
+    private static final int MAPPED_FILE_VERSION = 2;
+    
+    private static final byte NO_DATA = 0;
+    private static final byte DENSE = 1;
+    private static final byte SPARSE = 2;
+    
+    /**
+     * Load the data for a work bucket data file using the memory-mapped sibling, creating or updating it
+     * from the data file if needed.
+     */
+    public static ReadOnlyData load(File file, boolean compress, int numUserTags, AccountService accountService, ProductService productService) throws IOException, BadZone {
+    	if (!file.exists())
+    		throw new FileNotFoundException(file.getPath());
+    	
+    	File mapFile = new File(file.getPath() + mapExtension);
+    	if (!isCurrent(mapFile, file)) {
+    		logger.info("converting " + file + " to memory-mapped file");
+    		convert(file, compress, mapFile, accountService, productService);
+    	}
+    	try {
+    		return open(mapFile, numUserTags, accountService, productService);
+    	}
+    	catch (IOException e) {
+    		// Remove the mapped file so that it's rebuilt on the next attempt
+    		mapFile.delete();
+    		throw e;
+    	}
+    }
+    
+    /**
+     * Delete the memory-mapped sibling of a work bucket data file. Called when the data file has been
+     * replaced or removed, so stale mapped files don't pile up in the local directory. Data dropped from
+     * the cache keeps its mapped file so the next load can map it again without converting the data file.
+     * Readers that still have the old file mapped keep their mapping until it's released.
+     */
+    public static void delete(File file) {
+    	for (File f: new File[]{ new File(file.getPath() + mapExtension), new File(file.getPath() + mapExtension + ".tmp") }) {
+    		if (f.exists() && !f.delete())
+    			logger.warn("not able to delete mapped file " + f);
+    	}
+    }
+    
+    /**
+     * Check that the mapped file was created from the current version of the data file
+     */
+    protected static boolean isCurrent(File mapFile, File file) {
+    	if (!mapFile.exists())
+    		return false;
+    	
+    	DataInputStream in = null;
+    	try {
+    		in = new DataInputStream(new FileInputStream(mapFile));
+    		return in.readInt() == MAPPED_FILE_VERSION && in.readLong() == file.lastModified() && in.readLong() == file.length();
+    	}
+    	catch (IOException e) {
+    		return false;
+    	}
+    	finally {
+    		if (in != null) {
+	    		try {
+					in.close();
+				} catch (IOException e) {
+				}
+    		}
+    	}
+    }
+    
+    /**
+     * Convert the work bucket data file to the mapped file format. The new file is written to a temporary file
+     * and then moved into place so that readers with the previous version mapped are not disturbed.
+     */
+    protected static void convert(File file, boolean compress, File mapFile, AccountService accountService, ProductService productService) throws IOException, BadZone {
+        InputStream is = new FileInputStream(file);
+        if (compress)
+        	is = new GZIPInputStream(is);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        
+        File tmpFile = new File(mapFile.getPath() + ".tmp");
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        DataOutputStream out = new DataOutputStream(counter);
+        
+        try {
+	    	int version = in.readInt();
+	    	// Verify that the file version is one we can read
+	    	if (version < CUR_WORK_BUCKET_DENSE_VERSION || version > CUR_WORK_BUCKET_VERSION) {
+	    		throw new IOException("Wrong file version, expected " + CUR_WORK_BUCKET_DENSE_VERSION + " through " + CUR_WORK_BUCKET_VERSION + ", got " + version);
+	    	}
+	    	out.writeInt(MAPPED_FILE_VERSION);
+	    	out.writeLong(file.lastModified());
+	    	out.writeLong(file.length());
+	    	
+	    	int numUserTags = in.readInt();
+	    	out.writeInt(numUserTags);
+	    	
+	        List<TagGroup> tagGroups = version == CUR_WORK_BUCKET_VERSION ?
+	        		TagGroup.Serializer.deserializeDictionary(accountService, productService, numUserTags, in) :
+	        		TagGroup.Serializer.deserializeList(accountService, productService, numUserTags, in);
+	        TagGroup.Serializer.serializeDictionary(out, tagGroups);
+	        int numKeys = tagGroups.size();
+	        
+	        int num = in.readInt();
+	        out.writeInt(num);
+	        
+	        byte[] types = new byte[num];
+	        int[] counts = new int[num];
+	        long[] offsets = new long[num];
+	        
+	        int[] columns = new int[numKeys];
+	        double[] cost = new double[numKeys];
+	        double[] usage = new double[numKeys];
+	        
+	        for (int i = 0; i < num; i++) {
+	        	// Read the interval as a sparse list of columns
+	        	int count = 0;
+	        	if (version == CUR_WORK_BUCKET_DENSE_VERSION) {
+	        		if (in.readBoolean()) {
+		        		for (int j = 0; j < numKeys; j++) {
+		        			double c = in.readDouble();
+		        			double u = in.readDouble();
+		        			if (c != 0 || u != 0) {
+		        				columns[count] = j;
+		        				cost[count] = c;
+		        				usage[count] = u;
+		        				count++;
+		        			}
+		        		}
+	        		}
+	        	}
+	        	else {
+	        		count = in.readInt();
+	        		int column = 0;
+	        		for (int j = 0; j < count; j++) {
+	        			column += VarInt.read(in);
+	        			columns[j] = column;
+	        			cost[j] = in.readDouble();
+	        			usage[j] = in.readDouble();
+	        		}
+	        	}
+	        	
+	        	// Write the interval in whichever layout is smaller
+	        	offsets[i] = counter.getCount();
+	        	counts[i] = count;
+	        	if (count == 0) {
+	        		types[i] = NO_DATA;
+	        	}
+	        	else if (count * 20L < numKeys * 16L) {
+	        		types[i] = SPARSE;
+	        		for (int j = 0; j < count; j++)
+	        			out.writeInt(columns[j]);
+	        		for (int j = 0; j < count; j++)
+	        			out.writeDouble(cost[j]);
+	        		for (int j = 0; j < count; j++)
+	        			out.writeDouble(usage[j]);
+	        	}
+	        	else {
+	        		types[i] = DENSE;
+	        		writeDense(out, columns, cost, count, numKeys);
+	        		writeDense(out, columns, usage, count, numKeys);
+	        	}
+	        }
+	        
+	        // Write the interval index
+	        long indexOffset = counter.getCount();
+	        for (int i = 0; i < num; i++) {
+	        	out.writeByte(types[i]);
+	        	out.writeInt(counts[i]);
+	        	out.writeLong(offsets[i]);
+	        }
+	        out.writeLong(indexOffset);
+	        out.close();
+	        out = null;
+	        
+	        Files.move(tmpFile.toPath(), mapFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+        	in.close();
+        	if (out != null) {
+        		out.close();
+        		tmpFile.delete();
+        	}
+        }
+    }
+    
+    private static void writeDense(DataOutputStream out, int[] columns, double[] values, int count, int numKeys) throws IOException {
+    	int j = 0;
+    	for (int column = 0; column < numKeys; column++) {
+    		if (j < count && columns[j] == column)
+    			out.writeDouble(values[j++]);
+    		else
+    			out.writeDouble(0.0);
+    	}
+    }
+    
+    /**
+     * Map the file and create the read-only views of each interval
+     */
+    protected static ReadOnlyData open(File mapFile, int numUserTags, AccountService accountService, ProductService productService) throws IOException, BadZone {
+    	// Read the TagGroups
+    	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+    	List<TagGroup> tagGroups;
+    	int num;
+    	try {
+    		in.readInt(); // version
+    		in.readLong(); // source last modified
+    		in.readLong(); // source length
+    		int fileNumUserTags = in.readInt();
+        	if (fileNumUserTags != numUserTags)
+        		logger.error("Data file has wrong number of user tags, expected " + numUserTags + ", got " + fileNumUserTags);
+    		numUserTags = fileNumUserTags;
+    		tagGroups = TagGroup.Serializer.deserializeDictionary(accountService, productService, numUserTags, in);
+    		num = in.readInt();
+    	}
+    	finally {
+    		in.close();
+    	}
+    	
+    	RandomAccessFile raf = new RandomAccessFile(mapFile, "r");
+    	try {
+	    	FileChannel channel = raf.getChannel();
+	    	
+	    	// Read the interval index
+	    	raf.seek(raf.length() - 8);
+	    	long indexOffset = raf.readLong();
+	    	ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, num * 13L);
+	    	byte[] types = new byte[num];
+	    	int[] counts = new int[num];
+	    	long[] offsets = new long[num];
+	    	for (int i = 0; i < num; i++) {
+	    		types[i] = index.get();
+	    		counts[i] = index.getInt();
+	    		offsets[i] = index.getLong();
+	    	}
+	    	
+	    	// Map the interval blocks. A single mapping is limited to 2GB, so map contiguous runs of intervals
+	    	// in as few chunks as possible. The mappings remain valid after the channel is closed.
+	    	ReadOnlyData.Data[] data = new ReadOnlyData.Data[num];
+	    	int numColumns = tagGroups.size();
+	    	ByteBuffer chunk = null;
+	    	long chunkStart = 0;
+	    	for (int i = 0; i < num; i++) {
+	    		if (types[i] == NO_DATA)
+	    			continue;
+	    		
+	    		long length = types[i] == DENSE ? numColumns * 16L : counts[i] * 20L;
+	    		if (chunk == null || offsets[i] + length > chunkStart + chunk.capacity()) {
+	    			chunkStart = offsets[i];
+	    			chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(indexOffset - chunkStart, Integer.MAX_VALUE));
+	    		}
+	    		ByteBuffer block = chunk.duplicate();
+	    		block.position((int) (offsets[i] - chunkStart));
+	    		data[i] = types[i] == DENSE ? new ReadOnlyData.MappedData(block, numColumns) : new ReadOnlyData.MappedData(block, numColumns, counts[i]);
+	    	}
+	    	return new ReadOnlyData(data, tagGroups, numUserTags);
+    	}
+    	finally {
+    		raf.close();
+    	}
+    }
+}
@@ -21,12 +21,16 @@ import com.google.common.collect.Lists;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.VarInt;
 import com.netflix.ice.tag.Operation.ReservationOperation;
 import com.netflix.ice.tag.Operation.SavingsPlanOperation;
 import com.netflix.ice.tag.Zone.BadZone;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -35,10 +39,19 @@ import org.slf4j.LoggerFactory;
 public class ReadOnlyData extends ReadOnlyGenericData<ReadOnlyData.Data> {
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
+    /**
+     * Cost and usage values for one interval. Only accessors are provided since the
+     * values of a loaded data file are never modified by the reader.
+     */
     public static class Data {
     	private double[] cost;
     	private double[] usage;
     	
+    	protected Data() {
+    		cost = null;
+    		usage = null;
+    	}
+    	
     	public Data(int size) {
     		cost = new double[size];
     		usage = new double[size];
@@ -61,11 +74,12 @@ public class ReadOnlyData extends ReadOnlyGenericData<ReadOnlyData.Data> {
     		return usage;
     	}
     	
-    	public void add(Data from) {
-            for (int i = 0; i < from.cost.length; i++) {
-            	cost[i] += from.cost[i];
-            	usage[i] += from.usage[i];
-            }
+    	public double getCost(int column) {
+    		return cost[column];
+    	}
+    	
+    	public double getUsage(int column) {
+    		return usage[column];
     	}
     	
     	public boolean hasCostData() {
@@ -85,6 +99,138 @@ public class ReadOnlyData extends ReadOnlyGenericData<ReadOnlyData.Data> {
             }
             return false;
     	}
+    	
+    	/**
+    	 * Estimated number of bytes of heap held by the interval
+    	 */
+    	public long getHeapSize() {
+    		return 48 + 8L * ((cost == null ? 0 : cost.length) + (usage == null ? 0 : usage.length));
+    	}
+    }
+    
+    /**
+     * Read-only view of one interval of data in a memory-mapped data file. Values are decoded
+     * from the mapped buffer on access rather than being copied onto the heap. Intervals are either
+     * dense, with a cost and usage value for every column, or sparse, with a sorted list of
+     * the columns that have data followed by their cost and usage values.
+     */
+    public static class MappedData extends Data {
+    	private final int numColumns;
+    	private final IntBuffer columns;
+    	private final DoubleBuffer cost;
+    	private final DoubleBuffer usage;
+    	
+    	/**
+    	 * Create a view of a dense interval
+    	 */
+    	public MappedData(ByteBuffer buffer, int numColumns) {
+    		this.numColumns = numColumns;
+    		this.columns = null;
+    		this.cost = slice(buffer, 0, numColumns * 8).asDoubleBuffer();
+    		this.usage = slice(buffer, numColumns * 8, numColumns * 8).asDoubleBuffer();
+    	}
+    	
+    	/**
+    	 * Create a view of a sparse interval
+    	 */
+    	public MappedData(ByteBuffer buffer, int numColumns, int count) {
+    		this.numColumns = numColumns;
+    		this.columns = slice(buffer, 0, count * 4).asIntBuffer();
+    		this.cost = slice(buffer, count * 4, count * 8).asDoubleBuffer();
+    		this.usage = slice(buffer, count * 12, count * 8).asDoubleBuffer();
+    	}
+    	
+    	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    		ByteBuffer b = buffer.duplicate();
+    		b.position(b.position() + offset);
+    		b.limit(b.position() + length);
+    		return b.slice();
+    	}
+    	
+    	private int index(int column) {
+    		if (columns == null)
+    			return column;
+    		
+    		int low = 0;
+    		int high = columns.limit() - 1;
+    		while (low <= high) {
+    			int mid = (low + high) >>> 1;
+    			int c = columns.get(mid);
+    			if (c < column)
+    				low = mid + 1;
+    			else if (c > column)
+    				high = mid - 1;
+    			else
+    				return mid;
+    		}
+    		return -1;
+    	}
+    	
+    	@Override
+    	public int size() {
+    		return numColumns;
+    	}
+    	
+    	@Override
+    	public double getCost(int column) {
+    		int i = index(column);
+    		return i < 0 ? 0.0 : cost.get(i);
+    	}
+    	
+    	@Override
+    	public double getUsage(int column) {
+    		int i = index(column);
+    		return i < 0 ? 0.0 : usage.get(i);
+    	}
+    	
+    	/**
+    	 * Decodes the full cost column onto the heap. Use getCost(column) to avoid the copy.
+    	 */
+    	@Override
+    	public double[] getCost() {
+    		return toArray(cost);
+    	}
+    	
+    	/**
+    	 * Decodes the full usage column onto the heap. Use getUsage(column) to avoid the copy.
+    	 */
+    	@Override
+    	public double[] getUsage() {
+    		return toArray(usage);
+    	}
+    	
+    	private double[] toArray(DoubleBuffer values) {
+    		double[] result = new double[numColumns];
+    		for (int i = 0; i < values.limit(); i++)
+    			result[columns == null ? i : columns.get(i)] = values.get(i);
+    		return result;
+    	}
+    	
+    	@Override
+    	public boolean hasCostData() {
+    		return hasData(cost);
+    	}
+    	
+    	@Override
+    	public boolean hasUsageData() {
+    		return hasData(usage);
+    	}
+    	
+    	private boolean hasData(DoubleBuffer values) {
+            for (int i = 0; i < values.limit(); i++) {
+            	if (values.get(i) != 0.0)
+            		return true;
+            }
+            return false;
+    	}
+    	
+    	/**
+    	 * Only the buffer views are on the heap, the values stay in the mapped file
+    	 */
+    	@Override
+    	public long getHeapSize() {
+    		return 192;
+    	}
     }
     
     
@@ -102,6 +248,11 @@ public class ReadOnlyData extends ReadOnlyGenericData<ReadOnlyData.Data> {
 		return new Data[size];
 	}
 	
+	@Override
+	protected long getHeapSize(Data data) {
+		return data.getHeapSize();
+	}
+	
 	@Override
 	protected Data readDataArray(DataInput in) throws IOException {
         Data data = new Data(tagGroups.size());
@@ -114,6 +265,20 @@ public class ReadOnlyData extends ReadOnlyGenericData<ReadOnlyData.Data> {
         return data;
 	}
 	
+	@Override
+	protected Data readSparseDataArray(DataInput in, int count) throws IOException {
+        Data data = new Data(tagGroups.size());
+        double[] cost = data.getCost();
+        double[] usage = data.getUsage();
+        int column = 0;
+        for (int i = 0; i < count; i++) {
+        	column += VarInt.read(in);
+            cost[column] = in.readDouble();
+            usage[column] = in.readDouble();
+        }
+        return data;
+	}
+	
 	@Override
     public void deserialize(AccountService accountService, ProductService productService, DataInput in, boolean forReservations) throws IOException, BadZone {
     	super.deserialize(accountService, productService, in, !forReservations);
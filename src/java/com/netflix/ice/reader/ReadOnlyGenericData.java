@@ -40,9 +40,9 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
     protected Logger logger = LoggerFactory.getLogger(getClass());
     protected D[] data;
     protected List<TagGroup> tagGroups;
-    private Map<TagType, Map<Tag, Map<TagGroup, Integer>>> tagGroupsByTagAndTagType;
+    private Map<TagType, Map<Tag, ColumnBitmap>> columnsByTagAndTagType;
     protected int numUserTags;
-    private List<Map<Tag, Map<TagGroup, Integer>>> tagGroupsByUserTag;
+    private List<Map<Tag, ColumnBitmap>> columnsByUserTag;
 
     final static TagType[] tagTypes = new TagType[]{ TagType.Account, TagType.Region, TagType.Zone, TagType.Product, TagType.Operation, TagType.UsageType };
 
@@ -65,13 +65,78 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
         return tagGroups;
     }
 
-    public Map<TagGroup, Integer> getTagGroups(TagType groupBy, Tag tag, int userTagIndex) {
-    	Map<Tag, Map<TagGroup, Integer>> byTag = groupBy == TagType.Tag ? tagGroupsByUserTag.get(userTagIndex) : tagGroupsByTagAndTagType.get(groupBy);
-        return byTag == null ? null : byTag.get(tag);
+    /**
+     * Get the columns of the TagGroups that match the tagLists filter and, if groupBy and tag are
+     * supplied, have the tag for the groupBy dimension. Returns null if the indecies can't answer
+     * the query and the caller must check each TagGroup with tagLists.contains(tagGroup, true).
+     */
+    public ColumnBitmap getColumns(TagLists tagLists, TagType groupBy, Tag tag, int userTagIndex) {
+    	if (columnsByTagAndTagType == null || (tagLists.resourceGroups != null && tagLists.resourceGroups.size() > 0))
+    		return null;
+    	
+    	int numColumns = tagGroups.size();
+    	ColumnBitmap result = ColumnBitmap.all(numColumns);
+    	if (groupBy != null && tag != null) {
+    		Map<Tag, ColumnBitmap> byTag = groupBy == TagType.Tag ? (userTagIndex < numUserTags ? columnsByUserTag.get(userTagIndex) : null) : columnsByTagAndTagType.get(groupBy);
+    		if (byTag != null)
+    			result = and(result, byTag, Lists.newArrayList(groupBy == TagType.Tag && tag.name.isEmpty() ? UserTag.empty : tag));
+    	}
+    	
+    	result = and(result, columnsByTagAndTagType.get(TagType.Account), tagLists.accounts);
+    	result = and(result, columnsByTagAndTagType.get(TagType.Region), tagLists.regions);
+    	result = and(result, columnsByTagAndTagType.get(TagType.Zone), tagLists.zones);
+    	result = and(result, columnsByTagAndTagType.get(TagType.Product), tagLists.products);
+    	result = and(result, columnsByTagAndTagType.get(TagType.Operation), tagLists.operations);
+    	result = and(result, columnsByTagAndTagType.get(TagType.UsageType), tagLists.usageTypes);
+    	
+    	if (tagLists instanceof TagListsWithUserTags && ((TagListsWithUserTags) tagLists).resourceUserTagLists != null) {
+    		List<List<UserTag>> userTagLists = ((TagListsWithUserTags) tagLists).resourceUserTagLists;
+    		for (int i = 0; i < userTagLists.size(); i++) {
+    			List<UserTag> userTags = userTagLists.get(i);
+    			if (userTags == null || userTags.size() == 0)
+    				continue;
+    			if (i >= numUserTags)
+    				return null;
+    			List<UserTag> keys = Lists.newArrayList();
+    			for (UserTag ut: userTags)
+    				keys.add(ut.name.isEmpty() ? UserTag.empty : ut);
+    			result = and(result, columnsByUserTag.get(i), keys);
+    		}
+    	}
+    	return result;
+    }
+    
+    /*
+     * Intersect the columns with the union of the columns for each of the tags. An empty or null list doesn't filter.
+     */
+    private ColumnBitmap and(ColumnBitmap columns, Map<Tag, ColumnBitmap> index, List<? extends Tag> tags) {
+    	if (tags == null || tags.size() == 0 || columns.isEmpty())
+    		return columns;
+    	
+    	ColumnBitmap union = null;
+    	for (Tag t: tags) {
+    		ColumnBitmap b = index.get(t);
+    		if (b != null)
+    			union = union == null ? b : union.or(b);
+    	}
+    	return union == null ? ColumnBitmap.empty(columns.getNumColumns()) : columns.and(union);
     }
 
+    /**
+     * Estimated number of bytes of heap held by the data and its column indecies
+     */
+    public long getHeapSize() {
+    	// Each column has a reference in the tag group list and an entry in the index for each tag type
+    	long size = 64 + tagGroups.size() * (8L + 4L * (tagTypes.length + numUserTags));
+    	for (D d: data)
+    		size += 8 + (d == null ? 0 : getHeapSize(d));
+    	return size;
+    }
+    
+    abstract protected long getHeapSize(D data);
     abstract protected D[] newDataMatrix(int num);
     abstract protected D readDataArray(DataInput in) throws IOException;
+    abstract protected D readSparseDataArray(DataInput in, int count) throws IOException;
 
     public void deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException, BadZone {
     	deserialize(accountService, productService, in, true);
@@ -79,23 +144,22 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
 
     public void deserialize(AccountService accountService, ProductService productService, DataInput in, boolean buildIndecies) throws IOException, BadZone {
     	int version = in.readInt();
-    	// Verify that the file version matches
-    	if (version != CUR_WORK_BUCKET_VERSION) {
-    		throw new IOException("Wrong file version, expected " + CUR_WORK_BUCKET_VERSION + ", got " + version);
+    	// Verify that the file version is one we can read
+    	if (version < CUR_WORK_BUCKET_DENSE_VERSION || version > CUR_WORK_BUCKET_VERSION) {
+    		throw new IOException("Wrong file version, expected " + CUR_WORK_BUCKET_DENSE_VERSION + " through " + CUR_WORK_BUCKET_VERSION + ", got " + version);
     	}
     	int numUserTags = in.readInt();
     	if (numUserTags != this.numUserTags)
     		logger.error("Data file has wrong number of user tags, expected " + this.numUserTags + ", got " + numUserTags);
 
-        int numKeys = in.readInt();
-        List<TagGroup> keys = Lists.newArrayList();
-        for (int j = 0; j < numKeys; j++) {
-        	TagGroup tg = TagGroup.Serializer.deserialize(accountService, productService, numUserTags, in);
+        List<TagGroup> keys = version == CUR_WORK_BUCKET_VERSION ?
+        		TagGroup.Serializer.deserializeDictionary(accountService, productService, numUserTags, in) :
+        		TagGroup.Serializer.deserializeList(accountService, productService, numUserTags, in);
+        for (TagGroup tg: keys) {
 //        	if (keys.contains(tg))
 //        		logger.error("Duplicate tag group in data file: " + tg + ", existing at index: " + keys.indexOf(tg));
         	if (tg.resourceGroup != null && tg.resourceGroup.getUserTags().length != numUserTags)
         		logger.error("Wrong number of user tags: " + tg);
-            keys.add(tg);
         }
 
         this.tagGroups = keys;
@@ -104,10 +168,18 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
         this.data = newDataMatrix(num);
         for (int i = 0; i < num; i++)  {
         	data[i] = null;
-            boolean hasData = in.readBoolean();
-            if (hasData) {
-                data[i] = readDataArray(in);
-            }
+        	if (version == CUR_WORK_BUCKET_DENSE_VERSION) {
+	            boolean hasData = in.readBoolean();
+	            if (hasData) {
+	                data[i] = readDataArray(in);
+	            }
+        	}
+        	else {
+        		int count = in.readInt();
+        		if (count > 0) {
+        			data[i] = readSparseDataArray(in, count);
+        		}
+        	}
         }
 
         this.numUserTags = numUserTags;
@@ -116,46 +188,53 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
     }
 
     protected void buildIndecies() {
-    	// Build the account-based TagGroup maps
-    	tagGroupsByTagAndTagType = Maps.newHashMap();
+    	// Collect the ascending columns for each tag value, then freeze them into bitmaps
+    	Map<TagType, Map<Tag, ColumnBitmap.Builder>> builders = Maps.newHashMap();
     	for (TagType t: tagTypes)
-    		tagGroupsByTagAndTagType.put(t, Maps.<Tag, Map<TagGroup, Integer>>newHashMap());
+    		builders.put(t, Maps.<Tag, ColumnBitmap.Builder>newHashMap());
 
-    	if (numUserTags > 0) {
-	    	tagGroupsByUserTag = Lists.newArrayList();
-	    	for (int i = 0; i < numUserTags; i++)
-	    		tagGroupsByUserTag.add(Maps.<Tag, Map<TagGroup, Integer>>newHashMap());
-    	}
+    	List<Map<Tag, ColumnBitmap.Builder>> userTagBuilders = Lists.newArrayList();
+    	for (int i = 0; i < numUserTags; i++)
+    		userTagBuilders.add(Maps.<Tag, ColumnBitmap.Builder>newHashMap());
 
     	for (int i = 0; i < tagGroups.size(); i++) {
     		TagGroup tg = tagGroups.get(i);
-    		addIndex(tagGroupsByTagAndTagType.get(TagType.Account), tg.account, tg, i);
-    		addIndex(tagGroupsByTagAndTagType.get(TagType.Region), tg.region, tg, i);
-    		addIndex(tagGroupsByTagAndTagType.get(TagType.Zone), tg.zone, tg, i);
-    		addIndex(tagGroupsByTagAndTagType.get(TagType.Product), tg.product, tg, i);
-    		addIndex(tagGroupsByTagAndTagType.get(TagType.Operation), tg.operation, tg, i);
-    		addIndex(tagGroupsByTagAndTagType.get(TagType.UsageType), tg.usageType, tg, i);
+    		addIndex(builders.get(TagType.Account), tg.account, i);
+    		addIndex(builders.get(TagType.Region), tg.region, i);
+    		addIndex(builders.get(TagType.Zone), tg.zone, i);
+    		addIndex(builders.get(TagType.Product), tg.product, i);
+    		addIndex(builders.get(TagType.Operation), tg.operation, i);
+    		addIndex(builders.get(TagType.UsageType), tg.usageType, i);
 
     		if (numUserTags > 0) {
-	    		if (tg.resourceGroup == null) {
-		    		for (int j = 0; j < numUserTags; j++)
-		    			addIndex(tagGroupsByUserTag.get(j), UserTag.empty, tg, i);
-	    		}
-				else {
-		    		UserTag[] userTags = tg.resourceGroup.getUserTags();
-		    		for (int j = 0; j < numUserTags; j++)
-		    			addIndex(tagGroupsByUserTag.get(j), userTags[j], tg, i);
-				}
+	    		UserTag[] userTags = tg.resourceGroup == null ? new UserTag[0] : tg.resourceGroup.getUserTags();
+	    		for (int j = 0; j < numUserTags; j++)
+	    			addIndex(userTagBuilders.get(j), j < userTags.length ? userTags[j] : UserTag.empty, i);
     		}
     	}
+    	
+    	columnsByTagAndTagType = Maps.newHashMap();
+    	for (TagType t: tagTypes)
+    		columnsByTagAndTagType.put(t, build(builders.get(t)));
+    	
+    	columnsByUserTag = Lists.newArrayList();
+    	for (Map<Tag, ColumnBitmap.Builder> b: userTagBuilders)
+    		columnsByUserTag.add(build(b));
     }
 
-    private void addIndex(Map<Tag, Map<TagGroup, Integer>> indecies, Tag tag, TagGroup tagGroup, int index) {
-		Map<TagGroup, Integer> m = indecies.get(tag);
-		if (m == null) {
-			indecies.put(tag,  Maps.<TagGroup, Integer>newHashMap());
-			m = indecies.get(tag);
+    private void addIndex(Map<Tag, ColumnBitmap.Builder> builders, Tag tag, int column) {
+    	ColumnBitmap.Builder b = builders.get(tag);
+		if (b == null) {
+			b = new ColumnBitmap.Builder();
+			builders.put(tag, b);
 		}
-		m.put(tagGroup, index);
+		b.add(column);
+    }
+    
+    private Map<Tag, ColumnBitmap> build(Map<Tag, ColumnBitmap.Builder> builders) {
+    	Map<Tag, ColumnBitmap> index = Maps.newHashMapWithExpectedSize(builders.size());
+    	for (Map.Entry<Tag, ColumnBitmap.Builder> e: builders.entrySet())
+    		index.put(e.getKey(), e.getValue().build(tagGroups.size()));
+    	return index;
     }
 }
@@ -22,6 +22,7 @@ import java.io.IOException;
 
 import com.google.common.collect.Lists;
 import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.VarInt;
 import com.netflix.ice.processor.TagCoverageMetrics;
 
 public class ReadOnlyTagCoverageData extends ReadOnlyGenericData<TagCoverageMetrics[]> {
@@ -35,6 +36,16 @@ public class ReadOnlyTagCoverageData extends ReadOnlyGenericData<TagCoverageMetr
 		return new TagCoverageMetrics[size][];
 	}
 	
+	@Override
+	protected long getHeapSize(TagCoverageMetrics[] data) {
+		long size = 16 + 8L * data.length;
+		for (TagCoverageMetrics m: data) {
+			if (m != null)
+				size += 32 + 4L * numUserTags;
+		}
+		return size;
+	}
+	
 	@Override
 	protected TagCoverageMetrics[] readDataArray(DataInput in) throws IOException {
 		TagCoverageMetrics[] data = new TagCoverageMetrics[tagGroups.size()];
@@ -45,4 +56,17 @@ public class ReadOnlyTagCoverageData extends ReadOnlyGenericData<TagCoverageMetr
         }
         return data;
  	}
+
+	@Override
+	protected TagCoverageMetrics[] readSparseDataArray(DataInput in, int count) throws IOException {
+		TagCoverageMetrics[] data = new TagCoverageMetrics[tagGroups.size()];
+		int column = 0;
+        for (int j = 0; j < count; j++) {
+        	column += VarInt.read(in);
+    		Boolean hasValue = in.readBoolean();
+    		if (hasValue)
+    			data[column] = TagCoverageMetrics.deserialize(in, numUserTags);
+        }
+        return data;
+ 	}
 }
@@ -62,6 +62,9 @@ public class ReaderConfig extends Config {
     public final ThroughputMetricService throughputMetricService;
     public final Managers managers;
     public final int monthlyCacheSize;
+    public final boolean mappedDataFiles;
+    public final int queryCacheSizeMB;
+    public final int dataCacheSizeMB;
     public final List<UserTagKey> userTagKeys;
     public final String dashboardNotice;
     public Map<String, Map<String, TagConfig>> tagConfigs;
@@ -124,6 +127,9 @@ public class ReaderConfig extends Config {
         this.managers = managers;
         this.throughputMetricService = throughputMetricService;
         this.monthlyCacheSize = Integer.parseInt(properties.getProperty(IceOptions.MONTHLY_CACHE_SIZE, "12"));
+        this.mappedDataFiles = Boolean.parseBoolean(properties.getProperty(IceOptions.MAPPED_DATA_FILES, "false"));
+        this.queryCacheSizeMB = Integer.parseInt(properties.getProperty(IceOptions.QUERY_CACHE_SIZE_MB, "256"));
+        this.dataCacheSizeMB = Integer.parseInt(properties.getProperty(IceOptions.DATA_CACHE_SIZE_MB, Long.toString(Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024))));
 
         ReaderConfig.instance = this;
         
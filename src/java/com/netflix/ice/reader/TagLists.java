@@ -18,13 +18,20 @@
 package com.netflix.ice.reader;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.tag.*;
 
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
 
 /**
  * Holds a List of Values for each of the Tags in a TagGroup
+ * 
+ * The lists are unmodifiable copies of the ones passed to the constructor, so changing
+ * the caller's lists afterwards has no effect. Build a new TagLists instead.
  */
 public class TagLists {
     public final List<Account> accounts;
@@ -35,84 +42,119 @@ public class TagLists {
     public final List<UsageType> usageTypes;
     public final List<ResourceGroup> resourceGroups;
 
+    // The lists above, typed for matching
+    private final MatchList<Account> accountSet;
+    private final MatchList<Region> regionSet;
+    private final MatchList<Zone> zoneSet;
+    private final MatchList<Product> productSet;
+    private final MatchList<Operation> operationSet;
+    private final MatchList<UsageType> usageTypeSet;
+    private final MatchList<ResourceGroup> resourceGroupSet;
+
     public TagLists() {
-        this.accounts = null;
-        this.regions = null;
-        this.zones = null;
-        this.products = null;
-        this.operations = null;
-        this.usageTypes = null;
-        this.resourceGroups = null;
+        this(null, null, null, null, null, null, null);
     }
 
     public TagLists(List<Account> accounts) {
-        this.accounts = accounts;
-        this.regions = null;
-        this.zones = null;
-        this.products = null;
-        this.operations = null;
-        this.usageTypes = null;
-        this.resourceGroups = null;
+        this(accounts, null, null, null, null, null, null);
     }
 
     public TagLists(List<Account> accounts, List<Region> regions) {
-        this.accounts = accounts;
-        this.regions = regions;
-        this.zones = null;
-        this.products = null;
-        this.operations = null;
-        this.usageTypes = null;
-        this.resourceGroups = null;
+        this(accounts, regions, null, null, null, null, null);
     }
 
     public TagLists(List<Account> accounts, List<Region> regions, List<Zone> zones) {
-        this.accounts = accounts;
-        this.regions = regions;
-        this.zones = zones;
-        this.products = null;
-        this.operations = null;
-        this.usageTypes = null;
-        this.resourceGroups = null;
+        this(accounts, regions, zones, null, null, null, null);
     }
 
     public TagLists(List<Account> accounts, List<Region> regions, List<Zone> zones, List<Product> products) {
-        this.accounts = accounts;
-        this.regions = regions;
-        this.zones = zones;
-        this.products = products;
-        this.operations = null;
-        this.usageTypes = null;
-        this.resourceGroups = null;
+        this(accounts, regions, zones, products, null, null, null);
     }
 
     public TagLists(List<Account> accounts, List<Region> regions, List<Zone> zones, List<Product> products, List<Operation> operations) {
-        this.accounts = accounts;
-        this.regions = regions;
-        this.zones = zones;
-        this.products = products;
-        this.operations = operations;
-        this.usageTypes = null;
-        this.resourceGroups = null;
+        this(accounts, regions, zones, products, operations, null, null);
     }
 
     public TagLists(List<Account> accounts, List<Region> regions, List<Zone> zones, List<Product> products, List<Operation> operations, List<UsageType> usageTypes) {
-        this.accounts = accounts;
-        this.regions = regions;
-        this.zones = zones;
-        this.products = products;
-        this.operations = operations;
-        this.usageTypes = usageTypes;
-        this.resourceGroups = null;
+        this(accounts, regions, zones, products, operations, usageTypes, null);
     }
 
     public TagLists(List<Account> accounts, List<Region> regions, List<Zone> zones, List<Product> products, List<Operation> operations, List<UsageType> usageTypes, List<ResourceGroup> resourceGroups) {
-        this.accounts = accounts;
-        this.regions = regions;
-        this.zones = zones;
-        this.products= products;
-        this.operations = operations;
-        this.usageTypes = usageTypes;
-        this.resourceGroups = resourceGroups;
+        this.accountSet = MatchList.copyOf(accounts);
+        this.regionSet = MatchList.copyOf(regions);
+        this.zoneSet = MatchList.copyOf(zones);
+        this.productSet = MatchList.copyOf(products);
+        this.operationSet = MatchList.copyOf(operations);
+        this.usageTypeSet = MatchList.copyOf(usageTypes);
+        this.resourceGroupSet = MatchList.copyOf(resourceGroups);
+        
+        this.accounts = accountSet;
+        this.regions = regionSet;
+        this.zones = zoneSet;
+        this.products= productSet;
+        this.operations = operationSet;
+        this.usageTypes = usageTypeSet;
+        this.resourceGroups = resourceGroupSet;
+    }
+    
+    /**
+     * Unmodifiable copy of one of the value lists with a hash set view used for matching.
+     * Tags compare by name, so the set gives the same answers as List.contains() without
+     * scanning the list. Since the list can't change, the set is built once and shared by
+     * all the TagLists derived from this one.
+     */
+    protected static final class MatchList<T> extends AbstractList<T> implements RandomAccess {
+    	private final Object[] values;
+    	private volatile Set<Object> set;
+    	
+    	private MatchList(List<? extends T> values) {
+    		this.values = values.toArray();
+    		this.set = null;
+    	}
+    	
+    	/**
+    	 * Returns null if values is null, or the values if they're already a MatchList
+    	 */
+    	@SuppressWarnings("unchecked")
+    	static <T> MatchList<T> copyOf(List<T> values) {
+    		if (values == null)
+    			return null;
+    		if (values instanceof MatchList)
+    			return (MatchList<T>) values;
+    		return new MatchList<T>(values);
+    	}
+    	
+    	/**
+    	 * Returns true if there are no values to match against
+    	 */
+    	static boolean matchesAll(MatchList<?> list) {
+    		return list == null || list.values.length == 0;
+    	}
+    	
+    	/**
+    	 * Returns true if there are no values to match against or the value is in the list
+    	 */
+    	static boolean matches(MatchList<?> list, Object value) {
+    		if (matchesAll(list))
+    			return true;
+    		Set<Object> s = list.set;
+    		if (s == null) {
+    			s = Sets.newHashSet(list);
+    			list.set = s;
+    		}
+    		return s.contains(value);
+    	}
+    	
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(int index) {
+			return (T) values[index];
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
     }
     
     public TagLists copyWithOperations(List<Operation> operations) {
@@ -127,30 +169,21 @@ public class TagLists {
      * if it does not, then return false.
      */
     public boolean contains(TagGroup tagGroup) {
-        boolean result = true;
-
-        if (result && accounts != null && accounts.size() > 0) {
-            result = accounts.contains(tagGroup.account);
-        }
-        if (result && regions != null && regions.size() > 0) {
-            result = regions.contains(tagGroup.region);
-        }
-        if (result && zones != null && zones.size() > 0) {
-            result = zones.contains(tagGroup.zone);
-        }
-        if (result && products != null && products.size() > 0) {
-            result = products.contains(tagGroup.product);
-        }
-        if (result && operations != null && operations.size() > 0) {
-            result = operations.contains(tagGroup.operation);
-        }
-        if (result && usageTypes != null && usageTypes.size() > 0) {
-            result = usageTypes.contains(tagGroup.usageType);
-        }
-        if (result && resourceGroups != null && resourceGroups.size() > 0) {
-            result = resourceGroups.contains(tagGroup.resourceGroup);
-        }
-        return result;
+        return MatchList.matches(accountSet, tagGroup.account) &&
+        		MatchList.matches(regionSet, tagGroup.region) &&
+        		MatchList.matches(zoneSet, tagGroup.zone) &&
+        		MatchList.matches(productSet, tagGroup.product) &&
+        		MatchList.matches(operationSet, tagGroup.operation) &&
+        		MatchList.matches(usageTypeSet, tagGroup.usageType) &&
+        		MatchList.matches(resourceGroupSet, tagGroup.resourceGroup);
+    }
+    
+    /**
+     * Returns true if contains(tagGroup) is true for every TagGroup
+     */
+    public boolean matchesAll() {
+    	return MatchList.matchesAll(accountSet) && MatchList.matchesAll(regionSet) && MatchList.matchesAll(zoneSet) && MatchList.matchesAll(productSet) &&
+    			MatchList.matchesAll(operationSet) && MatchList.matchesAll(usageTypeSet) && MatchList.matchesAll(resourceGroupSet);
     }
     
     public boolean contains(TagGroup tagGroup, boolean useResource) {
@@ -162,22 +195,22 @@ public class TagLists {
 
         switch (groupBy) {
             case Account:
-                result = accounts == null || accounts.size() == 0 || accounts.contains(tag);
+                result = MatchList.matches(accountSet, tag);
                 break;
             case Region:
-                result = regions == null || regions.size() == 0 || regions.contains(tag);
+                result = MatchList.matches(regionSet, tag);
                 break;
             case Zone:
-                result = zones == null || zones.size() == 0 || zones.contains(tag);
+                result = MatchList.matches(zoneSet, tag);
                 break;
             case Product:
-                result = products == null || products.size() == 0 || products.contains(tag);
+                result = MatchList.matches(productSet, tag);
                 break;
             case Operation:
-                result = operations == null || operations.size() == 0 || operations.contains(tag);
+                result = MatchList.matches(operationSet, tag);
                 break;
             case UsageType:
-                result = usageTypes == null || usageTypes.size() == 0 || usageTypes.contains(tag);
+                result = MatchList.matches(usageTypeSet, tag);
                 break;
             default:
             	result = false;
@@ -17,6 +17,7 @@
  */
 package com.netflix.ice.reader;
 
+import java.util.Collections;
 import java.util.List;
 
 //import org.slf4j.Logger;
@@ -40,6 +41,7 @@ public class TagListsWithUserTags extends TagLists {
 	 * Broken-out lists of tags for resource groups
 	 */
     public final List<List<UserTag>> resourceUserTagLists;
+    private final List<MatchList<UserTag>> resourceUserTagSets;
 
 	public TagListsWithUserTags(List<Account> accounts, List<Region> regions,
 			List<Zone> zones, List<Product> products,
@@ -47,7 +49,12 @@ public class TagListsWithUserTags extends TagLists {
 			List<List<UserTag>> resourceUserTags) {
 		super(accounts, regions, zones, products, operations, usageTypes,
 				null);
-    	this.resourceUserTagLists = resourceUserTags;
+    	this.resourceUserTagSets = Lists.newArrayListWithCapacity(resourceUserTags == null ? 0 : resourceUserTags.size());
+    	if (resourceUserTags != null) {
+    		for (List<UserTag> userTags: resourceUserTags)
+    			this.resourceUserTagSets.add(MatchList.copyOf(userTags));
+    	}
+    	this.resourceUserTagLists = resourceUserTags == null ? null : Collections.<List<UserTag>>unmodifiableList(resourceUserTagSets);
 	}
     
     public TagLists copyWithOperations(List<Operation> operations) {
@@ -72,24 +79,18 @@ public class TagListsWithUserTags extends TagLists {
         if (tagGroup.resourceGroup == null) {
         	if (useResource) {
         		// Check for empty tags in all the lists
-    	        for (int i = 0; i < resourceUserTagLists.size(); i++) {
-    	        	List<UserTag> resourceTags = resourceUserTagLists.get(i);
-    	            if (resourceTags != null && resourceTags.size() > 0) {
-    	            	if (!resourceUserTagLists.get(i).contains(UserTag.empty))
-    	            		return false;
-    	            }
+    	        for (MatchList<UserTag> resourceTags: resourceUserTagSets) {
+    	            if (!MatchList.matches(resourceTags, UserTag.empty))
+    	            	return false;
     	        }        		
         	}        	
         }
         else {
 	        UserTag[] userTags = tagGroup.resourceGroup.getUserTags();
 	        
-	        for (int i = 0; i < resourceUserTagLists.size(); i++) {
-	        	List<UserTag> resourceTags = resourceUserTagLists.get(i);
-	            if (resourceTags != null && resourceTags.size() > 0) {
-	                if (!resourceTags.contains(userTags.length > i ? userTags[i] : UserTag.empty))
-	                	return false;
-	            }
+	        for (int i = 0; i < resourceUserTagSets.size(); i++) {
+	            if (!MatchList.matches(resourceUserTagSets.get(i), userTags.length > i ? userTags[i] : UserTag.empty))
+	            	return false;
 	        }
         }
         return true;
@@ -99,6 +100,17 @@ public class TagListsWithUserTags extends TagLists {
     public boolean contains(TagGroup tagGroup) {
     	return contains(tagGroup, false);
     }
+    
+    @Override
+    public boolean matchesAll() {
+    	if (!super.matchesAll())
+    		return false;
+    	for (MatchList<UserTag> resourceTags: resourceUserTagSets) {
+    		if (!MatchList.matchesAll(resourceTags))
+    			return false;
+    	}
+    	return true;
+    }
 
     
     /*
@@ -109,10 +121,7 @@ public class TagListsWithUserTags extends TagLists {
     public boolean contains(Tag tag, TagType groupBy, int userTagGroupByIndex) {
     	if (groupBy == TagType.Tag) {
 	        boolean result = true;
-        	List<UserTag> resourceTags = resourceUserTagLists.get(userTagGroupByIndex);
-            if (resourceTags != null && resourceTags.size() > 0) {
-            	result = resourceTags.contains(tag.name.isEmpty() ? UserTag.empty : tag);
-            }
+        	result = MatchList.matches(resourceUserTagSets.get(userTagGroupByIndex), tag.name.isEmpty() ? UserTag.empty : tag);
 	        
         	return result;
     	}
@@ -27,6 +27,7 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -306,6 +307,97 @@ public class BasicDataManagerTest {
 		assertEquals("Without operation specified, wrong value for aggregation", 1.0, data.get(Tag.aggregated)[0], 0.001);
 	}
 	
+	@Test
+	public void groupByAccountInParallel() throws BadZone, ResourceException {
+		AccountService as = new BasicAccountService();
+		ProductService ps = new BasicProductService();
+		
+		int numAccounts = 50;
+		int numColumns = numAccounts * 3;
+		ReadOnlyData.Data[] rawData = new ReadOnlyData.Data[3];
+		for (int i = 0; i < rawData.length; i++) {
+			double[] cost = new double[numColumns];
+			for (int j = 0; j < numColumns; j++)
+				cost[j] = (i + 1) * (j + 1);
+			rawData[i] = new ReadOnlyData.Data(cost, new double[numColumns]);
+		}
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		for (int j = 0; j < numColumns; j++)
+			tagGroups.add(TagGroup.getTagGroup("account" + (j % numAccounts), "us-east-1", null, "product", "operation", "usageType" + j, "usageTypeUnit", null, as, ps));
+		
+		ReadOnlyData rod = new ReadOnlyData(rawData, tagGroups, 0);
+		DateTime testMonth = DateTime.parse("2018-01-01");
+		TagGroupManager tagGroupManager = makeTagGroupManager(testMonth, tagGroups);
+		
+		BasicDataManager dataManager = new TestDataFileCache(testMonth, null, ConsolidateType.monthly, tagGroupManager, true, 0, 0, null, as, ps, rod);
+		
+		Interval interval = new Interval(testMonth, testMonth.plusMonths(3));
+		TagLists tagLists = new TagLists();
+		
+		Map<Tag, double[]> serial = dataManager.getData(true, interval, tagLists, TagType.Account, AggregateType.data, null, UsageUnit.Instances, 0);
+		int threshold = BasicDataManager.parallelThreshold;
+		Map<Tag, double[]> parallel;
+		try {
+			BasicDataManager.parallelThreshold = 1;
+			parallel = dataManager.getData(true, interval, tagLists, TagType.Account, AggregateType.data, null, UsageUnit.Instances, 0);
+		}
+		finally {
+			BasicDataManager.parallelThreshold = threshold;
+		}
+		
+		assertEquals("Wrong number of groupBy tags", numAccounts + 1, serial.size());
+		assertEquals("Wrong number of parallel groupBy tags", serial.size(), parallel.size());
+		for (Tag t: serial.keySet()) {
+			double[] expected = serial.get(t);
+			double[] actual = parallel.get(t);
+			assertNotNull("Missing parallel result for " + t, actual);
+			for (int i = 0; i < expected.length; i++)
+				assertEquals("Wrong parallel value for " + t + " at " + i, expected[i], actual[i], 0.0);
+		}
+		
+		// account0 has columns 0, 50 and 100
+		double[] account0 = serial.get(as.getAccountById("account0"));
+		assertNotNull("No account0 data", account0);
+		for (int i = 0; i < 3; i++)
+			assertEquals("Wrong value for account0 in month " + i, (i + 1) * (1 + 51 + 101), account0[i], 0.001);
+	}
+	
+	@Test
+	public void groupBySkipsTagWithFailedLoad() throws BadZone, ResourceException {
+		AccountService as = new BasicAccountService();
+		ProductService ps = new BasicProductService();
+		
+		int numAccounts = 5;
+		double[] cost = new double[numAccounts];
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		for (int j = 0; j < numAccounts; j++) {
+			cost[j] = j + 1;
+			tagGroups.add(TagGroup.getTagGroup("account" + j, "us-east-1", null, "product", "operation", "usageType", "usageTypeUnit", null, as, ps));
+		}
+		ReadOnlyData rod = new ReadOnlyData(new ReadOnlyData.Data[]{ new ReadOnlyData.Data(cost, new double[numAccounts]) }, tagGroups, 0);
+		DateTime testMonth = DateTime.parse("2018-01-01");
+		TagGroupManager tagGroupManager = makeTagGroupManager(testMonth, tagGroups);
+		
+		// Fail the first load only
+		final AtomicInteger loads = new AtomicInteger();
+		BasicDataManager dataManager = new TestDataFileCache(testMonth, null, ConsolidateType.monthly, tagGroupManager, true, 0, 0, null, as, ps, rod) {
+			@Override
+		    protected ReadOnlyData getReadOnlyData(DateTime key) throws ExecutionException {
+				if (loads.getAndIncrement() == 0)
+					throw new ExecutionException(new Exception("load failed"));
+				return super.getReadOnlyData(key);
+			}
+		};
+		
+		Interval interval = new Interval(testMonth, testMonth.plusMonths(1));
+		Map<Tag, double[]> result = dataManager.getData(true, interval, new TagLists(), TagType.Account, AggregateType.none, null, UsageUnit.Instances, 0);
+		
+		assertEquals("Wrong number of loads", 2, loads.get());
+		assertEquals("Wrong number of groupBy tags", numAccounts - 1, result.size());
+		for (Tag t: result.keySet())
+			assertEquals("Wrong value for " + t, Integer.parseInt(t.name.substring("account".length())) + 1, result.get(t)[0], 0.001);
+	}
+	
 	// Example for debugging getData()
 	@Test
 	public void testHourlyDataFromFile() throws Exception {
@@ -723,4 +723,62 @@ public class BasicResourceServiceTest {
 		ResourceGroup resource = getResourceGroup(yaml, start, tags, customTags, payerAccount, payerAccount);		
 		assertEquals("Resource name doesn't match", expect, resource);		
 	}
+	
+	@Test
+	public void testResourceGroupCache() throws Exception {
+		// Mapping rules that start in February
+		String yaml = "" +
+		"name: DestKey\n" +
+		"mapped:\n" +
+		"  - start: 2020-02\n" +
+		"    maps:\n" +
+		"      DestValue1:\n" +
+		"        key: TagKey4\n" +
+		"        operator: isOneOf\n" +
+		"        values: [SrcValue4a]\n" +
+		"";
+		ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+		TagConfig tc = new TagConfig();
+		tc = mapper.readValue(yaml, tc.getClass());
+		List<TagConfig> tagConfigs = Lists.newArrayList(tc);
+		
+		String[] customTags = new String[]{"DestKey", "TagKey4"};
+		Account account = makeAccountWithDefaultTag("123456789012", null, null);
+		ProductService ps = new BasicProductService();
+		BasicResourceService rs = new BasicResourceService(ps, customTags, false);
+		rs.setTagConfigs(account.getId(), tagConfigs);
+		
+		S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
+		s3ObjectSummary.setLastModified(new Date());
+		CostAndUsageReport caur = new CostAndUsageReport(s3ObjectSummary, new File(resourcesDir, "ResourceTest-Manifest.json"), null, "");
+		LineItem li = new LineItem(false, null, caur);		
+		rs.initHeader(li.getResourceTagsHeader(), account.getId());
+		
+		String[] starts = new String[]{
+				"2020-01-01T00:00:00Z", // miss
+				"2020-01-01T00:00:00Z", // hit
+				"2020-01-15T00:00:00Z", // hit, same mappers in effect
+				"2020-02-10T00:00:00Z", // miss, mapper now in effect
+				"2020-03-01T00:00:00Z", // hit
+		};
+		ResourceGroup unmapped = ResourceGroup.getResourceGroup(new String[]{"", "SrcValue4a"});
+		ResourceGroup mapped = ResourceGroup.getResourceGroup(new String[]{"DestValue1", "SrcValue4a"});
+		for (String start: starts) {
+			String[] item = { "123456789012", "DiscountedUsage", start, "", "", "", "", "SrcValue4a" };
+			li.setItems(item);
+			ResourceGroup resource = rs.getResourceGroup(account, Region.US_EAST_1, ps.getProduct(Product.Code.Ec2Instance), li, new DateTime(start, DateTimeZone.UTC).getMillis());
+			assertEquals("Resource name doesn't match for " + start, start.startsWith("2020-01") ? unmapped : mapped, resource);
+		}
+		assertEquals("Wrong number of cache hits", 3, rs.getResourceGroupCacheStats().hitCount());
+		assertEquals("Wrong number of cache misses", 2, rs.getResourceGroupCacheStats().missCount());
+		
+		// Changes to the account default tags must not return stale values
+		String[] item = { "123456789012", "DiscountedUsage", starts[0], "", "", "", "", "" };
+		li.setItems(item);
+		long millis = new DateTime(starts[0], DateTimeZone.UTC).getMillis();
+		account.update(makeAccountWithDefaultTag("123456789012", "DestKey", "Default1"));
+		assertEquals("Wrong default value", "Default1", rs.getResourceGroup(account, Region.US_EAST_1, ps.getProduct(Product.Code.Ec2Instance), li, millis).getUserTags()[0].name);
+		account.update(makeAccountWithDefaultTag("123456789012", "DestKey", "Default2"));
+		assertEquals("Wrong default value after update", "Default2", rs.getResourceGroup(account, Region.US_EAST_1, ps.getProduct(Product.Code.Ec2Instance), li, millis).getUserTags()[0].name);
+	}
 }
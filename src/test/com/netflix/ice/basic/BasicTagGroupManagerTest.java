@@ -191,6 +191,7 @@ public class BasicTagGroupManagerTest {
 		resourceTagLists.get(0).add(UserTag.empty);
 		resourceTagLists.get(1).add(UserTag.empty);
 		// Should now be: resourceTagLists[[""],["","TagX","TagY"]]
+		tagLists = new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists);
     	
 		groupByLists = manager.getTagListsMap(interval, tagLists, TagType.Tag, exclude, 0);
 		assertEquals("wrong number of groupBy tags for user tag - filter all but empties", 1, groupByLists.size());
@@ -201,6 +202,7 @@ public class BasicTagGroupManagerTest {
 		// Add one of the non-empty values
 		resourceTagLists.get(0).add(UserTag.get("TagB"));
 		// Should now be: resourceTagLists[["","TagB"],["","TagX","TagY"]]
+		tagLists = new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists);
 		// Test for the first user tag
 		groupByLists = manager.getTagListsMap(interval, tagLists, TagType.Tag, exclude, 0);
 		assertEquals("wrong number of groupBy tags for user tag - wanted empties and TagB", 2, groupByLists.size());
@@ -0,0 +1,103 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.reader.AggregateType;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+
+public class QueryResultCacheTest {
+	private Interval interval = new Interval(new DateTime("2020-01-01", DateTimeZone.UTC), new DateTime("2020-02-01", DateTimeZone.UTC));
+	private Account a1 = new Account("111111111111", "a1", null);
+	private Account a2 = new Account("222222222222", "a2", null);
+	
+	private QueryResultCache.Key getKey(QueryResultCache cache, List<Account> accounts) {
+		TagLists tagLists = new TagLists(accounts, Lists.newArrayList(Region.US_EAST_1));
+		return cache.getKey("daily_all", true, interval, tagLists, TagType.Account, AggregateType.both, null, null, 0, null);
+	}
+	
+	@Test
+	public void testGetPut() {
+		QueryResultCache cache = new QueryResultCache(1024 * 1024);
+		
+		Map<Tag, double[]> result = Maps.newTreeMap();
+		result.put(a1, new double[]{1.0, 2.0});
+		result.put(Tag.aggregated, new double[]{1.0, 2.0});
+		
+		assertNull("should not have a result", cache.get(getKey(cache, Lists.newArrayList(a1, a2))));
+		cache.put(getKey(cache, Lists.newArrayList(a1, a2)), result);
+		
+		// Lists in a different order should find the same result
+		Map<Tag, double[]> got = cache.get(getKey(cache, Lists.newArrayList(a2, a1)));
+		assertNotNull("should have a result", got);
+		assertEquals("wrong number of tags", 2, got.size());
+		assertArrayEquals("wrong values", new double[]{1.0, 2.0}, got.get(a1), 0.001);
+		
+		// Results are copied in both directions
+		result.get(a1)[0] = 10.0;
+		got.get(a1)[1] = 20.0;
+		got.remove(Tag.aggregated);
+		got = cache.get(getKey(cache, Lists.newArrayList(a1, a2)));
+		assertEquals("wrong number of tags", 2, got.size());
+		assertArrayEquals("cached values changed", new double[]{1.0, 2.0}, got.get(a1), 0.001);
+		
+		// Different query
+		assertNull("should not have a result", cache.get(getKey(cache, Lists.newArrayList(a1))));
+		
+		assertEquals("wrong hit count", 2, cache.getStats().hitCount());
+		assertEquals("wrong miss count", 2, cache.getStats().missCount());
+		assertTrue("should have some bytes", cache.getBytes() > 0);
+	}
+	
+	@Test
+	public void testInvalidate() {
+		QueryResultCache cache = new QueryResultCache(1024 * 1024);
+		
+		Map<Tag, double[]> result = Maps.newTreeMap();
+		result.put(a1, new double[]{1.0, 2.0});
+		
+		QueryResultCache.Key before = getKey(cache, Lists.newArrayList(a1));
+		cache.put(before, result);
+		assertNotNull("should have a result", cache.get(before));
+		
+		cache.invalidate();
+		assertNull("should not have a result after invalidate", cache.get(getKey(cache, Lists.newArrayList(a1))));
+		assertEquals("should be empty", 0, cache.size());
+		assertEquals("should have no bytes", 0, cache.getBytes());
+		
+		// A query started before the data changed shouldn't be cached
+		cache.put(before, result);
+		assertEquals("should be empty", 0, cache.size());
+		assertNull("should not have a result", cache.get(getKey(cache, Lists.newArrayList(a1))));
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.ReadOnlyData;
+
+public class SharedDataCacheTest {
+	private static final DateTime testMonth = new DateTime("2020-01-01", DateTimeZone.UTC);
+	
+	/*
+	 * Data manager that makes up its data files rather than downloading them from S3
+	 */
+	class TestDataManager extends BasicDataManager {
+		private final int numColumns;
+		private final Map<DateTime, AtomicInteger> loads = Maps.newConcurrentMap();
+		private volatile boolean changed = false;
+		private volatile CountDownLatch block = null;
+		
+		TestDataManager(String dbName, int numColumns) {
+			super(testMonth, dbName, ConsolidateType.hourly, null, false, 0, 12, null, null, null, null);
+			this.numColumns = numColumns;
+		}
+		
+		@Override
+		protected File getFile(DateTime monthDate) {
+			return new File(dbName + "_" + monthDate.getMillis());
+		}
+		
+		@Override
+		protected synchronized boolean downloadFile(File file) {
+			return changed;
+		}
+		
+		@Override
+		protected ReadOnlyData loadDataFromFile(File file) throws Exception {
+			CountDownLatch latch = block;
+			if (latch != null)
+				latch.await();
+			DateTime monthDate = new DateTime(Long.parseLong(file.getName().substring(dbName.length() + 1)), DateTimeZone.UTC);
+			AtomicInteger count = loads.get(monthDate);
+			if (count == null) {
+				loads.put(monthDate, new AtomicInteger());
+				count = loads.get(monthDate);
+			}
+			int version = count.incrementAndGet();
+			
+			ReadOnlyData.Data[] data = new ReadOnlyData.Data[10];
+			for (int i = 0; i < data.length; i++) {
+				double[] cost = new double[numColumns];
+				cost[0] = version;
+				data[i] = new ReadOnlyData.Data(cost, new double[numColumns]);
+			}
+			return new ReadOnlyData(data, Lists.<TagGroup>newArrayList(), 0);
+		}
+		
+		int getLoads(DateTime monthDate) {
+			AtomicInteger count = loads.get(monthDate);
+			return count == null ? 0 : count.get();
+		}
+	}
+	
+	@Test
+	public void testEvictByWeight() throws Exception {
+		// Small files
+		TestDataManager small = new TestDataManager("small", 10);
+		// Files about 2MB each
+		TestDataManager large = new TestDataManager("large", 12500);
+		long largeSize = large.getHeapSize(large.loadDataFromFile(large.getFile(testMonth)));
+		
+		SharedDataCache cache = new SharedDataCache(largeSize * 5 / 2, 1);
+		// Only count the files asked for
+		cache.setPrefetch(false);
+		small.setSharedCache(cache);
+		large.setSharedCache(cache);
+		
+		small.getReadOnlyData(testMonth);
+		for (int i = 0; i < 4; i++)
+			large.getReadOnlyData(testMonth.plusMonths(i));
+		
+		assertTrue("cache holds more than its budget: " + cache.getBytes(), cache.getBytes() <= largeSize * 5 / 2);
+		assertTrue("cache evicted too much: " + cache.getBytes(), cache.getBytes() > largeSize);
+		assertEquals("wrong number of files in file cache", cache.size(), small.fileCache.size() + large.fileCache.size());
+		cache.shutdown();
+	}
+	
+	@Test
+	public void testRefreshServesOldData() throws Exception {
+		final TestDataManager dataManager = new TestDataManager("refresh", 10);
+		SharedDataCache cache = new SharedDataCache(1024 * 1024, 2);
+		dataManager.setSharedCache(cache);
+		
+		assertEquals("wrong initial data", 1.0, dataManager.getReadOnlyData(testMonth).getData(0).getCost(0), 0.001);
+		
+		// Hold up decoding of the changed file
+		dataManager.block = new CountDownLatch(1);
+		dataManager.changed = true;
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<Boolean> refresh = pool.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return dataManager.refresh();
+			}
+		});
+		
+		// Queries get the old data while the new file is decoded
+		assertEquals("wrong data during refresh", 1.0, dataManager.getReadOnlyData(testMonth).getData(0).getCost(0), 0.001);
+		assertFalse("refresh finished before the file was decoded", refresh.isDone());
+		
+		dataManager.block.countDown();
+		assertFalse("refresh failed", refresh.get(10, TimeUnit.SECONDS));
+		assertEquals("wrong data after refresh", 2.0, dataManager.getReadOnlyData(testMonth).getData(0).getCost(0), 0.001);
+		pool.shutdown();
+		cache.shutdown();
+	}
+	
+	@Test
+	public void testPrefetch() throws Exception {
+		TestDataManager dataManager = new TestDataManager("prefetch", 10);
+		SharedDataCache cache = new SharedDataCache(1024 * 1024, 2);
+		dataManager.setSharedCache(cache);
+		
+		DateTime month = testMonth.plusMonths(2);
+		
+		// Nothing prefetched until the time range is scrolled
+		dataManager.getReadOnlyData(month);
+		Thread.sleep(100);
+		assertEquals("prefetched without scrolling", 1, cache.size());
+		
+		// Scrolling forward loads the following month only
+		dataManager.getReadOnlyData(month.plusMonths(1));
+		for (int i = 0; i < 100 && cache.size() < 3; i++)
+			Thread.sleep(50);
+		
+		assertEquals("wrong number of files in cache", 3, cache.size());
+		assertEquals("next month not loaded once", 1, dataManager.getLoads(month.plusMonths(2)));
+		assertEquals("previous month loaded", 0, dataManager.getLoads(month.minusMonths(1)));
+		
+		// Prefetched data is served from the cache
+		dataManager.getReadOnlyData(month.plusMonths(2));
+		assertEquals("next month loaded again", 1, dataManager.getLoads(month.plusMonths(2)));
+		
+		// Nothing before the start date
+		dataManager.getReadOnlyData(testMonth);
+		Thread.sleep(100);
+		assertEquals("loaded data before start date", 0, dataManager.getLoads(testMonth.minusMonths(1)));
+		cache.shutdown();
+	}
+	
+	@Test
+	public void testPrefetchWithinBudget() throws Exception {
+		TestDataManager dataManager = new TestDataManager("budget", 12500);
+		long size = dataManager.getHeapSize(dataManager.loadDataFromFile(dataManager.getFile(testMonth)));
+		
+		// Room for two files but not a third
+		SharedDataCache cache = new SharedDataCache(size * 5 / 2, 1);
+		dataManager.setSharedCache(cache);
+		
+		dataManager.getReadOnlyData(testMonth.plusMonths(1));
+		dataManager.getReadOnlyData(testMonth.plusMonths(2));
+		Thread.sleep(100);
+		
+		assertEquals("prefetched over budget", 0, dataManager.getLoads(testMonth.plusMonths(3)));
+		assertEquals("evicted requested data", 2, cache.size());
+		assertTrue("cache holds more than its budget: " + cache.getBytes(), cache.getBytes() <= size * 5 / 2);
+		cache.shutdown();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.TagListsWithUserTags;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup.ResourceException;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UserTag;
+import com.netflix.ice.tag.Zone;
+import com.netflix.ice.tag.Zone.BadZone;
+
+public class TagGroupIndexTest {
+	private static ProductService productService = new BasicProductService();
+	private static AccountService accountService = new BasicAccountService();
+	
+	private List<TagGroup> getTagGroups() throws BadZone, ResourceException {
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		String[] accounts = new String[]{ "Account1", "Account2", "Account3" };
+		String[] zones = new String[]{ "us-east-1a", "us-east-1b", null };
+		String[] products = new String[]{ "ProductA", "ProductB" };
+		String[] operations = new String[]{ "OperationA", "OperationB", "OperationC" };
+		int i = 0;
+		for (String account: accounts) {
+			for (String zone: zones) {
+				for (String product: products) {
+					for (String operation: operations) {
+						String[] userTags = new String[]{ i % 2 == 0 ? "TagA" : "", i % 3 == 0 ? "TagB" : "" };
+						tagGroups.add(TagGroup.getTagGroup(account, "us-east-1", zone, product, operation, "UsageType" + (i % 4), "", userTags, accountService, productService));
+						i++;
+					}
+				}
+			}
+		}
+		return tagGroups;
+	}
+	
+	private void checkMatches(String message, List<TagGroup> tagGroups, TagGroupIndex index, TagLists tagLists) {
+		Set<TagGroup> expected = Sets.newHashSet();
+		for (TagGroup tg: tagGroups) {
+			if (tagLists.contains(tg))
+				expected.add(tg);
+		}
+		Collection<TagGroup> matches = index.getMatches(tagLists);
+		assertEquals(message + ": wrong number of matches", expected.size(), matches.size());
+		assertEquals(message + ": wrong matches", expected, Sets.newHashSet(matches));
+		
+		Set<Tag> operations = Sets.newHashSet();
+		for (TagGroup tg: expected)
+			operations.add(tg.operation);
+		assertEquals(message + ": wrong operations", operations, index.getValues(TagType.Operation, tagLists));
+	}
+	
+	@Test
+	public void testGetMatches() throws BadZone, ResourceException {
+		List<TagGroup> tagGroups = getTagGroups();
+		TagGroupIndex index = new TagGroupIndex(tagGroups);
+		
+		// Each account has 18 tag groups, the first with zone us-east-1a, ProductA and OperationA
+		Account a1 = tagGroups.get(0).account;
+		Account a2 = tagGroups.get(18).account;
+		Region usEast1 = tagGroups.get(0).region;
+		Zone zoneA = tagGroups.get(0).zone;
+		Product productA = tagGroups.get(0).product;
+		Operation operationB = tagGroups.get(1).operation;
+		
+		checkMatches("all", tagGroups, index, new TagLists());
+		checkMatches("account", tagGroups, index, new TagLists(Lists.newArrayList(a1), null, null, null, null, null, null));
+		checkMatches("accounts", tagGroups, index, new TagLists(Lists.newArrayList(a1, a2), null, null, null, null, null, null));
+		checkMatches("zone", tagGroups, index, new TagLists(null, Lists.newArrayList(usEast1), Lists.newArrayList(zoneA), null, null, null, null));
+		checkMatches("product and operation", tagGroups, index, new TagLists(Lists.newArrayList(a2), null, null, Lists.newArrayList(productA), Lists.newArrayList(operationB), null, null));
+		
+		List<List<UserTag>> userTagLists = Lists.newArrayList();
+		userTagLists.add(Lists.newArrayList(UserTag.get("TagA")));
+		userTagLists.add(Lists.<UserTag>newArrayList());
+		checkMatches("user tag", tagGroups, index, new TagListsWithUserTags(Lists.newArrayList(a1), null, null, null, null, null, userTagLists));
+		
+		assertEquals("wrong number of products", 2, index.getValues(TagType.Product).size());
+		assertEquals("wrong number of zones", 2, index.getValues(TagType.Zone).size());
+		assertEquals("wrong number of usage types", 4, index.getValues(TagType.UsageType).size());
+	}
+	
+	@Test
+	public void testIsFor() throws BadZone, ResourceException {
+		List<TagGroup> tagGroups = getTagGroups();
+		TagGroupIndex index = new TagGroupIndex(tagGroups);
+		
+		assertTrue("index isn't for its own tag groups", index.isFor(Lists.newArrayList(tagGroups)));
+		
+		List<TagGroup> changed = Lists.newArrayList(tagGroups);
+		changed.remove(changed.size() - 1);
+		assertFalse("index is for fewer tag groups", index.isFor(changed));
+		
+		changed = Lists.newArrayList(tagGroups);
+		changed.set(0, TagGroup.getTagGroup("Account4", "us-east-1", null, "ProductA", "OperationA", "UsageType0", "", new String[]{ "", "" }, accountService, productService));
+		assertFalse("index is for different tag groups", index.isFor(changed));
+	}
+}
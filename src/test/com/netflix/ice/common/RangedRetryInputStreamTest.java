@@ -0,0 +1,171 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class RangedRetryInputStreamTest {
+	
+	/**
+	 * Local stand-in for S3 that serves an object from memory and drops the connection
+	 * after a fixed number of bytes on each of the first few opens.
+	 */
+	class LocalObjectFetcher implements ObjectFetcher {
+		private byte[] data;
+		private String tag;
+		private final int failAfter;
+		private int failures;
+		public List<Long> opens = Lists.newArrayList();
+		
+		LocalObjectFetcher(byte[] data, int failAfter, int failures) {
+			this.data = data;
+			this.tag = "v1";
+			this.failAfter = failAfter;
+			this.failures = failures;
+		}
+		
+		void replace(byte[] data, String tag) {
+			this.data = data;
+			this.tag = tag;
+		}
+
+		@Override
+		public Version getVersion(String key) throws IOException {
+			return new Version(data.length, tag);
+		}
+
+		@Override
+		public InputStream open(String key, Version version, final long start) throws IOException {
+			if (!version.tag.equals(tag))
+				throw new ObjectChangedException(key, version);
+			opens.add(start);
+			final boolean fail = failures-- > 0;
+			return new ByteArrayInputStream(data, (int) start, data.length - (int) start) {
+				private int read = 0;
+				
+				@Override
+				public synchronized int read(byte[] b, int off, int len) {
+					if (fail && read >= failAfter)
+						throw new RuntimeException("connection reset");
+					int n = super.read(b, off, Math.min(len, fail ? failAfter - read : len));
+					read += n > 0 ? n : 0;
+					return n;
+				}
+			};
+		}
+	}
+	
+	private byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		new Random(1).nextBytes(data);
+		return data;
+	}
+
+	@Test
+	public void testResumeAfterFailures() throws IOException {
+		byte[] data = randomBytes(100000);
+		LocalObjectFetcher fetcher = new LocalObjectFetcher(data, 30000, 2);
+		
+		RangedRetryInputStream in = new RangedRetryInputStream(fetcher, "test", 4, 0);
+		byte[] result = IOUtils.toByteArray(in);
+		in.close();
+		
+		assertArrayEquals("data doesn't match", data, result);
+		assertEquals("wrong number of opens", 3, fetcher.opens.size());
+		assertEquals("wrong first resume offset", 30000L, (long) fetcher.opens.get(1));
+		assertEquals("wrong second resume offset", 60000L, (long) fetcher.opens.get(2));
+	}
+	
+	@Test
+	public void testRetriesExhausted() throws IOException {
+		byte[] data = randomBytes(100000);
+		LocalObjectFetcher fetcher = new LocalObjectFetcher(data, 10000, 10);
+		
+		RangedRetryInputStream in = new RangedRetryInputStream(fetcher, "test", 2, 0);
+		// Each resumed read makes progress, so the retry count starts over and the read eventually succeeds
+		byte[] result = IOUtils.toByteArray(in);
+		in.close();
+		assertArrayEquals("data doesn't match", data, result);
+		
+		// A connection that fails before delivering any data uses up the retries
+		fetcher = new LocalObjectFetcher(data, 0, 10);
+		in = new RangedRetryInputStream(fetcher, "test", 2, 0);
+		try {
+			IOUtils.toByteArray(in);
+			fail("should have thrown an IOException");
+		}
+		catch (IOException e) {
+		}
+		in.close();
+		assertEquals("wrong number of opens", 3, fetcher.opens.size());
+	}
+	
+	@Test
+	public void testObjectReplaced() throws IOException {
+		byte[] data = randomBytes(100000);
+		LocalObjectFetcher fetcher = new LocalObjectFetcher(data, 30000, 1);
+		
+		RangedRetryInputStream in = new RangedRetryInputStream(fetcher, "test", 4, 0);
+		byte[] b = new byte[100000];
+		int n = in.read(b, 0, b.length);
+		assertEquals("wrong number of bytes before the failure", 30000, n);
+		
+		// Replace the object before the resume, the read must fail rather than continue with the new contents
+		fetcher.replace(randomBytes(120000), "v2");
+		try {
+			in.read(b, n, b.length - n);
+			fail("should have thrown an ObjectChangedException");
+		}
+		catch (ObjectFetcher.ObjectChangedException e) {
+		}
+		in.close();
+		assertEquals("wrong number of opens", 1, fetcher.opens.size());
+	}
+	
+	@Test
+	public void testGzipStream() throws IOException {
+		byte[] data = randomBytes(200000);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(bos);
+		gzos.write(data);
+		gzos.close();
+		byte[] compressed = bos.toByteArray();
+		
+		LocalObjectFetcher fetcher = new LocalObjectFetcher(compressed, compressed.length / 3, 1);
+		InputStream in = new GZIPInputStream(new RangedRetryInputStream(fetcher, "test.csv.gz", 4, 0));
+		byte[] result = IOUtils.toByteArray(in);
+		in.close();
+		
+		assertArrayEquals("data doesn't match", data, result);
+		assertEquals("wrong number of opens", 2, fetcher.opens.size());
+	}
+}
@@ -19,13 +19,17 @@ package com.netflix.ice.common;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.util.Collection;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.zip.GZIPInputStream;
 
@@ -34,6 +38,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.netflix.ice.basic.BasicAccountService;
 import com.netflix.ice.basic.BasicProductService;
 import com.netflix.ice.tag.Operation;
@@ -106,6 +111,24 @@ public class TagGroupTest {
 		assertEquals("resource tag group csv incorrect", expect, got);
 	}
 	
+	@Test
+	public void testSerializeDictionary() throws IOException, BadZone, ResourceException {
+		AccountService as = new BasicAccountService();
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		tagGroups.add(TagGroup.getTagGroup(as.getAccountById("111111111345", ""), Region.US_EAST_1, null, ps.getProduct(Product.Code.Ec2Instance), Operation.ondemandInstances, UsageType.getUsageType("m5.large", "hours"), null));
+		tagGroups.add(TagGroup.getTagGroup(as.getAccountById("111111111345", ""), Region.US_EAST_1, Region.US_EAST_1.getZone("us-east-1a"), ps.getProduct(Product.Code.Ec2Instance), Operation.ondemandInstances, UsageType.getUsageType("m5.large", "hours"), ResourceGroup.getResourceGroup(new String[]{"Tag1", ""})));
+		tagGroups.add(TagGroup.getTagGroup(as.getAccountById("111111111456", ""), Region.US_WEST_2, Region.US_WEST_2.getZone("us-west-2b"), ps.getProduct(Product.Code.Ec2Instance), Operation.ondemandInstances, UsageType.getUsageType("m5.xlarge", "hours"), ResourceGroup.getResourceGroup(new String[]{"Tag1", "Tag2"})));
+		tagGroups.add(TagGroup.getTagGroup(null, null, null, null, null, null, null));
+		
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TagGroup.Serializer.serializeDictionary(new DataOutputStream(output), tagGroups);
+        List<TagGroup> result = TagGroup.Serializer.deserializeDictionary(as, ps, 2, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+        
+        assertEquals("Wrong number of tag groups", tagGroups.size(), result.size());
+        for (int i = 0; i < tagGroups.size(); i++)
+        	assertTrue("TagGroup " + i + " doesn't match", tagGroups.get(i) == result.get(i));
+	}
+	
 	@Test
 	public void testDeserializeFile() throws IOException, BadZone {
 		AccountService as = new BasicAccountService();
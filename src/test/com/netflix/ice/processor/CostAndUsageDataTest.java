@@ -33,10 +33,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.netflix.ice.basic.BasicAccountService;
 import com.netflix.ice.basic.BasicProductService;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.RollupCube;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.common.Config.TagCoverage;
 import com.netflix.ice.tag.Operation;
@@ -144,6 +146,38 @@ public class CostAndUsageDataTest {
 		}
 	}
 	
+	@Test
+	public void testAggregateSummaryDataSparse() {
+		CostAndUsageData cau = new CostAndUsageData(0, null, userTagKeys, TagCoverage.withUserTags, as, ps);
+		cau.enableTagGroupCache(true);
+		DataSerializer data = new DataSerializer(userTagKeys.size());
+		cau.put(null, data);
+		
+		// tg is present every hour, staleDataTagGroup only on the third day with zero cost on the first hour
+		for (int hour = 0; hour < 24 * 31; hour++)
+			data.put(hour, tg, new DataSerializer.CostAndUsage(1.0, 2.0));
+		for (int hour = 48; hour < 72; hour++)
+			data.put(hour, staleDataTagGroup, new DataSerializer.CostAndUsage(hour == 48 ? 0.0 : 0.5, 1.0));
+		
+        List<Map<TagGroup, DataSerializer.CostAndUsage>> daily = Lists.newArrayList();
+        List<Map<TagGroup, DataSerializer.CostAndUsage>> weekly = Lists.newArrayList();
+        List<Map<TagGroup, DataSerializer.CostAndUsage>> monthly = Lists.newArrayList();
+        
+        cau.aggregateSummaryData(data, 3, daily, weekly, monthly);
+        
+        assertEquals("wrong number of days", 31, daily.size());
+        assertEquals("wrong number of weeks", 5, weekly.size());
+        assertFalse("sparse tag group should not be in day 1", daily.get(1).containsKey(staleDataTagGroup));
+        assertEquals("wrong sparse day cost", 11.5, daily.get(2).get(staleDataTagGroup).cost, 0.001);
+        assertEquals("wrong sparse day usage", 24.0, daily.get(2).get(staleDataTagGroup).usage, 0.001);
+        assertEquals("wrong day usage", 48.0, daily.get(2).get(tg).usage, 0.001);
+        assertEquals("wrong sparse week cost", 11.5, weekly.get(0).get(staleDataTagGroup).cost, 0.001);
+        assertFalse("sparse tag group should not be in week 1", weekly.get(1).containsKey(staleDataTagGroup));
+        assertEquals("wrong week cost", 24.0 * 4, weekly.get(0).get(tg).cost, 0.001);
+        assertEquals("wrong month cost", 24.0 * 31, monthly.get(0).get(tg).cost, 0.001);
+        assertEquals("wrong sparse month cost", 11.5, monthly.get(0).get(staleDataTagGroup).cost, 0.001);
+	}
+	
 	@Test
 	public void testGetPartialWeekFromLastMonth() throws Exception {
 		CostAndUsageData cau = new CostAndUsageData(0, null, userTagKeys, TagCoverage.withUserTags, as, ps);
@@ -193,6 +227,7 @@ public class CostAndUsageDataTest {
 		public DataSerializer dailyCost = new DataSerializer(0);
 		public DataSerializer weeklyCost = new DataSerializer(0);
 		public DataSerializer monthlyCost = new DataSerializer(0);
+		public Map<String, DataSerializer> rollups = Maps.newHashMap();
 		public DateTime startMonth;
 		public DateTime currentMonth;
 		public DateTime endMonth;
@@ -208,6 +243,14 @@ public class CostAndUsageDataTest {
 	    protected DataWriter getDataWriter(String name, ReadWriteDataSerializer data, boolean load) throws Exception {
 			DateTime start = new DateTime(getStartMilli(), DateTimeZone.UTC);
 			DataSerializer archive = null;
+			for (RollupCube cube: RollupCube.values()) {
+				if (name.contains(cube.name())) {
+					// Capture the rollup cubes without any preloaded data
+					archive = new DataSerializer(0);
+					rollups.put(name, archive);
+					return new TestDataWriter(name, data, archive);
+				}
+			}
 			// Prepare "loaded" data and provide destination for archive to capture output
 			if (name.contains("daily_")) {
 				int startYear = startMonth.getYear();
@@ -275,6 +318,38 @@ public class CostAndUsageDataTest {
         testArchive("2019-12", "2019-12", "2020-02", 365, 9, 2);
 	}
 	
+	@Test
+	public void testArchiveRollups() throws Exception {
+		DateTime startDate = new DateTime("2020-01", DateTimeZone.UTC);
+		TestCostAndUsageData cau = new TestCostAndUsageData(startDate, startDate, startDate);
+		TagGroup otherUsageType = TagGroup.getTagGroup(tg.account, tg.region, null, tg.product, tg.operation, UsageType.getUsageType("c1.large", "hours"), null);
+		TagGroup otherRegion = TagGroup.getTagGroup(tg.account, Region.US_EAST_1, null, tg.product, tg.operation, tg.usageType, null);
+		
+		DataSerializer data = new DataSerializer(0);
+		for (int i = 0; i < 3; i++) {
+			data.put(i, tg, new DataSerializer.CostAndUsage(1.0, 2.0));
+			data.put(i, otherUsageType, new DataSerializer.CostAndUsage(3.0, 4.0));
+			data.put(i, otherRegion, new DataSerializer.CostAndUsage(5.0, 6.0));
+		}
+		cau.archiveRollups("monthly_", "", data);
+		
+		assertEquals("wrong number of rollups", RollupCube.values().length, cau.rollups.size());
+		
+		DataSerializer productOperation = cau.rollups.get("monthly_all_productOperation");
+		assertEquals("wrong number of months", 3, productOperation.getNum());
+		TagGroup rolledUp = RollupCube.productOperation.rollup(tg);
+		assertNull("account should be rolled up", rolledUp.account);
+		assertNull("usage type should be rolled up", rolledUp.usageType);
+		assertEquals("wrong number of tag groups", 1, productOperation.getTagGroups().size());
+		assertEquals("wrong cost", 9.0, productOperation.get(2, rolledUp).cost, 0.001);
+		assertEquals("wrong usage", 12.0, productOperation.get(2, rolledUp).usage, 0.001);
+		
+		DataSerializer regionProduct = cau.rollups.get("monthly_all_regionProduct");
+		assertEquals("wrong number of tag groups", 2, regionProduct.getTagGroups().size());
+		assertEquals("wrong cost", 4.0, regionProduct.get(0, RollupCube.regionProduct.rollup(tg)).cost, 0.001);
+		assertEquals("wrong cost", 5.0, regionProduct.get(0, RollupCube.regionProduct.rollup(otherRegion)).cost, 0.001);
+	}
+	
 	private void testArchive(String start, String month, String end, int expectedDays, int expectedWeeks, int expectedMonths) throws Exception {
 		DateTime startDate = new DateTime(start, DateTimeZone.UTC);
         DateTime monthDate = new DateTime(month, DateTimeZone.UTC);
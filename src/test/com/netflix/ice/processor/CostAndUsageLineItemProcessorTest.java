@@ -628,13 +628,13 @@ public class CostAndUsageLineItemProcessorTest {
 				// Make sure we have one hour of cost and usage data so monthly fees get tallied properly
 				costAndUsageData.get(null).getData(0);
 			}
-			Result result = lineItemProc.process("", reportMilli, delayed, "", lineItem, costAndUsageData, instances, 0.0);
+			Result result = lineItemProc.process("", reportMilli, delayed, "", lineItem, costAndUsageData, instances, 0.0, costAndUsageData.getNum(null));
 			assertEquals("Incorrect result", this.result, result);
 			
 			if (result == Result.delay) {
 				// Expand the data by number of hours in month
 				costAndUsageData.get(null).getData(daysInMonth * 24 - 1);
-				result = lineItemProc.process("", reportMilli, true, "", lineItem, costAndUsageData, instances, 0.0);
+				result = lineItemProc.process("", reportMilli, true, "", lineItem, costAndUsageData, instances, 0.0, costAndUsageData.getNum(null));
 			}
 			
 			// Check cost and usage data
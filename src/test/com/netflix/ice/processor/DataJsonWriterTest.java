@@ -23,6 +23,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.OutputStreamWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -161,4 +165,82 @@ public class DataJsonWriterTest {
 		assertTrue("Did not find both records", foundCopy && foundGet);
 	}
 
+	@Test
+	public void testWriteProductsConcurrently() throws Exception {
+		Data data = new Data(2);
+		
+		data.add(getTagGroup(Code.S3, "GetObject", "Requests-Tier2", new String[]{"<foo>", ""}), 2.22, 2.0);
+		data.add(getTagGroup(Code.S3, "CopyObject", "Requests-Tier1", new String[]{"", ""}), 1.11, 1.0);
+		data.add(getTagGroup(Code.Ec2Instance, "RunInstances", "m5.large", null), 3.33, 3.0);
+		
+		DateTime dt = DateTime.parse("2017-08-01T00:00:00Z");
+		
+		List<UserTagKey> tagKeys = Lists.newArrayList();
+		tagKeys.add(UserTagKey.get("Tag1"));
+		tagKeys.add(UserTagKey.get("Tag2"));
+		
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		DataJsonWriter djw = new DataJsonWriter(dt, tagKeys, data.dataByProduct, pool, 4);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		djw.writer = new OutputStreamWriter(out);		
+
+		try {
+			djw.write(null);
+		}
+		finally {
+			pool.shutdown();
+		}
+		djw.writer.flush();
+		
+		String[] got = new String(out.toByteArray()).split("\n");
+		assertEquals("wrong number of records", 3, got.length);
+		Map<String, String> records = Maps.newHashMap();
+		for (String record: got)
+			records.put(record.substring(record.indexOf("\"operation\":")), record);
+		
+		// Tag values are escaped the same way as Gson and empty resource groups write empty tags
+		assertEquals("Incorrect JSON serialization",
+				"{\"hour\":\"2017-08-01T00:00:00Z\",\"org\":\"\",\"costType\":\"Recurring\",\"accountId\":\"123456789012\",\"account\":\"a1\"," +
+				"\"region\":\"us-east-1\",\"zone\":\"us-east-1a\",\"product\":\"S3\",\"operation\":\"GetObject\",\"usageType\":\"Requests-Tier2\"," +
+				"\"tags\":{\"Tag1\":\"\\u003cfoo\\u003e\"},\"cost\":2.22,\"usage\":2.0}",
+				records.get("\"operation\":\"GetObject\",\"usageType\":\"Requests-Tier2\",\"tags\":{\"Tag1\":\"\\u003cfoo\\u003e\"},\"cost\":2.22,\"usage\":2.0}"));
+		assertNotNull("missing copy record", records.get("\"operation\":\"CopyObject\",\"usageType\":\"Requests-Tier1\",\"tags\":{},\"cost\":1.11,\"usage\":1.0}"));
+		assertNotNull("missing instance record", records.get("\"operation\":\"RunInstances\",\"usageType\":\"m5.large\",\"cost\":3.33,\"usage\":3.0}"));
+	}
+
+	@Test
+	public void testWriteProductsFromBusyPool() throws Exception {
+		Data data = new Data(2);
+		
+		data.add(getTagGroup(Code.S3, "GetObject", "Requests-Tier2", null), 2.22, 2.0);
+		data.add(getTagGroup(Code.Ec2Instance, "RunInstances", "m5.large", null), 3.33, 3.0);
+		
+		List<UserTagKey> tagKeys = Lists.newArrayList();
+		tagKeys.add(UserTagKey.get("Tag1"));
+		tagKeys.add(UserTagKey.get("Tag2"));
+		
+		// Write from the only thread of the pool the helpers are submitted to, as an archive task would
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		final DataJsonWriter djw = new DataJsonWriter(DateTime.parse("2017-08-01T00:00:00Z"), tagKeys, data.dataByProduct, pool, 4);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		djw.writer = new OutputStreamWriter(out);
+		
+		try {
+			pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					djw.write(null);
+					return null;
+				}
+			}).get(30, TimeUnit.SECONDS);
+		}
+		finally {
+			pool.shutdown();
+		}
+		djw.writer.flush();
+		
+		assertEquals("wrong number of records", 2, new String(out.toByteArray()).split("\n").length);
+	}
+
 }
@@ -18,6 +18,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.BeforeClass;
@@ -26,12 +28,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.netflix.ice.basic.BasicAccountService;
 import com.netflix.ice.basic.BasicProductService;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.processor.DataSerializer.CostAndUsage;
+import com.netflix.ice.reader.ReadOnlyData;
 import com.netflix.ice.tag.Account;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Product;
@@ -181,6 +186,79 @@ public class DataSerializerTest {
 		assertEquals("Tags don't match", tg, tg2);
 	}
 	
+	@Test
+	public void testSparseSerialization() throws IOException, BadZone {
+		// Each tag group only has data for one hour, so each hour should only write one value
+		final int numHours = 24;
+		DataSerializer data = new DataSerializer(0);
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		for (int i = 0; i < numHours; i++) {
+			TagGroup tg = TagGroup.getTagGroup(as.getAccountByName("Account1"), Region.US_WEST_2, null, ps.getProduct(Product.Code.S3), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs-" + i, "GB"), null);
+			tagGroups.add(tg);
+			data.put(i, tg, new CostAndUsage(i + 1, 10 * (i + 1)));
+		}
+		// Zero values should not be written
+		data.put(0, tagGroups.get(1), new CostAndUsage(0, 0));
+		
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+		data.serialize(new DataOutputStream(output), null);
+		byte[] bytes = output.toByteArray();
+		
+		DataSerializer result = new DataSerializer(0);
+		result.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(bytes)));
+		assertEquals("Length of data is wrong", numHours, result.getNum());
+		for (int i = 0; i < numHours; i++) {
+			assertEquals("Wrong number of values in hour " + i, 1, result.getData(i).size());
+			assertEquals("Wrong cost value in hour " + i, i + 1, result.get(i, tagGroups.get(i)).cost, 0.001);
+			assertEquals("Wrong usage value in hour " + i, 10 * (i + 1), result.get(i, tagGroups.get(i)).usage, 0.001);
+		}
+		
+		// Make sure the reader gets the same values
+		ReadOnlyData readOnlyData = new ReadOnlyData(0);
+		readOnlyData.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(bytes)), false);
+		assertEquals("Wrong number of reader tag groups", numHours, readOnlyData.getTagGroups().size());
+		assertEquals("Length of reader data is wrong", numHours, readOnlyData.getNum());
+		for (int i = 0; i < numHours; i++) {
+			int column = readOnlyData.getTagGroups().indexOf(tagGroups.get(i));
+			double totalCost = 0;
+			for (double c: readOnlyData.getData(i).getCost())
+				totalCost += c;
+			assertEquals("Wrong reader cost value in hour " + i, i + 1, readOnlyData.getData(i).getCost()[column], 0.001);
+			assertEquals("Wrong reader usage value in hour " + i, 10 * (i + 1), readOnlyData.getData(i).getUsage()[column], 0.001);
+			assertEquals("Wrong reader total cost in hour " + i, i + 1, totalCost, 0.001);
+		}
+	}
+	
+	@Test
+	public void testDeserializeDenseVersion() throws IOException, BadZone {
+		TagGroup tg1 = TagGroup.getTagGroup(as.getAccountByName("Account1"), Region.US_WEST_2, null, ps.getProduct(Product.Code.S3), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+		TagGroup tg2 = TagGroup.getTagGroup(as.getAccountByName("Account2"), Region.US_WEST_2, null, ps.getProduct(Product.Code.S3), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+
+		// Write a file using the previous dense format
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(DataSerializer.CUR_WORK_BUCKET_DENSE_VERSION);
+        out.writeInt(0);
+        out.writeInt(2);
+        TagGroup.Serializer.serialize(out, tg1);
+        TagGroup.Serializer.serialize(out, tg2);
+        out.writeInt(2);
+        out.writeBoolean(true);
+        out.writeDouble(1.0);
+        out.writeDouble(10.0);
+        out.writeDouble(0.0);
+        out.writeDouble(0.0);
+        out.writeBoolean(false);
+		
+		DataSerializer result = new DataSerializer(0);
+		result.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+		assertEquals("Length of data is wrong", 2, result.getNum());
+		assertEquals("Wrong number of values in first hour", 1, result.getData(0).size());
+		assertEquals("Wrong cost value", 1.0, result.get(0, tg1).cost, 0.001);
+		assertEquals("Wrong usage value", 10.0, result.get(0, tg1).usage, 0.001);
+		assertEquals("Wrong number of values in second hour", 0, result.getData(1).size());
+	}
+	
 	DataSerializer serializeDeserialize(AccountService as, ProductService ps, DataSerializer data) throws IOException, BadZone {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         DataOutput out = new DataOutputStream(output);
@@ -212,6 +290,95 @@ public class DataSerializerTest {
         }
     }
     
+    @Test
+    public void testForEachHour() throws Exception {
+    	final TagGroup tg1 = TagGroup.getTagGroup(as.getAccountByName("Account1"), Region.US_WEST_2, null, ps.getProduct(Product.Code.S3), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+    	final TagGroup tg2 = tg1.withOperation(Operation.getOperation("GlacierStorage"));
+    	final TagGroup tg3 = tg1.withOperation(Operation.getOperation("IntelligentTieringStorage"));
+    	
+    	DataSerializer[] results = new DataSerializer[2];
+    	ExecutorService[] pools = new ExecutorService[]{ null, Executors.newFixedThreadPool(8) };
+    	for (int i = 0; i < results.length; i++) {
+	    	final DataSerializer data = new DataSerializer(0);
+	    	data.enableTagGroupCache(true);
+	    	for (int hour = 0; hour < 100; hour++)
+	    		data.put(hour, tg1, new CostAndUsage(hour, 1.0));
+	    	
+	    	// Move tg1 to tg2 on even hours and to tg3 on odd hours except the last
+	    	data.forEachHour(pools[i], new DataSerializer.HourProcessor() {
+				@Override
+				public void process(int hour) {
+					if (hour == 99)
+						return;
+					CostAndUsage cau = data.remove(hour, tg1);
+					data.add(hour, hour % 2 == 0 ? tg2 : tg3, cau.cost * 0.1, cau.usage);
+				}
+	    	});
+	    	results[i] = data;
+    	}
+    	pools[1].shutdown();
+    	
+    	for (int hour = 0; hour < 100; hour++) {
+    		Map<TagGroup, CostAndUsage> expected = results[0].getData(hour);
+    		Map<TagGroup, CostAndUsage> actual = results[1].getData(hour);
+    		assertEquals("wrong tag groups for hour " + hour, expected.keySet(), actual.keySet());
+    		for (TagGroup tg: expected.keySet())
+    			assertEquals("wrong cost for hour " + hour, expected.get(tg).cost, actual.get(tg).cost, 0.0);
+    	}
+    	assertEquals("wrong number of tag groups", 3, results[1].getTagGroups().size());
+    	assertEquals("wrong tag groups", results[0].getTagGroups(), results[1].getTagGroups());
+    }
+    
+    @Test
+    public void testTagGroupCacheCounts() {
+    	// A month of hourly data where every tag group is present in every hour
+    	final int numHours = 744;
+    	final int numTagGroups = 200;
+    	DataSerializer data = new DataSerializer(0);
+    	List<TagGroup> tagGroups = Lists.newArrayList();
+    	for (int j = 0; j < numTagGroups; j++) {
+    		TagGroup tg = TagGroup.getTagGroup(as.getAccountByName("Account1"), Region.US_WEST_2, null, ps.getProduct(Product.Code.S3), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs-" + j, "GB"), null);
+    		tagGroups.add(tg);
+    		for (int hour = 0; hour < numHours; hour++)
+    			data.add(hour, tg, 1.0, 10.0);
+    	}
+    	assertEquals("wrong number of tag groups", numTagGroups, data.getTagGroups().size());
+    	
+    	// Remove the tag groups back to front the way the RI and SP processors move values,
+    	// which used to scan all the remaining hours on every call.
+    	long start = System.currentTimeMillis();
+    	for (int hour = numHours - 1; hour >= 0; hour--) {
+    		for (TagGroup tg: tagGroups) {
+    			assertNotNull("missing value", data.remove(hour, tg));
+    			if (hour > 0)
+    				assertTrue("tag group dropped before its last hour", data.getTagGroups().contains(tg));
+    		}
+    	}
+    	logger.info("removed " + numHours * numTagGroups + " values in " + (System.currentTimeMillis() - start) + "ms");
+    	assertEquals("tag groups not dropped after last hour", 0, data.getTagGroups().size());
+    	
+    	// Replace the first hour with a map holding one of the tag groups twice in a row
+    	data.put(0, tagGroups.get(0), new CostAndUsage(1.0, 10.0));
+    	data.put(1, tagGroups.get(1), new CostAndUsage(1.0, 10.0));
+    	for (int k = 0; k < 2; k++) {
+	    	List<Map<TagGroup, CostAndUsage>> list = Lists.newArrayList();
+	    	Map<TagGroup, CostAndUsage> map = Maps.newHashMap();
+	    	map.put(tagGroups.get(2), new CostAndUsage(2.0, 20.0));
+	    	list.add(map);
+	    	data.setData(list, 0);
+    	}
+    	assertEquals("wrong number of tag groups after setData", 2, data.getTagGroups().size());
+    	assertFalse("replaced tag group still in cache", data.getTagGroups().contains(tagGroups.get(0)));
+    	assertTrue("untouched tag group missing from cache", data.getTagGroups().contains(tagGroups.get(1)));
+    	assertTrue("new tag group missing from cache", data.getTagGroups().contains(tagGroups.get(2)));
+    	
+    	// Rebuilding the cache should give the same set
+    	Collection<TagGroup> cached = Lists.newArrayList(data.getTagGroups());
+    	data.enableTagGroupCache(false);
+    	data.enableTagGroupCache(true);
+    	assertEquals("rebuilt cache doesn't match", Sets.newHashSet(cached), Sets.newHashSet(data.getTagGroups()));
+    }
+    
     @Test
     public void testPutAll() {
     	// test the merging of two data sets.
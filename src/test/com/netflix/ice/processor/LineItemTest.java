@@ -20,6 +20,7 @@ package com.netflix.ice.processor;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Date;
 
 import org.junit.Test;
@@ -66,6 +67,64 @@ public class LineItemTest {
 		assertEquals("Usage quantity is incorrect", Double.parseDouble(li.getUsageQuantity()), 1.0, 0.001);
 	}
 	
+	@Test
+	public void testParsedValues() {
+		S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
+		s3ObjectSummary.setLastModified(new Date());
+		CostAndUsageReport caur = new CostAndUsageReport(s3ObjectSummary, new File(resourcesDir, "LineItemTest-Manifest.json"), null, "");
+		LineItem li = new LineItem(false, null, caur);		
+		li.setItems(item);
+		assertEquals("Usage quantity value doesn't match string", Double.parseDouble(li.getUsageQuantity()), li.getUsageQuantityValue(), 0.0);
+		assertEquals("Cost value doesn't match string", Double.parseDouble(li.getCost()), li.getCostValue(), 0.0);
+		assertEquals("Wrong start millis", LineItem.amazonBillingDateFormatISO.parseMillis(item[5]), li.getStartMillis());
+		assertEquals("Wrong end millis", LineItem.amazonBillingDateFormatISO.parseMillis(item[6]), li.getEndMillis());
+		
+		// Values must be parsed again for the next row
+		String[] next = item.clone();
+		next[5] = "2017-09-01T01:00:00Z";
+		next[6] = "2017-09-01T02:00:00Z";
+		next[11] = "2.0000000000";
+		next[14] = "1.5000000000";
+		next[19] = "All Upfront";
+		li.setItems(next);
+		assertEquals("Wrong usage quantity value for next row", 2.0, li.getUsageQuantityValue(), 0.0);
+		assertEquals("Wrong cost value for next row", 1.5, li.getCostValue(), 0.0);
+		assertEquals("Wrong start millis for next row", LineItem.amazonBillingDateFormatISO.parseMillis(next[5]), li.getStartMillis());
+		assertEquals("Wrong end millis for next row", LineItem.amazonBillingDateFormatISO.parseMillis(next[6]), li.getEndMillis());
+	}
+	
+	@Test
+	public void testTypedValues() {
+		S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
+		s3ObjectSummary.setLastModified(new Date());
+		CostAndUsageReport caur = new CostAndUsageReport(s3ObjectSummary, new File(resourcesDir, "LineItemTest-Manifest.json"), null, "");
+		LineItem li = new LineItem(false, null, caur);
+		
+		// Decoded values for the start time, usage amount and cost columns
+		int[] slots = new int[item.length];
+		Arrays.fill(slots, -1);
+		slots[5] = 0;
+		slots[11] = 1;
+		slots[14] = 2;
+		LineItem.TypedValues values = new LineItem.TypedValues(slots, 3);
+		values.setMillis(0, 1000L);
+		values.setNumber(1, 3.0);
+		values.setNumber(2, 2.5);
+		
+		String[] row = item.clone();
+		row[19] = "All Upfront";
+		li.setItems(row, values);
+		assertEquals("Typed start millis not used", 1000L, li.getStartMillis());
+		assertEquals("Wrong end millis without typed value", LineItem.amazonBillingDateFormatISO.parseMillis(row[6]), li.getEndMillis());
+		assertEquals("Typed usage quantity not used", 3.0, li.getUsageQuantityValue(), 0.0);
+		assertEquals("Typed cost not used", 2.5, li.getCostValue(), 0.0);
+		
+		// Rows set without typed values are parsed from the strings
+		li.setItems(row);
+		assertEquals("Wrong start millis", LineItem.amazonBillingDateFormatISO.parseMillis(row[5]), li.getStartMillis());
+		assertEquals("Wrong cost value", 0.0, li.getCostValue(), 0.0);
+	}
+	
 	@Test
 	public void testResourceTags() {
 		S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
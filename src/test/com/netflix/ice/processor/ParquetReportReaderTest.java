@@ -0,0 +1,194 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.common.FileObjectFetcher;
+
+public class ParquetReportReaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static final String manifest = "{\"columns\":[" +
+			"{\"category\":\"identity\",\"name\":\"LineItemId\"}," +
+			"{\"category\":\"lineItem\",\"name\":\"UsageStartDate\"}," +
+			"{\"category\":\"lineItem\",\"name\":\"ProductCode\"}," +
+			"{\"category\":\"lineItem\",\"name\":\"UnblendedCost\"}," +
+			"{\"category\":\"pricing\",\"name\":\"unit\"}," +
+			"{\"category\":\"resourceTags\",\"name\":\"user:Name\"}]}";
+	
+	private static final String schema = "message cur {" +
+			"optional binary identity_line_item_id (UTF8);" +
+			"optional int64 line_item_usage_start_date (TIMESTAMP_MILLIS);" +
+			"optional double line_item_unblended_cost;" +
+			"optional binary pricing_unit (UTF8);" +
+			"optional binary resource_tags_user_name (UTF8);" +
+			"}";
+	
+	/**
+	 * Parquet OutputFile for a local file
+	 */
+	class LocalOutputFile implements OutputFile {
+		private final File file;
+		
+		LocalOutputFile(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public PositionOutputStream create(long blockSizeHint) throws IOException {
+			return createOrOverwrite(blockSizeHint);
+		}
+
+		@Override
+		public PositionOutputStream createOrOverwrite(long blockSizeHint) throws IOException {
+			final FileOutputStream out = new FileOutputStream(file);
+			return new PositionOutputStream() {
+				private long pos = 0;
+				
+				@Override
+				public long getPos() throws IOException {
+					return pos;
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					pos++;
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					pos += len;
+				}
+				
+				@Override
+				public void close() throws IOException {
+					out.close();
+				}
+			};
+		}
+
+		@Override
+		public boolean supportsBlockSize() {
+			return false;
+		}
+
+		@Override
+		public long defaultBlockSize() {
+			return 0;
+		}
+	}
+	
+	@Test
+	public void testParquetColumnName() {
+		assertEquals("line_item_usage_start_date", ParquetReportReader.parquetColumnName("lineItem", "UsageStartDate"));
+		assertEquals("identity_line_item_id", ParquetReportReader.parquetColumnName("identity", "LineItemId"));
+		assertEquals("resource_tags_user_name", ParquetReportReader.parquetColumnName("resourceTags", "user:Name"));
+		assertEquals("savings_plan_savings_plan_arn", ParquetReportReader.parquetColumnName("savingsPlan", "SavingsPlanARN"));
+		assertEquals("product_instance_type", ParquetReportReader.parquetColumnName("product", "instanceType"));
+	}
+	
+	@Test
+	public void testRead() throws IOException {
+		File manifestFile = folder.newFile("manifest.json");
+		FileWriter writer = new FileWriter(manifestFile);
+		writer.write(manifest);
+		writer.close();
+		CostAndUsageReport report = new CostAndUsageReport(null, manifestFile, null, "");
+		int idIndex = report.getColumnIndex("identity", "LineItemId");
+		int startIndex = report.getColumnIndex("lineItem", "UsageStartDate");
+		int productIndex = report.getColumnIndex("lineItem", "ProductCode");
+		int costIndex = report.getColumnIndex("lineItem", "UnblendedCost");
+		int tagIndex = report.getColumnIndex("resourceTags", "user:Name");
+		
+		// Write a report file
+		MessageType messageType = MessageTypeParser.parseMessageType(schema);
+		SimpleGroupFactory factory = new SimpleGroupFactory(messageType);
+		File file = new File(folder.getRoot(), "report-00001.snappy.parquet");
+		long start = new DateTime("2019-01-01T00:00:00Z", DateTimeZone.UTC).getMillis();
+		ParquetWriter<Group> pw = ExampleParquetWriter.builder(new LocalOutputFile(file)).withType(messageType).build();
+		int numRows = 1000;
+		for (int i = 0; i < numRows; i++) {
+			Group g = factory.newGroup()
+					.append("identity_line_item_id", "id" + i)
+					.append("line_item_usage_start_date", start + i * 3600000L)
+					.append("line_item_unblended_cost", i * 0.25)
+					.append("pricing_unit", "Hrs");
+			if (i % 2 == 0)
+				g.append("resource_tags_user_name", "name" + i);
+			pw.write(g);
+		}
+		pw.close();
+		
+		ParquetReportReader reader = new ParquetReportReader(new FileObjectFetcher(folder.getRoot()), file.getName(), report);
+		List<String[]> rows = Lists.newArrayList(reader);
+		reader.close();
+		
+		assertEquals("wrong number of rows", numRows, rows.size());
+		for (int i = 0; i < numRows; i++) {
+			String[] row = rows.get(i);
+			assertEquals("wrong row length", 6, row.length);
+			assertEquals("wrong id", "id" + i, row[idIndex]);
+			assertEquals("wrong start time", start + i * 3600000L, LineItem.amazonBillingDateFormatISO.parseMillis(row[startIndex]));
+			assertEquals("wrong cost", i * 0.25, Double.parseDouble(row[costIndex]), 0.0001);
+			assertEquals("wrong tag", i % 2 == 0 ? "name" + i : "", row[tagIndex]);
+			assertEquals("missing column should be empty", "", row[productIndex]);
+			assertNull("unused column should not be read", row[4]);
+		}
+		
+		// The timestamps and numbers are also available in their decoded form
+		reader = new ParquetReportReader(new FileObjectFetcher(folder.getRoot()), file.getName(), report);
+		int i = 0;
+		for (String[] row: reader) {
+			LineItem.TypedValues values = reader.getTypedValues();
+			assertTrue("missing typed start time", values.hasMillis(startIndex));
+			assertEquals("wrong typed start time", start + i * 3600000L, values.getMillis(startIndex));
+			assertTrue("missing typed cost", values.hasNumber(costIndex));
+			assertEquals("wrong typed cost", Double.parseDouble(row[costIndex]), values.getNumber(costIndex), 0.0);
+			assertFalse("string column should not have a typed value", values.hasNumber(idIndex) || values.hasMillis(idIndex));
+			assertFalse("missing column should not have a typed value", values.hasNumber(productIndex));
+			i++;
+		}
+		reader.close();
+		assertEquals("wrong number of typed rows", numRows, i);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.DataSerializer.CostAndUsage;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+
+public class PrimitiveDataSerializerTest {
+    private static AccountService as;
+    private static ProductService ps;
+    private static List<TagGroup> tagGroups;
+    
+	@BeforeClass
+	public static void init() {
+		List<Account> accounts = Lists.newArrayList();
+		accounts.add(new Account("111111111111", "Account1", null));
+		as = new BasicAccountService(accounts);
+        ps = new BasicProductService();
+        
+        tagGroups = Lists.newArrayList();
+        for (int i = 0; i < 100; i++)
+        	tagGroups.add(TagGroup.getTagGroup(as.getAccountByName("Account1"), Region.US_WEST_2, null, ps.getProduct(Product.Code.S3), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs-" + i, "GB"), null));
+	}
+	
+	@Test
+	public void testAdd() {
+		PrimitiveDataSerializer data = new PrimitiveDataSerializer(0);
+		data.add(2, tagGroups.get(0), 1.0, 10.0);
+		data.add(2, tagGroups.get(0), 2.0, 20.0);
+		data.add(2, tagGroups.get(1), new CostAndUsage(4.0, 40.0));
+		
+		assertEquals("Wrong number of intervals", 3, data.getNum());
+		assertEquals("Wrong number of values in first interval", 0, data.getData(0).size());
+		assertEquals("Wrong number of values in third interval", 2, data.getData(2).size());
+		assertEquals("Wrong cost", 3.0, data.get(2, tagGroups.get(0)).cost, 0.001);
+		assertEquals("Wrong usage", 30.0, data.get(2, tagGroups.get(0)).usage, 0.001);
+		assertEquals("Wrong cost from map view", 4.0, data.getData(2).get(tagGroups.get(1)).cost, 0.001);
+		assertNull("Should not have value for missing tag group", data.get(2, tagGroups.get(2)));
+		assertEquals("Wrong number of tag groups", 2, data.getTagGroups().size());
+	}
+	
+	@Test
+	public void testMatchesDataSerializer() {
+		// Run the same random operations against both implementations and compare
+		DataSerializer expected = new DataSerializer(0);
+		PrimitiveDataSerializer data = new PrimitiveDataSerializer(0);
+		Random random = new Random(1);
+		
+		for (int j = 0; j < 10000; j++) {
+			int i = random.nextInt(3);
+			TagGroup tg = tagGroups.get(random.nextInt(tagGroups.size()));
+			int op = random.nextInt(4);
+			if (op == 0) {
+				CostAndUsage removed = data.remove(i, tg);
+				CostAndUsage expectedRemoved = expected.remove(i, tg);
+				assertEquals("Remove results don't match", expectedRemoved == null, removed == null);
+			}
+			else if (op == 1) {
+				CostAndUsage value = new CostAndUsage(j, j * 10);
+				data.put(i, tg, value);
+				expected.put(i, tg, value);
+			}
+			else {
+				data.add(i, tg, 1.0, 10.0);
+				expected.add(i, tg, 1.0, 10.0);
+			}
+		}
+		
+		assertEquals("Wrong number of intervals", expected.getNum(), data.getNum());
+		assertEquals("Wrong tag groups", expected.getTagGroups(), data.getTagGroups());
+		for (int i = 0; i < expected.getNum(); i++) {
+			Map<TagGroup, CostAndUsage> map = data.getData(i);
+			assertEquals("Wrong number of values in interval " + i, expected.getData(i).size(), map.size());
+			for (TagGroup tg: expected.getData(i).keySet()) {
+				assertEquals("Wrong cost for " + tg, expected.get(i, tg).cost, map.get(tg).cost, 0.001);
+				assertEquals("Wrong usage for " + tg, expected.get(i, tg).usage, map.get(tg).usage, 0.001);
+			}
+		}
+	}
+	
+	@Test
+	public void testPutAll() {
+		// Merge into a regular DataSerializer the way the CUR processor does
+		DataSerializer a = new DataSerializer(0);
+		PrimitiveDataSerializer b = new PrimitiveDataSerializer(0);
+		
+		a.put(0, tagGroups.get(0), new CostAndUsage(1.0, 10.0));
+		a.put(0, tagGroups.get(1), new CostAndUsage(2.0, 20.0));
+		b.add(0, tagGroups.get(1), 4.0, 40.0);
+		b.add(1, tagGroups.get(2), 8.0, 80.0);
+		a.putAll(b);
+		
+		assertEquals("Wrong number of intervals", 2, a.getNum());
+    	assertEquals("TagGroup 1 cost is not correct", 1.0, a.get(0, tagGroups.get(0)).cost, .001);
+    	assertEquals("TagGroup 2 cost is not correct", 6.0, a.get(0, tagGroups.get(1)).cost, .001);
+    	assertEquals("TagGroup 2 usage is not correct", 60.0, a.get(0, tagGroups.get(1)).usage, .001);
+    	assertEquals("TagGroup 3 cost is not correct", 8.0, a.get(1, tagGroups.get(2)).cost, .001);
+    	assertEquals("Wrong number of tag groups", 3, a.getTagGroups().size());
+    	
+    	// Later changes to the source must not show up in the destination
+    	b.add(1, tagGroups.get(2), 1.0, 1.0);
+    	assertEquals("TagGroup 3 cost is not correct after source update", 8.0, a.get(1, tagGroups.get(2)).cost, .001);
+	}
+	
+	@Test
+	public void testGetDataHasNoSideEffects() {
+		PrimitiveDataSerializer data = new PrimitiveDataSerializer(0);
+		data.add(0, tagGroups.get(0), 1.0, 10.0);
+		
+		assertEquals("Wrong number of values past the end", 0, data.getData(5).size());
+		assertNull("Should not have value past the end", data.get(5, tagGroups.get(0)));
+		assertNull("Should not remove past the end", data.remove(5, tagGroups.get(0)));
+		assertEquals("Reads should not create intervals", 1, data.getNum());
+	}
+	
+	@Test
+	public void testPutAllAccumulators() {
+		// Merge shard accumulators together and then into a regular DataSerializer
+		PrimitiveDataSerializer a = new PrimitiveDataSerializer(0);
+		PrimitiveDataSerializer b = new PrimitiveDataSerializer(0);
+		for (int i = 0; i < 24; i++) {
+			for (int j = 0; j <= i; j++) {
+				a.add(i, tagGroups.get(j), j + 1, 10 * (j + 1));
+				b.add(i, tagGroups.get(j + 1), 1, 1);
+			}
+		}
+		a.putAll(b);
+		
+		assertEquals("Wrong number of intervals", 24, a.getNum());
+		assertEquals("Wrong number of tag groups", 25, a.getTagGroups().size());
+		assertEquals("Wrong cost for shared tag group", 3.0, a.get(1, tagGroups.get(1)).cost, 0.001);
+		assertEquals("Wrong cost for new tag group", 1.0, a.get(1, tagGroups.get(2)).cost, 0.001);
+		
+		DataSerializer result = new DataSerializer(0);
+		result.putAll(a);
+		assertEquals("Wrong number of intervals", 24, result.getNum());
+		assertEquals("Wrong number of tag groups", 25, result.getTagGroups().size());
+		for (int i = 0; i < 24; i++) {
+			assertEquals("Wrong number of values in interval " + i, i + 2, result.getData(i).size());
+			assertEquals("Wrong cost in interval " + i, 1.0, result.get(i, tagGroups.get(0)).cost, 0.001);
+			assertEquals("Wrong usage in interval " + i, 1.0, result.get(i, tagGroups.get(i + 1)).usage, 0.001);
+		}
+	}
+}
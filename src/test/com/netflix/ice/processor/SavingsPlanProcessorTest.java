@@ -45,7 +45,6 @@ import com.netflix.ice.tag.Account;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Product;
 import com.netflix.ice.tag.Region;
-import com.netflix.ice.tag.ResourceGroup.ResourceException;
 import com.netflix.ice.tag.SavingsPlanArn;
 import com.netflix.ice.tag.UsageType;
 
@@ -92,7 +91,7 @@ public class SavingsPlanProcessorTest {
 		return m;
 	}
 	
-	private void runTest(SavingsPlan sp, Datum[] data, Datum[] expected, Product product) {
+	private void runTest(SavingsPlan sp, Datum[] data, Datum[] expected, Product product) throws Exception {
 		CostAndUsageData caud = new CostAndUsageData(new DateTime("2019-12", DateTimeZone.UTC).getMillis(), null, null, null, null, null);
 		if (product != null) {
 			caud.put(product, new DataSerializer(1));
@@ -126,7 +125,7 @@ public class SavingsPlanProcessorTest {
 	}
 
 	@Test
-	public void testCoveredUsageNoUpfront() throws ResourceException {
+	public void testCoveredUsageNoUpfront() throws Exception {
 		SavingsPlan sp = newSavingsPlan("ComputeSP:1yrNoUpfront", PurchaseOption.NoUpfront, 0.10, 0);
 		Datum[] data = new Datum[]{
 				new Datum(a1, Region.US_EAST_1, null, ec2Instance, Operation.savingsPlanBonusNoUpfront, "t3.micro", null, arn, 0.012, 1),
@@ -138,7 +137,7 @@ public class SavingsPlanProcessorTest {
 	}
 	
 	@Test
-	public void testCoveredUsageNoUpfrontLambda() throws ResourceException {
+	public void testCoveredUsageNoUpfrontLambda() throws Exception {
 		SavingsPlan sp = newSavingsPlan("ComputeSP:1yrNoUpfront", PurchaseOption.NoUpfront, 0.10, 0);
 		Datum[] data = new Datum[]{
 				new Datum(a1, Region.AP_NORTHEAST_1, null, lambda, Operation.savingsPlanBonusNoUpfront, "Lambda-GB-Second", null, arn, 0.000036, 2.4),
@@ -160,7 +159,7 @@ public class SavingsPlanProcessorTest {
 	}
 	
 	@Test
-	public void testCoveredUsagePartialUpfront() throws ResourceException {
+	public void testCoveredUsagePartialUpfront() throws Exception {
 		SavingsPlan sp = newSavingsPlan("ComputeSP:1yrPartialUpfront", PurchaseOption.PartialUpfront, 0.055, 0.045);
 		Datum[] data = new Datum[]{
 				new Datum(a1, Region.US_EAST_1, null, ec2Instance, Operation.savingsPlanBonusPartialUpfront, "t3.micro", null, arn, 0.01, 1),
@@ -173,7 +172,7 @@ public class SavingsPlanProcessorTest {
 	}
 
 	@Test
-	public void testCoveredUsageAllUpfront() throws ResourceException {
+	public void testCoveredUsageAllUpfront() throws Exception {
 		SavingsPlan sp = newSavingsPlan("ComputeSP:1yrAllUpfront", PurchaseOption.AllUpfront, 0.0, 0.10);
 		Datum[] data = new Datum[]{
 				new Datum(a1, Region.US_EAST_1, null, ec2Instance, Operation.savingsPlanBonusAllUpfront, "t3.micro", null, arn, 0.012, 1),
@@ -186,7 +185,7 @@ public class SavingsPlanProcessorTest {
 	}
 	
 	@Test
-	public void testCoveredUsagePartialUpfrontBorrowed() throws ResourceException {
+	public void testCoveredUsagePartialUpfrontBorrowed() throws Exception {
 		SavingsPlan sp = newSavingsPlan("ComputeSP:1yrPartialUpfront", PurchaseOption.PartialUpfront, 0.055, 0.045);
 		Datum[] data = new Datum[]{
 				new Datum(a2, Region.US_EAST_1, null, ec2Instance, Operation.savingsPlanBonusPartialUpfront, "t3.micro", null, arn, 0.01, 1),
@@ -19,8 +19,8 @@ package com.netflix.ice.processor.kubernetes;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.util.List;
 import java.util.Set;
 
 import org.joda.time.DateTime;
@@ -86,18 +86,18 @@ public class KubernetesReportTest {
 		assertEquals("Should not have data at hour 0", 0, tkr.getData("dev-usw2a", 0, null).size());
 		assertEquals("Should have data at hour 395", 10, tkr.getData("dev-usw2a", 395, null).size());
 		
-		List<String[]> data = tkr.getData("dev-usw2a", 395, null);
+		KubernetesReport.HourData data = tkr.getData("dev-usw2a", 395, null);
 		
 		// find the kube-system namespace
-		String[] kubeSystem = null;
-		for (String[] item: data) {
-			if (tkr.getString(item, KubernetesColumn.Namespace).equals("kube-system")) {
+		int kubeSystem = -1;
+		for (int item = 0; item < data.size(); item++) {
+			if (data.getString(item, KubernetesColumn.Namespace).equals("kube-system")) {
 				kubeSystem = item;
 				break;
 			}
 		}
 		
-		assertNotNull("Missing item in report", kubeSystem);
+		assertTrue("Missing item in report", kubeSystem >= 0);
 		class ItemValue {
 			KubernetesColumn col;
 			String value;
@@ -126,10 +126,48 @@ public class KubernetesReportTest {
 				new ItemValue(KubernetesColumn.ClusterPersistentVolumeClaimGiB, "308"),
 		};
 		for (ItemValue iv: itemValues) {
-			assertEquals("Wrong value for " + iv.col, iv.value, tkr.getString(kubeSystem, iv.col));	
+			if (iv.col == KubernetesColumn.StartDate || iv.col == KubernetesColumn.EndDate)
+				assertEquals("Wrong value for " + iv.col, iv.value, data.getString(kubeSystem, iv.col));
+			else
+				assertEquals("Wrong value for " + iv.col, Double.parseDouble(iv.value), data.getDouble(kubeSystem, iv.col), 0.0);
 		}
 	}
 	
+	@Test
+	public void testUsageTypeIndex() throws Exception {
+        String[] customTags = new String[]{"Tag1", "Tag2", "Tag3"};
+        AllocationConfig ac = new AllocationConfig();
+        S3BucketConfig bc = new S3BucketConfig().withName("test-bucket").withRegion("us-east-1").withAccountId("123456789012");
+        ac.setS3Bucket(bc);
+        ac.setKubernetes(new KubernetesConfig());
+        ResourceService rs = new BasicResourceService(new BasicProductService(), customTags, false);
+		TestKubernetesReport tkr = new TestKubernetesReport(ac, new DateTime("2019-01", DateTimeZone.UTC), rs);
+		
+		String[] rows = new String[]{
+				"Cluster,Namespace,UsageType,StartDate,EndDate,RequestsCPUCores,UsedCPUCores,LimitsCPUCores,ClusterCPUCores,RequestsMemoryGiB,UsedMemoryGiB,LimitsMemoryGiB,ClusterMemoryGiB,NetworkInGiB,ClusterNetworkInGiB,NetworkOutGiB,ClusterNetworkOutGiB,PersistentVolumeClaimGiB,ClusterPersistentVolumeClaimGiB",
+				"c1,ns1,m5.large,2019-01-01T01:00:00Z,2019-01-01T02:00:00Z,1,0,0,4,1,0,0,8,0,0,0,0,0,0",
+				"c1,ns2,r5.large,2019-01-01T01:00:00Z,2019-01-01T02:00:00Z,2,0,0,4,1,0,0,8,nan,0,0,0,0,0",
+				"c1,ns3,m5.large,2019-01-01T01:00:00Z,2019-01-01T02:00:00Z,3,0,0,4,1,0,0,8,0,0,0,0,0,0",
+		};
+		tkr.readFile("test", new ByteArrayInputStream(String.join("\n", rows).getBytes()));
+		
+		assertTrue("Should have a usage type column", tkr.hasUsageType());
+		assertEquals("Wrong number of items at hour 1", 3, tkr.getData("c1", 1, null).size());
+		assertEquals("Should not have items at hour 0", 0, tkr.getData("c1", 0, null).size());
+		assertNull("Should not have data past last hour", tkr.getData("c1", 2, null));
+		
+		KubernetesReport.HourData m5 = tkr.getData("c1", 1, "m5.large");
+		assertEquals("Wrong number of m5.large items", 2, m5.size());
+		assertEquals("Wrong first m5.large item", "ns1", m5.getString(0, KubernetesColumn.Namespace));
+		assertEquals("Wrong second m5.large item", "ns3", m5.getString(1, KubernetesColumn.Namespace));
+		assertEquals("Wrong second m5.large cpu", 3.0, m5.getDouble(1, KubernetesColumn.RequestsCPUCores), 0.0);
+		
+		KubernetesReport.HourData r5 = tkr.getData("c1", 1, "r5.large");
+		assertEquals("Wrong number of r5.large items", 1, r5.size());
+		assertEquals("nan should read as zero", 0.0, r5.getDouble(0, KubernetesColumn.NetworkInGiB), 0.0);
+		assertEquals("Should not have c5.large items", 0, tkr.getData("c1", 1, "c5.large").size());
+	}
+	
 	@Test
 	public void testClusterNameLiteral() throws Exception {
 		String yaml = "" +
@@ -348,4 +348,56 @@ public class AllocationReportTest {
 	}
 	
 
+	@Test
+	public void testKeyIndex() {
+		Map<Key, Double> allocations = Maps.newHashMap();
+		allocations.put(new Key(Lists.newArrayList(new String[]{"TenPercent"})), 0.10);
+		
+		HourData hourData = new HourData();
+		String[][] keys = new String[][]{
+				{"Apple", "Banana", "Cantalope"},
+				{"Apple", "Banana", ""},
+				{"Apple", "", ""},
+				{"", "", "Cucumber"},
+				{"Apple", "B?nan?", "C*"},
+				{"A*", "", ""},
+				{"A*", "Banana", "Date*"},
+		};
+		for (String[] k: keys)
+			hourData.put(new Key(Lists.newArrayList(k)), allocations, true);
+		
+		AllocationReport.KeyIndex index = new AllocationReport.KeyIndex(hourData);
+		
+		String[][] tests = new String[][]{
+				// input tags, expected key
+				{"Apple", "Banana", "Cantalope",  "Apple", "Banana", "Cantalope"},
+				{"Apple", "Banana", "Carrot",     "Apple", "B?nan?", "C*"},
+				{"Apple", "Banana", "Eggplant",   "Apple", "Banana", ""},
+				{"Apple", "Bean", "Eggplant",     "Apple", "", ""},
+				{"Apricot", "Banana", "Dates",    "A*", "Banana", "Date*"},
+				{"Apricot", "Bean", "Dates",      "A*", "", ""},
+				{"Fig", "Bean", "Cucumber",       "", "", "Cucumber"},
+				{"Fig", "Bean", "Eggplant",       null, null, null},
+		};
+		for (String[] t: tests) {
+			Key in = new Key(Lists.newArrayList(t[0], t[1], t[2]));
+			Key expected = t[3] == null ? null : new Key(Lists.newArrayList(t[3], t[4], t[5]));
+			assertEquals("wrong key for " + in, expected, index.find(in));
+			// Second lookup comes from the cache
+			assertEquals("wrong cached key for " + in, expected, index.find(in));
+			if (expected != null)
+				assertNotNull("no value for " + in, hourData.get(index.find(in)));
+			
+			// Check against the linear search
+			if (hourData.containsKey(in))
+				assertTrue("expected exact match for " + in, hourData.get(in) == hourData.get(index.find(in)));
+			else {
+				int maxValues = -1;
+				for (Key k: hourData.getCandidates(in))
+					maxValues = Math.max(maxValues, k.numValues());
+				assertEquals("wrong number of values for " + in, maxValues, expected == null ? -1 : expected.numValues());
+			}
+		}
+	}
+	
 }
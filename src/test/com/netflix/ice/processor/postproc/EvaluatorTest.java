@@ -62,6 +62,16 @@ public class EvaluatorTest {
 		assertEquals("wrong value", expect, e.eval(expr), 0.001);
 	}
 	
+	@Test
+	public void testCompiledSlots() throws Exception {
+		Evaluator.Compiled c = new Evaluator().compile("MAX($0, $1) * 2 / -$2");
+		assertEquals("wrong value", 5.0 * 2 / -4.0, c.eval(new double[]{ 5.0, 3.0, 4.0 }), 0.001);
+		assertEquals("wrong value", 3.0 * 2 / -4.0, c.eval(new double[]{ 1.0, 3.0, 4.0 }), 0.001);
+		// Negative slot values don't need to be reparsed
+		assertEquals("wrong value", -1.0 * 2 / 4.0, c.eval(new double[]{ -1.0, -3.0, -4.0 }), 0.001);
+		assertEquals("divide by zero should return 0.0", 0.0, c.eval(new double[]{ 5.0, 3.0, 0.0 }), 0.001);
+	}
+	
 	/* Tests for unuary minus operator when we support it.
 	@Test
 	public void testLeadingUnaryMinus() throws Exception {
@@ -4,6 +4,8 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -136,6 +138,32 @@ public class FixedRuleProcessorTest {
 		}
 	}
 	
+	@Test
+	public void testRunQueryParallel() throws Exception {
+		CostAndUsageData cauData = new CostAndUsageData(0, null, null, null, as, ps);
+		cauData.enableTagGroupCache(true);
+		DataSerializer data = cauData.get(null);
+		String productCode = Product.Code.CloudFront.serviceCode;
+		TagGroupSpec[] dataSpecs = new TagGroupSpec[5000];
+		for (int i = 0; i < dataSpecs.length; i++)
+			dataSpecs[i] = new TagGroupSpec(a1, i % 2 == 0 ? "us-east-1" : "eu-west-1", productCode, "OP" + (i % 7), "Requests-" + i, i, 0);
+		TagGroupSpec.loadData(dataSpecs, data, 0, as, ps);
+		
+		Rule rule = new Rule(getConfig(surchargeConfigYaml), as, ps, rs.getCustomTags());
+		Map<AggregationTagGroup, CostAndUsage[]> expected = new FixedRuleProcessor(rule, as, ps).runQuery(rule.getIn(), cauData, true, cauData.getMaxNum(), rule.config.getName());
+		
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			Map<AggregationTagGroup, CostAndUsage[]> actual = new FixedRuleProcessor(rule, as, ps, pool, 4).runQuery(rule.getIn(), cauData, true, cauData.getMaxNum(), rule.config.getName());
+			assertEquals("Wrong number of aggregated tag groups", 2, actual.size());
+			for (AggregationTagGroup atg: expected.keySet())
+				assertEquals("Wrong cost for " + atg, expected.get(atg)[0].cost, actual.get(atg)[0].cost, 0.001);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
 	@Test
 	public void testProcessData() throws Exception {
 		
@@ -88,7 +88,7 @@ public class VariableRuleProcessorTest {
 		private AllocationReport ar;
 
 		public TestVariableRuleProcessor(Rule rule, CostAndUsageData outCauData, AllocationReport ar, ResourceService rs) {
-			super(rule, outCauData, as, ps, rs, null, null);
+			super(rule, outCauData, as, ps, rs, null, null, 0);
 			this.ar = ar;
 		}
 
@@ -0,0 +1,159 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.ResourceGroup.ResourceException;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.UserTag;
+
+public class ColumnBitmapTest {
+	private static final int numColumns = 1000;
+	
+	private ColumnBitmap bitmap(Set<Integer> columns) {
+		ColumnBitmap.Builder b = new ColumnBitmap.Builder();
+		for (int c: new TreeSet<Integer>(columns))
+			b.add(c);
+		return b.build(numColumns);
+	}
+	
+	private Set<Integer> randomSet(Random random, int count) {
+		Set<Integer> result = Sets.newHashSet();
+		for (int i = 0; i < count; i++)
+			result.add(random.nextInt(numColumns));
+		return result;
+	}
+	
+	private void assertSet(String message, Set<Integer> expected, ColumnBitmap actual) {
+		assertEquals(message + " cardinality", expected.size(), actual.cardinality());
+		int[] columns = actual.toArray();
+		int i = 0;
+		for (int c: new TreeSet<Integer>(expected))
+			assertEquals(message + " column", c, columns[i++]);
+		for (int c = 0; c < numColumns; c++)
+			assertEquals(message + " contains " + c, expected.contains(c), actual.contains(c));
+	}
+	
+	@Test
+	public void testAndOr() {
+		Random random = new Random(1);
+		// Mix sparse (array) and dense (bitmap) representations
+		int[] sizes = new int[]{ 0, 5, 20, 200, 900 };
+		for (int a: sizes) {
+			for (int b: sizes) {
+				Set<Integer> setA = randomSet(random, a);
+				Set<Integer> setB = randomSet(random, b);
+				ColumnBitmap bitmapA = bitmap(setA);
+				ColumnBitmap bitmapB = bitmap(setB);
+				assertSet("a", setA, bitmapA);
+				
+				Set<Integer> and = Sets.newHashSet(setA);
+				and.retainAll(setB);
+				assertSet("and " + a + "," + b, and, bitmapA.and(bitmapB));
+				
+				Set<Integer> or = Sets.newHashSet(setA);
+				or.addAll(setB);
+				assertSet("or " + a + "," + b, or, bitmapA.or(bitmapB));
+			}
+		}
+	}
+	
+	@Test
+	public void testAll() {
+		for (int n: new int[]{ 0, 1, 63, 64, 65, 1000 }) {
+			ColumnBitmap all = ColumnBitmap.all(n);
+			assertEquals("wrong cardinality", n, all.cardinality());
+			assertFalse("contains column past the end", all.contains(n));
+			if (n > 0)
+				assertTrue("missing last column", all.contains(n - 1));
+		}
+		assertTrue("empty not empty", ColumnBitmap.empty(numColumns).isEmpty());
+	}
+	
+	@Test
+	public void testReadOnlyDataColumns() throws ResourceException {
+		ProductService ps = new BasicProductService();
+		List<Account> accounts = Lists.newArrayList(new Account("111111111111", "a1", null), new Account("222222222222", "a2", null));
+		List<Region> regions = Lists.newArrayList(Region.US_EAST_1, Region.US_WEST_2);
+		List<Product> products = Lists.newArrayList(ps.getProduct(Product.Code.Ec2Instance), ps.getProduct(Product.Code.S3));
+		List<UsageType> usageTypes = Lists.newArrayList(UsageType.getUsageType("u1", "hours"), UsageType.getUsageType("u2", "hours"), UsageType.getUsageType("u3", "hours"));
+		List<ResourceGroup> resourceGroups = Lists.newArrayList(null, ResourceGroup.getResourceGroup(new String[]{"v1", ""}), ResourceGroup.getResourceGroup(new String[]{"v2", "w1"}));
+		
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		for (Account a: accounts)
+			for (Region r: regions)
+				for (Product p: products)
+					for (UsageType ut: usageTypes)
+						for (ResourceGroup rg: resourceGroups)
+							tagGroups.add(TagGroup.getTagGroup(a, r, null, p, Operation.ondemandInstances, ut, rg));
+		ReadOnlyData data = new ReadOnlyData(new ReadOnlyData.Data[0], tagGroups, 2);
+		
+		List<List<UserTag>> userTagLists = Lists.newArrayList();
+		userTagLists.add(Lists.newArrayList(UserTag.empty, UserTag.get("v2")));
+		userTagLists.add(null);
+		TagLists[] filters = new TagLists[]{
+				new TagLists(),
+				new TagLists(accounts.subList(0, 1)),
+				new TagLists(null, regions.subList(1, 2), null, products, null, usageTypes.subList(0, 2)),
+				new TagListsWithUserTags(accounts.subList(1, 2), null, null, products.subList(0, 1), null, null, userTagLists),
+		};
+		for (TagLists tagLists: filters) {
+			for (TagType groupBy: new TagType[]{ null, TagType.Product, TagType.Tag }) {
+				Tag tag = groupBy == TagType.Product ? (Tag) products.get(1) : groupBy == TagType.Tag ? UserTag.get("v1") : null;
+				ColumnBitmap columns = data.getColumns(tagLists, groupBy, tag, 0);
+				Set<Integer> expected = Sets.newHashSet();
+				for (int i = 0; i < tagGroups.size(); i++) {
+					TagGroup tg = tagGroups.get(i);
+					boolean matchesGroupBy = groupBy == null ||
+							(groupBy == TagType.Product && tg.product == tag) ||
+							(groupBy == TagType.Tag && tg.resourceGroup != null && tg.resourceGroup.getUserTags()[0] == tag);
+					if (matchesGroupBy && tagLists.contains(tg, true))
+						expected.add(i);
+				}
+				assertEquals("wrong columns for " + tagLists + " grouped by " + groupBy, new TreeSet<Integer>(expected).toString(), toSet(columns).toString());
+			}
+		}
+	}
+	
+	private Set<Integer> toSet(ColumnBitmap columns) {
+		Set<Integer> result = new TreeSet<Integer>();
+		for (int c: columns.toArray())
+			result.add(c);
+		return result;
+	}
+}
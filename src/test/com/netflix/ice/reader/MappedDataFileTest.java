@@ -0,0 +1,128 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.DataSerializer;
+import com.netflix.ice.processor.DataSerializer.CostAndUsage;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone.BadZone;
+
+public class MappedDataFileTest {
+    private static AccountService as;
+    private static ProductService ps;
+    
+	@BeforeClass
+	public static void init() throws IOException {
+		List<Account> accounts = Lists.newArrayList();
+		accounts.add(new Account("123456789012", "Account1", null));
+		as = new BasicAccountService(accounts);
+        ps = new BasicProductService();
+	}
+	
+	@Test
+	public void testLoad() throws IOException, BadZone {
+		final int numTagGroups = 10;
+		final int numHours = 4;
+		DataSerializer data = new DataSerializer(0);
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		for (int i = 0; i < numTagGroups; i++) {
+			tagGroups.add(TagGroup.getTagGroup(as.getAccountByName("Account1"), Region.US_EAST_1, null, ps.getProduct(Product.Code.S3), Operation.getOperation("StandardStorage"), UsageType.getUsageType("Mapped-ByteHrs-" + i, "GB"), null));
+		}
+		// Hour 0 has all tag groups so is stored dense
+		for (int i = 0; i < numTagGroups; i++)
+			data.put(0, tagGroups.get(i), new CostAndUsage(i, 10 * i + 1));
+		// Hour 1 has one tag group so is stored sparse
+		data.put(1, tagGroups.get(5), new CostAndUsage(5, 50));
+		// Hour 2 has no data
+		data.getData(2);
+		// Hour 3 has two tag groups
+		data.put(3, tagGroups.get(0), new CostAndUsage(1, 2));
+		data.put(3, tagGroups.get(9), new CostAndUsage(3, 4));
+		
+		File dir = Files.createTempDirectory("ice").toFile();
+		File file = new File(dir, "cost_hourly_test.gz");
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+		data.serialize(out, null);
+		out.close();
+		
+		File mapFile = new File(file.getPath() + MappedDataFile.mapExtension);
+		mapFile.delete();
+		
+		ReadOnlyData mapped = MappedDataFile.load(file, true, 0, as, ps);
+		assertTrue("Mapped file not created", mapFile.exists());
+		assertTrue("Mapped file should be current", MappedDataFile.isCurrent(mapFile, file));
+		
+		ReadOnlyData expected = new ReadOnlyData(0);
+		DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)));
+		expected.deserialize(as, ps, in, false);
+		in.close();
+		
+		assertEquals("Wrong number of tag groups", expected.getTagGroups(), mapped.getTagGroups());
+		assertEquals("Wrong number of hours", numHours, mapped.getNum());
+		assertNull("Hour with no data should be null", mapped.getData(2));
+		for (int hour = 0; hour < numHours; hour++) {
+			if (expected.getData(hour) == null)
+				continue;
+			for (int j = 0; j < numTagGroups; j++) {
+				assertEquals("Wrong cost for hour " + hour + ", column " + j, expected.getData(hour).getCost(j), mapped.getData(hour).getCost(j), 0.0001);
+				assertEquals("Wrong usage for hour " + hour + ", column " + j, expected.getData(hour).getUsage(j), mapped.getData(hour).getUsage(j), 0.0001);
+			}
+			assertArrayEquals("Wrong decoded cost array for hour " + hour, expected.getData(hour).getCost(), mapped.getData(hour).getCost(), 0.0001);
+		}
+		
+		// Make sure we pick up the existing mapped file and that a change in the data file is detected
+		mapped = MappedDataFile.load(file, true, 0, as, ps);
+		assertEquals("Wrong cost for reloaded data", 5.0, mapped.getData(1).getCost(mapped.getTagGroups().indexOf(tagGroups.get(5))), 0.0001);
+		file.setLastModified(file.lastModified() - 60000);
+		assertFalse("Mapped file should be stale", MappedDataFile.isCurrent(mapFile, file));
+		
+		// Stale mapped files are removed when the data file is replaced
+		MappedDataFile.delete(file);
+		assertFalse("Mapped file not deleted", mapFile.exists());
+		assertTrue("Data file should not be deleted", file.exists());
+		
+		file.delete();
+		dir.delete();
+	}
+}
@@ -32,6 +32,7 @@ import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Region;
 import com.netflix.ice.tag.ResourceGroup;
 import com.netflix.ice.tag.ResourceGroup.ResourceException;
+import com.netflix.ice.tag.TagType;
 import com.netflix.ice.tag.UsageType;
 
 public class TagListsTest {
@@ -95,4 +96,44 @@ public class TagListsTest {
 		
 	}
 	
+	@Test
+	public void testMatchList() throws ResourceException {
+		List<Account> tagListsAccounts = Lists.newArrayList();
+		for (int i = 0; i < 500; i++)
+			tagListsAccounts.add(new Account(String.format("%012d", i), "Account" + i, null));
+		
+		int matched = 0;
+		TagLists tagLists = new TagLists(tagListsAccounts, Region.getRegions(regions));
+		assertFalse("should not match all", tagLists.matchesAll());
+		for (int i = 0; i < 1000; i += 2) {
+			// Use a separate Account instance so matching depends on equals() rather than identity
+			Account a = new Account(String.format("%012d", i), "Account" + i, null);
+			if (tagLists.contains(TagGroup.getTagGroup(a, Region.getRegionByName("us-east-1"), null, ps.getProduct("Product", "ProductCode"), Operation.getOperation("Operation"), UsageType.getUsageType("UsageType", ""), null)))
+				matched++;
+		}
+		assertEquals("wrong number of matching tag groups", 250, matched);
+		
+		TagLists empty = new TagLists(Lists.<Account>newArrayList());
+		assertTrue("empty lists should match all", empty.matchesAll());
+		
+		assertTrue("account should be found", tagLists.contains(new Account("000000000002", "Account2", null), TagType.Account, 0));
+		assertFalse("account should not be found", tagLists.contains(new Account("000000000502", "Account502", null), TagType.Account, 0));
+		
+		// Changes to the caller's list after construction don't affect matching
+		Account added = new Account("000000000502", "Account502", null);
+		tagListsAccounts.set(0, added);
+		assertFalse("account added after construction should not be found", tagLists.contains(added, TagType.Account, 0));
+		assertEquals("wrong account in copied list", "000000000000", tagLists.accounts.get(0).getId());
+		try {
+			tagLists.accounts.add(added);
+			fail("tag lists should be unmodifiable");
+		}
+		catch (UnsupportedOperationException e) {
+		}
+		
+		// Derived TagLists share the unchanged lists
+		TagLists derived = tagLists.getTagListsWithOperations(Lists.newArrayList(Operation.getOperation("Operation")));
+		assertSame("account list not shared", tagLists.accounts, derived.accounts);
+	}
+	
 }
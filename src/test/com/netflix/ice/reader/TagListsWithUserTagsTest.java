@@ -93,8 +93,17 @@ public class TagListsWithUserTagsTest {
 		assertTrue("TagGroup not found in TagLists", tagLists.contains(tg));
 		assertFalse("TagGroup incorrectly found in TagLists", tagLists.contains(tg, true));
 
-		// Add an empty value to tag2
+		// Add an empty value to tag2. TagLists copies the lists, so build a new one.
 		userTagLists.get(2).add(UserTag.empty);
+		tagLists = new TagListsWithUserTags(
+				Lists.newArrayList(accounts),
+				Region.getRegions(regions),
+				null, // zones
+				null, // products
+				null, // operations
+				null, // usageTypes
+				userTagLists
+				);
 		
 		// TagGroup with null resourceGroup
 		assertTrue("TagGroup not found in TagLists", tagLists.contains(tg, true));
@@ -194,8 +203,17 @@ public class TagListsWithUserTagsTest {
 		for (Test t: tests)
 			t.Run(tagLists);
 		
-		// Add an empty value to tag2
+		// Add an empty value to tag2. TagLists copies the lists, so build a new one.
 		userTagLists.get(2).add(UserTag.empty);
+		tagLists = new TagListsWithUserTags(
+				Lists.newArrayList(accounts),
+				Region.getRegions(regions),
+				null, // zones
+				null, // products
+				null, // operations
+				null, // usageTypes
+				userTagLists
+				);
 		
 		tests = new Test[]{
 				new Test("", 3, true), // Untagged resource, Check against user tag with a empty tag list